@@ -24,7 +24,6 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.AccumulateClassNamesStep;
 import com.facebook.buck.java.HasJavaClassHashes;
 import com.facebook.buck.java.JavacOptions;
-import com.facebook.buck.java.JavacStep;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.AbstractBuildRule;
@@ -365,16 +364,20 @@ public class AaptPackageResources extends AbstractBuildRule
       buildableContext.recordArtifactsInDirectory(outputDirPath);
     }
 
-    // Create the path where the R.java files will be compiled.
+    // The path where the R.java files will be compiled is not cleared, so that the R.java files
+    // that are the same as in the last build, such as when only the contents of resources changed,
+    // are not compiled again.
     Path rDotJavaBin = getPathToCompiledRDotJavaFiles();
-    steps.add(new MakeCleanDirectoryStep(rDotJavaBin));
-
-    JavacStep javacStep = RDotJava.createJavacStepForUberRDotJavaFiles(
-        ImmutableSet.copyOf(mergeStep.getRDotJavaFiles()),
-        rDotJavaBin,
-        javacOptions,
-        getBuildTarget());
-    steps.add(javacStep);
+    steps.add(
+        new CompileChangedRDotJavaStep(
+            rDotJavaSrc,
+            mergeStep.getRDotJavaFiles(),
+            rDotJavaBin,
+            BuildTargets.getScratchPath(
+                getBuildTarget(),
+                "__%s_rdotjava_incremental__/compiled_r_dot_java.txt"),
+            javacOptions,
+            getBuildTarget()));
 
     Path rDotJavaClassesTxt = getPathToRDotJavaClassesTxt();
     steps.add(new MakeCleanDirectoryStep(rDotJavaClassesTxt.getParent()));
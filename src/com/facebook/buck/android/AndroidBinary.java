@@ -52,7 +52,6 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.util.Optionals;
-import com.facebook.buck.zip.RepackZipEntriesStep;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -105,6 +104,7 @@ public class AndroidBinary extends AbstractBuildRule implements
 
   private final Optional<Path> proguardJarOverride;
   private final String proguardMaxHeapSize;
+  private final boolean proguardIncremental;
 
   /**
    * This list of package types is taken from the set of targets that the default build.xml provides
@@ -193,6 +193,7 @@ public class AndroidBinary extends AbstractBuildRule implements
       SourcePathResolver resolver,
       Optional<Path> proguardJarOverride,
       String proguardMaxHeapSize,
+      boolean proguardIncremental,
       SourcePath manifest,
       Keystore keystore,
       PackageType packageType,
@@ -216,6 +217,7 @@ public class AndroidBinary extends AbstractBuildRule implements
     super(params, resolver);
     this.proguardJarOverride = proguardJarOverride;
     this.proguardMaxHeapSize = proguardMaxHeapSize;
+    this.proguardIncremental = proguardIncremental;
     this.manifest = manifest;
     this.keystore = keystore;
     this.packageType = packageType;
@@ -356,7 +358,6 @@ public class AndroidBinary extends AbstractBuildRule implements
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
 
     // Create the .dex files if we aren't doing pre-dexing.
-    Path signedApkPath = getSignedApkPath();
     DexFilesInfo dexFilesInfo = addFinalDxSteps(context, buildableContext, steps);
 
     ////
@@ -400,9 +401,11 @@ public class AndroidBinary extends AbstractBuildRule implements
         .addAll(dexFilesInfo.secondaryDexDirs)
         .build();
 
+    // The APK is written signed and aligned, with resources.arsc compressed if need be, in one go.
+    Path apkPath = getApkPath();
     ApkBuilderStep apkBuilderCommand = new ApkBuilderStep(
         enhancementResult.getAaptPackageResources().getResourceApkPath(),
-        getSignedApkPath(),
+        apkPath,
         dexFilesInfo.primaryDexPath,
         allAssetDirectories,
         nativeLibraryDirectories,
@@ -410,28 +413,10 @@ public class AndroidBinary extends AbstractBuildRule implements
         ImmutableSortedSet.copyOf(packageableCollection.getPathsToThirdPartyJars()),
         keystore.getPathToStore(),
         keystore.getPathToPropertiesFile(),
+        isCompressResources() ? ImmutableSet.of("resources.arsc") : ImmutableSet.<String>of(),
         /* debugMode */ false);
     steps.add(apkBuilderCommand);
 
-
-    Path apkToAlign;
-    // Optionally, compress the resources file in the .apk.
-    if (this.isCompressResources()) {
-      Path compressedApkPath = getCompressedResourcesApkPath();
-      apkToAlign = compressedApkPath;
-      RepackZipEntriesStep arscComp = new RepackZipEntriesStep(
-          signedApkPath,
-          compressedApkPath,
-          ImmutableSet.of("resources.arsc"));
-      steps.add(arscComp);
-    } else {
-      apkToAlign = signedApkPath;
-    }
-
-    Path apkPath = getApkPath();
-    ZipalignStep zipalign = new ZipalignStep(apkToAlign, apkPath);
-    steps.add(zipalign);
-
     // Inform the user where the APK can be found.
     EchoStep success = new EchoStep(
         String.format("built APK for %s at %s",
@@ -628,16 +613,6 @@ public class AndroidBinary extends AbstractBuildRule implements
     return BuildTargets.getGenPath(getBuildTarget(), "%s.unsigned.apk").toString();
   }
 
-  /** The APK at this path will be signed, but not zipaligned. */
-  private Path getSignedApkPath() {
-    return Paths.get(getUnsignedApkPath().replaceAll("\\.unsigned\\.apk$", ".signed.apk"));
-  }
-
-  /** The APK at this path will have compressed resources, but will not be zipaligned. */
-  private Path getCompressedResourcesApkPath() {
-    return Paths.get(getUnsignedApkPath().replaceAll("\\.unsigned\\.apk$", ".compressed.apk"));
-  }
-
   private Path getBinPath(String format) {
     return BuildTargets.getScratchPath(getBuildTarget(), format);
   }
@@ -705,6 +680,9 @@ public class AndroidBinary extends AbstractBuildRule implements
         inputOutputEntries,
         additionalLibraryJarsForProguardBuilder.build(),
         proguardConfigDir,
+        proguardIncremental ?
+            Optional.of(getBinPath("__%s_proguard_cache__")) :
+            Optional.<Path>absent(),
         buildableContext,
         steps);
 
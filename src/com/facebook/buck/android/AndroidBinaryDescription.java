@@ -80,14 +80,17 @@ public class AndroidBinaryDescription implements Description<AndroidBinaryDescri
 
   private final JavacOptions javacOptions;
   private final ProGuardConfig proGuardConfig;
+  private final boolean dexMergeIncremental;
   private final ImmutableMap<TargetCpuType, NdkCxxPlatform> nativePlatforms;
 
   public AndroidBinaryDescription(
       JavacOptions javacOptions,
       ProGuardConfig proGuardConfig,
+      boolean dexMergeIncremental,
       ImmutableMap<TargetCpuType, NdkCxxPlatform> nativePlatforms) {
     this.javacOptions = javacOptions;
     this.proGuardConfig = proGuardConfig;
+    this.dexMergeIncremental = dexMergeIncremental;
     this.nativePlatforms = nativePlatforms;
   }
 
@@ -173,6 +176,7 @@ public class AndroidBinaryDescription implements Description<AndroidBinaryDescri
         shouldPreDex,
         AndroidBinary.getPrimaryDexPath(params.getBuildTarget()),
         dexSplitMode,
+        dexMergeIncremental,
         ImmutableSet.copyOf(args.noDx.or(ImmutableSet.<BuildTarget>of())),
         /* resourcesToExclude */ ImmutableSet.<BuildTarget>of(),
         args.skipCrunchPngs.or(false),
@@ -190,6 +194,7 @@ public class AndroidBinaryDescription implements Description<AndroidBinaryDescri
         new SourcePathResolver(resolver),
         proGuardConfig.getProguardJarOverride(),
         proGuardConfig.getProguardMaxHeapSize(),
+        proGuardConfig.isProguardIncremental(),
         args.manifest,
         (Keystore) keystore,
         packageType,
@@ -83,6 +83,7 @@ public class AndroidBinaryGraphEnhancer {
   private final boolean shouldPreDex;
   private final Path primaryDexPath;
   private final DexSplitMode dexSplitMode;
+  private final boolean dexMergeIncremental;
   private final ImmutableSet<BuildTarget> buildTargetsToExcludeFromDex;
   private final ImmutableSet<BuildTarget> resourcesToExclude;
   private final boolean skipCrunchPngs;
@@ -111,6 +112,7 @@ public class AndroidBinaryGraphEnhancer {
       boolean shouldPreDex,
       Path primaryDexPath,
       DexSplitMode dexSplitMode,
+      boolean dexMergeIncremental,
       ImmutableSet<BuildTarget> buildTargetsToExcludeFromDex,
       ImmutableSet<BuildTarget> resourcesToExclude,
       boolean skipCrunchPngs,
@@ -135,6 +137,7 @@ public class AndroidBinaryGraphEnhancer {
     this.shouldPreDex = shouldPreDex;
     this.primaryDexPath = primaryDexPath;
     this.dexSplitMode = dexSplitMode;
+    this.dexMergeIncremental = dexMergeIncremental;
     this.buildTargetsToExcludeFromDex = buildTargetsToExcludeFromDex;
     this.resourcesToExclude = resourcesToExclude;
     this.skipCrunchPngs = skipCrunchPngs;
@@ -532,6 +535,7 @@ public class AndroidBinaryGraphEnhancer {
         pathResolver,
         primaryDexPath,
         dexSplitMode,
+        dexMergeIncremental,
         allPreDexDeps,
         aaptPackageResources);
     ruleResolver.addToIndex(preDexMerge);
@@ -50,6 +50,7 @@ public class AndroidInstrumentationApk extends AndroidBinary {
       SourcePathResolver resolver,
       Optional<Path> proGuardJarOverride,
       String proGuardMaxHeapSize,
+      boolean proGuardIncremental,
       SourcePath manifest,
       AndroidBinary apkUnderTest,
       ImmutableSortedSet<JavaLibrary> rulesToExcludeFromDex,
@@ -59,6 +60,7 @@ public class AndroidInstrumentationApk extends AndroidBinary {
         resolver,
         proGuardJarOverride,
         proGuardMaxHeapSize,
+        proGuardIncremental,
         manifest,
         apkUnderTest.getKeystore(),
         PackageType.INSTRUMENTED,
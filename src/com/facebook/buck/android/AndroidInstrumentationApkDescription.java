@@ -121,6 +121,7 @@ public class AndroidInstrumentationApkDescription
         /* shouldPreDex */ false,
         primaryDexPath,
         DexSplitMode.NO_SPLIT,
+        /* dexMergeIncremental */ false,
         FluentIterable.from(rulesToExcludeFromDex).transform(TO_TARGET).toSet(),
         resourcesToExclude,
         /* skipCrunchPngs */ false,
@@ -139,6 +140,7 @@ public class AndroidInstrumentationApkDescription
         new SourcePathResolver(resolver),
         proGuardConfig.getProguardJarOverride(),
         proGuardConfig.getProguardMaxHeapSize(),
+        proGuardConfig.isProguardIncremental(),
         args.manifest,
         apkUnderTest,
         rulesToExcludeFromDex,
@@ -46,9 +46,11 @@ public class AndroidLibraryDescription
   public static final BuildRuleType TYPE = BuildRuleType.of("android_library");
 
   private final JavacOptions defaultOptions;
+  private final boolean dummyRDotJavaStableIds;
 
-  public AndroidLibraryDescription(JavacOptions defaultOptions) {
+  public AndroidLibraryDescription(JavacOptions defaultOptions, boolean dummyRDotJavaStableIds) {
     this.defaultOptions = defaultOptions;
+    this.dummyRDotJavaStableIds = dummyRDotJavaStableIds;
   }
 
   @Override
@@ -88,7 +90,8 @@ public class AndroidLibraryDescription
         params.copyWithExtraDeps(
             Suppliers.ofInstance(resolver.getAllRules(args.exportedDeps.get()))),
         javacOptions.build(),
-        ResourceDependencyMode.FIRST_ORDER);
+        ResourceDependencyMode.FIRST_ORDER,
+        dummyRDotJavaStableIds);
     Optional<DummyRDotJava> dummyRDotJava = graphEnhancer.createBuildableForAndroidResources(
         resolver,
         /* createBuildableIfEmpty */ false);
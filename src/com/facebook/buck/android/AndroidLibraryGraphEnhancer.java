@@ -46,12 +46,14 @@ public class AndroidLibraryGraphEnhancer {
   private final BuildRuleParams originalBuildRuleParams;
   private final JavacOptions javacOptions;
   private final ResourceDependencyMode resourceDependencyMode;
+  private final boolean stableIds;
 
   public AndroidLibraryGraphEnhancer(
       BuildTarget buildTarget,
       BuildRuleParams buildRuleParams,
       JavacOptions javacOptions,
-      ResourceDependencyMode resourceDependencyMode) {
+      ResourceDependencyMode resourceDependencyMode,
+      boolean stableIds) {
     this.dummyRDotJavaBuildTarget = getDummyRDotJavaTarget(buildTarget);
     this.originalBuildRuleParams = buildRuleParams;
     // Override javacoptions because DummyRDotJava doesn't require annotation processing.
@@ -59,6 +61,7 @@ public class AndroidLibraryGraphEnhancer {
         .setAnnotationProcessingParams(AnnotationProcessingParams.EMPTY)
         .build();
     this.resourceDependencyMode = resourceDependencyMode;
+    this.stableIds = stableIds;
   }
 
   public static ImmutableBuildTarget getDummyRDotJavaTarget(BuildTarget buildTarget) {
@@ -114,7 +117,8 @@ public class AndroidLibraryGraphEnhancer {
         dummyRDotJavaParams,
         new SourcePathResolver(ruleResolver),
         androidResourceDeps,
-        javacOptions);
+        javacOptions,
+        stableIds);
     ruleResolver.addToIndex(dummyRDotJava);
     return Optional.of(dummyRDotJava);
   }
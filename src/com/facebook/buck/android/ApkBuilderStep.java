@@ -16,41 +16,37 @@
 
 package com.facebook.buck.android;
 
-import com.android.sdklib.build.ApkBuilder;
-import com.android.sdklib.build.ApkCreationException;
-import com.android.sdklib.build.DuplicateFileException;
-import com.android.sdklib.build.SealedApkException;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.KeystoreProperties;
-import com.google.common.base.Joiner;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimap;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Collection;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
 /**
- * Merges resources into a final APK.  This code is based off of the now deprecated apkbuilder tool:
- * https://android.googlesource.com/platform/sdk/+/fd30096196e3747986bdf8a95cc7713dd6e0b239%5E/sdkmanager/libs/sdklib/src/main/java/com/android/sdklib/build/ApkBuilderMain.java
+ * Merges resources into a final APK, signed and aligned. The files that go in the APK are chosen
+ * the way that the now deprecated {@code apkbuilder} tool of the Android SDK chose them.
+ * <p>
+ * The APK is written by a {@link SignedApkWriter}, which reuses the compressed entries of the APK
+ * that is already at the output path, if any.
  */
 public class ApkBuilderStep implements Step {
 
@@ -60,6 +56,33 @@ public class ApkBuilderStep implements Step {
    */
   private static final String JARSIGNER_KEY_STORE_TYPE = "jks";
 
+  private static final Pattern NATIVE_LIBRARY =
+      Pattern.compile("^.+\\.so$", Pattern.CASE_INSENSITIVE);
+  private static final String GDBSERVER = "gdbserver";
+
+  /** Sources, build files and the litter of editors and version control. */
+  private static final ImmutableSet<String> EXCLUDED_EXTENSIONS =
+      ImmutableSet.of("aidl", "rs", "rsh", "d", "java", "scala", "class", "scc", "swp");
+  private static final ImmutableSet<String> EXCLUDED_FILE_NAMES =
+      ImmutableSet.of("thumbs.db", "picasa.ini", "package.html", "overview.html");
+
+  /** Keeps the Java resources of a jar, but not its classes or sources. */
+  private static final Predicate<String> JAVA_RESOURCE = new Predicate<String>() {
+    @Override
+    public boolean apply(String archivePath) {
+      String[] segments = archivePath.split("/");
+      if (segments.length == 0) {
+        return false;
+      }
+      for (int i = 0; i < segments.length - 1; i++) {
+        if (!isPackagedFolder(segments[i])) {
+          return false;
+        }
+      }
+      return isPackagedFile(segments[segments.length - 1]);
+    }
+  };
+
   private final Path resourceApk;
   private final Path dexFile;
   private final Path pathToOutputApkFile;
@@ -69,6 +92,7 @@ public class ApkBuilderStep implements Step {
   private final ImmutableSet<Path> jarFilesThatMayContainResources;
   private final Path pathToKeystore;
   private final Path pathToKeystorePropertiesFile;
+  private final ImmutableSet<String> entriesToCompress;
   private final boolean debugMode;
 
   /**
@@ -79,10 +103,12 @@ public class ApkBuilderStep implements Step {
    * @param assetDirectories List of paths to assets to be included in the apk.
    * @param nativeLibraryDirectories List of paths to native directories.
    * @param zipFiles List of paths to zipfiles to be included into the apk.
-   * @param debugMode Whether or not to run ApkBuilder with debug mode turned on.
+   * @param debugMode Whether to package {@code gdbserver} with the native libraries.
    * @param pathToKeystore Path to the keystore used to sign the APK.
    * @param pathToKeystorePropertiesFile Path to a {@code .properties} file that contains
    *     information about the keystore used to sign the APK.
+   * @param entriesToCompress Names of entries to compress even if they are stored uncompressed in
+   *     {@code resourceApk} or {@code zipFiles}, such as {@code resources.arsc}.
    */
   public ApkBuilderStep(
       Path resourceApk,
@@ -94,6 +120,7 @@ public class ApkBuilderStep implements Step {
       ImmutableSet<Path> jarFilesThatMayContainResources,
       Path pathToKeystore,
       Path pathToKeystorePropertiesFile,
+      ImmutableSet<String> entriesToCompress,
       boolean debugMode) {
     this.resourceApk = resourceApk;
     this.pathToOutputApkFile = pathToOutputApkFile;
@@ -104,70 +131,137 @@ public class ApkBuilderStep implements Step {
     this.zipFiles = zipFiles;
     this.pathToKeystore = pathToKeystore;
     this.pathToKeystorePropertiesFile = pathToKeystorePropertiesFile;
+    this.entriesToCompress = entriesToCompress;
     this.debugMode = debugMode;
   }
 
   @Override
   public int execute(ExecutionContext context) {
-    PrintStream output = null;
-    if (context.getVerbosity().shouldUseVerbosityFlagIfAvailable()) {
-      output = context.getStdOut();
-    }
-
     ProjectFilesystem projectFilesystem = context.getProjectFilesystem();
+    Path outputApk = projectFilesystem.resolve(pathToOutputApkFile);
+    Path temporaryApk = null;
     try {
       PrivateKeyAndCertificate privateKeyAndCertificate = createKeystoreProperties(context);
-      ApkBuilder builder = new ApkBuilder(
-          projectFilesystem.getFileForRelativePath(pathToOutputApkFile),
-          projectFilesystem.getFileForRelativePath(resourceApk),
-          projectFilesystem.getFileForRelativePath(dexFile),
+
+      // The APK from the previous build stays in place until the new one is complete, so that the
+      // writer can copy the entries that have not changed from it.
+      temporaryApk = Files.createTempFile(
+          outputApk.getParent(),
+          outputApk.getFileName().toString(),
+          ".tmp");
+      try (SignedApkWriter writer = new SignedApkWriter(
+          temporaryApk,
+          Optional.of(outputApk),
           privateKeyAndCertificate.privateKey,
           privateKeyAndCertificate.certificate,
-          output);
-      builder.setDebugMode(debugMode);
-      for (Path nativeLibraryDirectory : nativeLibraryDirectories) {
-        builder.addNativeLibraries(
-            projectFilesystem.getFileForRelativePath(nativeLibraryDirectory));
+          entriesToCompress)) {
+        writer.addZipEntries(
+            projectFilesystem.resolve(resourceApk),
+            Predicates.<String>alwaysTrue());
+        writer.addFile(projectFilesystem.resolve(dexFile), "classes.dex");
+        for (Path nativeLibraryDirectory : nativeLibraryDirectories) {
+          addNativeLibraries(
+              writer,
+              projectFilesystem.getFileForRelativePath(nativeLibraryDirectory));
+        }
+        for (Path assetDirectory : assetDirectories) {
+          addSourceFolder(writer, projectFilesystem.getFileForRelativePath(assetDirectory), "");
+        }
+        for (Path zipFile : zipFiles) {
+          // TODO(natthu): Skipping silently is bad. These should really be assertions.
+          if (projectFilesystem.exists(zipFile) && projectFilesystem.isFile(zipFile)) {
+            writer.addZipEntries(
+                projectFilesystem.resolve(zipFile),
+                Predicates.<String>alwaysTrue());
+          }
+        }
+        for (Path jarFileThatMayContainResources : jarFilesThatMayContainResources) {
+          writer.addZipEntries(
+              projectFilesystem.resolve(jarFileThatMayContainResources),
+              JAVA_RESOURCE);
+        }
+
+        writer.finish();
+      }
+      Files.move(temporaryApk, outputApk, StandardCopyOption.REPLACE_EXISTING);
+    } catch (GeneralSecurityException | IOException e) {
+      context.logError(e, "Error when creating APK at: %s.", pathToOutputApkFile);
+      return 1;
+    } finally {
+      if (temporaryApk != null) {
+        temporaryApk.toFile().delete();
       }
-      for (Path assetDirectory : assetDirectories) {
-        builder.addSourceFolder(projectFilesystem.getFileForRelativePath(assetDirectory));
+    }
+    return 0;
+  }
+
+  /**
+   * Adds the native libraries in each ABI directory of {@code nativeFolder} under {@code lib/}.
+   */
+  private void addNativeLibraries(SignedApkWriter writer, File nativeFolder) throws IOException {
+    for (File abi : listSortedFiles(nativeFolder)) {
+      if (!abi.isDirectory()) {
+        continue;
       }
-      for (Path zipFile : zipFiles) {
-        // TODO(natthu): Skipping silently is bad. These should really be assertions.
-        if (projectFilesystem.exists(zipFile) && projectFilesystem.isFile(zipFile)) {
-          builder.addZipFile(projectFilesystem.getFileForRelativePath(zipFile));
+      for (File library : listSortedFiles(abi)) {
+        if (library.isFile() &&
+            (NATIVE_LIBRARY.matcher(library.getName()).matches() ||
+                (debugMode && GDBSERVER.equals(library.getName())))) {
+          writer.addFile(
+              library.toPath(),
+              "lib/" + abi.getName() + "/" + library.getName());
         }
       }
-      for (Path jarFileThatMayContainResources : jarFilesThatMayContainResources) {
-        File jarFile  = projectFilesystem.getFileForRelativePath(jarFileThatMayContainResources);
-        builder.addResourcesFromJar(jarFile);
+    }
+  }
+
+  private static void addSourceFolder(SignedApkWriter writer, File folder, String archivePath)
+      throws IOException {
+    for (File file : listSortedFiles(folder)) {
+      if (file.isDirectory()) {
+        if (isPackagedFolder(file.getName())) {
+          addSourceFolder(writer, file, archivePath + file.getName() + "/");
+        }
+      } else if (isPackagedFile(file.getName())) {
+        writer.addFile(file.toPath(), archivePath + file.getName());
       }
+    }
+  }
 
-      // Build the APK
-      builder.sealApk();
-    } catch (ApkCreationException
-        | CertificateException
-        | IOException
-        | KeyStoreException
-        | NoSuchAlgorithmException
-        | SealedApkException
-        | UnrecoverableKeyException e) {
-      context.logError(e, "Error when creating APK at: %s.", pathToOutputApkFile);
-      return 1;
-    } catch (DuplicateFileException e) {
-      throw new HumanReadableException(
-          String.format("Found duplicate file for APK: %1$s\nOrigin 1: %2$s\nOrigin 2: %3$s",
-              e.getArchivePath(), e.getFile1(), e.getFile2()));
+  private static File[] listSortedFiles(File folder) {
+    File[] files = folder.listFiles();
+    if (files == null) {
+      return new File[0];
     }
-    return 0;
+    // Keep the order of the entries in the APK the same from one build to the next.
+    Arrays.sort(files);
+    return files;
+  }
+
+  /** @return whether the contents of a folder with this name go in the APK. */
+  private static boolean isPackagedFolder(String folderName) {
+    return !folderName.equalsIgnoreCase("CVS") &&
+        !folderName.equalsIgnoreCase(".svn") &&
+        !folderName.equalsIgnoreCase("SCCS") &&
+        !folderName.equalsIgnoreCase("META-INF") &&
+        !folderName.startsWith("_");
+  }
+
+  /** @return whether a file with this name goes in the APK. */
+  private static boolean isPackagedFile(String fileName) {
+    // Hidden files and backup files.
+    if (fileName.isEmpty() || fileName.charAt(0) == '.' || fileName.endsWith("~")) {
+      return false;
+    }
+
+    String[] segments = fileName.split("\\.");
+    String extension = segments.length > 1 ? segments[segments.length - 1] : "";
+    return !EXCLUDED_EXTENSIONS.contains(extension.toLowerCase(Locale.US)) &&
+        !EXCLUDED_FILE_NAMES.contains(fileName.toLowerCase(Locale.US));
   }
 
   private PrivateKeyAndCertificate createKeystoreProperties(ExecutionContext context)
-      throws CertificateException,
-          IOException,
-          KeyStoreException,
-          NoSuchAlgorithmException,
-          UnrecoverableKeyException {
+      throws GeneralSecurityException, IOException {
     ProjectFilesystem projectFilesystem = context.getProjectFilesystem();
     KeystoreProperties keystoreProperties = KeystoreProperties.createFromPropertiesFile(
         pathToKeystore,
@@ -193,42 +287,21 @@ public class ApkBuilderStep implements Step {
 
   @Override
   public String getDescription(ExecutionContext context) {
-    ImmutableList.Builder<String> args = ImmutableList.builder();
-    args.add(
-        "java",
-        "-classpath",
-        // TODO(mbolin): Make the directory that corresponds to $ANDROID_HOME a field that is
-        // accessible via an AndroidPlatformTarget and insert that here in place of "$ANDROID_HOME".
-        "$ANDROID_HOME/tools/lib/sdklib.jar",
-        "com.android.sdklib.build.ApkBuilderMain");
-    args.add(String.valueOf(pathToOutputApkFile));
-    args.add("-v" /* verbose */);
-    if (debugMode) {
-      args.add("-d");
-    }
-
-    // Unfortunately, ApkBuilderMain does not have CLI args to set the keystore,
-    // so these member variables are left out of the command:
-    // pathToKeystore, pathToKeystorePropertiesFile
-
-    Multimap<String, Collection<Path>> groups =
-        ImmutableMultimap.<String, Collection<Path>>builder()
-            .put("-z", ImmutableList.of(resourceApk))
-            .put("-f", ImmutableList.of(dexFile))
-            .put("-rf", assetDirectories)
-            .put("-nf", nativeLibraryDirectories)
-            .put("-z", zipFiles)
-            .put("-rj", jarFilesThatMayContainResources)
-            .build();
-
-    for (Map.Entry<String, Collection<Path>> group : groups.entries()) {
-      String prefix = group.getKey();
-      for (Path path : group.getValue()) {
-        args.add(prefix, String.valueOf(path));
-      }
-    }
-
-    return Joiner.on(' ').join(args.build());
+    return String.format(
+        "%s: write %s signed with %s (%s) from resources %s, dex %s, assets %s, " +
+            "native libraries %s, zips %s, java resources of %s, compressing %s%s",
+        getShortName(),
+        pathToOutputApkFile,
+        pathToKeystore,
+        pathToKeystorePropertiesFile,
+        resourceApk,
+        dexFile,
+        assetDirectories,
+        nativeLibraryDirectories,
+        zipFiles,
+        jarFilesThatMayContainResources,
+        entriesToCompress,
+        debugMode ? ", in debug mode" : "");
   }
 
   private static class PrivateKeyAndCertificate {
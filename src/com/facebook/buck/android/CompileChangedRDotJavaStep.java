@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.java.Javac;
+import com.facebook.buck.java.JavacOptions;
+import com.facebook.buck.java.Jsr199Javac;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Charsets;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles {@code R.java} files, like {@link RDotJava#createJavacStepForDummyRDotJavaFiles}, but
+ * only those that changed since the last time this step ran for the same output directory. This
+ * works because an {@code R} class never refers to the {@code R} class of another package.
+ * <p>
+ * The hashes of the sources, and of the classes that were compiled from them, are kept in
+ * {@code stateFile}. If the classes are not the ones that were compiled the last time, for
+ * instance because they were fetched from the artifact cache, or if they were compiled by another
+ * javac or with other options, all the sources are compiled again.
+ */
+class CompileChangedRDotJavaStep implements Step {
+
+  private static final Logger LOG = Logger.get(CompileChangedRDotJavaStep.class);
+
+  private final Path sourceDirectory;
+  private final ImmutableSortedSet<Path> rDotJavaFiles;
+  private final Path outputDirectory;
+  private final Path stateFile;
+  private final JavacOptions javacOptions;
+  private final BuildTarget buildTarget;
+
+  /**
+   * @param sourceDirectory the directory that {@code rDotJavaFiles} are in, laid out by package.
+   */
+  CompileChangedRDotJavaStep(
+      Path sourceDirectory,
+      Set<Path> rDotJavaFiles,
+      Path outputDirectory,
+      Path stateFile,
+      JavacOptions javacOptions,
+      BuildTarget buildTarget) {
+    this.sourceDirectory = sourceDirectory;
+    this.rDotJavaFiles = ImmutableSortedSet.copyOf(rDotJavaFiles);
+    this.outputDirectory = outputDirectory;
+    this.stateFile = stateFile;
+    this.javacOptions = javacOptions;
+    this.buildTarget = buildTarget;
+  }
+
+  @Override
+  public int execute(ExecutionContext context) throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    String compiler = hashCompiler();
+
+    Map<Path, String> previousHashes = Maps.newHashMap();
+    if (filesystem.isFile(stateFile)) {
+      List<String> lines = filesystem.readLines(stateFile);
+      if (!lines.isEmpty() &&
+          lines.get(0).equals(compiler + " " + hashOutputDirectory(filesystem))) {
+        for (String line : lines.subList(1, lines.size())) {
+          int space = line.indexOf(' ');
+          previousHashes.put(Paths.get(line.substring(space + 1)), line.substring(0, space));
+        }
+      }
+    }
+    if (previousHashes.isEmpty()) {
+      filesystem.rmdir(outputDirectory);
+      filesystem.mkdirs(outputDirectory);
+    }
+
+    List<String> state = Lists.newArrayList();
+    Set<Path> changedFiles = Sets.newLinkedHashSet();
+    for (Path rDotJavaFile : rDotJavaFiles) {
+      String hash = filesystem.computeSha1(rDotJavaFile);
+      state.add(hash + " " + rDotJavaFile);
+      if (!hash.equals(previousHashes.get(rDotJavaFile))) {
+        changedFiles.add(rDotJavaFile);
+      }
+    }
+    LOG.debug(
+        "%s: compiling %d of %d R.java files.",
+        buildTarget,
+        changedFiles.size(),
+        rDotJavaFiles.size());
+
+    // The classes of packages that changed or went away are deleted, as the nested classes of an R
+    // class depend on the types of resources in the package.
+    for (Path rDotJavaFile : Sets.union(changedFiles, previousHashes.keySet())) {
+      if (!rDotJavaFiles.contains(rDotJavaFile) || changedFiles.contains(rDotJavaFile)) {
+        deleteRClasses(
+            filesystem,
+            outputDirectory.resolve(sourceDirectory.relativize(rDotJavaFile.getParent())));
+      }
+    }
+
+    // If compiling fails, the next run starts from scratch.
+    filesystem.deleteFileAtPath(stateFile);
+    if (!changedFiles.isEmpty()) {
+      int exitCode = RDotJava.createJavacStepForDummyRDotJavaFiles(
+          changedFiles,
+          outputDirectory,
+          javacOptions,
+          buildTarget)
+          .execute(context);
+      if (exitCode != 0) {
+        return exitCode;
+      }
+    }
+
+    state.add(0, compiler + " " + hashOutputDirectory(filesystem));
+    filesystem.createParentDirs(stateFile);
+    filesystem.writeLinesToPath(state, stateFile);
+    return 0;
+  }
+
+  private static void deleteRClasses(ProjectFilesystem filesystem, Path packageDirectory)
+      throws IOException {
+    if (!filesystem.isDirectory(packageDirectory)) {
+      return;
+    }
+    for (File classFile : filesystem.listFiles(packageDirectory)) {
+      String name = classFile.getName();
+      if (name.equals("R.class") || name.startsWith("R$")) {
+        filesystem.deleteFileAtPath(packageDirectory.resolve(name));
+      }
+    }
+  }
+
+  private String hashCompiler() {
+    Hasher hasher = Hashing.sha1().newHasher();
+    Javac javac = javacOptions.getJavac();
+    hasher.putString(javac.getShortName(), Charsets.UTF_8);
+    hasher.putString(javac.getVersion().toString(), Charsets.UTF_8);
+    if (javac instanceof Jsr199Javac) {
+      hasher.putString(((Jsr199Javac) javac).getJavacJar().toString(), Charsets.UTF_8);
+    }
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    javacOptions.appendOptionsToList(options, Functions.<Path>identity());
+    for (String option : options.build()) {
+      hasher.putString(option, Charsets.UTF_8);
+    }
+    return "javac " + hasher.hash();
+  }
+
+  private String hashOutputDirectory(ProjectFilesystem filesystem) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    if (filesystem.isDirectory(outputDirectory)) {
+      for (Path file :
+          Ordering.natural().sortedCopy(filesystem.getFilesUnderPath(outputDirectory))) {
+        hasher.putString(file.toString(), Charsets.UTF_8);
+        hasher.putString(filesystem.computeSha1(file), Charsets.UTF_8);
+      }
+    }
+    return "outputs " + hasher.hash();
+  }
+
+  @Override
+  public String getShortName() {
+    return "javac_changed_r_dot_java";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "%s of %s into %s",
+        getShortName(),
+        rDotJavaFiles,
+        outputDirectory);
+  }
+}
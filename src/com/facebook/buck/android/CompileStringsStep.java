@@ -21,12 +21,24 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.XmlDomParser;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -34,12 +46,17 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -81,6 +98,10 @@ import java.util.regex.Pattern;
  *   <li> a list of strings </li>
  * </ol>
  * and dumps this map into the output file. See {@link StringResources} for the file format.</p>
+ *
+ * <p>The locales are parsed in parallel. If a cache directory is given, the output for each locale
+ * is also kept there, named after a hash of the files it was built from and of the resource ids in
+ * {@code R.txt}, so that only the locales whose strings changed are compiled again.</p>
  */
 public class CompileStringsStep implements Step {
 
@@ -92,9 +113,20 @@ public class CompileStringsStep implements Step {
   static final Pattern R_DOT_TXT_STRING_RESOURCE_PATTERN = Pattern.compile(
       "^int (string|plurals|array) (\\w+) 0x([0-9a-f]+)$");
 
+  /** Bounds the number of locales that are parsed at once, across all steps. */
+  private static final ListeningExecutorService PARSING_THREADS =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder()
+                  .setNameFormat(CompileStringsStep.class.getSimpleName() + "-%d")
+                  .setDaemon(true)
+                  .build()));
+
   private final ImmutableSet<Path> filteredStringFiles;
   private final Path rDotTxtDir;
   private final Path destinationDir;
+  private final Optional<Path> cacheDir;
   private final Map<String, String> regionSpecificToBaseLocaleMap;
   private final Map<String, Integer> resourceNameToIdMap;
 
@@ -113,15 +145,27 @@ public class CompileStringsStep implements Step {
       ImmutableSet<Path> filteredStringFiles,
       Path rDotTxtDir,
       Path destinationDir) {
+    this(filteredStringFiles, rDotTxtDir, destinationDir, Optional.<Path>absent());
+  }
+
+  /**
+   * @param cacheDir Directory where the output for each locale is kept between builds.
+   */
+  public CompileStringsStep(
+      ImmutableSet<Path> filteredStringFiles,
+      Path rDotTxtDir,
+      Path destinationDir,
+      Optional<Path> cacheDir) {
     this.filteredStringFiles = filteredStringFiles;
     this.rDotTxtDir = rDotTxtDir;
     this.destinationDir = destinationDir;
+    this.cacheDir = cacheDir;
     this.regionSpecificToBaseLocaleMap = Maps.newHashMap();
     this.resourceNameToIdMap = Maps.newHashMap();
   }
 
   @Override
-  public int execute(ExecutionContext context) {
+  public int execute(final ExecutionContext context) throws InterruptedException {
     ProjectFilesystem filesystem = context.getProjectFilesystem();
     try {
       buildResourceNameToIdMap(filesystem, rDotTxtDir.resolve("R.txt"), resourceNameToIdMap);
@@ -131,12 +175,55 @@ public class CompileStringsStep implements Step {
     }
 
     ImmutableMultimap<String, Path> filesByLocale = groupFilesByLocale(filteredStringFiles);
+
+    // Locales whose output is in the cache are not compiled again.
+    Map<String, Path> cacheEntries = Maps.newHashMap();
+    Set<String> localesToCompile = Sets.newHashSet(filesByLocale.keySet());
+    if (cacheDir.isPresent()) {
+      try {
+        HashCode resourceIdsHash = hashResourceIds();
+        for (String locale : filesByLocale.keySet()) {
+          Path cacheEntry = cacheDir.get().resolve(
+              hashInputs(filesystem, resourceIdsHash, locale, filesByLocale) + ".fbstr");
+          cacheEntries.put(locale, cacheEntry);
+          if (filesystem.exists(cacheEntry)) {
+            localesToCompile.remove(locale);
+          }
+        }
+      } catch (IOException e) {
+        context.logError(e, "Error hashing string files.");
+        return 1;
+      }
+    }
+
+    // Region specific locales are merged with their base locale, which has to be parsed as well.
+    Set<String> localesToParse = Sets.newHashSet(localesToCompile);
+    for (String locale : localesToCompile) {
+      String baseLocale = regionSpecificToBaseLocaleMap.get(locale);
+      if (baseLocale != null && filesByLocale.containsKey(baseLocale)) {
+        localesToParse.add(baseLocale);
+      }
+    }
+
+    Map<String, ListenableFuture<StringResources>> futures = Maps.newHashMap();
+    for (String locale : localesToParse) {
+      final ImmutableList<Path> files = filesByLocale.get(locale).asList();
+      futures.put(
+          locale,
+          PARSING_THREADS.submit(
+              new Callable<StringResources>() {
+                @Override
+                public StringResources call() throws IOException, SAXException {
+                  return compileStringFiles(context.getProjectFilesystem(), files);
+                }
+              }));
+    }
     Map<String, StringResources> resourcesByLocale = Maps.newHashMap();
-    for (String locale : filesByLocale.keySet()) {
+    for (Map.Entry<String, ListenableFuture<StringResources>> entry : futures.entrySet()) {
       try {
-        resourcesByLocale.put(locale, compileStringFiles(filesystem, filesByLocale.get(locale)));
-      } catch (IOException | SAXException e) {
-        context.logError(e, "Error parsing string file for locale: %s", locale);
+        resourcesByLocale.put(entry.getKey(), entry.getValue().get());
+      } catch (ExecutionException e) {
+        context.logError(e.getCause(), "Error parsing string file for locale: %s", entry.getKey());
         return 1;
       }
     }
@@ -151,7 +238,8 @@ public class CompileStringsStep implements Step {
     // simplicity.
     for (String regionSpecificLocale : regionSpecificToBaseLocaleMap.keySet()) {
       String baseLocale = regionSpecificToBaseLocaleMap.get(regionSpecificLocale);
-      if (!resourcesByLocale.containsKey(baseLocale)) {
+      if (!localesToCompile.contains(regionSpecificLocale) ||
+          !resourcesByLocale.containsKey(baseLocale)) {
         continue;
       }
 
@@ -161,18 +249,77 @@ public class CompileStringsStep implements Step {
     }
 
     for (String locale : filesByLocale.keySet()) {
+      Path output = destinationDir.resolve(locale + ".fbstr");
       try {
-        filesystem.writeBytesToPath(resourcesByLocale.get(locale).getBinaryFileContent(),
-            destinationDir.resolve(locale + ".fbstr"));
+        if (localesToCompile.contains(locale)) {
+          byte[] content = resourcesByLocale.get(locale).getBinaryFileContent();
+          filesystem.writeBytesToPath(content, output);
+          if (cacheDir.isPresent()) {
+            filesystem.mkdirs(cacheDir.get());
+            filesystem.writeBytesToPath(content, cacheEntries.get(locale));
+          }
+        } else {
+          filesystem.copyFile(cacheEntries.get(locale), output);
+        }
       } catch (IOException e) {
         context.logError(e, "Error creating binary file for locale: %s", locale);
         return 1;
       }
     }
 
+    // The cache directory is only created once a locale is compiled.
+    if (cacheDir.isPresent() && filesystem.isDirectory(cacheDir.get())) {
+      // Only keep what this build used, so that the cache does not grow without bounds.
+      Set<Path> usedCacheEntries = ImmutableSet.copyOf(cacheEntries.values());
+      try {
+        for (File cacheEntry : filesystem.listFiles(cacheDir.get())) {
+          Path path = cacheDir.get().resolve(cacheEntry.getName());
+          if (!usedCacheEntries.contains(path)) {
+            filesystem.deleteFileAtPath(path);
+          }
+        }
+      } catch (IOException e) {
+        context.logError(e, "Error cleaning up the compiled strings in %s.", cacheDir.get());
+        return 1;
+      }
+    }
+
     return 0;
   }
 
+  private HashCode hashResourceIds() {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Map.Entry<String, Integer> entry :
+        ImmutableSortedMap.copyOf(resourceNameToIdMap).entrySet()) {
+      hasher.putString(entry.getKey(), Charsets.UTF_8).putInt(entry.getValue());
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * @return a hash of everything that the output for {@code locale} is built from.
+   */
+  private String hashInputs(
+      ProjectFilesystem filesystem,
+      HashCode resourceIdsHash,
+      String locale,
+      ImmutableMultimap<String, Path> filesByLocale) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putBytes(resourceIdsHash.asBytes())
+        .putString(locale, Charsets.UTF_8);
+    List<Path> files = Lists.newArrayList(filesByLocale.get(locale));
+    String baseLocale = regionSpecificToBaseLocaleMap.get(locale);
+    if (baseLocale != null) {
+      files.addAll(filesByLocale.get(baseLocale));
+    }
+    // The order of the files matters, as the first one to define a resource wins.
+    for (Path file : files) {
+      hasher.putString(file.toString(), Charsets.UTF_8).putByte((byte) 0);
+      hasher.putString(filesystem.computeSha1(file), Charsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
   /**
    * Groups a list of file paths matching STRING_FILE_PATTERN by the locale.
    *
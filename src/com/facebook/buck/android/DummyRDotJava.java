@@ -19,7 +19,6 @@ package com.facebook.buck.android;
 import com.facebook.buck.java.CalculateAbiStep;
 import com.facebook.buck.java.HasJavaAbi;
 import com.facebook.buck.java.JavacOptions;
-import com.facebook.buck.java.JavacStep;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.model.HasBuildTarget;
@@ -60,18 +59,21 @@ public class DummyRDotJava extends AbstractBuildRule
 
   private final ImmutableList<HasAndroidResourceDeps> androidResourceDeps;
   private final JavacOptions javacOptions;
+  private final boolean stableIds;
   private final BuildOutputInitializer<BuildOutput> buildOutputInitializer;
 
   public DummyRDotJava(
       BuildRuleParams params,
       SourcePathResolver resolver,
       Set<HasAndroidResourceDeps> androidResourceDeps,
-      JavacOptions javacOptions) {
+      JavacOptions javacOptions,
+      boolean stableIds) {
     super(params, resolver);
     // Sort the input so that we get a stable ABI for the same set of resources.
     this.androidResourceDeps = FluentIterable.from(androidResourceDeps)
         .toSortedList(HasBuildTarget.BUILD_TARGET_COMPARATOR);
     this.javacOptions = javacOptions;
+    this.stableIds = stableIds;
     this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
   }
 
@@ -104,30 +106,36 @@ public class DummyRDotJava extends AbstractBuildRule
           emptyRDotJava));
       javaSourceFilePaths = ImmutableSet.of(emptyRDotJava);
     } else {
+      // Keeping the IDs of the last local build means that the R.java of a package only changes
+      // when its own resources do, but also that it depends on what is left in buck-out.
       MergeAndroidResourcesStep mergeStep = MergeAndroidResourcesStep.createStepForDummyRDotJava(
           androidResourceDeps,
-          rDotJavaSrcFolder);
+          rDotJavaSrcFolder,
+          stableIds ?
+              Optional.of(getPathToIncrementalStateDir(getBuildTarget()).resolve("ids.txt")) :
+              Optional.<Path>absent());
       steps.add(mergeStep);
       javaSourceFilePaths =
           ImmutableSet.copyOf(mergeStep.getRDotJavaFiles());
     }
 
-    // Clear out the directory where the .class files will be generated.
+    // The directory where the .class files will be generated is not cleared, so that only the
+    // R.java files that changed since the last build have to be compiled.
     final Path rDotJavaClassesFolder = getRDotJavaBinFolder();
-    steps.add(new MakeCleanDirectoryStep(rDotJavaClassesFolder));
 
     Path pathToAbiOutputDir = getPathToAbiOutputDir(getBuildTarget());
     steps.add(new MakeCleanDirectoryStep(pathToAbiOutputDir));
     Path pathToAbiOutputFile = pathToAbiOutputDir.resolve("abi.jar");
 
     // Compile the .java files.
-    final JavacStep javacStep =
-        RDotJava.createJavacStepForDummyRDotJavaFiles(
+    steps.add(
+        new CompileChangedRDotJavaStep(
+            rDotJavaSrcFolder,
             javaSourceFilePaths,
             rDotJavaClassesFolder,
+            getPathToIncrementalStateDir(getBuildTarget()).resolve("compiled_r_dot_java.txt"),
             javacOptions,
-            getBuildTarget());
-    steps.add(javacStep);
+            getBuildTarget()));
     buildableContext.recordArtifactsInDirectory(rDotJavaClassesFolder);
 
     steps.add(new CalculateAbiStep(buildableContext, rDotJavaClassesFolder, pathToAbiOutputFile));
@@ -142,7 +150,8 @@ public class DummyRDotJava extends AbstractBuildRule
 
   @Override
   public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
-    return javacOptions.appendToRuleKey(builder, "javacOptions");
+    javacOptions.appendToRuleKey(builder, "javacOptions");
+    return builder.setReflectively("stableIds", stableIds);
   }
 
   public static Path getRDotJavaSrcFolder(BuildTarget buildTarget) {
@@ -153,6 +162,10 @@ public class DummyRDotJava extends AbstractBuildRule
     return BuildTargets.getScratchPath(buildTarget, "__%s_rdotjava_bin__");
   }
 
+  private static Path getPathToIncrementalStateDir(BuildTarget buildTarget) {
+    return BuildTargets.getScratchPath(buildTarget, "__%s_rdotjava_incremental__");
+  }
+
   private static Path getPathToAbiOutputDir(BuildTarget buildTarget) {
     return BuildTargets.getGenPath(buildTarget, "__%s_dummyrdotjava_abi__");
   }
@@ -33,21 +33,32 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -67,6 +78,16 @@ public class FilterResourcesStep implements Step {
 
   private static final Logger LOG = Logger.get(FilterResourcesStep.class);
 
+  /** Bounds the number of drawables that are scaled at once, across all steps. */
+  private static final ListeningExecutorService SCALING_THREADS =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder()
+                  .setNameFormat(FilterResourcesStep.class.getSimpleName() + "-%d")
+                  .setDaemon(true)
+                  .build()));
+
   @VisibleForTesting
   static final Pattern NON_ENGLISH_STRING_PATH = Pattern.compile(
       "(\\b|.*/)res/values-.+/strings.xml", Pattern.CASE_INSENSITIVE);
@@ -87,6 +108,8 @@ public class FilterResourcesStep implements Step {
   private final DrawableFinder drawableFinder;
   @Nullable
   private final ImageScaler imageScaler;
+  @Nullable
+  private final Path scaledDrawablesCacheDir;
   private final ImmutableSet.Builder<Path> nonEnglishStringFilesBuilder;
 
   /**
@@ -103,6 +126,8 @@ public class FilterResourcesStep implements Step {
    * @param imageScaler if not null, use the {@link ImageScaler} to downscale higher-density
    *     drawables for which we weren't able to find an image file of the proper density (as opposed
    *     to allowing Android to do it at runtime). Only applicable if filterDrawables. is true.
+   * @param scaledDrawablesCacheDir if not null, where to keep the drawables scaled by
+   *     {@code imageScaler} so that later builds can reuse them.
    */
   @VisibleForTesting
   FilterResourcesStep(
@@ -114,7 +139,8 @@ public class FilterResourcesStep implements Step {
       FilteredDirectoryCopier filteredDirectoryCopier,
       @Nullable Set<Filters.Density> targetDensities,
       @Nullable DrawableFinder drawableFinder,
-      @Nullable ImageScaler imageScaler) {
+      @Nullable ImageScaler imageScaler,
+      @Nullable Path scaledDrawablesCacheDir) {
 
     Preconditions.checkArgument(filterDrawables || filterStrings || !locales.isEmpty());
     Preconditions.checkArgument(!filterDrawables ||
@@ -128,6 +154,7 @@ public class FilterResourcesStep implements Step {
     this.targetDensities = targetDensities;
     this.drawableFinder = drawableFinder;
     this.imageScaler = imageScaler;
+    this.scaledDrawablesCacheDir = scaledDrawablesCacheDir;
     this.nonEnglishStringFilesBuilder = ImmutableSet.builder();
     LOG.info(
         "FilterResourcesStep: filterDrawables: %s; filterStrings: %s",
@@ -239,10 +266,14 @@ public class FilterResourcesStep implements Step {
    * <p/>
    * Any drawables found by this step didn't have equivalents in the target density. If they are of
    * a higher density, we can replicate what Android does and downscale them at compile-time.
+   * <p/>
+   * The drawables are scaled in parallel. If {@link #scaledDrawablesCacheDir} is set, the scaled
+   * images are kept there, named after the hash of their source and the densities involved, so
+   * that a drawable that did not change since the last build is not scaled again.
    */
-  private void scaleUnmatchedDrawables(ExecutionContext context)
+  private void scaleUnmatchedDrawables(final ExecutionContext context)
       throws IOException, InterruptedException {
-    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    final ProjectFilesystem filesystem = context.getProjectFilesystem();
     Filters.Density targetDensity = Filters.Density.ORDERING.max(targetDensities);
 
     // Go over all the images that remain after filtering.
@@ -250,14 +281,16 @@ public class FilterResourcesStep implements Step {
     Collection<Path> drawables = drawableFinder.findDrawables(
         inResDirToOutResDirMap.values(),
         context.getProjectFilesystem());
-    for (Path drawable : drawables) {
+    List<ListenableFuture<Path>> scaledDrawables = Lists.newArrayList();
+    Set<Path> parents = Sets.newLinkedHashSet();
+    for (final Path drawable : drawables) {
       if (drawable.toString().endsWith(".9.png")) {
         // Skip nine-patch for now.
         continue;
       }
 
       Filters.Qualifiers qualifiers = new Filters.Qualifiers(drawable);
-      Filters.Density density = qualifiers.density;
+      final Filters.Density density = qualifiers.density;
 
       // If the image has a qualifier but it's not the right one.
       Preconditions.checkNotNull(targetDensities);
@@ -266,11 +299,11 @@ public class FilterResourcesStep implements Step {
         // Replace density qualifier with target density using regular expression to match
         // the qualifier in the context of a path to a drawable.
         String fromDensity = (density == Density.NO_QUALIFIER ? "" : "-") + density.toString();
-        Path destination = Paths.get(drawable.toString().replaceFirst(
+        final Path destination = Paths.get(drawable.toString().replaceFirst(
             "((?:^|/)drawable[^/]*)" + Pattern.quote(fromDensity) + "(-|$|/)",
             "$1-" + targetDensity + "$2"));
 
-        double factor = targetDensity.value() / density.value();
+        final double factor = targetDensity.value() / density.value();
         if (factor >= 1.0) {
           // There is no point in up-scaling, or converting between drawable and drawable-mdpi.
           continue;
@@ -278,22 +311,93 @@ public class FilterResourcesStep implements Step {
 
         // Make sure destination folder exists and perform downscaling.
         filesystem.createParentDirs(destination);
-        Preconditions.checkNotNull(imageScaler);
-        imageScaler.scale(factor, drawable, destination, context);
+        final String cacheKey = String.format("%s-%s", density, targetDensity);
+        scaledDrawables.add(
+            SCALING_THREADS.submit(
+                new Callable<Path>() {
+                  @Override
+                  public Path call() throws IOException, InterruptedException {
+                    return scale(context, factor, drawable, destination, cacheKey);
+                  }
+                }));
+        parents.add(drawable.getParent());
+      }
+    }
 
-        // Delete source file.
-        if (!filesystem.deleteFileAtPath(drawable)) {
-          throw new HumanReadableException("Cannot delete file: " + drawable);
-        }
+    List<Path> usedCacheEntries;
+    try {
+      usedCacheEntries = Futures.allAsList(scaledDrawables).get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+      throw Throwables.propagate(e.getCause());
+    }
 
-        // Delete newly-empty directories to prevent missing resources errors in apkbuilder.
-        Path parent = drawable.getParent();
-        if (filesystem.listFiles(parent).length == 0 && !filesystem.deleteFileAtPath(parent)) {
-          throw new HumanReadableException("Cannot delete directory: " + parent);
+    // Delete newly-empty directories to prevent missing resources errors in apkbuilder.
+    for (Path parent : parents) {
+      if (filesystem.listFiles(parent).length == 0 && !filesystem.deleteFileAtPath(parent)) {
+        throw new HumanReadableException("Cannot delete directory: " + parent);
+      }
+    }
+
+    // The cache directory is only created once something is scaled.
+    if (scaledDrawablesCacheDir != null && filesystem.isDirectory(scaledDrawablesCacheDir)) {
+      // Only keep what this build used, so that the cache does not grow without bounds.
+      Set<Path> used = ImmutableSet.copyOf(usedCacheEntries);
+      for (File cacheEntry : filesystem.listFiles(scaledDrawablesCacheDir)) {
+        Path path = scaledDrawablesCacheDir.resolve(cacheEntry.getName());
+        if (!used.contains(path)) {
+          filesystem.deleteFileAtPath(path);
         }
+      }
+    }
+  }
 
+  /**
+   * Scales {@code drawable} into {@code destination}, or copies the result of scaling the same
+   * image for the same densities in an earlier build, and deletes {@code drawable}.
+   *
+   * @return the entry of the cache that holds the scaled image, or {@code null} if there is no
+   *     cache.
+   */
+  @Nullable
+  private Path scale(
+      ExecutionContext context,
+      double factor,
+      Path drawable,
+      Path destination,
+      String cacheKey) throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Preconditions.checkNotNull(imageScaler);
+    Path cacheEntry = null;
+    if (scaledDrawablesCacheDir == null) {
+      imageScaler.scale(factor, drawable, destination, context);
+    } else {
+      String fileName = drawable.getFileName().toString();
+      cacheEntry = scaledDrawablesCacheDir.resolve(
+          String.format(
+              "%s-%s%s",
+              filesystem.computeSha1(drawable),
+              cacheKey,
+              fileName.substring(fileName.lastIndexOf('.'))));
+      if (!filesystem.exists(cacheEntry)) {
+        imageScaler.scale(factor, drawable, destination, context);
+        // Written under another name first, as another thread may be scaling an identical image.
+        filesystem.mkdirs(scaledDrawablesCacheDir);
+        Path temporaryEntry = cacheEntry.resolveSibling(
+            cacheEntry.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        filesystem.copyFile(destination, temporaryEntry);
+        filesystem.move(temporaryEntry, cacheEntry, StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        filesystem.copyFile(cacheEntry, destination);
       }
     }
+
+    // Delete source file.
+    if (!filesystem.deleteFileAtPath(drawable)) {
+      throw new HumanReadableException("Cannot delete file: " + drawable);
+    }
+    return cacheEntry;
   }
 
   public interface DrawableFinder {
@@ -448,6 +552,8 @@ public class FilterResourcesStep implements Step {
     private boolean filterStrings = false;
     private ImmutableSet<Path> whitelistedStringDirs = ImmutableSet.of();
     private ImmutableSet<String> locales = ImmutableSet.of();
+    @Nullable
+    private Path scaledDrawablesCacheDir;
 
     private Builder() {
     }
@@ -477,6 +583,11 @@ public class FilterResourcesStep implements Step {
       return this;
     }
 
+    public Builder setScaledDrawablesCacheDir(Path scaledDrawablesCacheDir) {
+      this.scaledDrawablesCacheDir = scaledDrawablesCacheDir;
+      return this;
+    }
+
     public FilterResourcesStep build() {
       Preconditions.checkNotNull(resourceFilter);
       LOG.info("FilterResourcesStep.Builder: resource filter: %s", resourceFilter);
@@ -490,7 +601,8 @@ public class FilterResourcesStep implements Step {
           DefaultFilteredDirectoryCopier.getInstance(),
           resourceFilter.getDensities(),
           DefaultDrawableFinder.getInstance(),
-          resourceFilter.shouldDownscale() ? ImageMagickScaler.getInstance() : null);
+          resourceFilter.shouldDownscale() ? ImageMagickScaler.getInstance() : null,
+          scaledDrawablesCacheDir);
     }
   }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayOutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Creates the signature block of a signed jar ({@code META-INF/CERT.RSA} and friends): a PKCS #7
+ * {@code SignedData} structure, encoded in DER, that holds the certificate of the signer and a
+ * detached signature of {@code META-INF/CERT.SF}. The structure is the same as the one that
+ * {@code jarsigner} and the signing code of the Android SDK write.
+ */
+class JarSignatureBlock {
+
+  private static final String SIGNED_DATA_OID = "1.2.840.113549.1.7.2";
+  private static final String DATA_OID = "1.2.840.113549.1.7.1";
+  private static final String SHA1_OID = "1.3.14.3.2.26";
+
+  private static final ImmutableMap<String, String> KEY_ALGORITHM_OIDS = ImmutableMap.of(
+      "RSA", "1.2.840.113549.1.1.1",
+      "DSA", "1.2.840.10040.4.1",
+      "EC", "1.2.840.10045.2.1");
+
+  private static final int INTEGER = 0x02;
+  private static final int OCTET_STRING = 0x04;
+  private static final int NULL = 0x05;
+  private static final int OBJECT_IDENTIFIER = 0x06;
+  private static final int SEQUENCE = 0x30;
+  private static final int SET = 0x31;
+  private static final int CONTEXT_SPECIFIC_0 = 0xa0;
+
+  private JarSignatureBlock() {
+    // Utility class.
+  }
+
+  /**
+   * @param certificate the certificate of the key that made {@code signature}.
+   * @param keyAlgorithm the algorithm of that key, such as {@code RSA}.
+   * @param signature the SHA-1 signature of the signature file.
+   */
+  public static byte[] create(X509Certificate certificate, String keyAlgorithm, byte[] signature)
+      throws CertificateEncodingException, NoSuchAlgorithmException {
+    String keyAlgorithmOid = KEY_ALGORITHM_OIDS.get(keyAlgorithm);
+    if (keyAlgorithmOid == null) {
+      throw new NoSuchAlgorithmException("Cannot sign APKs with " + keyAlgorithm + " keys.");
+    }
+
+    byte[] digestAlgorithm = encode(SEQUENCE, encodeOid(SHA1_OID), encode(NULL));
+    byte[] signerInfo = encode(
+        SEQUENCE,
+        encode(INTEGER, new byte[] {1}),
+        encode(
+            SEQUENCE,
+            certificate.getIssuerX500Principal().getEncoded(),
+            encode(INTEGER, certificate.getSerialNumber().toByteArray())),
+        digestAlgorithm,
+        encode(SEQUENCE, encodeOid(keyAlgorithmOid), encode(NULL)),
+        encode(OCTET_STRING, signature));
+    byte[] signedData = encode(
+        SEQUENCE,
+        encode(INTEGER, new byte[] {1}),
+        encode(SET, digestAlgorithm),
+        // The signature file is not included, as it is next to the signature block in the jar.
+        encode(SEQUENCE, encodeOid(DATA_OID)),
+        encode(CONTEXT_SPECIFIC_0, certificate.getEncoded()),
+        encode(SET, signerInfo));
+    return encode(SEQUENCE, encodeOid(SIGNED_DATA_OID), encode(CONTEXT_SPECIFIC_0, signedData));
+  }
+
+  private static byte[] encodeOid(String oid) {
+    List<Long> components = Lists.newArrayList();
+    for (String component : Splitter.on('.').split(oid)) {
+      components.add(Long.parseLong(component));
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // The first two components share a byte.
+    out.write((int) (components.get(0) * 40 + components.get(1)));
+    for (long component : components.subList(2, components.size())) {
+      // Base 128, most significant group first, with the top bit set on all but the last byte.
+      int shift = 0;
+      while ((component >>> (shift + 7)) != 0) {
+        shift += 7;
+      }
+      for (; shift > 0; shift -= 7) {
+        out.write((int) (0x80 | ((component >>> shift) & 0x7f)));
+      }
+      out.write((int) (component & 0x7f));
+    }
+    return encode(OBJECT_IDENTIFIER, out.toByteArray());
+  }
+
+  private static byte[] encode(int tag, byte[]... contents) {
+    int length = 0;
+    for (byte[] content : contents) {
+      length += content.length;
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+    out.write(tag);
+    if (length < 0x80) {
+      out.write(length);
+    } else {
+      // The long form: the number of bytes in the length, followed by the length itself.
+      int bytes = length > 0xffffff ? 4 : length > 0xffff ? 3 : length > 0xff ? 2 : 1;
+      out.write(0x80 | bytes);
+      for (int i = bytes - 1; i >= 0; i--) {
+        out.write(length >>> (i * 8));
+      }
+    }
+    for (byte[] content : contents) {
+      out.write(content, 0, content.length);
+    }
+    return out.toByteArray();
+  }
+}
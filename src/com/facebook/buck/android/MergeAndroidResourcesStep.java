@@ -34,6 +34,8 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
@@ -51,33 +53,42 @@ public class MergeAndroidResourcesStep implements Step {
   private final Optional<Path> uberRDotTxt;
   private final boolean warnMissingResource;
   private final Path outputDir;
+  private final Optional<Path> idsFile;
 
   /**
    * Merges text symbols files from {@code aapt} for each of the input {@code android_resource}
    * into a set of resources per R.java package and writes an {@code R.java} file per package under
    * the output directory. Also, if {@code uberRDotTxt} is present, the IDs in the output
    * {@code R.java} file will be taken from the {@code R.txt} file.
+   * <p>
+   * Otherwise, the IDs are re-enumerated. If {@code idsFile} is present, the IDs given out by the
+   * last run are read from it and kept, so that the {@code R.java} of a package only changes when
+   * its own resources do.
    */
   @VisibleForTesting
   MergeAndroidResourcesStep(
       List<HasAndroidResourceDeps> androidResourceDeps,
       Optional<Path> uberRDotTxt,
       boolean warnMissingResource,
-      Path outputDir) {
+      Path outputDir,
+      Optional<Path> idsFile) {
     this.androidResourceDeps = ImmutableList.copyOf(androidResourceDeps);
     this.uberRDotTxt = uberRDotTxt;
     this.warnMissingResource = warnMissingResource;
     this.outputDir = outputDir;
+    this.idsFile = idsFile;
   }
 
   public static MergeAndroidResourcesStep createStepForDummyRDotJava(
       List<HasAndroidResourceDeps> androidResourceDeps,
-      Path outputDir) {
+      Path outputDir,
+      Optional<Path> idsFile) {
     return new MergeAndroidResourcesStep(
         androidResourceDeps,
         Optional.<Path>absent(),
         false,
-        outputDir);
+        outputDir,
+        idsFile);
   }
 
   public static MergeAndroidResourcesStep createStepForUberRDotJava(
@@ -89,7 +100,8 @@ public class MergeAndroidResourcesStep implements Step {
         androidResourceDeps,
         Optional.of(uberRDotTxt),
         warnMissingResource,
-        outputDir);
+        outputDir,
+        Optional.<Path>absent());
   }
 
   public ImmutableSet<Path> getRDotJavaFiles() {
@@ -155,12 +167,35 @@ public class MergeAndroidResourcesStep implements Step {
 
     ImmutableMap<Path, String> symbolsFileToRDotJavaPackage = rDotTxtToPackage.build();
 
+    ImmutableMap<String, String> previousIds = ImmutableMap.of();
+    if (idsFile.isPresent() && filesystem.isFile(idsFile.get())) {
+      ImmutableMap.Builder<String, String> previousIdsBuilder = ImmutableMap.builder();
+      for (String line : filesystem.readLines(idsFile.get())) {
+        int lastSpace = line.lastIndexOf(' ');
+        previousIdsBuilder.put(line.substring(0, lastSpace), line.substring(lastSpace + 1));
+      }
+      previousIds = previousIdsBuilder.build();
+    }
+    Map<String, String> assignedIds = Maps.newTreeMap();
+
     SortedSetMultimap<String, RDotTxtEntry> rDotJavaPackageToResources = sortSymbols(
         symbolsFileToRDotJavaPackage,
         uberRDotTxtIds,
+        previousIds,
+        assignedIds,
         warnMissingResource,
         context);
 
+    if (idsFile.isPresent()) {
+      // Only the IDs in use are kept, so resources that were deleted do not pile up.
+      List<String> lines = Lists.newArrayList();
+      for (Map.Entry<String, String> entry : assignedIds.entrySet()) {
+        lines.add(entry.getKey() + " " + entry.getValue());
+      }
+      filesystem.createParentDirs(idsFile.get());
+      filesystem.writeLinesToPath(lines, idsFile.get());
+    }
+
     writePerPackageRDotJava(rDotJavaPackageToResources, filesystem);
     Set<String> emptyPackages = Sets.difference(
         ImmutableSet.copyOf(symbolsFileToRDotJavaPackage.values()),
@@ -237,15 +272,42 @@ public class MergeAndroidResourcesStep implements Step {
       Optional<ImmutableMap<RDotTxtEntry, String>> uberRDotTxtIds,
       boolean warnMissingResource,
       ExecutionContext context) {
+    return sortSymbols(
+        symbolsFileToRDotJavaPackage,
+        uberRDotTxtIds,
+        ImmutableMap.<String, String>of(),
+        Maps.<String, String>newHashMap(),
+        warnMissingResource,
+        context);
+  }
+
+  /**
+   * @param previousIds the IDs to reuse when re-enumerating, keyed by package, type and name of
+   *     the resource.
+   * @param assignedIds receives the IDs given out when re-enumerating, keyed the same way.
+   */
+  @VisibleForTesting
+  static SortedSetMultimap<String, RDotTxtEntry> sortSymbols(
+      Map<Path, String> symbolsFileToRDotJavaPackage,
+      Optional<ImmutableMap<RDotTxtEntry, String>> uberRDotTxtIds,
+      ImmutableMap<String, String> previousIds,
+      Map<String, String> assignedIds,
+      boolean warnMissingResource,
+      ExecutionContext context) {
     // If we're reenumerating, start at 0x7f01001 so that the resulting file is human readable.
     // This value range (0x7f010001 - ...) is easier to spot as an actual resource id instead of
-    // other values in styleable which can be enumerated integers starting at 0.
+    // other values in styleable which can be enumerated integers starting at 0. New resources get
+    // IDs after all of the previous ones, so that they never clash with one that is reused.
     Map<RDotTxtEntry, String> finalIds = null;
     IntEnumerator enumerator = null;
     if (uberRDotTxtIds.isPresent()) {
       finalIds = uberRDotTxtIds.get();
     } else {
-      enumerator = new IntEnumerator(0x7f01001);
+      int start = 0x7f01001;
+      for (String previousId : previousIds.values()) {
+        start = Math.max(start, Integer.decode(previousId) + 1);
+      }
+      enumerator = new IntEnumerator(start);
     }
 
     SortedSetMultimap<String, RDotTxtEntry> rDotJavaPackageToSymbolsFiles = TreeMultimap.create();
@@ -285,7 +347,16 @@ public class MergeAndroidResourcesStep implements Step {
           resource = resource.copyWithNewIdValue(finalIds.get(resource));
         } else if (resource.idValue.startsWith("0x7f")) {
           Preconditions.checkNotNull(enumerator);
-          resource = resource.copyWithNewIdValue(String.format("0x%08x", enumerator.next()));
+          String key = Joiner.on(' ').join(packageName, resource.type, resource.name);
+          String id = assignedIds.get(key);
+          if (id == null) {
+            id = previousIds.get(key);
+            if (id == null) {
+              id = String.format("0x%08x", enumerator.next());
+            }
+            assignedIds.put(key, id);
+          }
+          resource = resource.copyWithNewIdValue(id);
         }
 
         rDotJavaPackageToSymbolsFiles.put(packageName, resource);
@@ -31,6 +31,7 @@ import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.zip.ZipStep;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -97,7 +98,8 @@ public class PackageStringAssets extends AbstractBuildRule
     steps.add(new CompileStringsStep(
             filteredResourcesProvider.getNonEnglishStringFiles(),
             aaptPackageResources.getPathToRDotTxtDir(),
-            pathToStrings));
+            pathToStrings,
+            Optional.of(BuildTargets.getScratchPath(getBuildTarget(), "__%s_compiled_strings__"))));
     steps.add(new ZipStep(
             pathToStringAssetsZip,
             ImmutableSet.<Path>of(),
@@ -19,12 +19,14 @@ package com.facebook.buck.android;
 import com.facebook.buck.android.PreDexMerge.BuildOutput;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildOutputInitializer;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.ImmutableSha1HashCode;
 import com.facebook.buck.rules.InitializableFromDisk;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.RecordFileSha1Step;
@@ -36,21 +38,27 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
+import com.facebook.buck.step.fs.WriteFileStep;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -85,9 +93,13 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
 
   private static final String PRIMARY_DEX_HASH_KEY = "primary_dex_hash";
   private static final String SECONDARY_DEX_DIRECTORIES_KEY = "secondary_dex_directories";
+  private static final String SECONDARY_DEX_HASHES_KEY = "secondary_dex_hashes";
+
+  private static final Logger LOG = Logger.get(PreDexMerge.class);
 
   private final Path primaryDexPath;
   private final DexSplitMode dexSplitMode;
+  private final boolean incremental;
   private final ImmutableSet<DexProducedFromJavaLibrary> preDexDeps;
   private final AaptPackageResources aaptPackageResources;
   private final BuildOutputInitializer<BuildOutput> buildOutputInitializer;
@@ -97,11 +109,13 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       SourcePathResolver resolver,
       Path primaryDexPath,
       DexSplitMode dexSplitMode,
+      boolean incremental,
       ImmutableSet<DexProducedFromJavaLibrary> preDexDeps,
       AaptPackageResources aaptPackageResources) {
     super(params, resolver);
     this.primaryDexPath = primaryDexPath;
     this.dexSplitMode = dexSplitMode;
+    this.incremental = incremental;
     this.preDexDeps = preDexDeps;
     this.aaptPackageResources = aaptPackageResources;
     this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
@@ -139,6 +153,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     private final Path metadataSubdir;
     private final Path jarfilesSubdir;
     private final Path metadataFile;
+    private final Path secondaryDexGroupsFile;
 
     private SplitDexPaths() {
       Path workDir = BuildTargets.getScratchPath(getBuildTarget(), "_%s_output");
@@ -152,13 +167,14 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       metadataSubdir = metadataDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
       jarfilesSubdir = jarfilesDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
       metadataFile = metadataSubdir.resolve("metadata.txt");
+      secondaryDexGroupsFile = workDir.resolve("secondary_dex_groups.txt");
     }
   }
 
   private void addStepsForSplitDex(
       ImmutableList.Builder<Step> steps,
       BuildContext context,
-      BuildableContext buildableContext) {
+      final BuildableContext buildableContext) {
 
     // Collect all of the DexWithClasses objects to use for merging.
     ImmutableList<DexWithClasses> dexFilesToMerge = FluentIterable.from(preDexDeps)
@@ -201,10 +217,24 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
         paths.scratchDir,
         dexSplitMode.getLinearAllocHardLimit(),
         dexSplitMode.getDexStore(),
-        paths.jarfilesSubdir);
+        paths.jarfilesSubdir,
+        incremental ?
+            readSecondaryDexGroups(context.getProjectRoot().resolve(paths.secondaryDexGroupsFile)) :
+            ImmutableMap.<Path, Integer>of());
     final PreDexedFilesSorter.Result sortResult =
         preDexedFilesSorter.sortIntoPrimaryAndSecondaryDexes(context, steps);
 
+    // Remember the grouping, so that the next build can keep the secondary dexes that it does not
+    // need to change. The grouping is not recorded as an artifact: it is only a hint for the next
+    // local build, and a build that does not have it groups the libraries from scratch.
+    if (incremental) {
+      StringBuilder secondaryDexGroups = new StringBuilder();
+      for (Map.Entry<Path, Integer> entry : sortResult.secondaryDexGroups.entrySet()) {
+        secondaryDexGroups.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+      }
+      steps.add(new WriteFileStep(secondaryDexGroups.toString(), paths.secondaryDexGroupsFile));
+    }
+
     steps.add(new SmartDexingStep(
         primaryDexPath,
         Suppliers.ofInstance(sortResult.primaryDexInputs),
@@ -228,6 +258,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
         ProjectFilesystem filesystem = executionContext.getProjectFilesystem();
         Map<Path, DexWithClasses> metadataTxtEntries = sortResult.metadataTxtDexEntries;
         List<String> lines = Lists.newArrayListWithCapacity(metadataTxtEntries.size());
+        List<String> secondaryDexHashes = Lists.newArrayList();
         if (dexSplitMode.getDexStore() == DexStore.RAW) {
           lines.add(".root_relative");
         }
@@ -240,8 +271,11 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
             String hash = filesystem.computeSha1(pathToSecondaryDex);
             lines.add(String.format("%s %s %s",
                 pathToSecondaryDex.getFileName(), hash, containedClass));
+            secondaryDexHashes.add(String.format("%s %s", pathToSecondaryDex.getFileName(), hash));
           }
           filesystem.writeLinesToPath(lines, paths.metadataFile);
+          Collections.sort(secondaryDexHashes);
+          buildableContext.addMetadata(SECONDARY_DEX_HASHES_KEY, secondaryDexHashes);
         } catch (IOException e) {
           executionContext.logError(e, "Failed when writing metadata.txt multi-dex.");
           return 1;
@@ -251,6 +285,30 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     });
   }
 
+  /**
+   * @return the index of the secondary dex that each pre-dexed library went into during the last
+   *     build, or nothing if that is not known.
+   */
+  private static ImmutableMap<Path, Integer> readSecondaryDexGroups(Path secondaryDexGroupsFile) {
+    if (!Files.isRegularFile(secondaryDexGroupsFile)) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<Path, Integer> secondaryDexGroups = ImmutableMap.builder();
+    try {
+      for (String line : Files.readAllLines(secondaryDexGroupsFile, Charsets.UTF_8)) {
+        List<String> parts = Splitter.on(' ').limit(2).splitToList(line);
+        int index = Integer.parseInt(parts.get(0));
+        Preconditions.checkState(index >= 0, "Invalid secondary dex index: %s.", index);
+        secondaryDexGroups.put(Paths.get(parts.get(1)), index);
+      }
+      return secondaryDexGroups.build();
+    } catch (IOException | RuntimeException e) {
+      // This only makes the build slower, so start over with a new grouping.
+      LOG.warn(e, "Ignoring the secondary dex groups in %s.", secondaryDexGroupsFile);
+      return ImmutableMap.of();
+    }
+  }
+
   private void addStepsForSingleDex(
       ImmutableList.Builder<Step> steps,
       final BuildableContext buildableContext) {
@@ -302,7 +360,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
   @Override
   public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
     dexSplitMode.appendToRuleKey(builder, "dexSplitMode");
-    return builder;
+    return builder.setReflectively("incremental", incremental);
   }
 
   @Nullable
@@ -321,14 +379,27 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     return buildOutputInitializer.getBuildOutput().secondaryDexDirectories;
   }
 
+  /**
+   * @return the SHA-1 of each secondary dex file, by file name.
+   */
+  public ImmutableMap<String, Sha1HashCode> getSecondaryDexHashes() {
+    Preconditions.checkState(dexSplitMode.isShouldSplitDex());
+    return buildOutputInitializer.getBuildOutput().secondaryDexHashes;
+  }
+
   static class BuildOutput {
     /** Null iff this is a single-dex app. */
     @Nullable private final Sha1HashCode primaryDexHash;
     private final ImmutableSet<Path> secondaryDexDirectories;
+    private final ImmutableMap<String, Sha1HashCode> secondaryDexHashes;
 
-    BuildOutput(@Nullable Sha1HashCode primaryDexHash, ImmutableSet<Path> secondaryDexDirectories) {
+    BuildOutput(
+        @Nullable Sha1HashCode primaryDexHash,
+        ImmutableSet<Path> secondaryDexDirectories,
+        ImmutableMap<String, Sha1HashCode> secondaryDexHashes) {
       this.primaryDexHash = primaryDexHash;
       this.secondaryDexDirectories = secondaryDexDirectories;
+      this.secondaryDexHashes = secondaryDexHashes;
     }
   }
 
@@ -340,11 +411,19 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       Preconditions.checkState(primaryDexHash.isPresent());
     }
 
+    ImmutableMap.Builder<String, Sha1HashCode> secondaryDexHashes = ImmutableMap.builder();
+    for (String entry :
+        onDiskBuildInfo.getValues(SECONDARY_DEX_HASHES_KEY).or(ImmutableList.<String>of())) {
+      List<String> parts = Splitter.on(' ').splitToList(entry);
+      secondaryDexHashes.put(parts.get(0), ImmutableSha1HashCode.of(parts.get(1)));
+    }
+
     return new BuildOutput(
         primaryDexHash.orNull(),
         FluentIterable.from(onDiskBuildInfo.getValues(SECONDARY_DEX_DIRECTORIES_KEY).get())
             .transform(MorePaths.TO_PATH)
-            .toSet());
+            .toSet(),
+        secondaryDexHashes.build());
   }
 
   @Override
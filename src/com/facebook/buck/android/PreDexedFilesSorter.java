@@ -54,6 +54,13 @@ import java.util.Set;
 
 /**
  * Responsible for bucketing pre-dexed objects into primary and secondary dex files.
+ * <p>
+ * The secondary dex files are grouped so that they change as little as possible from one build
+ * to the next: each pre-dexed object goes back into the secondary dex that it was in during the
+ * previous build if it still fits there, and only the objects that are new or that grew out of
+ * their old group are placed anew. {@link SmartDexingStep} then only re-merges the secondary dex
+ * files whose contents changed. Without a previous grouping, the objects are simply packed in
+ * order.
  */
 public class PreDexedFilesSorter {
 
@@ -64,6 +71,9 @@ public class PreDexedFilesSorter {
   private final DexStore dexStore;
   private final Path secondaryDexJarFilesDir;
 
+  /** The index of the secondary dex that each pre-dexed object was in during the last build. */
+  private final ImmutableMap<Path, Integer> previousSecondaryDexGroups;
+
   /**
    * Directory under the project filesystem where this step may write temporary data. This directory
    * must exist and be empty before this step writes to it.
@@ -77,7 +87,8 @@ public class PreDexedFilesSorter {
       Path scratchDirectory,
       long linearAllocHardLimit,
       DexStore dexStore,
-      Path secondaryDexJarFilesDir) {
+      Path secondaryDexJarFilesDir,
+      ImmutableMap<Path, Integer> previousSecondaryDexGroups) {
     this.rDotJavaDex = rDotJavaDex;
     this.dexFilesToMerge = dexFilesToMerge;
     this.primaryDexFilter = ClassNameFilter.fromConfiguration(primaryDexPatterns);
@@ -86,13 +97,14 @@ public class PreDexedFilesSorter {
     this.linearAllocHardLimit = linearAllocHardLimit;
     this.dexStore = dexStore;
     this.secondaryDexJarFilesDir = secondaryDexJarFilesDir;
+    this.previousSecondaryDexGroups = previousSecondaryDexGroups;
   }
 
   public Result sortIntoPrimaryAndSecondaryDexes(
       BuildContext context,
       ImmutableList.Builder<Step> steps) {
     List<DexWithClasses> primaryDexContents = Lists.newArrayList();
-    List<List<DexWithClasses>> secondaryDexesContents = Lists.newArrayList();
+    List<DexWithClasses> secondaryDexEntries = Lists.newArrayList();
 
     int primaryDexSize = 0;
     // R.class files should always be in the primary dex.
@@ -101,14 +113,10 @@ public class PreDexedFilesSorter {
       primaryDexContents.add(rDotJavaDex.get());
     }
 
-    // Sort dex files so that there's a better chance of the same set of pre-dexed files to end up
-    // in a given secondary dex file.
+    // Sort dex files so that the grouping does not depend on the order of the deps.
     ImmutableList<DexWithClasses> sortedDexFilesToMerge = FluentIterable.from(dexFilesToMerge)
         .toSortedList(DexWithClasses.DEX_WITH_CLASSES_COMPARATOR);
 
-    // Bucket each DexWithClasses into the appropriate dex file.
-    List<DexWithClasses> currentSecondaryDexContents = null;
-    int currentSecondaryDexSize = 0;
     for (DexWithClasses dexWithClasses : sortedDexFilesToMerge) {
       if (mustBeInPrimaryDex(dexWithClasses)) {
         // Case 1: Entry must be in the primary dex.
@@ -137,23 +145,24 @@ public class PreDexedFilesSorter {
               linearAllocHardLimit);
           throw new HumanReadableException("Secondary dex exceeds linear alloc limit.");
         }
+        secondaryDexEntries.add(dexWithClasses);
+      }
+    }
 
-        // If there is no current secondary dex, or dexWithClasses would put the current secondary
-        // dex over the cost threshold, then create a new secondary dex and initialize it with a
-        // canary.
-        if (currentSecondaryDexContents == null ||
-            dexWithClasses.getSizeEstimate() + currentSecondaryDexSize > linearAllocHardLimit) {
-          DexWithClasses canary = createCanary(secondaryDexesContents.size() + 1, steps);
-
-          currentSecondaryDexContents = Lists.newArrayList(canary);
-          currentSecondaryDexSize = canary.getSizeEstimate();
-          secondaryDexesContents.add(currentSecondaryDexContents);
-        }
+    List<SecondaryDexGroup> groups = groupSecondaryDexEntries(secondaryDexEntries);
 
-        // Now add the contributions from the dexWithClasses entry.
-        currentSecondaryDexContents.add(dexWithClasses);
-        currentSecondaryDexSize += dexWithClasses.getSizeEstimate();
+    // Each secondary dex starts with a canary, which is named after its index.
+    List<List<DexWithClasses>> secondaryDexesContents = Lists.newArrayList();
+    ImmutableMap.Builder<Path, Integer> secondaryDexGroups = ImmutableMap.builder();
+    for (int index = 0; index < groups.size(); index++) {
+      List<DexWithClasses> contents = Lists.newArrayList(createCanary(index + 1, steps));
+      List<DexWithClasses> sortedContents = FluentIterable.from(groups.get(index).contents)
+          .toSortedList(DexWithClasses.DEX_WITH_CLASSES_COMPARATOR);
+      for (DexWithClasses dexWithClasses : sortedContents) {
+        contents.add(dexWithClasses);
+        secondaryDexGroups.put(dexWithClasses.getPathToDexFile(), index);
       }
+      secondaryDexesContents.add(contents);
     }
 
     ImmutableSet<Path> primaryDexInputs = FluentIterable.from(primaryDexContents)
@@ -176,7 +185,61 @@ public class PreDexedFilesSorter {
         primaryDexInputs,
         secondaryOutputToInputs.build(),
         metadataTxtEntries,
-        getDexInputsHashes(primaryDexContents, secondaryDexesContents));
+        getDexInputsHashes(primaryDexContents, secondaryDexesContents),
+        secondaryDexGroups.build());
+  }
+
+  /**
+   * Puts every entry back into the group that it was in during the previous build, if it still
+   * fits there. The entries that are new, or that no longer fit, go into the first group that has
+   * room for them. Groups that end up empty are filled with the last group, so that only that group
+   * has to be renamed.
+   */
+  private List<SecondaryDexGroup> groupSecondaryDexEntries(List<DexWithClasses> entries) {
+    List<SecondaryDexGroup> groups = Lists.newArrayList();
+    List<DexWithClasses> entriesToPlace = Lists.newArrayList();
+    for (DexWithClasses entry : entries) {
+      Integer previousIndex = previousSecondaryDexGroups.get(entry.getPathToDexFile());
+      // There is never a need for more groups than entries, whatever the previous build says.
+      if (previousIndex == null || previousIndex < 0 || previousIndex >= entries.size()) {
+        entriesToPlace.add(entry);
+        continue;
+      }
+      while (groups.size() <= previousIndex) {
+        groups.add(new SecondaryDexGroup());
+      }
+      if (!groups.get(previousIndex).add(entry)) {
+        entriesToPlace.add(entry);
+      }
+    }
+
+    for (DexWithClasses entry : entriesToPlace) {
+      boolean added = false;
+      for (SecondaryDexGroup group : groups) {
+        if (group.add(entry)) {
+          added = true;
+          break;
+        }
+      }
+      if (!added) {
+        SecondaryDexGroup group = new SecondaryDexGroup();
+        group.add(entry);
+        groups.add(group);
+      }
+    }
+
+    int index = 0;
+    while (index < groups.size()) {
+      if (groups.get(groups.size() - 1).contents.isEmpty()) {
+        groups.remove(groups.size() - 1);
+        continue;
+      }
+      if (groups.get(index).contents.isEmpty()) {
+        groups.set(index, groups.remove(groups.size() - 1));
+      }
+      index++;
+    }
+    return groups;
   }
 
   private static ImmutableMap<Path, Sha1HashCode> getDexInputsHashes(
@@ -261,20 +324,41 @@ public class PreDexedFilesSorter {
     };
   }
 
+  private class SecondaryDexGroup {
+    private final List<DexWithClasses> contents = Lists.newArrayList();
+    private int size = 0;
+
+    /**
+     * @return whether {@code entry} fit within the linear alloc limit and was added.
+     */
+    boolean add(DexWithClasses entry) {
+      if (size + entry.getSizeEstimate() > linearAllocHardLimit) {
+        return false;
+      }
+      contents.add(entry);
+      size += entry.getSizeEstimate();
+      return true;
+    }
+  }
+
   public static class Result {
     public final Set<Path> primaryDexInputs;
     public final Multimap<Path, Path> secondaryOutputToInputs;
     public final Map<Path, DexWithClasses> metadataTxtDexEntries;
     public final DexInputHashesProvider dexInputHashesProvider;
+    /** The index of the secondary dex that each pre-dexed object went into. */
+    public final ImmutableMap<Path, Integer> secondaryDexGroups;
 
     public Result(
         Set<Path> primaryDexInputs,
         Multimap<Path, Path> secondaryOutputToInputs,
         Map<Path, DexWithClasses> metadataTxtDexEntries,
-        final ImmutableMap<Path, Sha1HashCode> dexInputHashes) {
+        final ImmutableMap<Path, Sha1HashCode> dexInputHashes,
+        ImmutableMap<Path, Integer> secondaryDexGroups) {
       this.primaryDexInputs = primaryDexInputs;
       this.secondaryOutputToInputs = secondaryOutputToInputs;
       this.metadataTxtDexEntries = metadataTxtDexEntries;
+      this.secondaryDexGroups = secondaryDexGroups;
       this.dexInputHashesProvider = new DexInputHashesProvider() {
         @Override
         public ImmutableMap<Path, Sha1HashCode> getDexInputHashes() {
@@ -48,4 +48,12 @@ public class ProGuardConfig {
     return delegate.getValue("tools", "proguard-max-heap-size").or("1024M");
   }
 
+  /**
+   * @return whether to keep the output of the last run of ProGuard, and reuse it instead of running
+   *     ProGuard again when none of its input jars or its configuration changed.
+   */
+  public boolean isProguardIncremental() {
+    return delegate.getBooleanValue("tools", "proguard-incremental", false);
+  }
+
 }
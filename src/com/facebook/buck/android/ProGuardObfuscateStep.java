@@ -16,6 +16,8 @@
 
 package com.facebook.buck.android;
 
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.AbstractExecutionStep;
@@ -25,18 +27,26 @@ import com.facebook.buck.step.fs.TouchStep;
 import com.facebook.buck.zip.CustomZipOutputStream;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
@@ -53,12 +63,16 @@ public final class ProGuardObfuscateStep extends ShellStep {
   private final Path pathToProGuardCommandLineArgsFile;
   private final Optional<Path> proguardJarOverride;
   private final String proguardMaxHeapSize;
+  private final CommandLineHelperStep commandLineHelperStep;
+  private final Optional<Path> incrementalCacheDirectory;
 
   /**
    * Create steps that write out ProGuard's command line arguments to a text file and then run
    * ProGuard using those arguments. We write the arguments to a file to avoid blowing out
    * exec()'s ARG_MAX limit.
    *
+   * @param incrementalCacheDirectory If present, a directory where the outputs of the last run of
+   *     ProGuard are kept, so that they can be reused when none of its inputs changed.
    * @param steps Where to append the generated steps.
    */
   public static void create(
@@ -71,6 +85,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
       Map<Path, Path> inputAndOutputEntries,
       Set<Path> additionalLibraryJarsForProguard,
       Path proguardDirectory,
+      Optional<Path> incrementalCacheDirectory,
       BuildableContext buildableContext,
       ImmutableList.Builder<Step> steps) {
 
@@ -90,7 +105,9 @@ public final class ProGuardObfuscateStep extends ShellStep {
         inputAndOutputEntries,
         pathToProGuardCommandLineArgsFile,
         proguardJarOverride,
-        proguardMaxHeapSize);
+        proguardMaxHeapSize,
+        commandLineHelperStep,
+        incrementalCacheDirectory);
 
     buildableContext.recordArtifact(commandLineHelperStep.getConfigurationTxt());
     buildableContext.recordArtifact(commandLineHelperStep.getMappingTxt());
@@ -108,16 +125,21 @@ public final class ProGuardObfuscateStep extends ShellStep {
    * @param inputAndOutputEntries Map of input/output pairs to proguard. The key represents an
    *     input jar (-injars); the value an output jar (-outjars).
    * @param pathToProGuardCommandLineArgsFile Path to file containing arguments to ProGuard.
+   * @param commandLineHelperStep The step that writes {@code pathToProGuardCommandLineArgsFile}.
    */
   private ProGuardObfuscateStep(
       Map<Path, Path> inputAndOutputEntries,
       Path pathToProGuardCommandLineArgsFile,
       Optional<Path> proguardJarOverride,
-      String proguardMaxHeapSize) {
+      String proguardMaxHeapSize,
+      CommandLineHelperStep commandLineHelperStep,
+      Optional<Path> incrementalCacheDirectory) {
     this.inputAndOutputEntries = ImmutableMap.copyOf(inputAndOutputEntries);
     this.pathToProGuardCommandLineArgsFile = pathToProGuardCommandLineArgsFile;
     this.proguardJarOverride = proguardJarOverride;
     this.proguardMaxHeapSize = proguardMaxHeapSize;
+    this.commandLineHelperStep = commandLineHelperStep;
+    this.incrementalCacheDirectory = incrementalCacheDirectory;
   }
 
   @Override
@@ -128,25 +150,67 @@ public final class ProGuardObfuscateStep extends ShellStep {
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     // Run ProGuard as a standalone executable JAR file.
-    Path proguardJar;
-    if (proguardJarOverride.isPresent()) {
-      proguardJar =
-          context.getProjectFilesystem().getPathForRelativePath(proguardJarOverride.get());
-    } else {
-      AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
-      proguardJar = androidPlatformTarget.getProguardJar();
-    }
-
     ImmutableList.Builder<String> args = ImmutableList.builder();
     args.add("java")
         .add("-Xmx" + proguardMaxHeapSize)
-        .add("-jar").add(proguardJar.toString())
+        .add("-jar").add(getProguardJar(context).toString())
         .add("@" + pathToProGuardCommandLineArgsFile);
     return args.build();
   }
 
+  private Path getProguardJar(ExecutionContext context) {
+    if (proguardJarOverride.isPresent()) {
+      return context.getProjectFilesystem().getPathForRelativePath(proguardJarOverride.get());
+    } else {
+      return context.getAndroidPlatformTarget().getProguardJar();
+    }
+  }
+
   @Override
   public int execute(ExecutionContext context) throws InterruptedException {
+    if (!incrementalCacheDirectory.isPresent()) {
+      return runProGuard(context);
+    }
+
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Path stateFile = incrementalCacheDirectory.get().resolve("state.txt");
+    ImmutableList<String> state;
+    try {
+      state = computeIncrementalState(context);
+      List<String> previousState = filesystem.isFile(stateFile) ?
+          filesystem.readLines(stateFile) :
+          ImmutableList.<String>of();
+      if (state.equals(previousState) && restoreCachedOutputs(filesystem)) {
+        context.postEvent(
+            ConsoleEvent.info(
+                "ProGuard: none of the %d input jars or the configuration changed, " +
+                    "reusing the output of the last run.",
+                inputAndOutputEntries.size()));
+        return 0;
+      }
+      reportReprocessedInputs(context, previousState, state);
+      filesystem.deleteFileAtPath(stateFile);
+    } catch (IOException e) {
+      context.logError(e, "Error checking the inputs of the last run of ProGuard.");
+      return 1;
+    }
+
+    int exitCode = runProGuard(context);
+    if (exitCode != 0) {
+      return exitCode;
+    }
+
+    try {
+      saveCachedOutputs(filesystem);
+      filesystem.writeLinesToPath(state, stateFile);
+    } catch (IOException e) {
+      context.logError(e, "Error saving the output of ProGuard for the next run.");
+      return 1;
+    }
+    return 0;
+  }
+
+  private int runProGuard(ExecutionContext context) throws InterruptedException {
     int exitCode = super.execute(context);
 
     // proguard has a peculiar behaviour when multiple -injars/outjars pairs are specified in which
@@ -162,8 +226,9 @@ public final class ProGuardObfuscateStep extends ShellStep {
   }
 
   private int ensureAllOutputsExist(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
     for (Path outputJar : inputAndOutputEntries.values()) {
-      File outputJarFile = outputJar.toFile();
+      File outputJarFile = filesystem.getFileForRelativePath(outputJar);
       if (!outputJarFile.exists()) {
         try {
           createEmptyZip(outputJarFile);
@@ -176,6 +241,131 @@ public final class ProGuardObfuscateStep extends ShellStep {
     return 0;
   }
 
+  /**
+   * @return one line with a hash of everything but the input jars that could affect the output of
+   *     ProGuard, followed by one line with the hash of each input jar.
+   */
+  private ImmutableList<String> computeIncrementalState(ExecutionContext context)
+      throws IOException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Hasher configuration = Hashing.sha1().newHasher();
+    for (String arg : getShellCommandInternal(context)) {
+      configuration.putString(arg, Charsets.UTF_8).putByte((byte) 0);
+    }
+    configuration.putString(hashPath(filesystem, getProguardJar(context)), Charsets.UTF_8);
+
+    ImmutableList<String> parameters = commandLineHelperStep.getParameters(context);
+    for (int i = 0; i < parameters.size(); i++) {
+      String parameter = parameters.get(i);
+      configuration.putString(parameter, Charsets.UTF_8).putByte((byte) 0);
+      String option = i > 0 ? parameters.get(i - 1) : "";
+      if (option.equals("-include")) {
+        configuration.putString(hashPath(filesystem, Paths.get(parameter)), Charsets.UTF_8);
+      } else if (option.equals("-libraryjars")) {
+        Iterable<String> libraryJars =
+            Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(parameter);
+        for (String libraryJar : libraryJars) {
+          configuration.putString(hashPath(filesystem, Paths.get(libraryJar)), Charsets.UTF_8);
+        }
+      }
+    }
+
+    ImmutableList.Builder<String> state = ImmutableList.builder();
+    state.add("configuration " + configuration.hash());
+    for (Path input : inputAndOutputEntries.keySet()) {
+      state.add(hashPath(filesystem, input) + " " + input);
+    }
+    return state.build();
+  }
+
+  private static String hashPath(ProjectFilesystem filesystem, Path path) throws IOException {
+    if (filesystem.isDirectory(path)) {
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (Path file : Ordering.natural().sortedCopy(filesystem.getFilesUnderPath(path))) {
+        hasher.putString(file.toString(), Charsets.UTF_8);
+        hasher.putString(filesystem.computeSha1(file), Charsets.UTF_8);
+      }
+      return hasher.hash().toString();
+    } else if (filesystem.isFile(path)) {
+      return filesystem.computeSha1(path);
+    } else {
+      return "missing";
+    }
+  }
+
+  private void reportReprocessedInputs(
+      ExecutionContext context,
+      List<String> previousState,
+      List<String> state) {
+    if (previousState.isEmpty() || !previousState.get(0).equals(state.get(0))) {
+      context.postEvent(
+          ConsoleEvent.info(
+              "ProGuard: the configuration changed, processing all %d input jars.",
+              inputAndOutputEntries.size()));
+      return;
+    }
+    Set<String> previousInputs = ImmutableSet.copyOf(previousState);
+    List<String> changedInputs = Lists.newArrayList();
+    for (String input : state.subList(1, state.size())) {
+      if (!previousInputs.contains(input)) {
+        changedInputs.add(input.substring(input.indexOf(' ') + 1));
+      }
+    }
+    context.postEvent(
+        ConsoleEvent.info(
+            "ProGuard: %d of %d input jars changed, processing all of them again. Changed: %s",
+            changedInputs.size(),
+            inputAndOutputEntries.size(),
+            Joiner.on(", ").join(changedInputs)));
+  }
+
+  private ImmutableMap<Path, Path> getCachedOutputs() {
+    Path cacheDirectory = incrementalCacheDirectory.get();
+    ImmutableMap.Builder<Path, Path> cachedOutputs = ImmutableMap.builder();
+    for (Path output : inputAndOutputEntries.values()) {
+      String name = Hashing.sha1().hashString(output.toString(), Charsets.UTF_8) + ".jar";
+      cachedOutputs.put(output, cacheDirectory.resolve(name));
+    }
+    Path mappingTxt = commandLineHelperStep.getMappingTxt();
+    Path configurationTxt = commandLineHelperStep.getConfigurationTxt();
+    cachedOutputs.put(mappingTxt, cacheDirectory.resolve(mappingTxt.getFileName()));
+    cachedOutputs.put(configurationTxt, cacheDirectory.resolve(configurationTxt.getFileName()));
+    return cachedOutputs.build();
+  }
+
+  private void saveCachedOutputs(ProjectFilesystem filesystem) throws IOException {
+    for (Map.Entry<Path, Path> entry : getCachedOutputs().entrySet()) {
+      filesystem.createParentDirs(entry.getValue());
+      if (filesystem.exists(entry.getKey())) {
+        filesystem.copyFile(entry.getKey(), entry.getValue());
+      } else {
+        // mapping.txt is not written when obfuscation is turned off.
+        filesystem.deleteFileAtPath(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return whether the output of the last run was there to be restored.
+   */
+  private boolean restoreCachedOutputs(ProjectFilesystem filesystem) throws IOException {
+    ImmutableMap<Path, Path> cachedOutputs = getCachedOutputs();
+    for (Path output : inputAndOutputEntries.values()) {
+      if (!filesystem.exists(cachedOutputs.get(output))) {
+        return false;
+      }
+    }
+    for (Map.Entry<Path, Path> entry : cachedOutputs.entrySet()) {
+      filesystem.createParentDirs(entry.getKey());
+      if (filesystem.exists(entry.getValue())) {
+        filesystem.copyFile(entry.getValue(), entry.getKey());
+      } else {
+        filesystem.deleteFileAtPath(entry.getKey());
+      }
+    }
+    return true;
+  }
+
   @VisibleForTesting
   static void createEmptyZip(File file) throws IOException {
     Files.createParentDirs(file);
@@ -198,12 +388,16 @@ public final class ProGuardObfuscateStep extends ShellStep {
     ProGuardObfuscateStep that = (ProGuardObfuscateStep) obj;
     return Objects.equal(this.inputAndOutputEntries, that.inputAndOutputEntries) &&
         Objects.equal(this.pathToProGuardCommandLineArgsFile,
-            that.pathToProGuardCommandLineArgsFile);
+            that.pathToProGuardCommandLineArgsFile) &&
+        Objects.equal(this.incrementalCacheDirectory, that.incrementalCacheDirectory);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(inputAndOutputEntries, pathToProGuardCommandLineArgsFile);
+    return Objects.hashCode(
+        inputAndOutputEntries,
+        pathToProGuardCommandLineArgsFile,
+        incrementalCacheDirectory);
   }
 
   /**
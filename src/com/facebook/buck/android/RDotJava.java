@@ -41,18 +41,6 @@ public class RDotJava {
   /** Utility class: do not instantiate. */
   private RDotJava() {}
 
-  static JavacStep createJavacStepForUberRDotJavaFiles(
-      Set<Path> javaSourceFilePaths,
-      Path outputDirectory,
-      JavacOptions javacOptions,
-      BuildTarget buildTarget) {
-    return createJavacStepForDummyRDotJavaFiles(
-        javaSourceFilePaths,
-        outputDirectory,
-        javacOptions,
-        buildTarget);
-  }
-
   static JavacStep createJavacStepForDummyRDotJavaFiles(
       Set<Path> javaSourceFilePaths,
       Path outputDirectory,
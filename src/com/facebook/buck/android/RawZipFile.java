@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a zip straight from its central directory, so that their data can be copied
+ * into another zip as it is, without being inflated and deflated again, which
+ * {@link java.util.zip.ZipFile} does not allow.
+ * <p>
+ * Zip64 archives, which {@code aapt} and the other Android tools never write, are not supported.
+ */
+class RawZipFile implements Closeable {
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ImmutableList<Entry> entries;
+
+  public RawZipFile(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.entries = readCentralDirectory();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public ImmutableList<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return the data of {@code entry} exactly as it is stored in the zip.
+   */
+  public InputStream getRawInputStream(Entry entry) throws IOException {
+    ByteBuffer localHeader = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (localHeader.getInt(0) != (int) ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("Bad local header for %s in %s.", entry.getName(), path));
+    }
+    long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE +
+        (localHeader.getShort(26) & 0xffff) +
+        (localHeader.getShort(28) & 0xffff);
+    return new RegionInputStream(dataOffset, entry.getCompressedSize());
+  }
+
+  /**
+   * @return the uncompressed data of {@code entry}.
+   */
+  public InputStream getInputStream(Entry entry) throws IOException {
+    InputStream raw = getRawInputStream(entry);
+    if (entry.getMethod() == ZipEntry.STORED) {
+      return raw;
+    }
+    // As with java.util.zip.ZipFile, a "dummy" byte is needed after the data when inflating
+    // without the zlib wrapper.
+    return new InflaterInputStream(
+        new SequenceInputStream(raw, new ByteArrayInputStream(new byte[1])),
+        new Inflater(/* nowrap */ true));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableList<Entry> readCentralDirectory() throws IOException {
+    long size = channel.size();
+    int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(size - tailSize, tailSize);
+
+    int end = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == (int) ZipEntry.ENDSIG) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1) {
+      throw new ZipException(String.format("%s is not a zip file.", path));
+    }
+
+    int count = tail.getShort(end + 10) & 0xffff;
+    long centralDirectorySize = tail.getInt(end + 12) & 0xffffffffL;
+    long centralDirectoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+    if (count == 0xffff || centralDirectoryOffset == 0xffffffffL) {
+      throw new ZipException(String.format("%s is a zip64 file, which is not supported.", path));
+    }
+
+    ByteBuffer centralDirectory = read(centralDirectoryOffset, (int) centralDirectorySize);
+    ImmutableList.Builder<Entry> builder = ImmutableList.builder();
+    int position = 0;
+    for (int i = 0; i < count; i++) {
+      if (centralDirectory.getInt(position) != (int) ZipEntry.CENSIG) {
+        throw new ZipException(String.format("Bad central directory in %s.", path));
+      }
+      int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+      int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+      int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+      byte[] name = new byte[nameLength];
+      centralDirectory.position(position + CENTRAL_HEADER_SIZE);
+      centralDirectory.get(name);
+
+      builder.add(
+          new Entry(
+              new String(name, Charsets.UTF_8),
+              centralDirectory.getShort(position + 10) & 0xffff,
+              centralDirectory.getInt(position + 12),
+              centralDirectory.getInt(position + 16) & 0xffffffffL,
+              centralDirectory.getInt(position + 20) & 0xffffffffL,
+              centralDirectory.getInt(position + 24) & 0xffffffffL,
+              centralDirectory.getInt(position + 42) & 0xffffffffL));
+      position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return builder.build();
+  }
+
+  private ByteBuffer read(long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException(String.format("Unexpected end of %s.", path));
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * An entry as described by the central directory.
+   */
+  public static class Entry {
+    private final String name;
+    private final int method;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    private Entry(
+        String name,
+        int method,
+        int dosTime,
+        long crc,
+        long compressedSize,
+        long size,
+        long localHeaderOffset) {
+      this.name = name;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /** @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}. */
+    public int getMethod() {
+      return method;
+    }
+
+    /** @return the modification time of the entry, in MS-DOS format. */
+    public int getDosTime() {
+      return dosTime;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * Reads part of the file with positional reads, so that any number of these can be open at once.
+   */
+  private class RegionInputStream extends InputStream {
+    private long position;
+    private long remaining;
+
+    public RegionInputStream(long position, long length) {
+      this.position = position;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException(String.format("Unexpected end of %s.", path));
+      }
+      position += read;
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = Math.min(n, remaining);
+      position += skipped;
+      remaining -= skipped;
+      return skipped;
+    }
+  }
+
+}
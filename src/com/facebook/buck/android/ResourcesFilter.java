@@ -214,7 +214,9 @@ public class ResourcesFilter extends AbstractBuildRule
     ImmutableBiMap<Path, Path> resSourceToDestDirMap = filteredResourcesDirMapBuilder.build();
     FilterResourcesStep.Builder filterResourcesStepBuilder = FilterResourcesStep.builder()
         .setInResToOutResDirMap(resSourceToDestDirMap)
-        .setResourceFilter(resourceFilter);
+        .setResourceFilter(resourceFilter)
+        .setScaledDrawablesCacheDir(
+            BuildTargets.getScratchPath(getBuildTarget(), "__%s_scaled_drawables__"));
 
     if (isStoreStringsAsAssets()) {
       filterResourcesStepBuilder.enableStringsFilter();
@@ -42,12 +42,15 @@ public class RobolectricTestDescription implements Description<RobolectricTestDe
 
   private final JavacOptions templateOptions;
   private final Optional<Long> testRuleTimeoutMs;
+  private final boolean dummyRDotJavaStableIds;
 
   public RobolectricTestDescription(
       JavacOptions templateOptions,
-      Optional<Long> testRuleTimeoutMs) {
+      Optional<Long> testRuleTimeoutMs,
+      boolean dummyRDotJavaStableIds) {
     this.templateOptions = templateOptions;
     this.testRuleTimeoutMs = testRuleTimeoutMs;
+    this.dummyRDotJavaStableIds = dummyRDotJavaStableIds;
   }
 
   @Override
@@ -84,7 +87,8 @@ public class RobolectricTestDescription implements Description<RobolectricTestDe
         params.copyWithExtraDeps(
             Suppliers.ofInstance(resolver.getAllRules(args.exportedDeps.get()))),
         javacOptions.build(),
-        ResourceDependencyMode.TRANSITIVE);
+        ResourceDependencyMode.TRANSITIVE,
+        dummyRDotJavaStableIds);
     Optional<DummyRDotJava> dummyRDotJava = graphEnhancer.createBuildableForAndroidResources(
         resolver,
         /* createBuildableIfEmpty */ true);
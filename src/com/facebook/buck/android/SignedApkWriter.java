@@ -0,0 +1,708 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes a signed and aligned APK in a single pass, so that it does not have to be rewritten by
+ * {@code zipalign} afterwards.
+ * <ul>
+ *   <li>The data of every stored entry starts at a multiple of 4 bytes from the start of the file,
+ *   or of 4096 bytes for native libraries, as {@code zipalign} would leave it.</li>
+ *   <li>The SHA-1 digest of every entry is taken as it is added, and {@link #finish()} writes the
+ *   jar signature from them.</li>
+ *   <li>Entries copied from other zips keep the data that they were compressed to there.</li>
+ *   <li>Entries that are compressed here are deflated straight into the APK, with their sizes in a
+ *   data descriptor after the data, so that no entry is ever held in memory.</li>
+ *   <li>An entry that has to be compressed is copied from the previous version of the APK instead,
+ *   if that has an entry of the same name with the same digest.</li>
+ *   <li>An entry that is copied from a zip keeps the digest that it has in the previous version of
+ *   the APK, if that has the same compressed data for it, so that it is not inflated.</li>
+ * </ul>
+ * When only a few inputs have changed since the previous APK was written, only those entries are
+ * deflated or inflated. The others are just copied.
+ */
+class SignedApkWriter implements Closeable {
+
+  private static final Logger LOG = Logger.get(SignedApkWriter.class);
+
+  private static final int ALIGNMENT = 4;
+  private static final int NATIVE_LIBRARY_ALIGNMENT = 4096;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int DATA_DESCRIPTOR_SIZE = 16;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+  private static final int UTF8_NAMES_FLAG = 1 << 11;
+  private static final long DOS_EPOCH_START = (1 << 21) | (1 << 16);
+
+  private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  private static final String DIGEST_ALGORITHM = "SHA1";
+  private static final String DIGEST_ATTRIBUTE = "SHA1-Digest";
+  // The same as the signing code of the Android SDK.
+  private static final String CREATED_BY = "1.0 (Android)";
+  private static final int MAX_LINE_LENGTH = 72;
+  private static final ImmutableMap<String, String> SIGNATURE_ALGORITHMS = ImmutableMap.of(
+      "RSA", DIGEST_ALGORITHM + "withRSA",
+      "DSA", DIGEST_ALGORITHM + "withDSA",
+      "EC", DIGEST_ALGORITHM + "withECDSA");
+
+  private final PrivateKey privateKey;
+  private final X509Certificate certificate;
+  private final ImmutableSet<String> entriesToCompress;
+  private final CountingOutputStream out;
+  private final MessageDigest messageDigest;
+  private final byte[] buffer = new byte[8192];
+
+  /** Where each entry came from, to report duplicates. */
+  private final Map<String, Path> origins = Maps.newHashMap();
+  /** The base64-encoded digest of each entry, in the order in which they were written. */
+  private final Map<String, String> digests = Maps.newLinkedHashMap();
+  private final List<CentralDirectoryRecord> records = Lists.newArrayList();
+
+  @Nullable private final RawZipFile previousApk;
+  private final ImmutableMap<String, RawZipFile.Entry> previousEntries;
+  private final ImmutableMap<String, String> previousDigests;
+  private int entriesReused = 0;
+
+  /**
+   * @param output where to write the APK.
+   * @param previousApk an earlier version of the APK, from which to reuse compressed entries. It is
+   *     ignored if it cannot be read.
+   * @param entriesToCompress names of entries that should be compressed even though they are
+   *     stored in the zips that they are copied from.
+   */
+  public SignedApkWriter(
+      Path output,
+      Optional<Path> previousApk,
+      PrivateKey privateKey,
+      X509Certificate certificate,
+      ImmutableSet<String> entriesToCompress) throws IOException, NoSuchAlgorithmException {
+    this.privateKey = privateKey;
+    this.certificate = certificate;
+    this.entriesToCompress = entriesToCompress;
+    this.messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+    RawZipFile previous = null;
+    ImmutableMap<String, RawZipFile.Entry> previousEntries = ImmutableMap.of();
+    ImmutableMap<String, String> previousDigests = ImmutableMap.of();
+    if (previousApk.isPresent() && Files.isRegularFile(previousApk.get())) {
+      try {
+        previous = new RawZipFile(previousApk.get());
+        ImmutableMap.Builder<String, RawZipFile.Entry> entries = ImmutableMap.builder();
+        ImmutableMap.Builder<String, String> digests = ImmutableMap.builder();
+        for (RawZipFile.Entry entry : previous.getEntries()) {
+          entries.put(entry.getName(), entry);
+          if (entry.getName().equals(MANIFEST_NAME)) {
+            try (InputStream in = previous.getInputStream(entry)) {
+              for (Map.Entry<String, Attributes> section :
+                  new Manifest(in).getEntries().entrySet()) {
+                String digest = section.getValue().getValue(DIGEST_ATTRIBUTE);
+                if (digest != null) {
+                  digests.put(section.getKey(), digest);
+                }
+              }
+            }
+          }
+        }
+        previousEntries = entries.build();
+        previousDigests = digests.build();
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Not reusing any entries of %s, as it could not be read.", previousApk.get());
+        if (previous != null) {
+          previous.close();
+        }
+        previous = null;
+        previousEntries = ImmutableMap.of();
+        previousDigests = ImmutableMap.of();
+      }
+    }
+    this.previousApk = previous;
+    this.previousEntries = previousEntries;
+    this.previousDigests = previousDigests;
+
+    this.out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(output)));
+  }
+
+  /**
+   * Adds {@code file} to the APK as {@code name}, compressed.
+   */
+  public void addFile(Path file, String name) throws IOException {
+    checkForDuplicate(name, file);
+    int dosTime = toDosTime(Files.getLastModifiedTime(file).toMillis());
+
+    // The file is only read ahead of compressing it if the previous APK may already have it.
+    if (mayBeInPreviousApk(name, Files.size(file))) {
+      Contents contents;
+      try (InputStream in = Files.newInputStream(file)) {
+        contents = read(in);
+      }
+      if (reuseFromPreviousApk(name, contents, dosTime)) {
+        return;
+      }
+    }
+    try (InputStream in = Files.newInputStream(file)) {
+      writeDeflated(name, dosTime, in);
+    }
+  }
+
+  /**
+   * Adds the entries of {@code zip} for which {@code filter} returns {@code true}. Directories and
+   * the contents of {@code META-INF/} are always left out, as the latter would clash with the
+   * signature of the APK.
+   */
+  public void addZipEntries(Path zip, Predicate<String> filter) throws IOException {
+    try (RawZipFile source = new RawZipFile(zip)) {
+      for (RawZipFile.Entry entry : source.getEntries()) {
+        String name = entry.getName();
+        if (entry.isDirectory() || name.startsWith("META-INF/") || !filter.apply(name)) {
+          continue;
+        }
+        if (entry.getMethod() != ZipEntry.STORED && entry.getMethod() != ZipEntry.DEFLATED) {
+          throw new ZipException(
+              String.format("%s in %s uses an unsupported compression method.", name, zip));
+        }
+        checkForDuplicate(name, zip);
+
+        if (entry.getMethod() == ZipEntry.DEFLATED || !entriesToCompress.contains(name)) {
+          Optional<String> digest = getDigestIfUnchanged(source, entry);
+          Contents contents;
+          if (digest.isPresent()) {
+            contents = new Contents(entry.getCrc(), entry.getSize(), digest.get());
+            entriesReused++;
+          } else {
+            try (InputStream in = source.getInputStream(entry)) {
+              contents = read(in);
+            }
+          }
+          try (InputStream in = source.getRawInputStream(entry)) {
+            writeEntry(
+                name,
+                entry.getMethod(),
+                entry.getDosTime(),
+                contents,
+                entry.getCompressedSize(),
+                in);
+          }
+        } else {
+          if (mayBeInPreviousApk(name, entry.getSize())) {
+            Contents contents;
+            try (InputStream in = source.getInputStream(entry)) {
+              contents = read(in);
+            }
+            if (reuseFromPreviousApk(name, contents, entry.getDosTime())) {
+              continue;
+            }
+          }
+          try (InputStream in = source.getInputStream(entry)) {
+            writeDeflated(name, entry.getDosTime(), in);
+          }
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getNumberOfEntriesReused() {
+    return entriesReused;
+  }
+
+  /**
+   * Writes the signature of the APK and its central directory. Nothing can be added afterwards.
+   */
+  public void finish() throws IOException, GeneralSecurityException {
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    writeAttribute(manifest, "Manifest-Version", "1.0");
+    writeAttribute(manifest, "Created-By", CREATED_BY);
+    manifest.write('\r');
+    manifest.write('\n');
+
+    // Each section of the signature file holds the digest of the matching section of the manifest.
+    ByteArrayOutputStream signatureSections = new ByteArrayOutputStream();
+    for (Map.Entry<String, String> entry : digests.entrySet()) {
+      ByteArrayOutputStream section = new ByteArrayOutputStream();
+      writeAttribute(section, "Name", entry.getKey());
+      writeAttribute(section, DIGEST_ATTRIBUTE, entry.getValue());
+      section.write('\r');
+      section.write('\n');
+      section.writeTo(manifest);
+
+      writeAttribute(signatureSections, "Name", entry.getKey());
+      writeAttribute(signatureSections, DIGEST_ATTRIBUTE, digest(section.toByteArray()));
+      signatureSections.write('\r');
+      signatureSections.write('\n');
+    }
+    byte[] manifestBytes = manifest.toByteArray();
+
+    ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+    writeAttribute(signatureFile, "Signature-Version", "1.0");
+    writeAttribute(signatureFile, "Created-By", CREATED_BY);
+    writeAttribute(signatureFile, DIGEST_ALGORITHM + "-Digest-Manifest", digest(manifestBytes));
+    signatureFile.write('\r');
+    signatureFile.write('\n');
+    signatureSections.writeTo(signatureFile);
+    byte[] signatureFileBytes = signatureFile.toByteArray();
+
+    String keyAlgorithm = privateKey.getAlgorithm();
+    Signature signature = Signature.getInstance(getSignatureAlgorithm(keyAlgorithm));
+    signature.initSign(privateKey);
+    signature.update(signatureFileBytes);
+    byte[] signatureBlock =
+        JarSignatureBlock.create(certificate, keyAlgorithm, signature.sign());
+
+    int dosTime = toDosTime(System.currentTimeMillis());
+    writeDeflated(MANIFEST_NAME, manifestBytes, dosTime);
+    writeDeflated("META-INF/CERT.SF", signatureFileBytes, dosTime);
+    writeDeflated("META-INF/CERT." + keyAlgorithm, signatureBlock, dosTime);
+
+    writeCentralDirectory();
+    out.flush();
+
+    LOG.debug("Reused %d of %d entries from the previous APK.", entriesReused, digests.size());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.close();
+    } finally {
+      if (previousApk != null) {
+        previousApk.close();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static String getSignatureAlgorithm(String keyAlgorithm) throws NoSuchAlgorithmException {
+    String signatureAlgorithm = SIGNATURE_ALGORITHMS.get(keyAlgorithm);
+    if (signatureAlgorithm == null) {
+      throw new NoSuchAlgorithmException("Cannot sign APKs with " + keyAlgorithm + " keys.");
+    }
+    return signatureAlgorithm;
+  }
+
+  private void checkForDuplicate(String name, Path origin) {
+    Path existing = origins.put(name, origin);
+    if (existing != null) {
+      throw new HumanReadableException(
+          "Found duplicate file for APK: %1$s\nOrigin 1: %2$s\nOrigin 2: %3$s",
+          name,
+          existing,
+          origin);
+    }
+  }
+
+  /**
+   * @return whether the previous APK has a compressed entry of the given name and size, which
+   *     {@link #reuseFromPreviousApk} may copy once the contents of the new one are known.
+   */
+  private boolean mayBeInPreviousApk(String name, long size) {
+    RawZipFile.Entry previous = previousEntries.get(name);
+    return previousApk != null &&
+        previous != null &&
+        previous.getMethod() == ZipEntry.DEFLATED &&
+        previous.getSize() == size &&
+        previousDigests.containsKey(name);
+  }
+
+  private boolean reuseFromPreviousApk(String name, Contents contents, int dosTime)
+      throws IOException {
+    RawZipFile.Entry previous = previousEntries.get(name);
+    if (previousApk == null ||
+        previous == null ||
+        previous.getMethod() != ZipEntry.DEFLATED ||
+        previous.getSize() != contents.size ||
+        previous.getCrc() != contents.crc ||
+        !contents.digest.equals(previousDigests.get(name))) {
+      return false;
+    }
+
+    try (InputStream in = previousApk.getRawInputStream(previous)) {
+      writeEntry(name, ZipEntry.DEFLATED, dosTime, contents, previous.getCompressedSize(), in);
+    }
+    entriesReused++;
+    return true;
+  }
+
+  /**
+   * An entry that is copied from a zip as it is does not have to be inflated to take its digest if
+   * the previous APK has the very same compressed data under the same name, as that data can only
+   * inflate to the contents that the digest in the previous manifest was taken of. The central
+   * directories are compared first, so that the data is only read when it is likely to match.
+   *
+   * @return the digest that the previous APK has for {@code entry}, if the entry has not changed.
+   */
+  private Optional<String> getDigestIfUnchanged(RawZipFile source, RawZipFile.Entry entry)
+      throws IOException {
+    RawZipFile.Entry previous = previousEntries.get(entry.getName());
+    String digest = previousDigests.get(entry.getName());
+    if (previousApk == null ||
+        previous == null ||
+        digest == null ||
+        previous.getMethod() != entry.getMethod() ||
+        previous.getCrc() != entry.getCrc() ||
+        previous.getSize() != entry.getSize() ||
+        previous.getCompressedSize() != entry.getCompressedSize()) {
+      return Optional.absent();
+    }
+
+    try (InputStream in = source.getRawInputStream(entry);
+         InputStream previousIn = previousApk.getRawInputStream(previous)) {
+      byte[] previousBuffer = new byte[buffer.length];
+      for (int read = ByteStreams.read(in, buffer, 0, buffer.length);
+           read > 0;
+           read = ByteStreams.read(in, buffer, 0, buffer.length)) {
+        if (ByteStreams.read(previousIn, previousBuffer, 0, read) != read ||
+            !equalPrefixes(buffer, previousBuffer, read)) {
+          return Optional.absent();
+        }
+      }
+    }
+    return Optional.of(digest);
+  }
+
+  private static boolean equalPrefixes(byte[] a, byte[] b, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void writeDeflated(String name, byte[] bytes, int dosTime) throws IOException {
+    writeDeflated(name, dosTime, new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Compresses {@code in} straight into the APK, taking its digest on the way. Its sizes and CRC-32
+   * are only known at the end, so they follow the data in a data descriptor.
+   */
+  private void writeDeflated(String name, int dosTime, InputStream in) throws IOException {
+    byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+    long offset = out.getCount();
+    int flags = UTF8_NAMES_FLAG | DATA_DESCRIPTOR_FLAG;
+    writeLocalHeader(
+        nameBytes,
+        ZipEntry.DEFLATED,
+        flags,
+        dosTime,
+        /* crc */ 0,
+        /* compressedSize */ 0,
+        /* size */ 0,
+        /* padding */ 0);
+
+    long dataOffset = out.getCount();
+    CRC32 crc = new CRC32();
+    messageDigest.reset();
+    long size = 0;
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, /* nowrap */ true);
+    try {
+      // Finishing the stream, rather than closing it, leaves the APK open.
+      DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater);
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        crc.update(buffer, 0, read);
+        messageDigest.update(buffer, 0, read);
+        deflating.write(buffer, 0, read);
+        size += read;
+      }
+      deflating.finish();
+    } finally {
+      deflater.end();
+    }
+    long compressedSize = out.getCount() - dataOffset;
+    Contents contents =
+        new Contents(crc.getValue(), size, BaseEncoding.base64().encode(messageDigest.digest()));
+
+    ByteBuffer descriptor = ByteBuffer.allocate(DATA_DESCRIPTOR_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    descriptor.putInt((int) ZipEntry.EXTSIG);
+    descriptor.putInt((int) contents.crc);
+    descriptor.putInt((int) compressedSize);
+    descriptor.putInt((int) contents.size);
+    out.write(descriptor.array());
+
+    addRecord(name, nameBytes, ZipEntry.DEFLATED, flags, dosTime, contents, compressedSize, offset);
+  }
+
+  private void writeEntry(
+      String name,
+      int method,
+      int dosTime,
+      Contents contents,
+      long compressedSize,
+      InputStream data) throws IOException {
+    byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+    long offset = out.getCount();
+
+    // Like zipalign, pad the extra field of the local file header so that the data is aligned.
+    int padding = 0;
+    if (method == ZipEntry.STORED) {
+      int alignment = name.endsWith(".so") ? NATIVE_LIBRARY_ALIGNMENT : ALIGNMENT;
+      padding = (int) ((alignment - (offset + LOCAL_HEADER_SIZE + nameBytes.length) % alignment) %
+          alignment);
+    }
+
+    writeLocalHeader(
+        nameBytes,
+        method,
+        UTF8_NAMES_FLAG,
+        dosTime,
+        contents.crc,
+        compressedSize,
+        contents.size,
+        padding);
+
+    long written = ByteStreams.copy(data, out);
+    if (written != compressedSize) {
+      throw new ZipException(
+          String.format("Expected %d bytes for %s but got %d.", compressedSize, name, written));
+    }
+
+    addRecord(name, nameBytes, method, UTF8_NAMES_FLAG, dosTime, contents, compressedSize, offset);
+  }
+
+  private void writeLocalHeader(
+      byte[] nameBytes,
+      int method,
+      int flags,
+      int dosTime,
+      long crc,
+      long compressedSize,
+      long size,
+      int padding) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length + padding)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt((int) ZipEntry.LOCSIG);
+    header.putShort((short) getRequiredExtractVersion(method));
+    header.putShort((short) flags);
+    header.putShort((short) method);
+    header.putInt(dosTime);
+    header.putInt((int) crc);
+    header.putInt((int) compressedSize);
+    header.putInt((int) size);
+    header.putShort((short) nameBytes.length);
+    header.putShort((short) padding);
+    header.put(nameBytes);
+    out.write(header.array());
+  }
+
+  private void addRecord(
+      String name,
+      byte[] nameBytes,
+      int method,
+      int flags,
+      int dosTime,
+      Contents contents,
+      long compressedSize,
+      long offset) {
+    records.add(
+        new CentralDirectoryRecord(
+            nameBytes,
+            method,
+            flags,
+            dosTime,
+            contents.crc,
+            compressedSize,
+            contents.size,
+            offset));
+    digests.put(name, contents.digest);
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    long start = out.getCount();
+    for (CentralDirectoryRecord record : records) {
+      ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + record.name.length)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt((int) ZipEntry.CENSIG);
+      header.putShort((short) getRequiredExtractVersion(record.method));  // Version made by.
+      header.putShort((short) getRequiredExtractVersion(record.method));
+      header.putShort((short) record.flags);
+      header.putShort((short) record.method);
+      header.putInt(record.dosTime);
+      header.putInt((int) record.crc);
+      header.putInt((int) record.compressedSize);
+      header.putInt((int) record.size);
+      header.putShort((short) record.name.length);
+      header.putShort((short) 0);  // Extra field length.
+      header.putShort((short) 0);  // Comment length.
+      header.putShort((short) 0);  // Disk on which the file starts.
+      header.putShort((short) 0);  // Internal attributes.
+      header.putInt(0);            // External attributes.
+      header.putInt((int) record.offset);
+      header.put(record.name);
+      out.write(header.array());
+    }
+    long size = out.getCount() - start;
+
+    ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    end.putInt((int) ZipEntry.ENDSIG);
+    end.putShort((short) 0);  // Number of this disk.
+    end.putShort((short) 0);  // Disk on which the central directory starts.
+    end.putShort((short) records.size());
+    end.putShort((short) records.size());
+    end.putInt((int) size);
+    end.putInt((int) start);
+    end.putShort((short) 0);  // Comment length.
+    out.write(end.array());
+  }
+
+  private Contents read(InputStream in) throws IOException {
+    CRC32 crc = new CRC32();
+    messageDigest.reset();
+    long size = 0;
+    for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+      crc.update(buffer, 0, read);
+      messageDigest.update(buffer, 0, read);
+      size += read;
+    }
+    return new Contents(crc.getValue(), size, BaseEncoding.base64().encode(messageDigest.digest()));
+  }
+
+  private String digest(byte[] bytes) {
+    messageDigest.reset();
+    return BaseEncoding.base64().encode(messageDigest.digest(bytes));
+  }
+
+  /**
+   * Writes a "name: value" line of a manifest, breaking it into lines of at most 72 bytes.
+   */
+  private static void writeAttribute(ByteArrayOutputStream out, String name, String value) {
+    byte[] line = (name + ": " + value).getBytes(Charsets.UTF_8);
+    int start = 0;
+    int lineLength = MAX_LINE_LENGTH;
+    while (line.length - start > lineLength) {
+      out.write(line, start, lineLength);
+      out.write('\r');
+      out.write('\n');
+      out.write(' ');
+      start += lineLength;
+      // Continuation lines start with a space.
+      lineLength = MAX_LINE_LENGTH - 1;
+    }
+    out.write(line, start, line.length - start);
+    out.write('\r');
+    out.write('\n');
+  }
+
+  private static int getRequiredExtractVersion(int method) {
+    return method == ZipEntry.DEFLATED ? 20 : 10;
+  }
+
+  private static int toDosTime(long millis) {
+    Calendar instance = Calendar.getInstance();
+    instance.setTimeInMillis(millis);
+
+    int year = instance.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (int) DOS_EPOCH_START;
+    }
+    return (year - 1980) << 25 |
+        (instance.get(Calendar.MONTH) + 1) << 21 |
+        instance.get(Calendar.DAY_OF_MONTH) << 16 |
+        instance.get(Calendar.HOUR_OF_DAY) << 11 |
+        instance.get(Calendar.MINUTE) << 5 |
+        instance.get(Calendar.SECOND) >> 1;
+  }
+
+  /** What goes in the headers and the manifest for the uncompressed data of an entry. */
+  private static class Contents {
+    private final long crc;
+    private final long size;
+    private final String digest;
+
+    public Contents(long crc, long size, String digest) {
+      this.crc = crc;
+      this.size = size;
+      this.digest = digest;
+    }
+  }
+
+  private static class CentralDirectoryRecord {
+    private final byte[] name;
+    private final int method;
+    private final int flags;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long offset;
+
+    public CentralDirectoryRecord(
+        byte[] name,
+        int method,
+        int flags,
+        int dosTime,
+        long crc,
+        long compressedSize,
+        long size,
+        long offset) {
+      this.name = name;
+      this.method = method;
+      this.flags = flags;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.offset = offset;
+    }
+  }
+}
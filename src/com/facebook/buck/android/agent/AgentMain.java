@@ -17,6 +17,7 @@
 package com.facebook.buck.android.agent;
 
 import com.facebook.buck.android.agent.util.AgentUtil;
+import com.facebook.buck.android.agent.util.BatchedFileTransfer;
 
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -68,6 +69,8 @@ public class AgentMain {
         doMkdirP(userArgs);
       } else if (command.equals("receive-file")) {
         doReceiveFile(userArgs);
+      } else if (command.equals("receive-files")) {
+        doReceiveFiles(userArgs);
       } else {
         throw new IllegalArgumentException("Unknown command: " + command);
       }
@@ -155,6 +158,49 @@ public class AgentMain {
     }
   }
 
+  /**
+   * Receive a batch of files over a single network connection and write them to a directory.
+   *
+   * <p>Arguments are
+   *   <ol>
+   *     <li>The port to listen on.
+   *     <li>The directory to write the files to.
+   *   </ol>
+   *
+   * <p>The secret key is exchanged just as for {@link #doReceiveFile}.  It is followed by the
+   * files, in the format described in {@link BatchedFileTransfer}.
+   */
+  private static void doReceiveFiles(List<String> userArgs) throws IOException {
+    if (userArgs.size() != 2) {
+      throw new IllegalArgumentException("usage: receive-files PORT DIR");
+    }
+
+    int port = Integer.parseInt(userArgs.get(0));
+    File directory = new File(userArgs.get(1));
+
+    ServerSocket serverSocket = null;
+    try {
+      serverSocket = new ServerSocket(port);
+
+      byte[] secretKey = createAndSendSessionKey();
+
+      serverSocket.setSoTimeout(CONNECT_TIMEOUT_MS);
+      Socket connectionSocket = serverSocket.accept();
+      // A batch may take arbitrarily long, but no single read should stall.
+      connectionSocket.setSoTimeout(RECEIVE_TIMEOUT_MS);
+      InputStream input = connectionSocket.getInputStream();
+
+      receiveAndValidateSessionKey(secretKey, input);
+
+      int count = BatchedFileTransfer.receiveFiles(input, directory);
+      LOG.info("Received " + count + " files.");
+    } finally {
+      if (serverSocket != null) {
+        serverSocket.close();
+      }
+    }
+  }
+
   private static byte[] createAndSendSessionKey() throws IOException {
     // Generate a random key to authenticate the network connection.
     // On some devices, I had trouble using SecureRandom in a non-app context
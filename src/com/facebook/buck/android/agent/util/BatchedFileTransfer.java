@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.agent.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sends many files over a single connection to the agent, for the "receive-files" command.
+ *
+ * <p>After the secret key, everything on the connection is deflate-compressed.  Each file is
+ * sent as:
+ *   <ol>
+ *     <li>(boolean) true, meaning that another file follows.
+ *     <li>(UTF) the name of the file, which must not contain a path separator.
+ *     <li>(long) the size of the file.
+ *     <li>(bytes) the contents of the file.
+ *     <li>(bytes) the SHA-1 of the contents, computed as they were sent.
+ *   </ol>
+ * The stream ends with a single (boolean) false.  Each file is written to a temp file and only
+ * renamed into place once its size and digest have been verified, so a failed transfer never
+ * leaves a partial file behind.
+ */
+public final class BatchedFileTransfer {
+  private BatchedFileTransfer() {}
+
+  private static final String DIGEST_ALGORITHM = "SHA-1";
+  private static final int BUFFER_SIZE = 128 * 1024;
+
+  /**
+   * Writes the files of a batch to a connection.  Callers must call {@link #addFile} for each file
+   * and then {@link #finish}.
+   */
+  public static class Sender {
+    private final DeflaterOutputStream deflaterStream;
+    private final DataOutputStream output;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    public Sender(OutputStream connection) {
+      this.deflaterStream = new DeflaterOutputStream(
+          connection,
+          new Deflater(Deflater.BEST_SPEED),
+          BUFFER_SIZE);
+      this.output = new DataOutputStream(new BufferedOutputStream(deflaterStream, BUFFER_SIZE));
+    }
+
+    public void addFile(String name, File source) throws IOException {
+      checkName(name);
+      MessageDigest digest = newDigest();
+      long size = source.length();
+      output.writeBoolean(true);
+      output.writeUTF(name);
+      output.writeLong(size);
+
+      InputStream input = new FileInputStream(source);
+      try {
+        long remaining = size;
+        while (remaining > 0) {
+          int got = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (got == -1) {
+            throw new IOException("File " + source + " shrank while it was being sent.");
+          }
+          digest.update(buffer, 0, got);
+          output.write(buffer, 0, got);
+          remaining -= got;
+        }
+      } finally {
+        input.close();
+      }
+      output.write(digest.digest());
+    }
+
+    /**
+     * Marks the end of the batch and flushes everything to the connection, without closing it.
+     */
+    public void finish() throws IOException {
+      output.writeBoolean(false);
+      output.flush();
+      deflaterStream.finish();
+      deflaterStream.flush();
+    }
+  }
+
+  /**
+   * Reads a batch written by a {@link Sender} from {@code connection} into {@code directory}.
+   *
+   * @return the number of files received.
+   */
+  public static int receiveFiles(InputStream connection, File directory) throws IOException {
+    DataInputStream input = new DataInputStream(
+        new BufferedInputStream(new InflaterInputStream(connection), BUFFER_SIZE));
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int count = 0;
+    while (input.readBoolean()) {
+      String name = input.readUTF();
+      checkName(name);
+      long size = input.readLong();
+      receiveFile(input, new File(directory, name), size, buffer);
+      count++;
+    }
+    return count;
+  }
+
+  private static void receiveFile(DataInputStream input, File path, long size, byte[] buffer)
+      throws IOException {
+    // The host takes care of deleting temp files left behind by failed transfers.
+    File tempfile = File.createTempFile(
+        AgentUtil.TEMP_PREFIX + path.getName() + "-",
+        ".tmp",
+        path.getParentFile());
+    MessageDigest digest = newDigest();
+    OutputStream output = new FileOutputStream(tempfile);
+    try {
+      long remaining = size;
+      while (remaining > 0) {
+        int got = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (got == -1) {
+          throw new IOException("Received only " + (size - remaining) + " of " + size +
+              " bytes of " + path.getName() + ".");
+        }
+        digest.update(buffer, 0, got);
+        output.write(buffer, 0, got);
+        remaining -= got;
+      }
+    } finally {
+      output.close();
+    }
+
+    byte[] expectedDigest = new byte[digest.getDigestLength()];
+    input.readFully(expectedDigest);
+    if (!Arrays.equals(expectedDigest, digest.digest())) {
+      tempfile.delete();
+      throw new IOException("Digest mismatch for " + path.getName() + ".");
+    }
+
+    boolean success = tempfile.renameTo(path);
+    if (!success) {
+      throw new IOException("Failed to rename temp file to " + path.getName() + ".");
+    }
+  }
+
+  private static void checkName(String name) {
+    if (name.length() == 0 || name.indexOf('/') != -1 ||
+        name.equals(".") || name.equals("..")) {
+      throw new IllegalArgumentException("Invalid file name: " + name);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -56,7 +56,9 @@ public class AuditClasspathCommand extends AbstractCommandRunner<AuditCommandOpt
 
     this.targetGraphTransformer = new TargetGraphToActionGraph(
         params.getBuckEventBus(),
-        new BuildTargetNodeToBuildRuleTransformer());
+        new BuildTargetNodeToBuildRuleTransformer(),
+        params.getRepository().getBuckConfig().getNumActionGraphThreads(),
+        params.getActionGraphCache());
   }
 
   @Override
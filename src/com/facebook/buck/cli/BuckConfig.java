@@ -557,6 +557,20 @@ public class BuckConfig {
     return Boolean.parseBoolean(getValue("adb", "adb_restart_on_failure").or("true"));
   }
 
+  /**
+   * @return how many target nodes may be transformed into build rules at once when creating the
+   *     action graph.
+   */
+  public int getNumActionGraphThreads() {
+    long numThreads = getLong("build", "action_graph_threads").or(1L);
+    if (numThreads < 1) {
+      throw new HumanReadableException(
+          "[build] action_graph_threads must be at least 1, but is %d.",
+          numThreads);
+    }
+    return (int) numThreads;
+  }
+
   public boolean getFlushEventsBeforeExit() {
     return getBooleanValue("daemon", "flush_events_before_exit", false);
   }
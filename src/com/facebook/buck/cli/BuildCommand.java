@@ -51,7 +51,9 @@ public class BuildCommand extends AbstractCommandRunner<BuildCommandOptions> {
 
     this.targetGraphTransformer = new TargetGraphToActionGraph(
         params.getBuckEventBus(),
-        new BuildTargetNodeToBuildRuleTransformer());
+        new BuildTargetNodeToBuildRuleTransformer(),
+        params.getRepository().getBuckConfig().getNumActionGraphThreads(),
+        params.getActionGraphCache());
   }
 
   @Override
@@ -123,7 +125,8 @@ public class BuildCommand extends AbstractCommandRunner<BuildCommandOptions> {
              getCommandRunnerParams().getEnvironment(),
              getCommandRunnerParams().getObjectMapper(),
              getCommandRunnerParams().getClock(),
-             pool.getExecutor())) {
+             pool.getExecutor(),
+             getCommandRunnerParams().getWorkerProcessPool())) {
       lastBuild = build;
       int exitCode = build.executeAndPrintFailuresToConsole(
           buildTargets,
@@ -24,6 +24,7 @@ import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.ArtifactCache;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
@@ -50,7 +51,7 @@ import javax.annotation.Nullable;
 public class BuildCommandOptions extends AbstractCommandOptions {
 
   @Option(name = "--num-threads", aliases = "-j", usage = "Default is 1.25 * num processors.")
-  private int numThreads = (int) (Runtime.getRuntime().availableProcessors() * 1.25);
+  private int numThreads;
 
   @Option(
       name = "--keep-going",
@@ -76,7 +77,7 @@ public class BuildCommandOptions extends AbstractCommandOptions {
   public BuildCommandOptions(BuckConfig buckConfig) {
     super(buckConfig);
 
-    setNumThreadsFromConfig(buckConfig);
+    numThreads = getNumThreadsFromConfig(buckConfig);
   }
 
   private Supplier<BuildDependencies> buildDependenciesSupplier =
@@ -93,17 +94,21 @@ public class BuildCommandOptions extends AbstractCommandOptions {
         }
       });
 
-  private void setNumThreadsFromConfig(BuckConfig buckConfig) {
+  /**
+   * @return the number of threads to build with when none is given on the command line.
+   */
+  static int getNumThreadsFromConfig(BuckConfig buckConfig) {
     ImmutableMap<String, String> build = buckConfig.getEntriesForSection("build");
     if (build.containsKey("threads")) {
       try {
-        numThreads = Integer.parseInt(build.get("threads"));
+        return Integer.parseInt(build.get("threads"));
       } catch (NumberFormatException e) {
         throw new HumanReadableException(
             "Unable to determine number of threads to use from building from buck config file. " +
                 "Value used was '%s'", build.get("threads"));
       }
     }
+    return (int) (Runtime.getRuntime().availableProcessors() * 1.25);
   }
 
   public List<String> getArguments() {
@@ -160,7 +165,8 @@ public class BuildCommandOptions extends AbstractCommandOptions {
       ImmutableMap<String, String> environment,
       ObjectMapper objectMapper,
       Clock clock,
-      ListeningExecutorService service) {
+      ListeningExecutorService service,
+      WorkerProcessPool workerProcessPool) {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", numThreads);
     }
@@ -182,7 +188,8 @@ public class BuildCommandOptions extends AbstractCommandOptions {
         platform,
         environment,
         objectMapper,
-        clock);
+        clock,
+        workerProcessPool);
   }
 
 }
@@ -20,8 +20,10 @@ import com.facebook.buck.android.AndroidPlatformTarget;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.java.JavaPackageFinder;
 import com.facebook.buck.parser.Parser;
+import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.Repository;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProcessManager;
@@ -42,6 +44,8 @@ class CommandRunnerParams {
   private final Console console;
   private final ImmutableMap<String, String> environment;
   private final Parser parser;
+  private final ActionGraphCache actionGraphCache;
+  private final WorkerProcessPool workerProcessPool;
   private final BuckEventBus eventBus;
   private final Platform platform;
   private final Supplier<AndroidPlatformTarget> androidPlatformTargetSupplier;
@@ -59,6 +63,8 @@ class CommandRunnerParams {
       ArtifactCacheFactory artifactCacheFactory,
       BuckEventBus eventBus,
       Parser parser,
+      ActionGraphCache actionGraphCache,
+      WorkerProcessPool workerProcessPool,
       Platform platform,
       ImmutableMap<String, String> environment,
       JavaPackageFinder javaPackageFinder,
@@ -71,6 +77,8 @@ class CommandRunnerParams {
     this.artifactCacheFactory = artifactCacheFactory;
     this.eventBus = eventBus;
     this.parser = parser;
+    this.actionGraphCache = actionGraphCache;
+    this.workerProcessPool = workerProcessPool;
     this.platform = platform;
     this.androidPlatformTargetSupplier = androidPlatformTargetSupplier;
     this.environment = environment;
@@ -96,6 +104,14 @@ class CommandRunnerParams {
     return parser;
   }
 
+  public ActionGraphCache getActionGraphCache() {
+    return actionGraphCache;
+  }
+
+  public WorkerProcessPool getWorkerProcessPool() {
+    return workerProcessPool;
+  }
+
   public BuckEventBus getBuckEventBus() {
     return eventBus;
   }
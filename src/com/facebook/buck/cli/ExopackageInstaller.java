@@ -21,6 +21,7 @@ import com.android.ddmlib.CollectingOutputReceiver;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.InstallException;
 import com.facebook.buck.android.agent.util.AgentUtil;
+import com.facebook.buck.android.agent.util.BatchedFileTransfer;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.TraceEventLogger;
@@ -50,7 +51,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -150,14 +150,38 @@ public class ExopackageInstaller {
   public synchronized boolean install() throws InterruptedException {
     eventBus.post(InstallEvent.started(apkRule.getBuildTarget()));
 
+    // Everything that does not depend on the device is read once, up front, so that installing on
+    // many devices in parallel costs little more than installing on one.
+    final StagedFiles stagedFiles;
+    try (TraceEventLogger ignored = TraceEventLogger.start(eventBus, "stage_exo_files")) {
+      stagedFiles = stageFiles();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read the exopackage files of %s", apkRule.getBuildTarget());
+      eventBus.post(
+          ConsoleEvent.severe(
+              "Failed to read the exopackage files of %s: %s",
+              apkRule.getBuildTarget(),
+              e.getMessage()));
+      eventBus.post(InstallEvent.finished(apkRule.getBuildTarget(), false));
+      return false;
+    }
+
     boolean success = adbHelper.adbCall(
         new AdbHelper.AdbCallable() {
           @Override
           public boolean call(IDevice device) throws Exception {
+            TraceEventLogger deviceInstall = TraceEventLogger.start(
+                eventBus,
+                "install_exo_device",
+                ImmutableMap.of("device", device.getSerialNumber()));
+            boolean deviceSuccess = false;
             try {
-              return new SingleDeviceInstaller(device, nextAgentPort.getAndIncrement()).doInstall();
+              deviceSuccess = installOnDevice(device, stagedFiles);
+              return deviceSuccess;
             } catch (Exception e) {
               throw new RuntimeException("Failed to install exopackage on " + device, e);
+            } finally {
+              deviceInstall.end(ImmutableMap.of("success", String.valueOf(deviceSuccess)));
             }
           }
 
@@ -171,6 +195,66 @@ public class ExopackageInstaller {
     return success;
   }
 
+  /**
+   * Installs the files staged by {@link #stageFiles} on one device.
+   */
+  @VisibleForTesting
+  protected boolean installOnDevice(IDevice device, StagedFiles stagedFiles) throws Exception {
+    return new SingleDeviceInstaller(device, nextAgentPort.getAndIncrement(), stagedFiles)
+        .doInstall();
+  }
+
+  @VisibleForTesting
+  protected StagedFiles stageFiles() throws IOException {
+    Optional<ImmutableMap<String, Path>> dexFilesByHash = Optional.absent();
+    Optional<String> dexMetadataContents = Optional.absent();
+    if (exopackageInfo.getDexInfo().isPresent()) {
+      dexFilesByHash = Optional.of(getRequiredDexFiles());
+
+      // This is a bit gross.  It was a late addition.  Ideally, we could eliminate this, but
+      // it wouldn't be terrible if we don't.  We store the dexed jars on the device
+      // with the full SHA-1 hashes in their names.  This is the format that the loader uses
+      // internally, so ideally we would just load them in place.  However, the code currently
+      // expects to be able to copy the jars from a directory that matches the name in the
+      // metadata file, like "secondary-1.dex.jar".  We don't want to give up putting the
+      // hashes in the file names (because we use that to skip re-uploads), so just hack
+      // the metadata file to have hash-like names.
+      dexMetadataContents = Optional.of(
+          com.google.common.io.Files.toString(
+              exopackageInfo.getDexInfo().get().getMetadata().toFile(),
+              Charsets.UTF_8)
+              .replaceAll(
+                  "secondary-(\\d+)\\.dex\\.jar (\\p{XDigit}{40}) ",
+                  "secondary-$2.dex.jar $2 "));
+    }
+
+    Optional<ImmutableMultimap<String, Path>> allLibraries = Optional.absent();
+    if (exopackageInfo.getNativeLibsInfo().isPresent()) {
+      allLibraries = Optional.of(getAllLibraries());
+    }
+
+    return new StagedFiles(dexFilesByHash, dexMetadataContents, allLibraries);
+  }
+
+  /**
+   * The files to install and their hashes, which are the same for every device.
+   */
+  @VisibleForTesting
+  static class StagedFiles {
+    private final Optional<ImmutableMap<String, Path>> dexFilesByHash;
+    private final Optional<String> dexMetadataContents;
+    private final Optional<ImmutableMultimap<String, Path>> allLibraries;
+
+    private StagedFiles(
+        Optional<ImmutableMap<String, Path>> dexFilesByHash,
+        Optional<String> dexMetadataContents,
+        Optional<ImmutableMultimap<String, Path>> allLibraries) {
+      this.dexFilesByHash = dexFilesByHash;
+      this.dexMetadataContents = dexMetadataContents;
+      this.allLibraries = allLibraries;
+    }
+  }
+
   /**
    * Helper class to manage the state required to install on a single device.
    */
@@ -186,6 +270,8 @@ public class ExopackageInstaller {
      */
     private final int agentPort;
 
+    private final StagedFiles stagedFiles;
+
     /**
      * True iff we should use the native agent.
      */
@@ -197,9 +283,10 @@ public class ExopackageInstaller {
     @Nullable
     private String nativeAgentPath;
 
-    private SingleDeviceInstaller(IDevice device, int agentPort) {
+    private SingleDeviceInstaller(IDevice device, int agentPort, StagedFiles stagedFiles) {
       this.device = device;
       this.agentPort = agentPort;
+      this.stagedFiles = stagedFiles;
     }
 
     boolean doInstall() throws Exception {
@@ -224,11 +311,11 @@ public class ExopackageInstaller {
         }
       }
 
-      if (exopackageInfo.getDexInfo().isPresent()) {
+      if (stagedFiles.dexFilesByHash.isPresent()) {
         installSecondaryDexFiles();
       }
 
-      if (exopackageInfo.getNativeLibsInfo().isPresent()) {
+      if (stagedFiles.allLibraries.isPresent()) {
         installNativeLibraryFiles();
       }
 
@@ -241,7 +328,7 @@ public class ExopackageInstaller {
     }
 
     private void installSecondaryDexFiles() throws Exception {
-      final ImmutableMap<String, Path> hashToSources = getRequiredDexFiles();
+      final ImmutableMap<String, Path> hashToSources = stagedFiles.dexFilesByHash.get();
       final ImmutableSet<String> requiredHashes = hashToSources.keySet();
       final ImmutableSet<String> presentHashes = prepareSecondaryDexDir(requiredHashes);
       final Set<String> hashesToInstall = Sets.difference(requiredHashes, presentHashes);
@@ -249,25 +336,10 @@ public class ExopackageInstaller {
       Map<String, Path> filesToInstallByHash =
           Maps.filterKeys(hashToSources, Predicates.in(hashesToInstall));
 
-      // This is a bit gross.  It was a late addition.  Ideally, we could eliminate this, but
-      // it wouldn't be terrible if we don't.  We store the dexed jars on the device
-      // with the full SHA-1 hashes in their names.  This is the format that the loader uses
-      // internally, so ideally we would just load them in place.  However, the code currently
-      // expects to be able to copy the jars from a directory that matches the name in the
-      // metadata file, like "secondary-1.dex.jar".  We don't want to give up putting the
-      // hashes in the file names (because we use that to skip re-uploads), so just hack
-      // the metadata file to have hash-like names.
-      String metadataContents = com.google.common.io.Files.toString(
-          exopackageInfo.getDexInfo().get().getMetadata().toFile(),
-          Charsets.UTF_8)
-          .replaceAll(
-              "secondary-(\\d+)\\.dex\\.jar (\\p{XDigit}{40}) ",
-              "secondary-$2.dex.jar $2 ");
-
       installFiles(
           "secondary_dex",
           ImmutableMap.copyOf(filesToInstallByHash),
-          metadataContents,
+          stagedFiles.dexMetadataContents.get(),
           "secondary-%s.dex.jar",
           SECONDARY_DEX_DIR);
     }
@@ -278,7 +350,7 @@ public class ExopackageInstaller {
         throw new RuntimeException("adb returned empty result for ro.product.cpu.abi property.");
       }
 
-      ImmutableMultimap<String, Path> allLibraries = getAllLibraries();
+      ImmutableMultimap<String, Path> allLibraries = stagedFiles.allLibraries.get();
 
       ImmutableMap<String, Path> abi1Libraries =
           getRequiredLibrariesForAbi(allLibraries, abi1, ImmutableSet.<String>of());
@@ -499,20 +571,6 @@ public class ExopackageInstaller {
       }
     }
 
-    private ImmutableMap<String, Path> getRequiredDexFiles() throws IOException {
-      ExopackageInfo.DexInfo dexInfo = exopackageInfo.getDexInfo().get();
-      ImmutableMultimap<String, Path> multimap = parseExopackageInfoMetadata(
-          dexInfo.getMetadata(),
-          dexInfo.getDirectory(),
-          projectFilesystem);
-      // Convert multimap to a map, because every key should have only one value.
-      ImmutableMap.Builder<String, Path> builder = ImmutableMap.builder();
-      for (Map.Entry<String, Path> entry : multimap.entries()) {
-        builder.put(entry);
-      }
-      return builder.build();
-    }
-
     private ImmutableSet<String> prepareSecondaryDexDir(ImmutableSet<String> requiredHashes)
         throws Exception {
       return prepareDirectory("secondary-dex", DEX_FILE_PATTERN, requiredHashes);
@@ -560,32 +618,25 @@ public class ExopackageInstaller {
         String filenameFormat,
         Path destinationDirRelativeToDataRoot) throws Exception {
       try (TraceEventLogger ignored1 =
-               TraceEventLogger.start(eventBus, "multi_install_" + filesType)) {
+               TraceEventLogger.start(eventBus, "multi_install_" + filesType);
+           NamedTemporaryFile temp = new NamedTemporaryFile("metadata", "tmp")) {
+        com.google.common.io.Files.write(
+            metadataFileContents.getBytes(Charsets.UTF_8),
+            temp.get().toFile());
+
+        // The metadata goes last, so that it never refers to files that failed to arrive.
+        ImmutableMap.Builder<String, Path> filesToSend = ImmutableMap.builder();
+        for (Map.Entry<String, Path> entry : filesToInstallByHash.entrySet()) {
+          filesToSend.put(String.format(filenameFormat, entry.getKey()), entry.getValue());
+        }
+        filesToSend.put("metadata.txt", temp.get());
+
         device.createForward(agentPort, agentPort);
         try {
-          for (Map.Entry<String, Path> entry : filesToInstallByHash.entrySet()) {
-            Path destination = destinationDirRelativeToDataRoot.resolve(
-                String.format(filenameFormat, entry.getKey()));
-            Path source = entry.getValue();
-
-            try (TraceEventLogger ignored2 =
-                     TraceEventLogger.start(eventBus, "install_" + filesType)) {
-              installFile(device, agentPort, destination, source);
-            }
-          }
-          try (TraceEventLogger ignored3 =
-                   TraceEventLogger.start(eventBus, "install_" + filesType + "_metadata")) {
-            try (NamedTemporaryFile temp = new NamedTemporaryFile("metadata", "tmp")) {
-              com.google.common.io.Files.write(
-                  metadataFileContents.getBytes(Charsets.UTF_8),
-                  temp.get().toFile());
-              installFile(
-                  device,
-                  agentPort,
-                  destinationDirRelativeToDataRoot.resolve("metadata.txt"),
-                  temp.get());
-            }
-          }
+          installFilesInBatch(
+              agentPort,
+              destinationDirRelativeToDataRoot,
+              filesToSend.build());
         } finally {
           try {
             device.removeForward(agentPort, agentPort);
@@ -602,11 +653,14 @@ public class ExopackageInstaller {
       }
     }
 
-    private void installFile(
-        IDevice device,
+    /**
+     * Sends all of {@code filesByName} to the agent over a single connection, rather than starting
+     * the agent and connecting to it once for each file.
+     */
+    private void installFilesInBatch(
         final int port,
-        Path pathRelativeToDataRoot,
-        final Path source) throws Exception {
+        Path directoryRelativeToDataRoot,
+        final ImmutableMap<String, Path> filesByName) throws Exception {
       CollectingOutputReceiver receiver = new CollectingOutputReceiver() {
 
         private boolean sentPayload = false;
@@ -626,8 +680,12 @@ public class ExopackageInstaller {
                       0,
                       AgentUtil.TEXT_SECRET_KEY_SIZE).getBytes());
               LOG.verbose("Wrote key");
-              com.google.common.io.Files.asByteSource(source.toFile()).copyTo(outToDevice);
-              LOG.verbose("Wrote file");
+              BatchedFileTransfer.Sender sender = new BatchedFileTransfer.Sender(outToDevice);
+              for (Map.Entry<String, Path> entry : filesByName.entrySet()) {
+                sender.addFile(entry.getKey(), entry.getValue().toFile());
+              }
+              sender.finish();
+              LOG.verbose("Wrote %d files", filesByName.size());
             } catch (IOException e) {
               throw new RuntimeException(e);
             }
@@ -635,12 +693,13 @@ public class ExopackageInstaller {
         }
       };
 
-      String targetFileName = dataRoot.resolve(pathRelativeToDataRoot).toString();
+      String targetDirectory = dataRoot.resolve(directoryRelativeToDataRoot).toString();
+      // Only the Java agent knows how to receive a batch of files.  Starting it once per batch is
+      // cheaper than starting the native agent once per file.
       String command =
           "umask 022 && " +
-              getAgentCommand() +
-              "receive-file " + port + " " + Files.size(source) + " " +
-              targetFileName +
+              JAVA_AGENT_COMMAND +
+              "receive-files " + port + " " + targetDirectory +
               " ; echo -n :$?";
       LOG.debug("Executing %s", command);
 
@@ -668,10 +727,16 @@ public class ExopackageInstaller {
 
       // The standard Java libraries on Android always create new files un-readable by other users.
       // We use the shell user or root to create these files, so we need to explicitly set the mode
-      // to allow the app to read them.  Ideally, the agent would do this automatically, but
-      // there's no easy way to do this in Java.  We can drop this if we drop support for the
-      // Java agent.
-      AdbHelper.executeCommandWithErrorChecking(device, "chmod 644 " + targetFileName);
+      // to allow the app to read them.
+      String commandPrefix = "cd " + targetDirectory + " && chmod 644 ";
+      // Add a fudge factor for separators and error checking.
+      final int overhead = commandPrefix.length() + 100;
+      for (List<String> chmodArgs :
+          chunkArgs(filesByName.keySet(), MAX_ADB_COMMAND_SIZE - overhead)) {
+        AdbHelper.executeCommandWithErrorChecking(
+            device,
+            commandPrefix + Joiner.on(' ').join(chmodArgs));
+      }
     }
 
     private String getProperty(String property) throws Exception {
@@ -688,6 +753,20 @@ public class ExopackageInstaller {
     }
   }
 
+  private ImmutableMap<String, Path> getRequiredDexFiles() throws IOException {
+    ExopackageInfo.DexInfo dexInfo = exopackageInfo.getDexInfo().get();
+    ImmutableMultimap<String, Path> multimap = parseExopackageInfoMetadata(
+        dexInfo.getMetadata(),
+        dexInfo.getDirectory(),
+        projectFilesystem);
+    // Convert multimap to a map, because every key should have only one value.
+    ImmutableMap.Builder<String, Path> builder = ImmutableMap.builder();
+    for (Map.Entry<String, Path> entry : multimap.entries()) {
+      builder.put(entry);
+    }
+    return builder.build();
+  }
+
   private ImmutableMultimap<String, Path> getAllLibraries() throws IOException {
     ExopackageInfo.NativeLibsInfo nativeLibsInfo = exopackageInfo.getNativeLibsInfo().get();
     return parseExopackageInfoMetadata(
@@ -106,7 +106,8 @@ public class FetchCommand extends AbstractCommandRunner<BuildCommandOptions> {
              getCommandRunnerParams().getEnvironment(),
              getCommandRunnerParams().getObjectMapper(),
              getCommandRunnerParams().getClock(),
-             pool.getExecutor())) {
+             pool.getExecutor(),
+             getCommandRunnerParams().getWorkerProcessPool())) {
       exitCode = build.executeAndPrintFailuresToConsole(
           buildTargets,
           options.isKeepGoing(),
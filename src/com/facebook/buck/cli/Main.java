@@ -38,17 +38,20 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.KnownBuildRuleTypes;
 import com.facebook.buck.rules.Repository;
 import com.facebook.buck.rules.RepositoryFactory;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyBuilderFactory;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.NanosAdjustedClock;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.AnsiEnvironmentChecking;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultFileHashCache;
 import com.facebook.buck.util.FileHashCache;
@@ -162,6 +165,8 @@ public final class Main {
     private final Repository repository;
     private final Parser parser;
     private final DefaultFileHashCache hashCache;
+    private final ActionGraphCache actionGraphCache;
+    private final WorkerProcessPool workerProcessPool;
     private final EventBus fileEventBus;
     private final ProjectFilesystemWatcher filesystemWatcher;
     private final Optional<WebServer> webServer;
@@ -182,10 +187,14 @@ public final class Main {
           new ParserConfig(repository.getBuckConfig()),
           createRuleKeyBuilderFactory(hashCache));
 
+      this.actionGraphCache = new ActionGraphCache();
+      this.workerProcessPool = createWorkerProcessPool(repository);
+
       this.fileEventBus = new EventBus("file-change-events");
       this.filesystemWatcher = createWatcher(repository.getFilesystem());
       fileEventBus.register(parser);
       fileEventBus.register(hashCache);
+      fileEventBus.register(actionGraphCache);
       webServer = createWebServer(repository.getBuckConfig(), repository.getFilesystem());
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(repository.getFilesystem());
     }
@@ -250,6 +259,14 @@ public final class Main {
       return parser;
     }
 
+    private ActionGraphCache getActionGraphCache() {
+      return actionGraphCache;
+    }
+
+    private WorkerProcessPool getWorkerProcessPool() {
+      return workerProcessPool;
+    }
+
     private void watchClient(final NGContext context) {
       context.addClientListener(new NGClientListener() {
         @Override
@@ -301,6 +318,7 @@ public final class Main {
     @Override
     public void close() throws IOException {
       filesystemWatcher.close();
+      workerProcessPool.close();
       shutdownWebServer();
     }
 
@@ -545,6 +563,7 @@ public final class Main {
     DefaultFileHashCache fileHashCache = new DefaultFileHashCache(rootRepository.getFilesystem());
 
     @Nullable ArtifactCacheFactory artifactCacheFactory = null;
+    @Nullable WorkerProcessPool ownedWorkerProcessPool = null;
     Optional<WebServer> webServer = getWebServerIfDaemon(
         context,
         repositoryFactory,
@@ -597,15 +616,24 @@ public final class Main {
 
       // Create or get Parser and invalidate cached command parameters.
       Parser parser = null;
+      ActionGraphCache actionGraphCache = null;
+      WorkerProcessPool workerProcessPool = null;
 
       if (isDaemon) {
         try {
-          parser = getParserFromDaemon(
+          Daemon daemon = getDaemonForCommand(
               context,
               repositoryFactory,
               commandEvent,
               buildEventBus,
               clock);
+          parser = daemon.getParser();
+          // Read only commands may run while a build is in progress, so they do not reuse its
+          // rules: handing a rule out again resets what it read from disk.
+          if (!commandParseResult.getCommand().get().isReadOnly()) {
+            actionGraphCache = daemon.getActionGraphCache();
+          }
+          workerProcessPool = daemon.getWorkerProcessPool();
         } catch (WatchmanWatcherException | IOException e) {
           buildEventBus.post(ConsoleEvent.warning(
                   "Watchman threw an exception while parsing file changes.\n%s",
@@ -613,11 +641,17 @@ public final class Main {
         }
       }
 
+      if (actionGraphCache == null) {
+        actionGraphCache = new ActionGraphCache();
+      }
       if (parser == null) {
         parser = Parser.createParser(
             repositoryFactory,
             new ParserConfig(rootRepository.getBuckConfig()),
             createRuleKeyBuilderFactory(fileHashCache));
+        // Without a daemon, the workers only live as long as the command.
+        workerProcessPool = createWorkerProcessPool(rootRepository);
+        ownedWorkerProcessPool = workerProcessPool;
       }
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(rootRepository.getFilesystem());
 
@@ -647,6 +681,8 @@ public final class Main {
               artifactCacheFactory,
               buildEventBus,
               parser,
+              actionGraphCache,
+              workerProcessPool,
               platform,
               clientEnvironment,
               rootRepository.getBuckConfig().createDefaultJavaPackageFinder(),
@@ -660,6 +696,9 @@ public final class Main {
       closeCreatedArtifactCaches(artifactCacheFactory); // Close cache before exit on exception.
       throw t;
     } finally {
+      if (ownedWorkerProcessPool != null) {
+        ownedWorkerProcessPool.close();
+      }
       if (commandSemaphoreAcquired) {
         commandSemaphore.release(); // Allow another command to execute while outputting traces.
       }
@@ -769,18 +808,18 @@ public final class Main {
     }
   }
 
-  private Parser getParserFromDaemon(
+  private Daemon getDaemonForCommand(
       Optional<NGContext> context,
       RepositoryFactory repositoryFactory,
       CommandEvent commandEvent,
       BuckEventBus eventBus,
       Clock clock) throws IOException, InterruptedException {
-    // Wire up daemon to new client and get cached Parser.
+    // Wire up daemon to new client and get cached Parser and action graph.
     Daemon daemon = getDaemon(repositoryFactory, clock, objectMapper);
     daemon.watchClient(context.get());
     daemon.watchFileSystem(commandEvent, eventBus);
     daemon.initWebServer();
-    return daemon.getParser();
+    return daemon;
   }
 
   private Optional<WebServer> getWebServerIfDaemon(
@@ -933,6 +972,17 @@ public final class Main {
     return new DefaultRuleKeyBuilderFactory(hashCache);
   }
 
+  /**
+   * Builds run at most as many steps at once as they have threads, so that is also how many
+   * workers of a tool they can keep busy. Builds given more threads on the command line wait for
+   * workers to become free.
+   */
+  private static WorkerProcessPool createWorkerProcessPool(Repository repository) {
+    return new WorkerProcessPool(
+        BuildCommandOptions.getNumThreadsFromConfig(repository.getBuckConfig()),
+        repository.getFilesystem().resolve(BuckConstant.LOG_PATH));
+  }
+
   @VisibleForTesting
   int tryRunMainWithExitCode(
       BuildId buildId,
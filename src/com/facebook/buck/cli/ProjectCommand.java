@@ -109,7 +109,9 @@ public class ProjectCommand extends AbstractCommandRunner<ProjectCommandOptions>
 
     this.targetGraphTransformer = new TargetGraphToActionGraph(
         params.getBuckEventBus(),
-        new BuildTargetNodeToBuildRuleTransformer());
+        new BuildTargetNodeToBuildRuleTransformer(),
+        params.getRepository().getBuckConfig().getNumActionGraphThreads(),
+        params.getActionGraphCache());
   }
 
   @Override
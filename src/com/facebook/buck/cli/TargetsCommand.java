@@ -88,7 +88,9 @@ public class TargetsCommand extends AbstractCommandRunner<TargetsCommandOptions>
 
     this.targetGraphTransformer = new TargetGraphToActionGraph(
         params.getBuckEventBus(),
-        new BuildTargetNodeToBuildRuleTransformer());
+        new BuildTargetNodeToBuildRuleTransformer(),
+        params.getRepository().getBuckConfig().getNumActionGraphThreads(),
+        params.getActionGraphCache());
   }
 
   @Override
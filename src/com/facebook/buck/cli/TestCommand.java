@@ -22,6 +22,7 @@ import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.DefaultJavaPackageFinder;
 import com.facebook.buck.java.GenerateCodeCoverageReportStep;
+import com.facebook.buck.java.JUnitRunnerPool;
 import com.facebook.buck.java.JUnitStep;
 import com.facebook.buck.java.JavaLibrary;
 import com.facebook.buck.java.JavaTest;
@@ -46,6 +47,7 @@ import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.rules.TestRunEvent;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ImmutableExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
@@ -62,22 +64,26 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 
 import org.w3c.dom.Document;
@@ -98,6 +104,7 @@ import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
@@ -119,7 +126,9 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
     this.targetGraphTransformer = new TargetGraphToActionGraph(
         params.getBuckEventBus(),
-        new BuildTargetNodeToBuildRuleTransformer());
+        new BuildTargetNodeToBuildRuleTransformer(),
+        params.getRepository().getBuckConfig().getNumActionGraphThreads(),
+        params.getActionGraphCache());
   }
 
   @Override
@@ -209,53 +218,199 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     // Create artifact cache to initialize Cassandra connection, if appropriate.
     ArtifactCache artifactCache = getArtifactCache();
 
-    try (CommandThreadManager pool = new CommandThreadManager("Test", options.getNumThreads());
-         Build build = options.createBuild(
-             options.getBuckConfig(),
-             graph,
-             getProjectFilesystem(),
-             getAndroidPlatformTargetSupplier(),
-             getBuildEngine(),
-             artifactCache,
-             console,
-             getBuckEventBus(),
-             options.getTargetDeviceOptional(),
-             getCommandRunnerParams().getPlatform(),
-             getCommandRunnerParams().getEnvironment(),
-             getCommandRunnerParams().getObjectMapper(),
-             getCommandRunnerParams().getClock(),
-             pool.getExecutor())) {
-      // Build all of the test rules.
-      int exitCode = build.executeAndPrintFailuresToConsole(
-          testRules,
-          options.isKeepGoing(),
-          console,
-          options.getPathToBuildReport());
-      getBuckEventBus().post(BuildEvent.finished(explicitBuildTargets, exitCode));
-      if (exitCode != 0) {
-        return exitCode;
+    // Java tests may share a handful of long-lived JVMs for the duration of this command.
+    Optional<JUnitRunnerPool> jUnitRunnerPool = Optional.absent();
+    if (options.getJUnitRunnerPoolSize() > 0) {
+      jUnitRunnerPool = Optional.of(
+          new JUnitRunnerPool(
+              options.getJUnitRunnerPoolSize(),
+              getProjectFilesystem().resolve(BuckConstant.LOG_PATH),
+              getProjectFilesystem().resolve(BuckConstant.SCRATCH_PATH)));
+    }
+
+    try {
+      try (CommandThreadManager pool = new CommandThreadManager("Test", options.getNumThreads());
+           Build build = options.createBuild(
+               options.getBuckConfig(),
+               graph,
+               getProjectFilesystem(),
+               getAndroidPlatformTargetSupplier(),
+               getBuildEngine(),
+               artifactCache,
+               console,
+               getBuckEventBus(),
+               options.getTargetDeviceOptional(),
+               getCommandRunnerParams().getPlatform(),
+               getCommandRunnerParams().getEnvironment(),
+               getCommandRunnerParams().getObjectMapper(),
+               getCommandRunnerParams().getClock(),
+               pool.getExecutor(),
+               getCommandRunnerParams().getWorkerProcessPool())) {
+        if (options.isPipeliningTests()) {
+          return runPipelinedBuildAndTests(
+              build,
+              testRules,
+              explicitBuildTargets,
+              options,
+              jUnitRunnerPool);
+        }
+
+        // Build all of the test rules.
+        int exitCode = build.executeAndPrintFailuresToConsole(
+            testRules,
+            options.isKeepGoing(),
+            console,
+            options.getPathToBuildReport());
+        getBuckEventBus().post(BuildEvent.finished(explicitBuildTargets, exitCode));
+        if (exitCode != 0) {
+          return exitCode;
+        }
+
+        // If the user requests that we build tests that we filter out, then we perform
+        // the filtering here, after we've done the build but before we run the tests.
+        if (options.isBuildFiltered()) {
+          testRules = filterTestRules(options, testRules);
+        }
+
+        // Once all of the rules are built, then run the tests.
+        try (CommandThreadManager testPool =
+                 new CommandThreadManager("Test-Run", options.getNumTestThreads())) {
+          return runTestsAndShutdownExecutor(
+              testRules,
+              Preconditions.checkNotNull(build.getBuildContext()),
+              getTestExecutionContext(build, jUnitRunnerPool),
+              options,
+              testPool.getExecutor());
+        } catch (ExecutionException e) {
+          console.printBuildFailureWithoutStacktrace(e);
+          return 1;
+        }
       }
+    } finally {
+      if (jUnitRunnerPool.isPresent()) {
+        jUnitRunnerPool.get().close();
+      }
+    }
+  }
+
+  private static ExecutionContext getTestExecutionContext(
+      Build build,
+      Optional<JUnitRunnerPool> jUnitRunnerPool) {
+    return ImmutableExecutionContext.copyOf(build.getExecutionContext())
+        .withJUnitRunnerPool(jUnitRunnerPool);
+  }
+
+  /**
+   * Builds {@code testRules} and runs each test as soon as its own rule has been built, so that the
+   * first tests do not have to wait for the slowest unrelated rule. Tests run on a pool of their
+   * own, as they do otherwise. Tests whose rule fails to build are reported as failures. Unless
+   * {@code --keep-going} is given, no more tests are started once any rule has failed to build.
+   * Either way, the command exits with a build failure once the tests that were started have run.
+   */
+  private int runPipelinedBuildAndTests(
+      Build build,
+      Iterable<TestRule> testRules,
+      final ImmutableSet<BuildTarget> explicitBuildTargets,
+      TestCommandOptions options,
+      Optional<JUnitRunnerPool> jUnitRunnerPool)
+      throws IOException, InterruptedException {
+    final ImmutableMap<BuildRule, ListenableFuture<BuildRuleSuccess>> ruleToFuture =
+        build.startBuild(testRules);
+
+    final AtomicBoolean hasBuildFailed = new AtomicBoolean(false);
+    for (ListenableFuture<BuildRuleSuccess> future : ruleToFuture.values()) {
+      Futures.addCallback(
+          future,
+          new FutureCallback<BuildRuleSuccess>() {
+            @Override
+            public void onSuccess(BuildRuleSuccess result) {}
+
+            @Override
+            public void onFailure(Throwable t) {
+              hasBuildFailed.set(true);
+            }
+          });
+    }
 
-      // If the user requests that we build tests that we filter out, then we perform
-      // the filtering here, after we've done the build but before we run the tests.
-      if (options.isBuildFiltered()) {
-        testRules = filterTestRules(options, testRules);
+    ImmutableMap.Builder<BuildTarget, ListenableFuture<BuildRuleSuccess>> testRuleBuilds =
+        ImmutableMap.builder();
+    for (Map.Entry<BuildRule, ListenableFuture<BuildRuleSuccess>> entry :
+        ruleToFuture.entrySet()) {
+      ListenableFuture<BuildRuleSuccess> testRuleBuild = entry.getValue();
+      if (!options.isKeepGoing()) {
+        testRuleBuild = Futures.transform(
+            testRuleBuild,
+            new Function<BuildRuleSuccess, BuildRuleSuccess>() {
+              @Override
+              public BuildRuleSuccess apply(BuildRuleSuccess success) {
+                if (hasBuildFailed.get()) {
+                  throw new HumanReadableException(
+                      "Not run, as another rule failed to build. " +
+                          "Use --keep-going to run the tests that could be built.");
+                }
+                return success;
+              }
+            });
       }
+      testRuleBuilds.put(entry.getKey().getBuildTarget(), testRuleBuild);
+    }
 
-      // Once all of the rules are built, then run the tests.
-      try (CommandThreadManager testPool =
-               new CommandThreadManager("Test-Run", options.getNumTestThreads())) {
-        return runTestsAndShutdownExecutor(
-            testRules,
-            Preconditions.checkNotNull(build.getBuildContext()),
-            build.getExecutionContext(),
-            options,
-            testPool.getExecutor());
-      } catch (ExecutionException e) {
-        console.printBuildFailureWithoutStacktrace(e);
+    final ListenableFuture<List<BuildRuleSuccess>> buildFuture =
+        Futures.successfulAsList(ruleToFuture.values());
+    buildFuture.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            getBuckEventBus().post(
+                BuildEvent.finished(
+                    explicitBuildTargets,
+                    getPipelinedBuildExitCode(ruleToFuture.values())));
+          }
+        },
+        MoreExecutors.directExecutor());
+
+    // If the user requests that we build tests that we filter out, then we keep building them, but
+    // only run the ones that pass the filter.
+    if (options.isBuildFiltered()) {
+      testRules = filterTestRules(options, testRules);
+    }
+
+    ExecutionContext executionContext = getTestExecutionContext(build, jUnitRunnerPool);
+    int exitCode;
+    try (CommandThreadManager testPool =
+             new CommandThreadManager("Test-Run", options.getNumTestThreads())) {
+      exitCode = runTests(
+          testRules,
+          Preconditions.checkNotNull(build.getBuildContext()),
+          executionContext,
+          new DefaultStepRunner(executionContext, testPool.getExecutor()),
+          options,
+          testRuleBuilds.build(),
+          testPool.getExecutor());
+    } catch (ExecutionException e) {
+      console.printBuildFailureWithoutStacktrace(e);
+      exitCode = 1;
+    }
+
+    // Every test waited for its own rule, so this reports on a build that is already done.
+    int buildExitCode = build.waitForBuildAndPrintFailuresToConsole(
+        ruleToFuture,
+        options.isKeepGoing(),
+        console,
+        options.getPathToBuildReport());
+    return buildExitCode != 0 ? buildExitCode : exitCode;
+  }
+
+  private static int getPipelinedBuildExitCode(
+      Iterable<ListenableFuture<BuildRuleSuccess>> futures) {
+    for (ListenableFuture<BuildRuleSuccess> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException | InterruptedException | CancellationException e) {
         return 1;
       }
     }
+    return 0;
   }
 
   /**
@@ -454,16 +609,29 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       throws IOException, ExecutionException, InterruptedException {
 
     DefaultStepRunner stepRunner = new DefaultStepRunner(executionContext, service);
-    return runTests(tests, buildContext, executionContext, stepRunner, options);
+    return runTests(
+        tests,
+        buildContext,
+        executionContext,
+        stepRunner,
+        options,
+        ImmutableMap.<BuildTarget, ListenableFuture<BuildRuleSuccess>>of(),
+        service);
   }
 
+  /**
+   * @param testRuleBuilds futures for test rules that may still be building. Each of these tests is
+   *     started once its future completes. Tests without an entry must already have been built.
+   */
   @SuppressWarnings("PMD.EmptyCatchBlock")
   private int runTests(
       Iterable<TestRule> tests,
-      BuildContext buildContext,
-      ExecutionContext executionContext,
-      StepRunner stepRunner,
-      final TestCommandOptions options)
+      final BuildContext buildContext,
+      final ExecutionContext executionContext,
+      final StepRunner stepRunner,
+      final TestCommandOptions options,
+      ImmutableMap<BuildTarget, ListenableFuture<BuildRuleSuccess>> testRuleBuilds,
+      ListeningExecutorService service)
       throws IOException, ExecutionException, InterruptedException {
 
     if (options.isUsingOneTimeOutputDirectories()) {
@@ -509,53 +677,56 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       grouper = new TestResultsGrouper(tests);
     }
 
-    TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
+    final TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
         executionContext.getProjectFilesystem(),
         getBuildEngine());
-    for (TestRule test : tests) {
-      // Determine whether the test needs to be executed.
-      boolean isTestRunRequired;
-      isTestRunRequired = isTestRunRequiredForTest(
-          test,
-          getBuildEngine(),
-          executionContext,
-          testRuleKeyFileHelper,
-          options.isResultsCacheEnabled(),
-          !options.getTestSelectorList().isEmpty());
-
-
-      List<Step> steps;
-      if (isTestRunRequired) {
-        getBuckEventBus().post(IndividualTestEvent.started(
-            options.getArgumentsFormattedAsBuildTargets()));
-        ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
-        BuildEngine cachingBuildEngine = getBuildEngine();
-        Preconditions.checkState(cachingBuildEngine.isRuleBuilt(test.getBuildTarget()));
-        List<Step> testSteps = test.runTests(
+    // Results of partial, one-time or simulated runs are never shared.
+    final Optional<TestResultsArtifactCacheHelper> testResultsArtifactCacheHelper;
+    if (options.isArtifactCacheForResultsEnabled() &&
+        options.getTestSelectorList().isEmpty() &&
+        !options.isUsingOneTimeOutputDirectories() &&
+        !options.isDryRun()) {
+      testResultsArtifactCacheHelper = Optional.of(
+          new TestResultsArtifactCacheHelper(
+              executionContext.getProjectFilesystem(),
+              getBuildEngine(),
+              buildContext.getArtifactCache(),
+              getBuckEventBus()));
+    } else {
+      testResultsArtifactCacheHelper = Optional.absent();
+    }
+    for (final TestRule test : tests) {
+      ListenableFuture<TestResults> testResults;
+      ListenableFuture<BuildRuleSuccess> testRuleBuild =
+          testRuleBuilds.get(test.getBuildTarget());
+      if (testRuleBuild == null) {
+        testResults = runTest(
+            test,
             buildContext,
             executionContext,
-            options.isDryRun(),
-            options.isShufflingTests(),
-            options.getTestSelectorList());
-        if (!testSteps.isEmpty()) {
-          stepsBuilder.addAll(testSteps);
-          stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
-        }
-        steps = stepsBuilder.build();
+            stepRunner,
+            testRuleKeyFileHelper,
+            testResultsArtifactCacheHelper,
+            options);
       } else {
-        steps = ImmutableList.of();
+        testResults = Futures.transform(
+            testRuleBuild,
+            new AsyncFunction<BuildRuleSuccess, TestResults>() {
+              @Override
+              public ListenableFuture<TestResults> apply(BuildRuleSuccess input)
+                  throws IOException, ExecutionException, InterruptedException {
+                return runTest(
+                    test,
+                    buildContext,
+                    executionContext,
+                    stepRunner,
+                    testRuleKeyFileHelper,
+                    testResultsArtifactCacheHelper,
+                    options);
+              }
+            },
+            service);
       }
-
-      // Always run the commands, even if the list of commands as empty. There may be zero commands
-      // because the rule is cached, but its results must still be processed.
-      ListenableFuture<TestResults> testResults =
-          stepRunner.runStepsAndYieldResult(steps,
-              getCachingStatusTransformingCallable(
-                  isTestRunRequired,
-                  test.interpretTestResults(executionContext,
-                      /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty(),
-                      /*isDryRun*/ options.isDryRun())),
-              test.getBuildTarget());
       results.add(
         transformTestResults(testResults, grouper, test, options, printTestResults));
     }
@@ -630,6 +801,88 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     return (failures || significantAssumptionViolations) ? TEST_FAILURES_EXIT_CODE : 0;
   }
 
+  private ListenableFuture<TestResults> runTest(
+      TestRule test,
+      BuildContext buildContext,
+      ExecutionContext executionContext,
+      StepRunner stepRunner,
+      TestRuleKeyFileHelper testRuleKeyFileHelper,
+      Optional<TestResultsArtifactCacheHelper> testResultsArtifactCacheHelper,
+      TestCommandOptions options)
+      throws IOException, ExecutionException, InterruptedException {
+    // Determine whether the test needs to be executed.
+    boolean isTestRunRequired;
+    isTestRunRequired = isTestRunRequiredForTest(
+        test,
+        getBuildEngine(),
+        executionContext,
+        testRuleKeyFileHelper,
+        testResultsArtifactCacheHelper,
+        options.isResultsCacheEnabled(),
+        !options.getTestSelectorList().isEmpty());
+
+
+    List<Step> steps;
+    if (isTestRunRequired) {
+      getBuckEventBus().post(IndividualTestEvent.started(
+          options.getArgumentsFormattedAsBuildTargets()));
+      ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
+      BuildEngine cachingBuildEngine = getBuildEngine();
+      Preconditions.checkState(cachingBuildEngine.isRuleBuilt(test.getBuildTarget()));
+      List<Step> testSteps = test.runTests(
+          buildContext,
+          executionContext,
+          options.isDryRun(),
+          options.isShufflingTests(),
+          options.getTestSelectorList());
+      if (!testSteps.isEmpty()) {
+        stepsBuilder.addAll(testSteps);
+        stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
+      }
+      steps = stepsBuilder.build();
+    } else {
+      steps = ImmutableList.of();
+    }
+
+    Callable<TestResults> interpretTestResults = test.interpretTestResults(executionContext,
+        /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty(),
+        /*isDryRun*/ options.isDryRun());
+    if (isTestRunRequired && !steps.isEmpty() && testResultsArtifactCacheHelper.isPresent()) {
+      interpretTestResults = getResultsStoringCallable(
+          test,
+          testResultsArtifactCacheHelper.get(),
+          interpretTestResults);
+    }
+
+    // Always run the commands, even if the list of commands as empty. There may be zero commands
+    // because the rule is cached, but its results must still be processed.
+    return stepRunner.runStepsAndYieldResult(steps,
+        getCachingStatusTransformingCallable(
+            isTestRunRequired,
+            interpretTestResults),
+        test.getBuildTarget());
+  }
+
+  /**
+   * Wraps {@code originalCallable} so that the results of the test are stored in the artifact cache
+   * once they are known to be successful. Failing results are never shared, as they may be flaky.
+   */
+  private static Callable<TestResults> getResultsStoringCallable(
+      final TestRule test,
+      final TestResultsArtifactCacheHelper testResultsArtifactCacheHelper,
+      final Callable<TestResults> originalCallable) {
+    return new Callable<TestResults>() {
+      @Override
+      public TestResults call() throws Exception {
+        TestResults testResults = originalCallable.call();
+        if (testResults.isSuccess()) {
+          testResultsArtifactCacheHelper.storeTestResults(test);
+        }
+        return testResults;
+      }
+    };
+  }
+
   private ListenableFuture<TestResults> transformTestResults(
       ListenableFuture<TestResults> originalTestResults,
       @Nullable final TestResultsGrouper grouper,
@@ -724,6 +977,7 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       BuildEngine cachingBuildEngine,
       ExecutionContext executionContext,
       TestRuleKeyFileHelper testRuleKeyFileHelper,
+      Optional<TestResultsArtifactCacheHelper> testResultsArtifactCacheHelper,
       boolean isResultsCacheEnabled,
       boolean isRunningWithTestSelectors)
       throws IOException, ExecutionException, InterruptedException {
@@ -748,6 +1002,14 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       // files) are up to date, then no commands are necessary to run the tests. The test result
       // files will be read from the XML files in interpretTestResults().
       isTestRunRequired = false;
+    } else if (success != null &&
+        isResultsCacheEnabled &&
+        testResultsArtifactCacheHelper.isPresent() &&
+        testResultsArtifactCacheHelper.get().fetchTestResults(test) &&
+        test.hasTestResultFiles(executionContext)) {
+      // The test has already passed at this rule key elsewhere, and its results have been
+      // unpacked into the test output directory for interpretTestResults() to read.
+      isTestRunRequired = false;
     } else {
       isTestRunRequired = true;
     }
@@ -33,6 +33,7 @@ import javax.annotation.Nullable;
 public class TestCommandOptions extends BuildCommandOptions {
 
   public static final String USE_RESULTS_CACHE = "use_results_cache";
+  public static final String USE_ARTIFACT_CACHE_FOR_RESULTS = "use_artifact_cache_for_results";
 
   @Option(name = "--all",
           usage =
@@ -61,6 +62,14 @@ public class TestCommandOptions extends BuildCommandOptions {
   @Nullable
   private Boolean isBuildFiltered = null;
 
+  @Option(
+      name = "--pipeline",
+      usage =
+          "Start running each test as soon as its test rule is built, rather than waiting for " +
+          "all of the requested rules to finish building.")
+  @Nullable
+  private Boolean isPipeliningTests = null;
+
   @Option(
       name = "--ignore-when-dependencies-fail",
       aliases = {"-i"},
@@ -151,6 +160,15 @@ public class TestCommandOptions extends BuildCommandOptions {
     return !isResultsCacheDisabled;
   }
 
+  /**
+   * @return whether test results should also be stored in and fetched from the artifact cache, so
+   *     that they can be shared between machines building the same rule keys.
+   */
+  public boolean isArtifactCacheForResultsEnabled() {
+    return isResultsCacheEnabled() &&
+        getBuckConfig().getBooleanValue("test", USE_ARTIFACT_CACHE_FOR_RESULTS, false);
+  }
+
   @Override
   public boolean isDebugEnabled() {
     return isDebugEnabled;
@@ -202,6 +220,28 @@ public class TestCommandOptions extends BuildCommandOptions {
         getBuckConfig().getBooleanValue("test", "build_filtered_tests", false);
   }
 
+  public boolean isPipeliningTests() {
+    // When debugging, tests must run one at a time, so there is nothing to interleave them with.
+    if (isDebugEnabled()) {
+      return false;
+    }
+    return isPipeliningTests != null ?
+        isPipeliningTests :
+        getBuckConfig().getBooleanValue("test", "pipeline_tests", false);
+  }
+
+  /**
+   * @return how many idle JVMs to keep around for running Java tests in, or zero if each Java test
+   *     rule should be run in a JVM of its own.
+   */
+  public int getJUnitRunnerPoolSize() {
+    // A debugger attaches to a JVM when it starts, so every test needs a JVM of its own.
+    if (isDebugEnabled()) {
+      return 0;
+    }
+    return getBuckConfig().getLong("test", "runner_pool_size").or(0L).intValue();
+  }
+
   public int getNumTestThreads() {
     if (isDebugEnabled()) {
       return 1;
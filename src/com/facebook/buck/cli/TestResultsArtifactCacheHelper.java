@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.BuildEngine;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Stores the contents of a test's output directory (its XML result files and
+ * {@link TestRuleKeyFileHelper#RULE_KEY_FILE}) in an {@link ArtifactCache}, so that tests that have
+ * already passed at a given rule key on one machine do not have to be run again on another.
+ * <p>
+ * Test results are stored under a key derived from, but distinct from, the test rule's own
+ * {@link RuleKey}, so that they never collide with the rule's build artifact.
+ */
+public class TestResultsArtifactCacheHelper {
+
+  private static final Logger LOG = Logger.get(TestResultsArtifactCacheHelper.class);
+
+  /** Mixed into the rule key of a test to get the key of its results. */
+  private static final String TEST_RESULTS_KEY_SUFFIX = "test-results";
+
+  private final ProjectFilesystem projectFilesystem;
+  private final BuildEngine buildEngine;
+  private final ArtifactCache artifactCache;
+  private final BuckEventBus eventBus;
+
+  public TestResultsArtifactCacheHelper(
+      ProjectFilesystem projectFilesystem,
+      BuildEngine buildEngine,
+      ArtifactCache artifactCache,
+      BuckEventBus eventBus) {
+    this.projectFilesystem = projectFilesystem;
+    this.buildEngine = buildEngine;
+    this.artifactCache = artifactCache;
+    this.eventBus = eventBus;
+  }
+
+  @VisibleForTesting
+  static RuleKey getTestResultsKey(RuleKey testRuleKey) {
+    return new RuleKey(
+        Hashing.sha1().newHasher()
+            .putString(testRuleKey.toString(), Charsets.UTF_8)
+            .putString(TEST_RESULTS_KEY_SUFFIX, Charsets.UTF_8)
+            .hash()
+            .toString());
+  }
+
+  /**
+   * Fetches the results of {@code testRule} at its current rule key, if any, and unpacks them into
+   * its test output directory.
+   * @return whether the results were fetched successfully.
+   */
+  public boolean fetchTestResults(TestRule testRule) throws InterruptedException {
+    RuleKey testResultsKey = getTestResultsKey(buildEngine.getRuleKey(testRule.getBuildTarget()));
+    File zipFile;
+    try {
+      zipFile = File.createTempFile(
+          MoreFiles.sanitize(testRule.getBuildTarget().getFullyQualifiedName()),
+          ".zip");
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    CacheResult cacheResult = artifactCache.fetch(testResultsKey, zipFile);
+    if (!cacheResult.isSuccess()) {
+      zipFile.delete();
+      return false;
+    }
+
+    try {
+      // Drop any stale results first so that files from an older run cannot be mixed in.
+      projectFilesystem.rmdir(testRule.getPathToTestOutputDirectory());
+      Unzip.extractZipFile(
+          zipFile.toPath().toAbsolutePath(),
+          projectFilesystem.getRootPath().toAbsolutePath(),
+          /* overwriteExistingFiles */ true);
+      Files.delete(zipFile.toPath());
+    } catch (IOException e) {
+      eventBus.post(ConsoleEvent.warning(
+          "Failed to unzip the cached test results for %s at %s.\n" +
+              "The test will be run, but here is the stacktrace of the failed unzip call:\n%s",
+          testRule.getBuildTarget(),
+          zipFile.getAbsolutePath(),
+          Throwables.getStackTraceAsString(e)));
+      return false;
+    }
+    LOG.debug("Fetched test results for %s from the artifact cache.", testRule.getBuildTarget());
+    return true;
+  }
+
+  /**
+   * Stores the contents of the test output directory of {@code testRule} in the artifact cache.
+   * This should only be called once the results in that directory are known to be final.
+   */
+  public void storeTestResults(TestRule testRule) throws InterruptedException {
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+
+    RuleKey testResultsKey = getTestResultsKey(buildEngine.getRuleKey(testRule.getBuildTarget()));
+    File zipFile;
+    try {
+      ImmutableSet<Path> paths =
+          projectFilesystem.getFilesUnderPath(testRule.getPathToTestOutputDirectory());
+      if (paths.isEmpty()) {
+        return;
+      }
+      zipFile = File.createTempFile(
+          MoreFiles.sanitize(testRule.getBuildTarget().getFullyQualifiedName()),
+          ".zip");
+      projectFilesystem.createZip(paths, zipFile);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to create zip of test results for %s.", testRule.getBuildTarget());
+      return;
+    }
+
+    artifactCache.store(testResultsKey, zipFile);
+    zipFile.delete();
+  }
+}
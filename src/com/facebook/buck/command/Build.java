@@ -32,6 +32,7 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.ImmutableBuildContext;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.StepFailedException;
@@ -97,12 +98,14 @@ public class Build implements Closeable {
 
   private final Clock clock;
 
-  /** Not set until {@link #executeBuild(Iterable, boolean)} is invoked. */
+  /** Not set until {@link #startBuild(Iterable)} is invoked. */
   @Nullable
   private BuildContext buildContext;
 
   /**
    * @param buildDependencies How to include dependencies when building rules.
+   * @param workerProcessPool Where steps send their work to tools that can run as workers. It
+   *     outlives the build, so that the daemon can keep the workers running between builds.
    */
   public Build(
       ActionGraph actionGraph,
@@ -122,7 +125,8 @@ public class Build implements Closeable {
       Platform platform,
       ImmutableMap<String, String> environment,
       ObjectMapper objectMapper,
-      Clock clock) {
+      Clock clock,
+      WorkerProcessPool workerProcessPool) {
     this.actionGraph = actionGraph;
 
     this.executionContext = ExecutionContext.builder()
@@ -138,6 +142,7 @@ public class Build implements Closeable {
         .setEnvironment(environment)
         .setJavaPackageFinder(javaPackageFinder)
         .setObjectMapper(objectMapper)
+        .setWorkerProcessPool(Optional.of(workerProcessPool))
         .build();
     this.artifactCache = artifactCache;
     this.buildEngine = buildEngine;
@@ -155,25 +160,21 @@ public class Build implements Closeable {
     return executionContext;
   }
 
-  /** Returns null until {@link #executeBuild(Iterable, boolean)} is invoked. */
+  /** Returns null until {@link #startBuild(Iterable)} is invoked. */
   @Nullable
   public BuildContext getBuildContext() {
     return buildContext;
   }
 
   /**
-   * If {@code isKeepGoing} is false, then this returns a future that succeeds only if all of
-   * {@code rulesToBuild} build successfully. Otherwise, this returns a future that should always
-   * succeed, even if individual rules fail to build. In that case, a failed build rule is indicated
-   * by a {@code null} value in the corresponding position in the iteration order of
-   * {@code rulesToBuild}.
+   * Starts building {@code targetish} without waiting for the build to finish. The returned map
+   * contains a future for each rule to build, in the iteration order of {@code targetish}, so that
+   * callers can schedule work that depends on an individual rule (such as running its tests) as
+   * soon as that rule and its deps are built.
    * @param targetish The targets to build. All targets in this iterable must be unique.
    */
-  @SuppressWarnings("PMD.EmptyCatchBlock")
-  public LinkedHashMap<BuildRule, Optional<BuildRuleSuccess>> executeBuild(
-      Iterable<? extends HasBuildTarget> targetish,
-      boolean isKeepGoing)
-      throws IOException, StepFailedException, ExecutionException, InterruptedException {
+  public ImmutableMap<BuildRule, ListenableFuture<BuildRuleSuccess>> startBuild(
+      Iterable<? extends HasBuildTarget> targetish) {
     buildContext = ImmutableBuildContext.builder()
         .setActionGraph(actionGraph)
         .setStepRunner(stepRunner)
@@ -215,15 +216,40 @@ public class Build implements Closeable {
             targetsToBuild,
             numRules));
 
+    ImmutableMap.Builder<BuildRule, ListenableFuture<BuildRuleSuccess>> futures =
+        ImmutableMap.builder();
+    for (BuildRule rule : rulesToBuild) {
+      futures.put(rule, buildEngine.build(buildContext, rule));
+    }
+    return futures.build();
+  }
+
+  /**
+   * If {@code isKeepGoing} is false, then this returns a future that succeeds only if all of
+   * {@code rulesToBuild} build successfully. Otherwise, this returns a future that should always
+   * succeed, even if individual rules fail to build. In that case, a failed build rule is indicated
+   * by a {@code null} value in the corresponding position in the iteration order of
+   * {@code rulesToBuild}.
+   * @param targetish The targets to build. All targets in this iterable must be unique.
+   */
+  public LinkedHashMap<BuildRule, Optional<BuildRuleSuccess>> executeBuild(
+      Iterable<? extends HasBuildTarget> targetish,
+      boolean isKeepGoing)
+      throws IOException, StepFailedException, ExecutionException, InterruptedException {
+    return waitForBuild(startBuild(targetish), isKeepGoing);
+  }
 
-    List<ListenableFuture<BuildRuleSuccess>> futures = FluentIterable.from(rulesToBuild)
-        .transform(
-        new Function<BuildRule, ListenableFuture<BuildRuleSuccess>>() {
-          @Override
-          public ListenableFuture<BuildRuleSuccess> apply(BuildRule rule) {
-            return buildEngine.build(buildContext, rule);
-          }
-        }).toList();
+  /**
+   * Like {@link #executeBuild(Iterable, boolean)}, but for a build that has already been started
+   * with {@link #startBuild(Iterable)}.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public LinkedHashMap<BuildRule, Optional<BuildRuleSuccess>> waitForBuild(
+      ImmutableMap<BuildRule, ListenableFuture<BuildRuleSuccess>> ruleToFuture,
+      boolean isKeepGoing)
+      throws IOException, StepFailedException, ExecutionException, InterruptedException {
+    ImmutableList<BuildRule> rulesToBuild = ruleToFuture.keySet().asList();
+    List<ListenableFuture<BuildRuleSuccess>> futures = ruleToFuture.values().asList();
 
     // Get the Future representing the build and then block until everything is built.
     ListenableFuture<List<BuildRuleSuccess>> buildFuture;
@@ -264,11 +290,27 @@ public class Build implements Closeable {
       boolean isKeepGoing,
       Console console,
       Optional<Path> pathToBuildReport) throws InterruptedException {
+    return waitForBuildAndPrintFailuresToConsole(
+        startBuild(targetsish),
+        isKeepGoing,
+        console,
+        pathToBuildReport);
+  }
+
+  /**
+   * Like {@link #executeAndPrintFailuresToConsole(Iterable, boolean, Console, Optional)}, but for
+   * a build that has already been started with {@link #startBuild(Iterable)}.
+   */
+  public int waitForBuildAndPrintFailuresToConsole(
+      ImmutableMap<BuildRule, ListenableFuture<BuildRuleSuccess>> ruleToFuture,
+      boolean isKeepGoing,
+      Console console,
+      Optional<Path> pathToBuildReport) throws InterruptedException {
     int exitCode;
 
     try {
-      LinkedHashMap<BuildRule, Optional<BuildRuleSuccess>> ruleToResult = executeBuild(
-          targetsish,
+      LinkedHashMap<BuildRule, Optional<BuildRuleSuccess>> ruleToResult = waitForBuild(
+          ruleToFuture,
           isKeepGoing);
 
       BuildReport buildReport = new BuildReport(ruleToResult);
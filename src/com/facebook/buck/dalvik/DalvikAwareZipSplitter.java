@@ -45,7 +45,8 @@ import javax.annotation.Nullable;
  * Alternative to {@link DefaultZipSplitter} that uses estimates from {@link DalvikStatsTool}
  * to determine how many classes to pack into a dex.
  * <p>
- * It does three passes through the .class files:
+ * It places classes in three passes. Each class is analyzed once, on all cores, while the first
+ * pass reads it, so that the later passes only have to look up its stats:
  * <ul>
  *   <li>
  *     During the first pass, it uses the {@code requiredInPrimaryZip} predicate to filter the set
@@ -161,12 +162,13 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     final ImmutableMap.Builder<String, FileLike> entriesBuilder = ImmutableMap.builder();
 
     // Iterate over all of the inFiles and add all entries that match the requiredInPrimaryZip
-    // predicate.
+    // predicate. Only the entries that are looked up by name later on are kept in memory.
     classpathTraverser.traverse(new ClasspathTraversal(inFiles, filesystem) {
       @Override
       public void visit(FileLike entry) throws IOException {
         String relativePath = entry.getRelativePath();
         Preconditions.checkNotNull(primaryOut);
+        dalvikStatsCache.submitStats(entry);
         if (requiredInPrimaryZip.apply(relativePath)) {
           primaryOut.putEntry(entry);
         } else if (wantedInPrimaryZip.contains(relativePath) ||
@@ -17,20 +17,97 @@
 package com.facebook.buck.dalvik;
 
 import com.facebook.buck.java.classes.FileLike;
-import com.google.common.collect.MapMaker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * Cache to memoize results from DalvikStatsTool.
+ * <p>
+ * Entries are identified by their container and their path in it, so that the stats of an entry
+ * can be looked up again while traversing the classpath a second time. Besides remembering the
+ * stats of each entry it has seen, it shares the stats of every class it analyzes with all other
+ * instances, keyed by the SHA-1 of the class file. As buckd keeps the JVM alive between builds,
+ * this means that an incremental build only analyzes the classes that changed since the last one.
+ * The shared stats are softly referenced, so they are dropped rather than running out of memory.
+ * <p>
+ * This class is thread-safe.
  */
 class DalvikStatsCache {
 
-  private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  private static final Cache<HashCode, DalvikStatsTool.Stats> STATS_BY_CLASS_HASH =
+      CacheBuilder.newBuilder().softValues().build();
 
-  DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+  private static final int NUM_ANALYSIS_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** Shared by all caches, as each analysis is short and never waits on another. */
+  private static final ListeningExecutorService ANALYSIS_THREADS =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              NUM_ANALYSIS_THREADS,
+              new ThreadFactoryBuilder()
+                  .setNameFormat(DalvikStatsCache.class.getSimpleName() + "-%d")
+                  .setDaemon(true)
+                  .build()));
+
+  /**
+   * How many classes that were submitted may wait to be analyzed, which bounds how many class files
+   * are held in memory when classes are read faster than they can be analyzed.
+   */
+  private static final int MAX_PENDING_ANALYSES = 4 * NUM_ANALYSIS_THREADS;
+
+  private final ConcurrentMap<String, ListenableFuture<DalvikStatsTool.Stats>> statsByEntry =
+      Maps.newConcurrentMap();
+  private final Semaphore pendingAnalyses = new Semaphore(MAX_PENDING_ANALYSES);
+
+  /**
+   * Reads {@code entry} and starts analyzing it on another core, so that a later call to
+   * {@link #getStats(FileLike)} for the same entry does not have to read it again. Only the stats
+   * are kept once the analysis is done.
+   */
+  void submitStats(FileLike entry) throws IOException {
+    final String name = entry.getRelativePath();
+    String key = getKey(entry);
+    if (!name.endsWith(".class") || statsByEntry.containsKey(key)) {
+      return;
+    }
+
+    final byte[] contents = readContents(entry);
+    pendingAnalyses.acquireUninterruptibly();
+    ListenableFuture<DalvikStatsTool.Stats> stats;
+    try {
+      stats = ANALYSIS_THREADS.submit(
+          new Callable<DalvikStatsTool.Stats>() {
+            @Override
+            public DalvikStatsTool.Stats call() {
+              try {
+                return analyze(name, contents);
+              } finally {
+                pendingAnalyses.release();
+              }
+            }
+          });
+    } catch (RuntimeException e) {
+      pendingAnalyses.release();
+      throw e;
+    }
+    statsByEntry.put(key, stats);
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -41,14 +118,40 @@ class DalvikStatsCache {
       return DalvikStatsTool.Stats.ZERO;
     }
 
-    DalvikStatsTool.Stats stats = cache.get(entry);
-    if (stats != null) {
-      return stats;
+    String key = getKey(entry);
+    ListenableFuture<DalvikStatsTool.Stats> submittedStats = statsByEntry.get(key);
+    if (submittedStats != null) {
+      return Futures.getUnchecked(submittedStats);
     }
 
+    DalvikStatsTool.Stats stats;
+    try {
+      stats = analyze(name, readContents(entry));
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
+    }
+    statsByEntry.put(key, Futures.immediateFuture(stats));
+    return stats;
+  }
+
+  private static String getKey(FileLike entry) {
+    return entry.getContainer() + "!/" + entry.getRelativePath();
+  }
+
+  private static byte[] readContents(FileLike entry) throws IOException {
+    try (InputStream input = entry.getInput()) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  private static DalvikStatsTool.Stats analyze(String name, byte[] contents) {
     try {
-      stats = DalvikStatsTool.getEstimate(entry.getInput());
-      cache.put(entry, stats);
+      HashCode hash = Hashing.sha1().hashBytes(contents);
+      DalvikStatsTool.Stats stats = STATS_BY_CLASS_HASH.getIfPresent(hash);
+      if (stats == null) {
+        stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(contents));
+        STATS_BY_CLASS_HASH.put(hash, stats);
+      }
       return stats;
     } catch (IOException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
@@ -20,6 +20,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -65,6 +67,12 @@ public class DalvikStatsTool {
       Type.getType(Class.class),
       Type.getType("[" + Type.INT_TYPE.getDescriptor())).getDescriptor();
 
+  /**
+   * The same methods are referenced by thousands of classes, so all the stats share a single
+   * instance of each reference rather than holding three strings per class and reference.
+   */
+  private static final Interner<MethodReference> METHOD_REFERENCES = Interners.newWeakInterner();
+
   public static class MethodReference {
 
     public final String className;
@@ -263,7 +271,7 @@ public class DalvikStatsTool {
         }
       }
       Preconditions.checkNotNull(className);
-      methodReferenceBuilder.add(new MethodReference(className, name, desc));
+      addMethodReference(className, name, desc);
       return methodVisitor;
     }
 
@@ -272,10 +280,14 @@ public class DalvikStatsTool {
       super.visitOuterClass(owner, name, desc);
       if (name != null) {
         Preconditions.checkNotNull(className);
-        methodReferenceBuilder.add(new MethodReference(className, name, desc));
+        addMethodReference(className, name, desc);
       }
     }
 
+    private void addMethodReference(String owner, String name, String desc) {
+      methodReferenceBuilder.add(METHOD_REFERENCES.intern(new MethodReference(owner, name, desc)));
+    }
+
     private class StatsMethodVisitor extends MethodVisitor {
 
       public StatsMethodVisitor() {
@@ -286,15 +298,14 @@ public class DalvikStatsTool {
       @SuppressWarnings("deprecation")
       public void visitMethodInsn(int opcode, String owner, String name, String desc) {
         super.visitMethodInsn(opcode, owner, name, desc);
-        methodReferenceBuilder.add(new MethodReference(owner, name, desc));
+        addMethodReference(owner, name, desc);
       }
 
       @Override
       public void visitMultiANewArrayInsn(String desc, int dims) {
         // dx translates this instruction into a method invocation on
         // Array.newInstance(Class clazz, int...dims);
-        methodReferenceBuilder.add(
-            new MethodReference(MULTIARRAY_OWNER, MULTIARRAY_NAME, MULTIARRAY_DESC));
+        addMethodReference(MULTIARRAY_OWNER, MULTIARRAY_NAME, MULTIARRAY_DESC);
       }
     }
   }
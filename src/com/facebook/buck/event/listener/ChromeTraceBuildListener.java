@@ -286,7 +286,9 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         "buck",
         "action_graph",
         ChromeTraceEvent.Phase.END,
-        ImmutableMap.<String, String>of(),
+        ImmutableMap.of(
+            "rules_reused", String.valueOf(finished.getRulesReused()),
+            "rules_created", String.valueOf(finished.getRulesCreated())),
         finished);
   }
 
@@ -50,6 +50,11 @@ public abstract class AbstractBottomUpTraversal<T, V> {
   }
 
   public final void traverse() {
+    if (graph instanceof DefaultDirectedAcyclicGraph) {
+      traverse((DefaultDirectedAcyclicGraph<T>) graph);
+      return;
+    }
+
     Iterables.addAll(nodesToExplore, graph.getNodesWithNoOutgoingEdges());
     while (!nodesToExplore.isEmpty()) {
       T node = nodesToExplore.remove();
@@ -80,6 +85,37 @@ public abstract class AbstractBottomUpTraversal<T, V> {
     }
   }
 
+  /**
+   * Visits the nodes in the same order as the traversal above, but keeps track of the out degrees
+   * by node index rather than in a map.
+   */
+  private void traverse(DefaultDirectedAcyclicGraph<T> dag) {
+    DefaultDirectedAcyclicGraph.Adjacency outgoingEdges = dag.getOutgoingEdges();
+    DefaultDirectedAcyclicGraph.Adjacency incomingEdges = dag.getIncomingEdges();
+    int[] effectiveOutDegrees = new int[dag.getNodeCount()];
+    // Every node is added to the queue exactly once.
+    int[] queue = new int[dag.getNodeCount()];
+    int head = 0;
+    int tail = 0;
+    for (int i = 0; i < effectiveOutDegrees.length; i++) {
+      effectiveOutDegrees[i] = outgoingEdges.getDegree(i);
+      if (effectiveOutDegrees[i] == 0) {
+        queue[tail++] = i;
+      }
+    }
+
+    while (head < tail) {
+      int node = queue[head++];
+      visit(dag.getNode(node));
+      for (int edge = incomingEdges.getStart(node); edge < incomingEdges.getEnd(node); edge++) {
+        int exploreCandidate = incomingEdges.getNodeIndex(edge);
+        if (--effectiveOutDegrees[exploreCandidate] == 0) {
+          queue[tail++] = exploreCandidate;
+        }
+      }
+    }
+  }
+
   public abstract void visit(T node);
 
   public abstract V getResult();
@@ -17,43 +17,86 @@
 package com.facebook.buck.graph;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Sets;
 
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
 
+/**
+ * An immutable {@link DirectedAcyclicGraph} that numbers its nodes and keeps the edges in each
+ * direction as arrays of node indexes, in compressed sparse row form. This takes a few bytes per
+ * edge, rather than the entries of a multimap in each direction, which matters for the target and
+ * action graphs of large projects.
+ * <p>
+ * {@link AbstractBottomUpTraversal} and {@link TopologicalSort} traverse this graph by node index
+ * rather than through sets of nodes. Other traversals get the adjacent nodes of a node as a view
+ * of its range of the edge array, which is not copied.
+ */
 public class DefaultDirectedAcyclicGraph<T> implements DirectedAcyclicGraph<T> {
 
   private final ImmutableSet<T> nodes;
-  private final ImmutableSetMultimap<T, T> outgoingEdges;
-  private final ImmutableSetMultimap<T, T> incomingEdges;
+  private final ImmutableList<T> nodesByIndex;
+  private final ImmutableMap<T, Integer> indexes;
+  private final Adjacency outgoingEdges;
+  private final Adjacency incomingEdges;
 
   public DefaultDirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
     Preconditions.checkArgument(graph.isAcyclic());
     this.nodes = graph.createImmutableCopyOfNodes();
-    this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
-    this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+    this.nodesByIndex = nodes.asList();
+    ImmutableMap.Builder<T, Integer> indexes = ImmutableMap.builder();
+    for (int i = 0; i < nodesByIndex.size(); i++) {
+      indexes.put(nodesByIndex.get(i), i);
+    }
+    this.indexes = indexes.build();
+
+    int numEdges = graph.getEdgeCount();
+    int[] outgoingOffsets = new int[nodesByIndex.size() + 1];
+    int[] outgoingTargets = new int[numEdges];
+    int[] incomingOffsets = new int[nodesByIndex.size() + 1];
+    int[] incomingTargets = new int[numEdges];
+    int outgoingEdge = 0;
+    int incomingEdge = 0;
+    for (int i = 0; i < nodesByIndex.size(); i++) {
+      T node = nodesByIndex.get(i);
+      outgoingOffsets[i] = outgoingEdge;
+      for (T sink : graph.getOutgoingNodesFor(node)) {
+        outgoingTargets[outgoingEdge++] = this.indexes.get(sink);
+      }
+      incomingOffsets[i] = incomingEdge;
+      for (T source : graph.getIncomingNodesFor(node)) {
+        incomingTargets[incomingEdge++] = this.indexes.get(source);
+      }
+    }
+    outgoingOffsets[nodesByIndex.size()] = outgoingEdge;
+    incomingOffsets[nodesByIndex.size()] = incomingEdge;
+    this.outgoingEdges = new Adjacency(outgoingOffsets, outgoingTargets);
+    this.incomingEdges = new Adjacency(incomingOffsets, incomingTargets);
   }
 
   @Override
-  public ImmutableSet<T> getOutgoingNodesFor(T source) {
-    return outgoingEdges.get(source);
+  public Set<T> getOutgoingNodesFor(T source) {
+    return getNodes(outgoingEdges, source);
   }
 
   @Override
-  public ImmutableSet<T> getIncomingNodesFor(T sink) {
-    return incomingEdges.get(sink);
+  public Set<T> getIncomingNodesFor(T sink) {
+    return getNodes(incomingEdges, sink);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, outgoingEdges.keySet()));
+    return getNodesWithNoEdges(outgoingEdges);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoIncomingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, incomingEdges.keySet()));
+    return getNodesWithNoEdges(incomingEdges);
   }
 
   /** @return an unmodifiable view of the nodes in this graph */
@@ -61,20 +104,154 @@ public class DefaultDirectedAcyclicGraph<T> implements DirectedAcyclicGraph<T> {
     return nodes;
   }
 
+  int getNodeCount() {
+    return nodesByIndex.size();
+  }
+
+  T getNode(int index) {
+    return nodesByIndex.get(index);
+  }
+
+  Adjacency getOutgoingEdges() {
+    return outgoingEdges;
+  }
+
+  Adjacency getIncomingEdges() {
+    return incomingEdges;
+  }
+
+  private Set<T> getNodes(Adjacency edges, T node) {
+    Integer index = indexes.get(node);
+    if (index == null) {
+      return ImmutableSet.of();
+    }
+    return new AdjacentNodes(edges.getStart(index), edges.getEnd(index), edges);
+  }
+
+  private ImmutableSet<T> getNodesWithNoEdges(Adjacency edges) {
+    ImmutableSet.Builder<T> nodesWithNoEdges = ImmutableSet.builder();
+    for (int i = 0; i < nodesByIndex.size(); i++) {
+      if (edges.getDegree(i) == 0) {
+        nodesWithNoEdges.add(nodesByIndex.get(i));
+      }
+    }
+    return nodesWithNoEdges.build();
+  }
+
   @Override
+  @SuppressWarnings("unchecked")
   public boolean equals(Object other) {
     if (!(other instanceof DefaultDirectedAcyclicGraph)) {
       return false;
     }
 
-    DefaultDirectedAcyclicGraph<?> that = (DefaultDirectedAcyclicGraph<?>) other;
-    return Objects.equals(this.nodes, that.nodes) &&
-        Objects.equals(this.outgoingEdges, that.outgoingEdges) &&
-        Objects.equals(this.incomingEdges, that.incomingEdges);
+    DefaultDirectedAcyclicGraph<T> that = (DefaultDirectedAcyclicGraph<T>) other;
+    if (!Objects.equals(this.nodes, that.nodes) ||
+        this.outgoingEdges.targets.length != that.outgoingEdges.targets.length) {
+      return false;
+    }
+    // The graphs may have numbered their nodes differently.
+    for (T node : nodesByIndex) {
+      if (!getOutgoingNodesFor(node).equals(that.getOutgoingNodesFor(node))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(nodes, outgoingEdges, incomingEdges);
+    return Objects.hash(nodes, outgoingEdges.targets.length);
+  }
+
+  /**
+   * The nodes at the other end of the edges {@code start} up to, but not including, {@code end},
+   * which are those of a single node. The edges of a node go to distinct nodes, so this is a set.
+   */
+  private final class AdjacentNodes extends AbstractSet<T> {
+    private final int start;
+    private final int end;
+    private final Adjacency edges;
+
+    private AdjacentNodes(int start, int end, Adjacency edges) {
+      this.start = start;
+      this.end = end;
+      this.edges = edges;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new Iterator<T>() {
+        private int edge = start;
+
+        @Override
+        public boolean hasNext() {
+          return edge < end;
+        }
+
+        @Override
+        public T next() {
+          if (edge >= end) {
+            throw new NoSuchElementException();
+          }
+          return nodesByIndex.get(edges.getNodeIndex(edge++));
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+
+    @Override
+    public boolean contains(Object node) {
+      Integer index = indexes.get(node);
+      if (index == null) {
+        return false;
+      }
+      for (int edge = start; edge < end; edge++) {
+        if (edges.getNodeIndex(edge) == index) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * The edges of a graph in one direction: the indexes of the nodes adjacent to the node with index
+   * {@code i} are at {@code targets[offsets[i]]} up to, but not including,
+   * {@code targets[offsets[i + 1]]}.
+   */
+  static final class Adjacency {
+    private final int[] offsets;
+    private final int[] targets;
+
+    private Adjacency(int[] offsets, int[] targets) {
+      this.offsets = offsets;
+      this.targets = targets;
+    }
+
+    int getStart(int index) {
+      return offsets[index];
+    }
+
+    int getEnd(int index) {
+      return offsets[index + 1];
+    }
+
+    int getDegree(int index) {
+      return offsets[index + 1] - offsets[index];
+    }
+
+    int getNodeIndex(int edge) {
+      return targets[edge];
+    }
   }
 }
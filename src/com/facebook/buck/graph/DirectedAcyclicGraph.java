@@ -18,13 +18,17 @@ package com.facebook.buck.graph;
 
 import com.google.common.collect.ImmutableSet;
 
+import java.util.Set;
+
 public interface DirectedAcyclicGraph<T> extends TraversableGraph<T> {
 
+  /** @return an unmodifiable set, which may be a view of the graph. */
   @Override
-  public ImmutableSet<T> getOutgoingNodesFor(T source);
+  public Set<T> getOutgoingNodesFor(T source);
 
+  /** @return an unmodifiable set, which may be a view of the graph. */
   @Override
-  public ImmutableSet<T> getIncomingNodesFor(T sink);
+  public Set<T> getIncomingNodesFor(T sink);
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges();
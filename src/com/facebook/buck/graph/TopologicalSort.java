@@ -36,6 +36,9 @@ public class TopologicalSort {
   public static <T extends Comparable<?>> ImmutableList<T> sort(
       TraversableGraph<T> graph,
       final Predicate<T> inclusionPredicate) {
+    if (graph instanceof DefaultDirectedAcyclicGraph) {
+      return sort((DefaultDirectedAcyclicGraph<T>) graph, inclusionPredicate);
+    }
 
     // AtomicInteger is used to decrement the integer value in-place.
     Map<T, AtomicInteger> effectiveOutDegreesOfExplorableNodes = Maps.newHashMap();
@@ -82,4 +85,50 @@ public class TopologicalSort {
 
     return toReturn.build();
   }
+
+  /**
+   * Sorts the nodes in the same way as above, but keeps track of the out degrees by node index
+   * rather than in a map.
+   */
+  private static <T extends Comparable<?>> ImmutableList<T> sort(
+      DefaultDirectedAcyclicGraph<T> dag,
+      Predicate<T> inclusionPredicate) {
+    DefaultDirectedAcyclicGraph.Adjacency outgoingEdges = dag.getOutgoingEdges();
+    DefaultDirectedAcyclicGraph.Adjacency incomingEdges = dag.getIncomingEdges();
+    int[] effectiveOutDegrees = new int[dag.getNodeCount()];
+    // Each level is a range of this array, and every node is added to it exactly once.
+    int[] queue = new int[dag.getNodeCount()];
+    int levelStart = 0;
+    int levelEnd = 0;
+    for (int i = 0; i < effectiveOutDegrees.length; i++) {
+      effectiveOutDegrees[i] = outgoingEdges.getDegree(i);
+      if (effectiveOutDegrees[i] == 0) {
+        queue[levelEnd++] = i;
+      }
+    }
+    ImmutableList.Builder<T> toReturn = ImmutableList.builder();
+
+    while (levelStart < levelEnd) {
+      int nextLevelEnd = levelEnd;
+      Set<T> level = Sets.newTreeSet();
+      for (int i = levelStart; i < levelEnd; i++) {
+        int node = queue[i];
+        T value = dag.getNode(node);
+        if (inclusionPredicate.apply(value)) {
+          level.add(value);
+        }
+        for (int edge = incomingEdges.getStart(node); edge < incomingEdges.getEnd(node); edge++) {
+          int exploreCandidate = incomingEdges.getNodeIndex(edge);
+          if (--effectiveOutDegrees[exploreCandidate] == 0) {
+            queue[nextLevelEnd++] = exploreCandidate;
+          }
+        }
+      }
+      toReturn.addAll(level);
+      levelStart = levelEnd;
+      levelEnd = nextLevelEnd;
+    }
+
+    return toReturn.build();
+  }
 }
@@ -73,7 +73,7 @@ public class MorePaths {
   }
 
   public static String pathWithUnixSeparators(Path path) {
-    return path.toString().replace("\\", "/");
+    return path.toString().replace('\\', '/');
   }
 
   public static String pathWithPlatformSeparators(String path) {
@@ -82,7 +82,7 @@ public class MorePaths {
 
   public static String pathWithPlatformSeparators(Path path) {
     if (Platform.detect() == Platform.WINDOWS) {
-      return path.toString().replace("/", "\\");
+      return path.toString().replace('/', '\\');
     } else {
       return pathWithUnixSeparators(path);
     }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.java.runner.TestRunnerWorker;
+import com.facebook.buck.java.runner.TestRunnerWorkerProtocol;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A pool of long-lived JVMs, each running a {@link TestRunnerWorker}, that run batches of tests so
+ * that each test rule does not have to pay for JVM startup.
+ * <p>
+ * Workers are keyed by everything that has to be fixed when a JVM is started: its arguments, the
+ * classpath of the runner itself, its working directory and its environment. Everything else
+ * (the classpath of the tests, system properties and the runner arguments) is sent with each
+ * request, and the tests are isolated from each other by running each batch in a fresh class
+ * loader. A worker is thrown away rather than reused when a batch fails or times out, when its
+ * heap usage grows past {@link #MAX_HEAP_USAGE_RATIO}, or after {@link #MAX_RUNS_PER_WORKER}
+ * batches.
+ * <p>
+ * The temporary directory cannot be changed per batch: {@code TMP} is fixed when the JVM starts,
+ * and the JDK remembers {@code java.io.tmpdir} the first time a temporary file is created. Each
+ * worker therefore gets a scratch directory of its own as both, which is emptied after each batch.
+ */
+public class JUnitRunnerPool implements Closeable {
+
+  private static final Logger LOG = Logger.get(JUnitRunnerPool.class);
+
+  @VisibleForTesting
+  static final int MAX_RUNS_PER_WORKER = 50;
+
+  private static final double MAX_HEAP_USAGE_RATIO = 0.75;
+
+  private static final int WORKER_STARTUP_TIMEOUT_MILLIS = 30 * 1000;
+
+  /**
+   * The outcome of running a batch of tests in a worker.
+   */
+  public enum Result {
+    /** The runner ran to completion, though individual tests may have failed. */
+    COMPLETED,
+    /** The batch did not complete in time, and its worker has been killed. */
+    TIMED_OUT,
+  }
+
+  private final int maxIdleWorkersPerKey;
+  private final Path logDirectory;
+  private final Path tmpDirectory;
+  private final AtomicInteger workersStarted = new AtomicInteger();
+
+  @GuardedBy("this")
+  private final ListMultimap<Key, Worker> idleWorkers = LinkedListMultimap.create();
+
+  @GuardedBy("this")
+  private boolean isClosed = false;
+
+  /**
+   * @param maxIdleWorkersPerKey how many workers with the same {@link Key} to keep around between
+   *     batches of tests.
+   * @param logDirectory where the stdout and stderr of workers are written.
+   * @param tmpDirectory where the scratch directories of workers are created.
+   */
+  public JUnitRunnerPool(int maxIdleWorkersPerKey, Path logDirectory, Path tmpDirectory) {
+    Preconditions.checkArgument(maxIdleWorkersPerKey > 0);
+    this.maxIdleWorkersPerKey = maxIdleWorkersPerKey;
+    this.logDirectory = logDirectory;
+    this.tmpDirectory = tmpDirectory;
+  }
+
+  /**
+   * Runs {@code runnerClassName} with {@code runnerArgs} in a fresh class loader built from the
+   * entries listed in {@code classPathFile}, in a worker matching the given JVM configuration.
+   *
+   * @throws IOException if the worker could not be started or died while running the tests. In
+   *     that case the tests should be run in a new JVM of their own.
+   */
+  public Result run(
+      ImmutableList<String> jvmArgs,
+      String runnerClassPath,
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      Path classPathFile,
+      String runnerClassName,
+      ImmutableMap<String, String> systemProperties,
+      ImmutableList<String> runnerArgs,
+      Optional<Long> timeoutMillis) throws IOException {
+    Key key = new Key(jvmArgs, runnerClassPath, workingDirectory, environment);
+    Worker worker = acquire(key);
+    boolean isHealthy = false;
+    try {
+      List<String> properties = Lists.newArrayList();
+      for (Map.Entry<String, String> property : systemProperties.entrySet()) {
+        properties.add(property.getKey() + "=" + property.getValue());
+      }
+
+      DataOutputStream out = worker.out;
+      TestRunnerWorkerProtocol.writeString(out, classPathFile.toString());
+      TestRunnerWorkerProtocol.writeString(out, runnerClassName);
+      TestRunnerWorkerProtocol.writeStrings(out, properties);
+      TestRunnerWorkerProtocol.writeStrings(out, runnerArgs);
+      out.flush();
+
+      worker.socket.setSoTimeout(timeoutMillis.or(0L).intValue());
+      int status;
+      String error;
+      long usedMemory;
+      long maxMemory;
+      try {
+        status = worker.in.readInt();
+        error = TestRunnerWorkerProtocol.readString(worker.in);
+        usedMemory = worker.in.readLong();
+        maxMemory = worker.in.readLong();
+      } catch (SocketTimeoutException e) {
+        LOG.debug("Test runner worker timed out running %s.", runnerArgs);
+        return Result.TIMED_OUT;
+      }
+
+      if (status != TestRunnerWorkerProtocol.STATUS_OK) {
+        // The runner reports its own failures this way, just as it would when run in a fresh JVM:
+        // any results it managed to write are still valid, but this worker is not to be trusted.
+        LOG.warn("Test runner failed in a worker:\n%s", error);
+        return Result.COMPLETED;
+      }
+
+      worker.runs++;
+      isHealthy = worker.runs < MAX_RUNS_PER_WORKER &&
+          usedMemory < maxMemory * MAX_HEAP_USAGE_RATIO;
+      if (!isHealthy) {
+        LOG.debug(
+            "Recycling test runner worker after %d runs using %d of %d bytes of heap.",
+            worker.runs,
+            usedMemory,
+            maxMemory);
+      } else {
+        isHealthy = worker.clearTmpDirectory();
+      }
+      return Result.COMPLETED;
+    } finally {
+      release(key, worker, isHealthy);
+    }
+  }
+
+  @VisibleForTesting
+  int getNumberOfWorkersStarted() {
+    return workersStarted.get();
+  }
+
+  private Worker acquire(Key key) throws IOException {
+    synchronized (this) {
+      Preconditions.checkState(!isClosed, "Pool has been closed.");
+      List<Worker> workers = idleWorkers.get(key);
+      if (!workers.isEmpty()) {
+        return workers.remove(0);
+      }
+    }
+    return startWorker(key);
+  }
+
+  private void release(Key key, Worker worker, boolean isHealthy) {
+    synchronized (this) {
+      if (isHealthy && !isClosed && idleWorkers.get(key).size() < maxIdleWorkersPerKey) {
+        idleWorkers.put(key, worker);
+        return;
+      }
+    }
+    worker.close();
+  }
+
+  private Worker startWorker(Key key) throws IOException {
+    int id = workersStarted.incrementAndGet();
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      serverSocket.setSoTimeout(WORKER_STARTUP_TIMEOUT_MILLIS);
+
+      Path workerTmpDirectory = tmpDirectory.resolve("junit-runner-" + id);
+      MoreFiles.rmdir(workerTmpDirectory);
+      Files.createDirectories(workerTmpDirectory);
+
+      ImmutableList<String> command = ImmutableList.<String>builder()
+          .add("java")
+          .add("-Djava.io.tmpdir=" + workerTmpDirectory)
+          .addAll(key.jvmArgs)
+          .add("-classpath")
+          .add(key.runnerClassPath)
+          .add(TestRunnerWorker.class.getName())
+          .add(String.valueOf(serverSocket.getLocalPort()))
+          .build();
+
+      Files.createDirectories(logDirectory);
+      ProcessBuilder processBuilder = new ProcessBuilder(command)
+          .directory(key.workingDirectory.toFile())
+          .redirectErrorStream(true)
+          .redirectOutput(
+              ProcessBuilder.Redirect.appendTo(
+                  logDirectory.resolve("junit-runner-" + id + ".log").toFile()));
+      processBuilder.environment().clear();
+      processBuilder.environment().putAll(key.environment);
+      processBuilder.environment().put("TMP", workerTmpDirectory.toString());
+
+      LOG.debug("Starting test runner worker %d: %s", id, command);
+      Process process = processBuilder.start();
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        process.destroy();
+        throw e;
+      }
+      return new Worker(process, socket, workerTmpDirectory);
+    }
+  }
+
+  @Override
+  public void close() {
+    List<Worker> workers;
+    synchronized (this) {
+      isClosed = true;
+      workers = ImmutableList.copyOf(idleWorkers.values());
+      idleWorkers.clear();
+    }
+    for (Worker worker : workers) {
+      worker.close();
+    }
+  }
+
+  /**
+   * Everything about a worker that cannot be changed once its JVM has been started.
+   */
+  private static class Key {
+    private final ImmutableList<String> jvmArgs;
+    private final String runnerClassPath;
+    private final Path workingDirectory;
+    private final ImmutableMap<String, String> environment;
+
+    public Key(
+        ImmutableList<String> jvmArgs,
+        String runnerClassPath,
+        Path workingDirectory,
+        ImmutableMap<String, String> environment) {
+      this.jvmArgs = jvmArgs;
+      this.runnerClassPath = runnerClassPath;
+      this.workingDirectory = workingDirectory;
+      this.environment = environment;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) obj;
+      return jvmArgs.equals(that.jvmArgs) &&
+          runnerClassPath.equals(that.runnerClassPath) &&
+          workingDirectory.equals(that.workingDirectory) &&
+          environment.equals(that.environment);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(jvmArgs, runnerClassPath, workingDirectory, environment);
+    }
+  }
+
+  private static class Worker {
+    private final Process process;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Path tmpDirectory;
+    private int runs = 0;
+
+    public Worker(Process process, Socket socket, Path tmpDirectory) throws IOException {
+      this.process = process;
+      this.socket = socket;
+      this.tmpDirectory = tmpDirectory;
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to close connection to test runner worker.");
+      }
+      process.destroy();
+      try {
+        MoreFiles.rmdir(tmpDirectory);
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to delete the scratch directory of a test runner worker.");
+      }
+    }
+
+    /**
+     * @return whether the files left behind by the last batch could all be deleted.
+     */
+    public boolean clearTmpDirectory() {
+      try {
+        MoreFiles.rmdir(tmpDirectory);
+        Files.createDirectories(tmpDirectory);
+        return true;
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to clear the scratch directory of a test runner worker.");
+        return false;
+      }
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.java;
 
 import com.facebook.buck.java.runner.FileClassPathRunner;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
@@ -42,6 +43,8 @@ import java.util.Set;
 
 public class JUnitStep extends ShellStep {
 
+  private static final Logger LOG = Logger.get(JUnitStep.class);
+
   // Note that the default value is used when `buck test --all` is run on Buck itself.
   @VisibleForTesting
   static final String JUNIT_TEST_RUNNER_CLASS_NAME =
@@ -213,14 +216,25 @@ public class JUnitStep extends ShellStep {
 
     // Specify the Java class whose main() method should be run. This is the class that is
     // responsible for running the tests.
+    args.add(getTestRunnerClassName());
+    args.addAll(getTestRunnerArgs(context));
+
+    return args.build();
+  }
+
+  private String getTestRunnerClassName() {
     if (TestType.JUNIT == type) {
-      args.add(JUNIT_TEST_RUNNER_CLASS_NAME);
+      return JUNIT_TEST_RUNNER_CLASS_NAME;
     } else if (TestType.TESTNG == type) {
-      args.add(TESTNG_TEST_RUNNER_CLASS_NAME);
+      return TESTNG_TEST_RUNNER_CLASS_NAME;
     } else {
       throw new IllegalArgumentException(
           "java_test: unrecognized type " + type + ", expected eg. junit or testng");
     }
+  }
+
+  private ImmutableList<String> getTestRunnerArgs(ExecutionContext context) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
 
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
@@ -276,9 +290,49 @@ public class JUnitStep extends ShellStep {
       e.printStackTrace(context.getStdErr());
       return 1;
     }
+
+    // Debugging and code coverage both need an agent attached to the JVM from the start.
+    Optional<JUnitRunnerPool> pool = context.getJUnitRunnerPool();
+    if (pool.isPresent() && !isDebugEnabled && !isCodeCoverageEnabled) {
+      try {
+        return executeInPool(context, pool.get());
+      } catch (IOException e) {
+        LOG.warn(e, "Could not run tests in a pooled JVM; starting a new one instead.");
+      }
+    }
     return super.execute(context);
   }
 
+  private int executeInPool(ExecutionContext context, JUnitRunnerPool pool) throws IOException {
+    // Only the arguments that the tests of different rules have in common are passed to the JVM,
+    // so that they can share workers. The rest are set for the duration of each run, except for
+    // the temporary directory, which the pool gives each worker instead of tmpDirectory.
+    ImmutableList.Builder<String> jvmArgs = ImmutableList.builder();
+    jvmArgs.add(String.format("-Dbuck.testrunner_classes=%s", testRunnerClasspath));
+    jvmArgs.addAll(vmArgs);
+    if (context.getVerbosity().shouldUseVerbosityFlagIfAvailable()) {
+      jvmArgs.add("-verbose");
+    }
+
+    JUnitRunnerPool.Result result = pool.run(
+        jvmArgs.build(),
+        testRunnerClasspath.toString(),
+        context.getProjectDirectoryRoot(),
+        context.getEnvironment(),
+        context.getProjectFilesystem().resolve(getClassPathFile()),
+        getTestRunnerClassName(),
+        ImmutableMap.of(BUILD_ID_PROPERTY, buildId.toString()),
+        getTestRunnerArgs(context),
+        testRuleTimeoutMs);
+
+    // As with a forked JVM, a timeout does not fail the step so that the results of the tests that
+    // did finish can still be interpreted.
+    if (result == JUnitRunnerPool.Result.TIMED_OUT) {
+      hasTimedOut = true;
+    }
+    return 0;
+  }
+
   @Override
   protected Optional<Long> getTimeout() {
     return testRuleTimeoutMs;
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A long-lived process that runs batches of tests on behalf of Buck, so that the cost of starting
+ * a JVM is only paid once for many test rules. Usage is:
+ * <pre>java -classpath path/to/testrunner/classes TestRunnerWorker port</pre>
+ * The worker connects back to Buck on {@code port} of the loopback interface and then serves
+ * requests, as described in {@link TestRunnerWorkerProtocol}, until that connection is closed.
+ * <p>
+ * Each batch of tests is run in a fresh {@link URLClassLoader} whose parent is the extension class
+ * loader, so classes (and their static state) from one batch are never visible to the next. Buck
+ * replaces the worker entirely after failures and when its heap grows too large.
+ * <p>
+ * Note: this class only depends on classes present in the JRE, since we don't want to have to push
+ * more things on to the classpath when using it.
+ */
+public class TestRunnerWorker {
+
+  private final List<URL> runnerUrls;
+  private final String runnerClassPath;
+
+  private TestRunnerWorker(String runnerClassPath) throws MalformedURLException {
+    this.runnerClassPath = runnerClassPath;
+    this.runnerUrls = new ArrayList<>();
+    for (String entry : runnerClassPath.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        runnerUrls.add(Paths.get(entry).toUri().toURL());
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Must specify the port to connect to.");
+      System.exit(1);
+    }
+    int port = Integer.parseInt(args[0]);
+
+    TestRunnerWorker worker = new TestRunnerWorker(System.getProperty("java.class.path"));
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      worker.serve(in, out);
+    } finally {
+      // Tests may have left non-daemon threads behind, which must not keep this process alive.
+      System.exit(0);
+    }
+  }
+
+  private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+    while (true) {
+      String classPathFile;
+      try {
+        classPathFile = TestRunnerWorkerProtocol.readString(in);
+      } catch (EOFException e) {
+        // Buck has closed the connection: we are done.
+        return;
+      }
+      String runnerClassName = TestRunnerWorkerProtocol.readString(in);
+      List<String> properties = TestRunnerWorkerProtocol.readStrings(in);
+      List<String> runnerArgs = TestRunnerWorkerProtocol.readStrings(in);
+
+      String error = runTests(
+          Paths.get(classPathFile),
+          runnerClassName,
+          properties,
+          runnerArgs.toArray(new String[runnerArgs.size()]));
+
+      Runtime runtime = Runtime.getRuntime();
+      long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+      if (usedMemory > runtime.maxMemory() / 2) {
+        // Only report memory that is really retained, e.g. by leaked threads or caches.
+        System.gc();
+        usedMemory = runtime.totalMemory() - runtime.freeMemory();
+      }
+
+      out.writeInt(
+          error == null ?
+              TestRunnerWorkerProtocol.STATUS_OK :
+              TestRunnerWorkerProtocol.STATUS_ERROR);
+      TestRunnerWorkerProtocol.writeString(out, error == null ? "" : error);
+      out.writeLong(usedMemory);
+      out.writeLong(runtime.maxMemory());
+      out.flush();
+    }
+  }
+
+  /**
+   * @return a description of the error if the tests could not be run, or {@code null}.
+   */
+  /* @Nullable */
+  private String runTests(
+      Path classPathFile,
+      String runnerClassName,
+      List<String> properties,
+      String[] runnerArgs) {
+    Map<String, String> originalProperties = new HashMap<>();
+    Thread thread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = thread.getContextClassLoader();
+    URLClassLoader classLoader = null;
+    try {
+      List<URL> urls = new ArrayList<>(
+          FileClassPathRunner.readUrls(
+              Collections.singletonList(classPathFile),
+              /* modifySystemClassPathProperty */ false));
+      List<String> classPathEntries = new ArrayList<>();
+      for (URL url : urls) {
+        classPathEntries.add(Paths.get(url.toURI()).toString());
+      }
+      // The runner classes come last, just as they do when the tests are run in a fresh JVM.
+      urls.addAll(runnerUrls);
+
+      StringBuilder classPath = new StringBuilder();
+      FileClassPathRunner.constructNewClassPath(classPath, runnerClassPath, classPathEntries);
+      setProperty(originalProperties, "java.class.path", classPath.toString());
+      for (String property : properties) {
+        int equals = property.indexOf('=');
+        setProperty(
+            originalProperties,
+            property.substring(0, equals),
+            property.substring(equals + 1));
+      }
+
+      classLoader = new URLClassLoader(
+          urls.toArray(new URL[urls.size()]),
+          ClassLoader.getSystemClassLoader().getParent());
+      thread.setContextClassLoader(classLoader);
+
+      Class<?> runnerClass = Class.forName(runnerClassName, true, classLoader);
+      Method runTests = runnerClass.getMethod("runTests", String[].class);
+      runTests.invoke(null, new Object[] { runnerArgs });
+      return null;
+    } catch (InvocationTargetException e) {
+      return stackTraceToString(e.getCause());
+    } catch (Exception | LinkageError e) {
+      return stackTraceToString(e);
+    } finally {
+      thread.setContextClassLoader(originalContextClassLoader);
+      for (Map.Entry<String, String> entry : originalProperties.entrySet()) {
+        if (entry.getValue() == null) {
+          System.clearProperty(entry.getKey());
+        } else {
+          System.setProperty(entry.getKey(), entry.getValue());
+        }
+      }
+      if (classLoader != null) {
+        try {
+          classLoader.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private static void setProperty(
+      Map<String, String> originalProperties,
+      String key,
+      String value) {
+    if (!originalProperties.containsKey(key)) {
+      originalProperties.put(key, System.getProperty(key));
+    }
+    System.setProperty(key, value);
+  }
+
+  private static String stackTraceToString(Throwable throwable) {
+    StringWriter writer = new StringWriter();
+    throwable.printStackTrace(new PrintWriter(writer, /* autoFlush */ true));
+    return writer.toString();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.runner;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format spoken between Buck and a {@link TestRunnerWorker} over a local socket. Every
+ * message is made of length-prefixed UTF-8 strings, string lists, ints and longs.
+ * <p>
+ * A request is:
+ * <ul>
+ *   <li>(string) path of a file listing the classpath of the tests, one entry per line
+ *   <li>(string) name of the runner class, which must have a
+ *       {@code public static void runTests(String[])} method
+ *   <li>(string list) {@code key=value} system properties to set while the tests run
+ *   <li>(string list) arguments to pass to {@code runTests}
+ * </ul>
+ * A response is:
+ * <ul>
+ *   <li>(int) {@link #STATUS_OK} or {@link #STATUS_ERROR}
+ *   <li>(string) details of the error, or the empty string
+ *   <li>(long) bytes of heap in use by the worker after the run
+ *   <li>(long) maximum number of bytes of heap available to the worker
+ * </ul>
+ * <p>
+ * Like the rest of this package, this only depends on classes present in the JRE.
+ */
+public final class TestRunnerWorkerProtocol {
+
+  public static final int STATUS_OK = 0;
+  public static final int STATUS_ERROR = 1;
+
+  private TestRunnerWorkerProtocol() {
+    // Utility class.
+  }
+
+  public static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Negative string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  public static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  public static List<String> readStrings(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Negative list size: " + size);
+    }
+    List<String> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Optional;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads what buck.py writes to its stdout: the rules of each build file it is asked to parse,
+ * possibly preceded by requests to expand globs.
+ */
+public interface BuildFileOutputParser extends AutoCloseable {
+
+  /**
+   * @return the rules of the next build file, followed by its meta rules, as Java collections.
+   */
+  public List<Map<String, Object>> nextRules() throws IOException;
+
+  /**
+   * @return the next request from buck.py to expand globs, of the form
+   *     {@code {"glob": {"path": ..., "includes": [...]}}}, or absent if the next thing it sent is
+   *     the rules of a build file.
+   */
+  public Optional<Map<String, Object>> nextGlobRequest() throws IOException;
+
+  @Override
+  public void close() throws IOException;
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses the compact binary output that buck.py writes when it is run with
+ * {@code --binary_output}, which is cheaper to produce and to parse than JSON when build files
+ * define thousands of rules.
+ * <p>
+ * Each message is a big-endian int giving the length of its payload, followed by the payload: a
+ * single value. A value is a one byte tag followed by its contents:
+ * <ul>
+ *   <li>{@code N}, {@code T}, {@code F}: null, true and false.
+ *   <li>{@code I}: an integer, as a long.
+ *   <li>{@code D}: a floating point number, as a double.
+ *   <li>{@code S}: a string that has not been sent before, as an int giving the number of bytes of
+ *       its UTF-8 encoding, followed by those bytes. Strings are numbered from zero in the order
+ *       in which they are first sent, for the whole life of the process.
+ *   <li>{@code R}: a string that has been sent before, as an int giving its number.
+ *   <li>{@code L}: a list, as an int giving the number of elements, followed by the elements.
+ *   <li>{@code M}: a map, as an int giving the number of entries, followed by the key and value of
+ *       each entry. Keys are always strings.
+ * </ul>
+ * Since keys and values such as {@code "deps"} or the base path of a build file repeat in every
+ * rule, most strings are sent, and created here, only once.
+ */
+public class BuildFileToBinaryParser implements BuildFileOutputParser {
+
+  static final byte NULL = 'N';
+  static final byte TRUE = 'T';
+  static final byte FALSE = 'F';
+  static final byte INTEGER = 'I';
+  static final byte DOUBLE = 'D';
+  static final byte STRING = 'S';
+  static final byte STRING_REFERENCE = 'R';
+  static final byte LIST = 'L';
+  static final byte MAP = 'M';
+
+  private final DataInputStream input;
+  private final List<String> strings = Lists.newArrayList();
+
+  /** A message that was read to see whether it is a glob request, but was not one. */
+  @Nullable private Object pendingMessage;
+
+  public BuildFileToBinaryParser(InputStream input) {
+    this.input = new DataInputStream(new BufferedInputStream(input));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Map<String, Object>> nextRules() throws IOException {
+    Object message = takeMessage();
+    if (!(message instanceof List)) {
+      throw new IOException("Expected the rules of a build file from buck.py, but got " + message);
+    }
+    return (List<Map<String, Object>>) message;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Optional<Map<String, Object>> nextGlobRequest() throws IOException {
+    if (pendingMessage == null) {
+      pendingMessage = readMessage();
+    }
+    if (!(pendingMessage instanceof Map)) {
+      return Optional.absent();
+    }
+    return Optional.of((Map<String, Object>) takeMessage());
+  }
+
+  private Object takeMessage() throws IOException {
+    Object message = pendingMessage;
+    pendingMessage = null;
+    return message == null ? readMessage() : message;
+  }
+
+  private Object readMessage() throws IOException {
+    int length = input.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid message length from buck.py: " + length);
+    }
+    byte[] payload = new byte[length];
+    input.readFully(payload);
+
+    DataInputStream message = new DataInputStream(new ByteArrayInputStream(payload));
+    Object value = readValue(message);
+    if (value == null || message.available() != 0) {
+      throw new IOException("Malformed message from buck.py.");
+    }
+    return value;
+  }
+
+  /**
+   * @return the same raw types as {@link RawParser#toRawTypes}.
+   */
+  @Nullable
+  private Object readValue(DataInputStream message) throws IOException {
+    byte tag = message.readByte();
+    // Cases are ordered from most common to least common.
+    switch (tag) {
+      case STRING_REFERENCE:
+        int index = message.readInt();
+        if (index < 0 || index >= strings.size()) {
+          throw new IOException("Reference to unknown string " + index + " from buck.py.");
+        }
+        return strings.get(index);
+      case STRING:
+        byte[] bytes = new byte[message.readInt()];
+        message.readFully(bytes);
+        // Interned for the same reason as the keys in RawParser: to save memory on large projects.
+        String string = new String(bytes, UTF_8).intern();
+        strings.add(string);
+        return string;
+      case LIST:
+        int size = message.readInt();
+        List<Object> list = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(message));
+        }
+        return list;
+      case MAP:
+        int entries = message.readInt();
+        Map<String, Object> map = Maps.newHashMapWithExpectedSize(entries);
+        for (int i = 0; i < entries; i++) {
+          Object key = readValue(message);
+          if (!(key instanceof String)) {
+            throw new IOException("Map keys from buck.py must be strings, but got " + key);
+          }
+          map.put((String) key, readValue(message));
+        }
+        return map;
+      case TRUE:
+        return true;
+      case FALSE:
+        return false;
+      case NULL:
+        return null;
+      case INTEGER:
+        return message.readLong();
+      case DOUBLE:
+        double number = message.readDouble();
+        if ((long) number == number) {
+          return (long) number;
+        }
+        return number;
+      default:
+        throw new IOException("Unknown tag " + tag + " in message from buck.py.");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
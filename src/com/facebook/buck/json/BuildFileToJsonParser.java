@@ -17,10 +17,12 @@
 package com.facebook.buck.json;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -34,7 +36,7 @@ import java.util.Map;
  * sort of nested arrays or objects are allowed in the output as Parser is implemented
  * today. This simplification makes it easier to leverage Jackson's streaming JSON API.
  */
-public class BuildFileToJsonParser implements AutoCloseable {
+public class BuildFileToJsonParser implements BuildFileOutputParser {
 
   /**
    * The parser below uses these objects for stateful purposes with the ultimate goal
@@ -77,8 +79,9 @@ public class BuildFileToJsonParser implements AutoCloseable {
    *     bear in mind that using the Java collections decouples clients of this method from the JSON
    *     parser that we use.
    */
+  @Override
   @SuppressWarnings("unchecked")
-  List<Map<String, Object>> nextRules() throws IOException {
+  public List<Map<String, Object>> nextRules() throws IOException {
     try {
       List<Map<String, Object>> items = Lists.newArrayList();
       reader.beginArray();
@@ -95,6 +98,20 @@ public class BuildFileToJsonParser implements AutoCloseable {
     }
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public Optional<Map<String, Object>> nextGlobRequest() throws IOException {
+    try {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        return Optional.absent();
+      }
+      JsonObject json = gson.fromJson(reader, JsonObject.class);
+      return Optional.of((Map<String, Object>) RawParser.toRawTypes(json));
+    } catch (IllegalStateException e) {
+      throw new IOException(e); // Rethrow Gson exceptions as IO (non-runtime) exceptions.
+    }
+  }
+
   @Override
   public void close() throws IOException {
     reader.close();
@@ -21,6 +21,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.Description;
 import com.facebook.buck.util.Console;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
@@ -28,14 +29,27 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final ProjectFilesystem projectFilesystem;
   private final ParserConfig parserConfig;
   private final ImmutableSet<Description<?>> descriptions;
+  private final Optional<GlobCache> globCache;
 
   public DefaultProjectBuildFileParserFactory(
       ProjectFilesystem projectFilesystem,
       ParserConfig parserConfig,
       ImmutableSet<Description<?>> descriptions) {
+    this(projectFilesystem, parserConfig, descriptions, Optional.<GlobCache>absent());
+  }
+
+  /**
+   * @param globCache if present, the parsers created answer the globs of buck.py from it.
+   */
+  public DefaultProjectBuildFileParserFactory(
+      ProjectFilesystem projectFilesystem,
+      ParserConfig parserConfig,
+      ImmutableSet<Description<?>> descriptions,
+      Optional<GlobCache> globCache) {
     this.projectFilesystem = projectFilesystem;
     this.parserConfig = parserConfig;
     this.descriptions = descriptions;
+    this.globCache = globCache;
   }
 
   @Override
@@ -49,6 +63,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         descriptions,
         console,
         environment,
-        buckEventBus);
+        buckEventBus,
+        globCache);
   }
 }
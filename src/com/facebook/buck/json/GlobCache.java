@@ -0,0 +1,389 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Expands the include patterns of {@code glob()} calls for buck.py, matching them the same way
+ * that pathlib's {@code Path.glob()} does.
+ * <p>
+ * The listings of the directories that are read, and the results of each pattern, are kept until
+ * {@link #invalidate} is told that a path in a directory they depend on was created or deleted, so
+ * a daemon that forwards file system events here only lists a directory again after it changes.
+ * Only directories under the project root are cached, since those are the only ones that changes
+ * are reported for.
+ */
+public class GlobCache {
+
+  private static final Logger LOG = Logger.get(GlobCache.class);
+
+  private final Path projectRoot;
+
+  /** Listings of directories by their normalized path, absent for paths that are not one. */
+  @GuardedBy("this")
+  private final Map<Path, Optional<Listing>> listings = Maps.newHashMap();
+
+  @GuardedBy("this")
+  private final Map<GlobKey, ImmutableSet<String>> globs = Maps.newHashMap();
+
+  /** The globs whose results depend on the listing of each directory. */
+  @GuardedBy("this")
+  private final SetMultimap<Path, GlobKey> globsByDirectory = HashMultimap.create();
+
+  public GlobCache(Path projectRoot) {
+    this.projectRoot = projectRoot.toAbsolutePath().normalize();
+  }
+
+  /**
+   * @param directory the absolute path of the directory to search from.
+   * @param includes patterns as accepted by pathlib, such as {@code src/**&#47;*.java}.
+   * @return the paths, relative to {@code directory} and separated by '/', of the files matched by
+   *     any of {@code includes}.
+   * @throws IllegalArgumentException if a pattern is not valid.
+   */
+  public synchronized ImmutableSortedSet<String> glob(Path directory, Iterable<String> includes)
+      throws IOException {
+    ImmutableSortedSet.Builder<String> files = ImmutableSortedSet.naturalOrder();
+    for (String include : includes) {
+      files.addAll(glob(directory, include));
+    }
+    return files.build();
+  }
+
+  @GuardedBy("this")
+  private ImmutableSet<String> glob(Path directory, String include) throws IOException {
+    GlobKey key = new GlobKey(directory, include);
+    ImmutableSet<String> files = globs.get(key);
+    if (files != null) {
+      return files;
+    }
+
+    Set<Path> directoriesRead = Sets.newHashSet();
+    Set<Path> matches = Sets.newLinkedHashSet();
+    select(directory, parsePattern(include), 0, matches, directoriesRead);
+
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    for (Path match : matches) {
+      Optional<Listing> parent = list(match.getParent(), directoriesRead);
+      if (parent.isPresent() &&
+          parent.get().getType(match.getFileName().toString()) == EntryType.FILE) {
+        builder.add(Joiner.on('/').join(directory.relativize(match)));
+      }
+    }
+    files = builder.build();
+
+    if (isCacheable(directory)) {
+      globs.put(key, files);
+      for (Path directoryRead : directoriesRead) {
+        globsByDirectory.put(directoryRead, key);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Forgets everything that depends on {@code path}, which was created or deleted.
+   *
+   * @param path the changed path, relative to the project root.
+   */
+  public synchronized void invalidate(Path path) {
+    Path changed = projectRoot.resolve(path).normalize();
+    invalidateDirectory(changed.getParent());
+
+    // A deleted directory takes everything under it with it.
+    Iterator<Path> directories = listings.keySet().iterator();
+    List<Path> removed = Lists.newArrayList();
+    while (directories.hasNext()) {
+      Path directory = directories.next();
+      if (directory.startsWith(changed)) {
+        directories.remove();
+        removed.add(directory);
+      }
+    }
+    for (Path directory : removed) {
+      invalidateDirectory(directory);
+    }
+  }
+
+  /**
+   * Forgets everything, for when it is not known which paths have changed.
+   */
+  public synchronized void invalidateAll() {
+    LOG.debug("Forgetting %d directory listings and %d globs.", listings.size(), globs.size());
+    listings.clear();
+    globs.clear();
+    globsByDirectory.clear();
+  }
+
+  @GuardedBy("this")
+  private void invalidateDirectory(Path directory) {
+    listings.remove(directory);
+    for (GlobKey key : globsByDirectory.removeAll(directory)) {
+      globs.remove(key);
+    }
+  }
+
+  private boolean isCacheable(Path path) {
+    return path.normalize().startsWith(projectRoot);
+  }
+
+  /**
+   * Splits a pattern into its parts, the same way that pathlib does.
+   */
+  private static ImmutableList<String> parsePattern(String include) {
+    if (include.startsWith("/")) {
+      throw new IllegalArgumentException("Non-relative patterns are unsupported");
+    }
+    ImmutableList.Builder<String> parts = ImmutableList.builder();
+    for (String part : Splitter.on('/').omitEmptyStrings().split(include)) {
+      if (part.equals(".")) {
+        continue;
+      }
+      if (!part.equals("**") && part.contains("**")) {
+        throw new IllegalArgumentException(
+            "Invalid pattern: '**' can only be an entire path component");
+      }
+      parts.add(part);
+    }
+    ImmutableList<String> result = parts.build();
+    if (result.isEmpty()) {
+      throw new IllegalArgumentException("Invalid pattern: " + include);
+    }
+    return result;
+  }
+
+  /**
+   * Adds to {@code matches} every path under {@code path} that matches {@code parts}, from
+   * {@code index} onwards. The paths may be of any kind, or even dangling symlinks.
+   */
+  @GuardedBy("this")
+  private void select(
+      Path path,
+      List<String> parts,
+      int index,
+      Set<Path> matches,
+      Set<Path> directoriesRead) throws IOException {
+    if (index == parts.size()) {
+      matches.add(path);
+      return;
+    }
+    Optional<Listing> listing = list(path, directoriesRead);
+    if (!listing.isPresent()) {
+      return;
+    }
+
+    String part = parts.get(index);
+    if (part.equals("**")) {
+      for (Path directory : listDirectoriesRecursively(path, directoriesRead)) {
+        if (index + 1 == parts.size()) {
+          // A trailing "**" matches everything in every directory.
+          Optional<Listing> children = list(directory, directoriesRead);
+          for (String name : children.get().types.keySet()) {
+            matches.add(directory.resolve(name));
+          }
+        } else {
+          select(directory, parts, index + 1, matches, directoriesRead);
+        }
+      }
+    } else if (isWildcard(part)) {
+      Pattern pattern = translateWildcard(part);
+      for (String name : listing.get().types.keySet()) {
+        if (pattern.matcher(name).matches()) {
+          select(path.resolve(name), parts, index + 1, matches, directoriesRead);
+        }
+      }
+    } else if (part.equals("..") || listing.get().types.containsKey(part)) {
+      // Every directory has a parent.
+      select(path.resolve(part), parts, index + 1, matches, directoriesRead);
+    }
+  }
+
+  @GuardedBy("this")
+  private List<Path> listDirectoriesRecursively(Path directory, Set<Path> directoriesRead)
+      throws IOException {
+    List<Path> directories = Lists.newArrayList();
+    directories.add(directory);
+    for (int i = 0; i < directories.size(); i++) {
+      Path current = directories.get(i);
+      Optional<Listing> listing = list(current, directoriesRead);
+      for (Map.Entry<String, EntryType> entry : listing.get().types.entrySet()) {
+        if (entry.getValue() == EntryType.DIRECTORY) {
+          directories.add(current.resolve(entry.getKey()));
+        }
+      }
+    }
+    return directories;
+  }
+
+  @GuardedBy("this")
+  private Optional<Listing> list(Path directory, Set<Path> directoriesRead) throws IOException {
+    Path key = directory.normalize();
+    directoriesRead.add(key);
+    Optional<Listing> listing = listings.get(key);
+    if (listing != null) {
+      return listing;
+    }
+
+    if (!Files.isDirectory(directory)) {
+      listing = Optional.absent();
+    } else {
+      ImmutableSortedMap.Builder<String, EntryType> types = ImmutableSortedMap.naturalOrder();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          EntryType type;
+          // Like pathlib, follow symlinks to find out what an entry is.
+          if (Files.isDirectory(entry)) {
+            type = EntryType.DIRECTORY;
+          } else if (Files.isRegularFile(entry)) {
+            type = EntryType.FILE;
+          } else {
+            type = EntryType.OTHER;
+          }
+          types.put(entry.getFileName().toString(), type);
+        }
+      }
+      listing = Optional.of(new Listing(types.build()));
+    }
+    if (isCacheable(key)) {
+      listings.put(key, listing);
+    }
+    return listing;
+  }
+
+  private static boolean isWildcard(String part) {
+    return part.contains("*") || part.contains("?") || part.contains("[");
+  }
+
+  /**
+   * Translates a shell wildcard to a regular expression, the same way that Python's
+   * {@code fnmatch.translate()} does.
+   */
+  private static Pattern translateWildcard(String wildcard) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    int n = wildcard.length();
+    while (i < n) {
+      char c = wildcard.charAt(i);
+      i++;
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else if (c == '[') {
+        int j = i;
+        if (j < n && wildcard.charAt(j) == '!') {
+          j++;
+        }
+        if (j < n && wildcard.charAt(j) == ']') {
+          j++;
+        }
+        while (j < n && wildcard.charAt(j) != ']') {
+          j++;
+        }
+        if (j >= n) {
+          regex.append("\\[");
+        } else {
+          String set = wildcard.substring(i, j);
+          i = j + 1;
+          regex.append('[');
+          if (set.charAt(0) == '!') {
+            regex.append('^');
+            set = set.substring(1);
+          } else if (set.charAt(0) == '^') {
+            regex.append("\\^");
+            set = set.substring(1);
+          }
+          // Characters that are special in Java character classes, but not in Python ones.
+          regex.append(set.replace("\\", "\\\\").replace("[", "\\[").replace("&", "\\&"));
+          regex.append(']');
+        }
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  private enum EntryType {
+    DIRECTORY,
+    FILE,
+    OTHER,
+  }
+
+  private static class Listing {
+    private final ImmutableSortedMap<String, EntryType> types;
+
+    private Listing(ImmutableSortedMap<String, EntryType> types) {
+      this.types = types;
+    }
+
+    private EntryType getType(String name) {
+      EntryType type = types.get(name);
+      return type == null ? EntryType.OTHER : type;
+    }
+  }
+
+  private static class GlobKey {
+    private final Path directory;
+    private final String include;
+
+    private GlobKey(Path directory, String include) {
+      this.directory = directory;
+      this.include = include;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof GlobKey)) {
+        return false;
+      }
+      GlobKey that = (GlobKey) obj;
+      return directory.equals(that.directory) && include.equals(that.include);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(directory, include);
+    }
+  }
+}
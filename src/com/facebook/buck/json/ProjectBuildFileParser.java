@@ -25,6 +25,7 @@ import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.BuckPyFunction;
 import com.facebook.buck.rules.ConstructorArgMarshaller;
 import com.facebook.buck.rules.Description;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.InputStreamConsumer;
 import com.facebook.buck.util.MoreThrowables;
@@ -39,6 +40,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Resources;
+import com.google.gson.Gson;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -73,6 +75,13 @@ public class ProjectBuildFileParser implements AutoCloseable {
           "buck.path_to_pathlib_py",
           "third-party/py/pathlib/pathlib.py"));
 
+  /**
+   * Where buck.py keeps the code that it compiled for include files, so that later parses reuse it
+   * until the includes change.
+   */
+  private static final Path INCLUDE_CODE_CACHE_PATH =
+      BuckConstant.SCRATCH_PATH.resolve("__buck_py_includes__");
+
   private static final Logger LOG = Logger.get(ProjectBuildFileParser.class);
 
   private final ImmutableMap<String, String> environment;
@@ -80,7 +89,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private Optional<Path> pathToBuckPy;
 
   @Nullable private Process buckPyProcess;
-  @Nullable BuildFileToJsonParser buckPyStdoutParser;
+  @Nullable BuildFileOutputParser buckPyStdoutParser;
   @Nullable private BufferedWriter buckPyStdinWriter;
 
   private final Path projectRoot;
@@ -88,6 +97,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private final ImmutableSet<Description<?>> descriptions;
   private final Console console;
   private final BuckEventBus buckEventBus;
+  private final Optional<GlobCache> globCache;
 
   private boolean isInitialized;
   private boolean isClosed;
@@ -103,6 +113,28 @@ public class ProjectBuildFileParser implements AutoCloseable {
       Console console,
       ImmutableMap<String, String> environment,
       BuckEventBus buckEventBus) {
+    this(
+        projectFilesystem,
+        parserConfig,
+        descriptions,
+        console,
+        environment,
+        buckEventBus,
+        Optional.<GlobCache>absent());
+  }
+
+  /**
+   * @param globCache if present, buck.py asks for its globs to be expanded from this rather than
+   *     walking the filesystem itself.
+   */
+  protected ProjectBuildFileParser(
+      ProjectFilesystem projectFilesystem,
+      ParserConfig parserConfig,
+      ImmutableSet<Description<?>> descriptions,
+      Console console,
+      ImmutableMap<String, String> environment,
+      BuckEventBus buckEventBus,
+      Optional<GlobCache> globCache) {
     this.projectRoot = projectFilesystem.getRootPath();
     this.parserConfig = parserConfig;
     this.descriptions = descriptions;
@@ -110,6 +142,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
     this.console = console;
     this.environment = environment;
     this.buckEventBus = buckEventBus;
+    this.globCache = globCache;
   }
 
   public void setEnableProfiling(boolean enableProfiling) {
@@ -184,12 +217,26 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
     buckPyStdinWriter = new BufferedWriter(new OutputStreamWriter(stdin));
 
-    Reader reader = new InputStreamReader(buckPyProcess.getInputStream(), Charsets.UTF_8);
-    buckPyStdoutParser = new BuildFileToJsonParser(reader);
+    if (parserConfig.getUseBinaryOutput()) {
+      buckPyStdoutParser = new BuildFileToBinaryParser(buckPyProcess.getInputStream());
+    } else {
+      Reader reader = new InputStreamReader(buckPyProcess.getInputStream(), Charsets.UTF_8);
+      buckPyStdoutParser = new BuildFileToJsonParser(reader);
+    }
+  }
+
+  /**
+   * @param include the path of an include file, relative to the project root.
+   * @return the path, relative to the project root, at which buck.py keeps the code that it
+   *     compiled for {@code include}.
+   */
+  public static Path getIncludeCodeCachePath(Path include) {
+    return INCLUDE_CODE_CACHE_PATH.resolve(include.toString() + ".pyc");
   }
 
   private ImmutableList<String> buildArgs() throws IOException {
-    // Invoking buck.py and read JSON-formatted build rules from its stdout.
+    // Invoking buck.py and read build rules, formatted as JSON unless binary output has been asked
+    // for, from its stdout.
     ImmutableList.Builder<String> argBuilder = ImmutableList.builder();
 
     argBuilder.add(parserConfig.getPythonInterpreter());
@@ -212,8 +259,19 @@ public class ProjectBuildFileParser implements AutoCloseable {
       argBuilder.add("--allow_empty_globs");
     }
 
+    if (globCache.isPresent()) {
+      argBuilder.add("--java_globs");
+    }
+
+    if (parserConfig.getUseBinaryOutput()) {
+      argBuilder.add("--binary_output");
+    }
+
     argBuilder.add("--project_root", projectRoot.toAbsolutePath().toString());
     argBuilder.add("--build_file_name", parserConfig.getBuildFileName());
+    argBuilder.add(
+        "--include_code_cache_dir",
+        projectRoot.resolve(INCLUDE_CODE_CACHE_PATH).toAbsolutePath().toString());
 
     // Add the --include flags.
     for (String include : parserConfig.getDefaultIncludes()) {
@@ -271,12 +329,45 @@ public class ProjectBuildFileParser implements AutoCloseable {
     buckPyStdinWriter.flush();
 
     LOG.debug("Parsing output of process %s...", buckPyProcess);
+    Optional<Map<String, Object>> globRequest;
+    while ((globRequest = buckPyStdoutParser.nextGlobRequest()).isPresent()) {
+      answerGlobRequest(globRequest.get(), buckPyStdinWriter);
+    }
     List<Map<String, Object>> result = buckPyStdoutParser.nextRules();
     LOG.verbose("Got rules: %s", result);
     LOG.debug("Parsed %d rules from process", result.size());
     return result;
   }
 
+  /**
+   * Expands the globs that buck.py asked for, writing either the files that they match or an error
+   * to its stdin as a single line of JSON.
+   */
+  @SuppressWarnings("unchecked")
+  private void answerGlobRequest(Map<String, Object> message, Writer buckPyStdin)
+      throws IOException {
+    Preconditions.checkState(globCache.isPresent(), "buck.py asked for globs unexpectedly.");
+    Map<String, Object> request = (Map<String, Object>) message.get("glob");
+    Preconditions.checkNotNull(request, "Unexpected message from buck.py: %s", message);
+    Path directory = Paths.get((String) request.get("path"));
+    List<String> includes = (List<String>) request.get("includes");
+    LOG.verbose("Expanding globs %s in %s", includes, directory);
+
+    Map<String, Object> response;
+    try {
+      response = ImmutableMap.<String, Object>of(
+          "files",
+          globCache.get().glob(directory, includes));
+    } catch (IllegalArgumentException | IOException e) {
+      response = ImmutableMap.<String, Object>of(
+          "error",
+          String.valueOf(e.getMessage()));
+    }
+    buckPyStdin.write(new Gson().toJson(response));
+    buckPyStdin.write('\n');
+    buckPyStdin.flush();
+  }
+
   @Override
   @SuppressWarnings("PMD.EmptyCatchBlock")
   public void close() throws BuildFileParseException, InterruptedException {
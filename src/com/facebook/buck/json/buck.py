@@ -2,15 +2,19 @@ from __future__ import with_statement
 
 import __future__
 import functools
+import hashlib
 import imp
 import inspect
 import json
+import marshal
 from pathlib import Path
 import optparse
 import os
 import os.path
+import struct
 import subprocess
 import sys
+import tempfile
 
 
 # When build files are executed, the functions in this file tagged with
@@ -44,12 +48,13 @@ class BuildFileContext(object):
 
     type = BuildContextType.BUILD_FILE
 
-    def __init__(self, base_path, dirname, allow_empty_globs):
+    def __init__(self, base_path, dirname, allow_empty_globs, globber=None):
         self.globals = {}
         self.includes = set()
         self.base_path = base_path
         self.dirname = dirname
         self.allow_empty_globs = allow_empty_globs
+        self.globber = globber
         self.rules = {}
 
 
@@ -122,10 +127,11 @@ def glob(includes, excludes=[], include_dotfiles=False, build_env=None):
         excludes,
         include_dotfiles,
         build_env.allow_empty_globs,
-        search_base)
+        search_base,
+        build_env.globber)
 
 
-def glob_internal(includes, excludes, include_dotfiles, allow_empty, search_base):
+def glob_internal(includes, excludes, include_dotfiles, allow_empty, search_base, globber=None):
     # Ensure the user passes lists of strings rather than just a string.
     assert not isinstance(includes, basestring), \
         "The first argument to glob() must be a list of strings."
@@ -133,6 +139,11 @@ def glob_internal(includes, excludes, include_dotfiles, allow_empty, search_base
         "The excludes argument must be a list of strings."
 
     def includes_iterator():
+        if globber is not None:
+            for path in globber.glob(search_base, includes):
+                if include_dotfiles or not path.name.startswith('.'):
+                    yield path
+            return
         for pattern in includes:
             for path in search_base.glob(pattern):
                 # TODO(user): Handle hidden files on Windows.
@@ -206,16 +217,121 @@ def add_deps(name, deps=[], build_env=None):
     rule['deps'] = rule['deps'] + deps
 
 
+class JavaGlobber(object):
+    """
+    Expands globs by asking Buck, which answers them from the directory
+    listings it keeps between parses, rather than walking the filesystem.
+    """
+
+    def __init__(self, send_to_parent, from_parent):
+        self._send_to_parent = send_to_parent
+        self._from_parent = from_parent
+
+    def glob(self, search_base, includes):
+        """
+        Returns the files under search_base matched by any of the include
+        patterns, relative to search_base.
+        """
+        self._send_to_parent({'glob': {'path': str(search_base), 'includes': list(includes)}})
+        response = json.loads(self._from_parent.readline())
+        if 'error' in response:
+            raise ValueError(response['error'])
+        return [Path(path) for path in response['files']]
+
+
+def json_sender(out):
+    """
+    Returns a function that sends values to Buck as JSON documents.
+    """
+
+    def send(value):
+        out.write(json.dumps(value))
+        out.flush()
+    return send
+
+
+class BinaryEncoder(object):
+    """
+    Sends values to Buck in the compact binary format described in
+    BuildFileToBinaryParser.java. Each distinct string is only sent once;
+    later occurrences refer back to it by number.
+    """
+
+    def __init__(self, out):
+        self._out = out
+        self._strings = {}
+
+    def send(self, value):
+        num_strings = len(self._strings)
+        chunks = []
+        try:
+            self._encode(value, chunks)
+        except:
+            # Buck never sees these strings, so it must not be sent references to them.
+            for string, index in self._strings.items():
+                if index >= num_strings:
+                    del self._strings[string]
+            raise
+        payload = ''.join(chunks)
+        self._out.write(struct.pack('>i', len(payload)))
+        self._out.write(payload)
+        self._out.flush()
+
+    def _encode(self, value, chunks):
+        if isinstance(value, basestring):
+            if isinstance(value, unicode):
+                value = value.encode('utf-8')
+            index = self._strings.get(value)
+            if index is None:
+                self._strings[value] = len(self._strings)
+                chunks.append('S')
+                chunks.append(struct.pack('>i', len(value)))
+                chunks.append(value)
+            else:
+                chunks.append('R')
+                chunks.append(struct.pack('>i', index))
+        elif isinstance(value, (list, tuple)):
+            chunks.append('L')
+            chunks.append(struct.pack('>i', len(value)))
+            for item in value:
+                self._encode(item, chunks)
+        elif isinstance(value, dict):
+            chunks.append('M')
+            chunks.append(struct.pack('>i', len(value)))
+            for key, item in value.iteritems():
+                if not isinstance(key, basestring):
+                    raise TypeError('Keys must be strings: ' + repr(key))
+                self._encode(key, chunks)
+                self._encode(item, chunks)
+        elif value is True:
+            chunks.append('T')
+        elif value is False:
+            chunks.append('F')
+        elif value is None:
+            chunks.append('N')
+        elif isinstance(value, (int, long)):
+            chunks.append('I')
+            chunks.append(struct.pack('>q', value))
+        elif isinstance(value, float):
+            chunks.append('D')
+            chunks.append(struct.pack('>d', value))
+        else:
+            raise TypeError(repr(value) + ' is not serializable')
+
+
 class BuildFileProcessor(object):
 
-    def __init__(self, project_root, build_file_name, allow_empty_globs, implicit_includes=[]):
+    def __init__(self, project_root, build_file_name, allow_empty_globs, implicit_includes=[],
+                 globber=None, include_code_cache_dir=None):
         self._cache = {}
+        self._include_code_cache_dir = include_code_cache_dir
         self._build_env_stack = []
 
         self._project_root = project_root
         self._build_file_name = build_file_name
         self._implicit_includes = implicit_includes
         self._allow_empty_globs = allow_empty_globs
+        self._globber = globber
 
         lazy_functions = {}
         for func in BUILD_FUNCTIONS:
@@ -354,11 +470,10 @@ class BuildFileProcessor(object):
         with open(path) as f:
             contents = f.read()
 
-        # Enable absolute imports.  This prevents the compiler from trying to
-        # do a relative import first, and warning that this module doesn't
-        # exist in sys.modules.
-        future_features = __future__.absolute_import.compiler_flag
-        code = compile(contents, path, 'exec', future_features, 1)
+        if build_env.type == BuildContextType.INCLUDE:
+            code = self._compile_include(path, contents)
+        else:
+            code = self._compile(path, contents)
         exec(code, module.__dict__)
 
         # Restore the previous build context.
@@ -367,6 +482,79 @@ class BuildFileProcessor(object):
         self._cache[path] = build_env, module
         return build_env, module
 
+    def _compile(self, path, contents):
+        """
+        Compile the contents of the build file or include at the given path.
+        """
+
+        # Enable absolute imports.  This prevents the compiler from trying to
+        # do a relative import first, and warning that this module doesn't
+        # exist in sys.modules.
+        future_features = __future__.absolute_import.compiler_flag
+        return compile(contents, path, 'exec', future_features, 1)
+
+    def _get_include_code_cache_path(self, path):
+        """
+        Return where the code compiled for the include at the given path is
+        kept, or None if it is not kept.
+        """
+
+        if self._include_code_cache_dir is None:
+            return None
+        relative_path = os.path.relpath(path, self._project_root)
+        if relative_path == os.pardir or relative_path.startswith(os.pardir + os.sep):
+            return None
+        # Buck deletes this file when it sees the include change.
+        return os.path.join(self._include_code_cache_dir, relative_path + '.pyc')
+
+    def _compile_include(self, path, contents):
+        """
+        Compile the contents of the include at the given path, reusing the
+        code compiled by an earlier parser process if the contents are the
+        same.
+
+        Large projects include the same few files from thousands of build
+        files, and every parse starts a new process, so this saves compiling
+        them again for each parse.
+        """
+
+        cache_path = self._get_include_code_cache_path(path)
+        if cache_path is None:
+            return self._compile(path, contents)
+
+        # The path is part of the key since it is compiled into the code.
+        key = imp.get_magic() + hashlib.sha1(path + '\0' + contents).digest()
+        try:
+            with open(cache_path, 'rb') as f:
+                if f.read(len(key)) == key:
+                    return marshal.load(f)
+        except (IOError, EOFError, ValueError, TypeError):
+            pass
+
+        code = self._compile(path, contents)
+
+        # Other parser processes may be writing the same file, so write it
+        # under a temporary name and rename it into place.
+        cache_dir = os.path.dirname(cache_path)
+        try:
+            if not os.path.isdir(cache_dir):
+                os.makedirs(cache_dir)
+        except OSError:
+            pass
+        try:
+            fd, temp_path = tempfile.mkstemp(dir=cache_dir)
+            try:
+                with os.fdopen(fd, 'wb') as f:
+                    f.write(key)
+                    marshal.dump(code, f)
+                os.rename(temp_path, cache_path)
+            except (IOError, OSError):
+                os.remove(temp_path)
+        except (IOError, OSError):
+            # The code is only cached to save time, so carry on without it.
+            pass
+        return code
+
     def _process_include(self, path, implicit_includes=[]):
         """
         Process the include file at the given path.
@@ -390,7 +578,8 @@ class BuildFileProcessor(object):
         len_suffix = -len('/' + self._build_file_name)
         base_path = relative_path_to_build_file[:len_suffix]
         dirname = os.path.dirname(path)
-        build_env = BuildFileContext(base_path, dirname, self._allow_empty_globs)
+        build_env = BuildFileContext(
+            base_path, dirname, self._allow_empty_globs, self._globber)
 
         return self._process(
             build_env,
@@ -462,6 +651,24 @@ def main():
         '--include',
         action='append',
         dest='include')
+    parser.add_option(
+        '--java_globs',
+        action='store_true',
+        dest='java_globs',
+        help='Asks buck to expand globs, over stdout and stdin, instead of walking the ' +
+             'filesystem.')
+    parser.add_option(
+        '--binary_output',
+        action='store_true',
+        dest='binary_output',
+        help='Sends rules to buck in a compact binary format rather than as JSON.')
+    parser.add_option(
+        '--include_code_cache_dir',
+        action='store',
+        type='string',
+        dest='include_code_cache_dir',
+        help='Keeps the code compiled for include files in this directory, to reuse it in ' +
+             'later runs.')
     (options, args) = parser.parse_args()
 
     # Even though project_root is absolute path, it may not be concise. For
@@ -474,24 +681,29 @@ def main():
     options.project_root = cygwin_adjusted_path(options.project_root)
     project_root = os.path.abspath(options.project_root)
 
+    if options.binary_output:
+        send_to_parent = BinaryEncoder(to_parent).send
+    else:
+        send_to_parent = json_sender(to_parent)
+
     buildFileProcessor = BuildFileProcessor(
         project_root,
         options.build_file_name,
         options.allow_empty_globs,
-        implicit_includes=options.include or [])
+        implicit_includes=options.include or [],
+        globber=JavaGlobber(send_to_parent, sys.stdin) if options.java_globs else None,
+        include_code_cache_dir=options.include_code_cache_dir)
 
     for build_file in args:
         build_file = cygwin_adjusted_path(build_file)
         values = buildFileProcessor.process(build_file)
-        to_parent.write(json.dumps(values))
-        to_parent.flush()
+        send_to_parent(values)
 
     # "for ... in sys.stdin" in Python 2.x hangs until stdin is closed.
     for build_file in iter(sys.stdin.readline, ''):
         build_file = cygwin_adjusted_path(build_file)
         values = buildFileProcessor.process(build_file.rstrip())
-        to_parent.write(json.dumps(values))
-        to_parent.flush()
+        send_to_parent(values)
 
     # Python tries to flush/close stdout when it quits, and if there's a dead
     # pipe on the other end, it will spit some warnings to stderr. This breaks
@@ -1,6 +1,9 @@
-from buck import glob_internal, LazyBuildEnvPartial
+from buck import BinaryEncoder, glob_internal, JavaGlobber, LazyBuildEnvPartial
 from pathlib import Path, PurePosixPath, PureWindowsPath
+import StringIO
+import json
 import os
+import struct
 import shutil
 import tempfile
 import unittest
@@ -207,6 +210,55 @@ class TestBuckPlatformBase(object):
                 search_base=search_base))
 
 
+class TestJavaGlobber(unittest.TestCase):
+
+    def test_glob_is_answered_by_parent(self):
+        sent = []
+        from_parent = StringIO.StringIO(
+            json.dumps({'files': ['A.java', '.B.java', 'sub/C.java', 'sub/D.java']}) + '\n')
+        self.assertEqual(
+            ['A.java', 'sub/C.java'],
+            glob_internal(
+                includes=['*.java', 'sub/*.java'],
+                excludes=['sub/D.java'],
+                include_dotfiles=False,
+                allow_empty=False,
+                search_base=Path('/root/foo'),
+                globber=JavaGlobber(sent.append, from_parent)))
+        self.assertEqual(
+            [{'glob': {'path': '/root/foo', 'includes': ['*.java', 'sub/*.java']}}],
+            sent)
+
+    def test_glob_errors_are_raised(self):
+        from_parent = StringIO.StringIO(json.dumps({'error': 'Invalid pattern'}) + '\n')
+        globber = JavaGlobber(lambda value: None, from_parent)
+        self.assertRaises(ValueError, globber.glob, Path('/root/foo'), ['a**'])
+
+
+class TestBinaryEncoder(unittest.TestCase):
+
+    def test_strings_are_only_sent_once(self):
+        out = StringIO.StringIO()
+        encoder = BinaryEncoder(out)
+        encoder.send([u'deps', 'deps'])
+        encoder.send(['deps', 1, None])
+        first = 'L' + struct.pack('>i', 2) + 'S' + struct.pack('>i', 4) + 'deps' + \
+            'R' + struct.pack('>i', 0)
+        second = 'L' + struct.pack('>i', 3) + 'R' + struct.pack('>i', 0) + \
+            'I' + struct.pack('>q', 1) + 'N'
+        self.assertEqual(
+            struct.pack('>i', len(first)) + first + struct.pack('>i', len(second)) + second,
+            out.getvalue())
+
+    def test_failed_sends_do_not_define_strings(self):
+        out = StringIO.StringIO()
+        encoder = BinaryEncoder(out)
+        self.assertRaises(TypeError, encoder.send, ['deps', object()])
+        encoder.send('deps')
+        payload = 'S' + struct.pack('>i', 4) + 'deps'
+        self.assertEqual(struct.pack('>i', len(payload)) + payload, out.getvalue())
+
+
 class TestBuckPosix(TestBuckPlatformBase, unittest.TestCase):
     @staticmethod
     def fake_path(*args, **kwargs):
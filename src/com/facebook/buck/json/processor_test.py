@@ -1,3 +1,6 @@
+import hashlib
+import imp
+import marshal
 import os
 import unittest
 import shutil
@@ -34,12 +37,13 @@ class BuckTest(unittest.TestCase):
         for pfile in pfiles:
             self.write_file(pfile)
 
-    def create_build_file_processor(self, *includes):
+    def create_build_file_processor(self, *includes, **kwargs):
         return BuildFileProcessor(
             self.project_root,
             self.build_file_name,
             self.allow_empty_globs,
-            includes)
+            includes,
+            **kwargs)
 
     def test_sibling_includes_use_separate_globals(self):
         """
@@ -184,3 +188,39 @@ class BuckTest(unittest.TestCase):
         build_file_processor = self.create_build_file_processor(
             implicit_inc.name)
         build_file_processor.process(build_file.path)
+
+    def test_compiled_includes_are_reused_until_they_change(self):
+        """
+        Verify that the code compiled for an include is reused by later
+        processors, but not once the include has changed.
+        """
+
+        cache_dir = os.path.join(self.project_root, 'buck-out', 'includes')
+        include_def = ProjectFile(path='inc_def', contents=('FOO = 1',))
+        build_file = ProjectFile(path='BUCK', contents=('assert FOO == 1',))
+        self.write_files(include_def, build_file)
+        self.create_build_file_processor(
+            include_def.name,
+            include_code_cache_dir=cache_dir).process(build_file.path)
+        cache_path = os.path.join(cache_dir, include_def.path + '.pyc')
+        self.assertTrue(os.path.isfile(cache_path))
+
+        # Swap in different code under the same key to see that it is used.
+        with open(cache_path, 'rb') as f:
+            key = f.read(len(imp.get_magic()) + hashlib.sha1().digest_size)
+        with open(cache_path, 'wb') as f:
+            f.write(key)
+            marshal.dump(compile('FOO = 2', include_def.path, 'exec'), f)
+        build_file = ProjectFile(path='BUCK', contents=('assert FOO == 2',))
+        self.write_file(build_file)
+        self.create_build_file_processor(
+            include_def.name,
+            include_code_cache_dir=cache_dir).process(build_file.path)
+
+        # Changing the include makes the cached code stale.
+        include_def = ProjectFile(path='inc_def', contents=('FOO = 3',))
+        build_file = ProjectFile(path='BUCK', contents=('assert FOO == 3',))
+        self.write_files(include_def, build_file)
+        self.create_build_file_processor(
+            include_def.name,
+            include_code_cache_dir=cache_dir).process(build_file.path)
@@ -46,4 +46,18 @@ public class JUnitMain {
     runner.parseArgs(args);
     runner.runAndExit();
   }
+
+  /**
+   * Runs the tests without exiting, for use by a long-lived
+   * {@link com.facebook.buck.java.runner.TestRunnerWorker} that has loaded this class in a fresh
+   * class loader. Takes the same arguments as {@link #main(String[])}.
+   */
+  public static void runTests(String[] args) throws Throwable {
+    CheckDependency.isPresent("junit", "org.junit.Test");
+    CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
+
+    JUnitRunner runner = new JUnitRunner();
+    runner.parseArgs(args);
+    runner.run();
+  }
 }
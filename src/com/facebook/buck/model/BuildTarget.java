@@ -38,7 +38,7 @@ import javax.annotation.Nullable;
     getterVisibility = JsonAutoDetect.Visibility.NONE,
     setterVisibility = JsonAutoDetect.Visibility.NONE)
 @BuckStyleImmutable
-@Value.Immutable
+@Value.Immutable(prehash = true)
 public abstract class BuildTarget
     implements
         Comparable<BuildTarget>,
@@ -21,6 +21,8 @@ import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Sets;
 
 import java.nio.file.Path;
@@ -32,9 +34,42 @@ import java.util.Set;
  */
 public class BuildTargets {
 
+  /**
+   * The same targets are parsed again for every reference to them from every build file, so a
+   * daemon would otherwise hold many equal copies of each. The references are weak so that targets
+   * which nothing uses any more can still be collected.
+   */
+  private static final Interner<UnflavoredBuildTarget> UNFLAVORED_BUILD_TARGET_INTERNER =
+      Interners.newWeakInterner();
+  private static final Interner<BuildTarget> BUILD_TARGET_INTERNER = Interners.newWeakInterner();
+  private static final Interner<Flavor> FLAVOR_INTERNER = Interners.newWeakInterner();
+
   /** Utility class: do not instantiate. */
   private BuildTargets() {}
 
+  /**
+   * @return the one shared instance that is equal to {@code target}, so that equal targets can be
+   *     compared by identity and take up memory only once.
+   */
+  public static UnflavoredBuildTarget intern(UnflavoredBuildTarget target) {
+    return UNFLAVORED_BUILD_TARGET_INTERNER.intern(target);
+  }
+
+  /**
+   * @return the one shared instance that is equal to {@code target}. Its parts are only shared
+   *     with other targets if they were interned before {@code target} was built.
+   */
+  public static BuildTarget intern(BuildTarget target) {
+    return BUILD_TARGET_INTERNER.intern(target);
+  }
+
+  /**
+   * @return the one shared instance that is equal to {@code flavor}.
+   */
+  public static Flavor intern(Flavor flavor) {
+    return FLAVOR_INTERNER.intern(flavor);
+  }
+
   /**
    * Return a path to a file in the buck-out/bin/ directory. {@code format} will be prepended with
    * the {@link com.facebook.buck.util.BuckConstant#SCRATCH_DIR} and the target base path, then
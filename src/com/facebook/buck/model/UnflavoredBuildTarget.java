@@ -29,7 +29,7 @@ import java.nio.file.Paths;
 import javax.annotation.Nullable;
 
 @BuckStyleImmutable
-@Value.Immutable
+@Value.Immutable(prehash = true)
 public abstract class UnflavoredBuildTarget
     implements Comparable<UnflavoredBuildTarget>, HasUnflavoredBuildTarget {
 
@@ -17,6 +17,7 @@
 package com.facebook.buck.parser;
 
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.model.FlavorParser;
 import com.facebook.buck.model.ImmutableBuildTarget;
 import com.facebook.buck.model.ImmutableFlavor;
@@ -130,7 +131,7 @@ public class BuildTargetParser {
 
     Preconditions.checkNotNull(baseName);
     // On Windows, baseName may contain backslashes, which are not permitted by BuildTarget.
-    baseName = baseName.replace("\\", "/");
+    baseName = baseName.replace('\\', '/');
     checkBaseName(baseName, buildTargetName);
 
     ImmutableUnflavoredBuildTarget.Builder unflavoredBuilder =
@@ -140,11 +141,13 @@ public class BuildTargetParser {
     if (canonicalRepoName.isPresent()) {
       unflavoredBuilder.setRepository(canonicalRepoName.get());
     }
-    ImmutableBuildTarget.Builder builder = BuildTarget.builder(unflavoredBuilder.build());
+    // Every reference to a target parses it again, so share the instances and their parts.
+    ImmutableBuildTarget.Builder builder =
+        BuildTarget.builder(BuildTargets.intern(unflavoredBuilder.build()));
     for (String flavor : flavorNames) {
-      builder.addFlavors(ImmutableFlavor.of(flavor));
+      builder.addFlavors(BuildTargets.intern(ImmutableFlavor.of(flavor)));
     }
-    return builder.build();
+    return BuildTargets.intern(builder.build());
   }
 
   private static void checkBaseName(String baseName, String buildTargetName) {
@@ -26,6 +26,7 @@ import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
+import com.facebook.buck.json.GlobCache;
 import com.facebook.buck.json.JsonObjectHashing;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
@@ -111,6 +112,7 @@ public class Parser {
   // TODO(jacko): DELETE THESE!!!
   private final Repository repository;
   private final ProjectBuildFileParserFactory buildFileParserFactory;
+  private final Optional<GlobCache> globCache;
 
   private final RuleKeyBuilderFactory ruleKeyBuilderFactory;
 
@@ -201,6 +203,9 @@ public class Parser {
       RuleKeyBuilderFactory ruleKeyBuilderFactory)
       throws IOException, InterruptedException {
     final Repository rootRepository = repositoryFactory.getRootRepository();
+    Optional<GlobCache> globCache = parserConfig.getUseJavaGlobs() ?
+        Optional.of(new GlobCache(rootRepository.getFilesystem().getRootPath())) :
+        Optional.<GlobCache>absent();
     return new Parser(
         repositoryFactory,
         parserConfig,
@@ -219,8 +224,10 @@ public class Parser {
         new DefaultProjectBuildFileParserFactory(
             rootRepository.getFilesystem(),
             parserConfig,
-            rootRepository.getAllDescriptions()),
-        ruleKeyBuilderFactory);
+            rootRepository.getAllDescriptions(),
+            globCache),
+        ruleKeyBuilderFactory,
+        globCache);
   }
 
   /**
@@ -235,11 +242,31 @@ public class Parser {
       ProjectBuildFileParserFactory buildFileParserFactory,
       RuleKeyBuilderFactory ruleKeyBuilderFactory)
       throws IOException, InterruptedException {
+    this(
+        repositoryFactory,
+        parserConfig,
+        buildFileTreeSupplier,
+        buildTargetParser,
+        buildFileParserFactory,
+        ruleKeyBuilderFactory,
+        Optional.<GlobCache>absent());
+  }
+
+  private Parser(
+      RepositoryFactory repositoryFactory,
+      ParserConfig parserConfig,
+      Supplier<BuildFileTree> buildFileTreeSupplier,
+      BuildTargetParser buildTargetParser,
+      ProjectBuildFileParserFactory buildFileParserFactory,
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      Optional<GlobCache> globCache)
+      throws IOException, InterruptedException {
     this.repositoryFactory = repositoryFactory;
     this.repository = repositoryFactory.getRootRepository();
     this.buildFileTreeCache = new BuildFileTreeCache(buildFileTreeSupplier);
     this.buildTargetParser = buildTargetParser;
     this.buildFileParserFactory = buildFileParserFactory;
+    this.globCache = globCache;
     this.ruleKeyBuilderFactory = ruleKeyBuilderFactory;
     this.enforceBuckPackageBoundary = parserConfig.getEnforceBuckPackageBoundary();
     this.buildFileDependents = ArrayListMultimap.create();
@@ -753,6 +780,16 @@ public class Parser {
         if (!isTempFile(path)) {
           invalidateContainingBuildFile(path);
         }
+
+        if (globCache.isPresent()) {
+          globCache.get().invalidate(path);
+        }
+      }
+
+      // The code that buck.py compiled for an include that changed can never be used again.
+      if (state.hasDependents(path)) {
+        repository.getFilesystem().deleteFileAtPath(
+            ProjectBuildFileParser.getIncludeCodeCachePath(path));
       }
 
       LOG.verbose("Invalidating dependents for path %s, cache state %s", path, state);
@@ -765,6 +802,9 @@ public class Parser {
       LOG.debug("Parser invalidating entire cache on overflow.");
       buildFileTreeCache.invalidateIfStale();
       invalidateCache();
+      if (globCache.isPresent()) {
+        globCache.get().invalidateAll();
+      }
     }
   }
 
@@ -1052,6 +1092,14 @@ public class Parser {
       LOG.verbose("Removed build file dependents %s defined by %s", removedDependents, path);
     }
 
+    /**
+     * @return whether any parsed build file depends on {@code path}, which is then either a build
+     *     file or an include.
+     */
+    public synchronized boolean hasDependents(Path path) {
+      return buildFileDependents.containsKey(normalize(path));
+    }
+
     public boolean isParsed(Path buildFile) {
       return parsedBuildFiles.containsKey(normalize(buildFile));
     }
@@ -61,6 +61,22 @@ public class ParserConfig {
     return Splitter.on(' ').trimResults().omitEmptyStrings().split(includes);
   }
 
+  /**
+   * @return whether buck.py should have Buck expand its globs, from directory listings that the
+   *     daemon keeps between parses.
+   */
+  public boolean getUseJavaGlobs() {
+    return delegate.getBooleanValue("buildfile", "java_globs", false);
+  }
+
+  /**
+   * @return whether buck.py should send the rules of build files in the binary format read by
+   *     {@code BuildFileToBinaryParser} rather than as JSON.
+   */
+  public boolean getUseBinaryOutput() {
+    return delegate.getBooleanValue("buildfile", "binary_output", false);
+  }
+
   public boolean getEnforceBuckPackageBoundary() {
     return delegate.getBooleanValue("project", "check_package_boundary", true);
   }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Remembers the build rules that {@link TargetGraphToActionGraph} created for each
+ * {@link TargetNode}, so that the daemon can reuse them in the commands that follow.
+ * <p>
+ * A rule memoizes its rule key, which depends on the contents of the inputs of its node, so the
+ * rules of a node are forgotten as soon as one of those inputs changes. A node whose build file
+ * changes is parsed again into a new {@link TargetNode}, whose rules are created again anyway.
+ */
+public class ActionGraphCache {
+
+  private static final Logger LOG = Logger.get(ActionGraphCache.class);
+
+  @GuardedBy("this")
+  @Nullable
+  private Class<?> transformerClass;
+
+  @GuardedBy("this")
+  private Map<BuildTarget, TargetGraphToActionGraph.CachedNode> cachedNodes = Maps.newHashMap();
+
+  @GuardedBy("this")
+  private final SetMultimap<Path, BuildTarget> targetsByInput = HashMultimap.create();
+
+  /**
+   * @return the rules created by the last {@link TargetGraphToActionGraph} that used the same kind
+   *     of {@code transformer}, keyed by the target of their node.
+   */
+  synchronized ImmutableMap<BuildTarget, TargetGraphToActionGraph.CachedNode> getCachedNodes(
+      TargetNodeToBuildRuleTransformer transformer) {
+    if (!transformer.getClass().equals(transformerClass)) {
+      return ImmutableMap.of();
+    }
+    return ImmutableMap.copyOf(cachedNodes);
+  }
+
+  synchronized void setCachedNodes(
+      TargetNodeToBuildRuleTransformer transformer,
+      Map<BuildTarget, TargetGraphToActionGraph.CachedNode> nodes) {
+    transformerClass = transformer.getClass();
+    cachedNodes = Maps.newHashMap(nodes);
+    targetsByInput.clear();
+    for (Map.Entry<BuildTarget, TargetGraphToActionGraph.CachedNode> entry : nodes.entrySet()) {
+      for (Path input : entry.getValue().getTargetNode().getInputs()) {
+        targetsByInput.put(input.normalize(), entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Called when file change events are posted to the file change EventBus. {@link Path}s contained
+   * within events must all be relative to the project root.
+   */
+  @Subscribe
+  public synchronized void onFileSystemChange(WatchEvent<?> event) {
+    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+      LOG.debug("Forgetting the rules of all target nodes.");
+      cachedNodes.clear();
+      targetsByInput.clear();
+      return;
+    }
+
+    // Inputs may be directories, such as the res directory of an android_resource.
+    for (Path path = ((Path) event.context()).normalize(); path != null; path = path.getParent()) {
+      for (BuildTarget target : targetsByInput.removeAll(path)) {
+        LOG.verbose("Forgetting the rules of %s, as %s changed.", target, event.context());
+        cachedNodes.remove(target);
+      }
+    }
+  }
+}
@@ -41,8 +41,8 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent implements Leaf
     return new Started();
   }
 
-  public static Finished finished() {
-    return new Finished();
+  public static Finished finished(int rulesReused, int rulesCreated) {
+    return new Finished(rulesReused, rulesCreated);
   }
 
   public static class Started extends ActionGraphEvent {
@@ -59,6 +59,28 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent implements Leaf
   }
 
   public static class Finished extends ActionGraphEvent {
+    private final int rulesReused;
+    private final int rulesCreated;
+
+    protected Finished(int rulesReused, int rulesCreated) {
+      this.rulesReused = rulesReused;
+      this.rulesCreated = rulesCreated;
+    }
+
+    /**
+     * @return the number of target nodes whose build rules were carried over from the previous
+     *     action graph.
+     */
+    public int getRulesReused() {
+      return rulesReused;
+    }
+
+    /**
+     * @return the number of target nodes whose build rules had to be created from scratch.
+     */
+    public int getRulesCreated() {
+      return rulesCreated;
+    }
 
     @Override
     public boolean isRelatedTo(BuckEvent event) {
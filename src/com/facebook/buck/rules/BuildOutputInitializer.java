@@ -57,6 +57,14 @@ public class BuildOutputInitializer<T> {
     this.buildOutput = buildOutput;
   }
 
+  /**
+   * Forgets the value passed to {@link #setBuildOutput(Object)}, so that a rule carried over to a
+   * later build can be initialized again once that build has built it.
+   */
+  void invalidate() {
+    this.buildOutput = null;
+  }
+
   /**
    * @return the value passed to {@link #setBuildOutput(Object)}.
    * @throws IllegalStateException if {@link #setBuildOutput(Object)} has not been invoked yet.
@@ -27,6 +27,7 @@ import com.google.common.collect.Maps;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Provides a mechanism for mapping between a {@link BuildTarget} and the {@link BuildRule} it
@@ -34,7 +35,7 @@ import java.util.Set;
  */
 public class BuildRuleResolver {
 
-  private final Map<BuildTarget, BuildRule> buildRuleIndex;
+  private final ConcurrentMap<BuildTarget, BuildRule> buildRuleIndex;
 
   public BuildRuleResolver() {
     this(Maps.<BuildTarget, BuildRule>newConcurrentMap());
@@ -42,7 +43,8 @@ public class BuildRuleResolver {
 
   @VisibleForTesting
   public BuildRuleResolver(Map<BuildTarget, BuildRule> buildRuleIndex) {
-    this.buildRuleIndex = Maps.newHashMap(buildRuleIndex);
+    this.buildRuleIndex = Maps.newConcurrentMap();
+    this.buildRuleIndex.putAll(buildRuleIndex);
   }
 
   @VisibleForTesting
@@ -94,11 +96,14 @@ public class BuildRuleResolver {
 
   /**
    * Adds to the index a mapping from {@code buildRule}'s target to itself and returns
-   * {@code buildRule}.
+   * {@code buildRule}. This may be called from several threads at once, in which case only one
+   * rule is ever indexed for each target.
+   *
+   * @throws IllegalStateException if a rule for the same target is already in the index.
    */
   @VisibleForTesting
   public <T extends BuildRule> T addToIndex(T buildRule) {
-    BuildRule oldValue = buildRuleIndex.put(buildRule.getBuildTarget(), buildRule);
+    BuildRule oldValue = buildRuleIndex.putIfAbsent(buildRule.getBuildTarget(), buildRule);
     if (oldValue != null) {
       throw new IllegalStateException("A build rule for this target has already been created: " +
           oldValue.getBuildTarget());
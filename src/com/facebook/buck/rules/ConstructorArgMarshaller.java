@@ -25,8 +25,10 @@ import com.facebook.buck.parser.BuildTargetPatternParser;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import java.lang.reflect.Field;
@@ -35,8 +37,8 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
 
 /**
  * Used to derive information from the constructor args returned by {@link Description} instances.
@@ -47,7 +49,12 @@ import java.util.concurrent.ExecutionException;
 public class ConstructorArgMarshaller {
 
   private final TypeCoercerFactory typeCoercerFactory;
-  private final Cache<Class<?>, ImmutableSet<ParamInfo<?>>> coercedTypes;
+
+  /**
+   * How to populate each class of constructor arg, worked out by reflection the first time that
+   * one is seen, since the parser populates one for every rule of every build file.
+   */
+  private final LoadingCache<Class<?>, MarshallingPlan> plans;
 
   /**
    * Constructor. {@code pathFromProjectRootToBuildFile} is the path relative to the project root to
@@ -57,7 +64,13 @@ public class ConstructorArgMarshaller {
    */
   public ConstructorArgMarshaller() {
     this.typeCoercerFactory = new TypeCoercerFactory();
-    this.coercedTypes = CacheBuilder.newBuilder().build();
+    this.plans = CacheBuilder.newBuilder().build(
+        new CacheLoader<Class<?>, MarshallingPlan>() {
+          @Override
+          public MarshallingPlan load(Class<?> argClass) {
+            return new MarshallingPlan(typeCoercerFactory, argClass);
+          }
+        });
   }
 
   /**
@@ -107,20 +120,17 @@ public class ConstructorArgMarshaller {
       final ImmutableSet.Builder<BuildTarget> declaredDeps,
       Map<String, ?> instance,
       boolean onlyOptional) throws ConstructorArgMarshalException {
-    Set<ParamInfo<?>> allInfo = getAllParamInfo(dto);
+    MarshallingPlan plan = getPlan(dto);
 
-    for (ParamInfo<?> info : allInfo) {
-      if (onlyOptional && !info.isOptional()) {
-        continue;
-      }
+    for (ParamInfo<?> info : onlyOptional ? plan.optionalInfo : plan.allInfo) {
       try {
         info.setFromParams(filesystem, params, dto, instance);
       } catch (ParamInfoException e) {
         throw new ConstructorArgMarshalException(e.getMessage(), e);
       }
-      if (info.getName().equals("deps")) {
-        populateDeclaredDeps(info, declaredDeps, dto);
-      }
+    }
+    if (plan.depsInfo != null && (!onlyOptional || plan.depsInfo.isOptional())) {
+      populateDeclaredDeps(plan.depsInfo, declaredDeps, dto);
     }
   }
 
@@ -162,28 +172,47 @@ public class ConstructorArgMarshaller {
   }
 
   ImmutableSet<ParamInfo<?>> getAllParamInfo(Object dto) {
-    final Class<?> argClass = dto.getClass();
-    try {
-      return coercedTypes.get(argClass, new Callable<ImmutableSet<ParamInfo<?>>>() {
-            @Override
-            public ImmutableSet<ParamInfo<?>> call() {
-              ImmutableSet.Builder<ParamInfo<?>> allInfo = ImmutableSet.builder();
-
-              for (Field field : argClass.getFields()) {
-                if (Modifier.isFinal(field.getModifiers())) {
-                  continue;
-                }
-                allInfo.add(new ParamInfo<>(typeCoercerFactory, field));
-              }
-
-              return allInfo.build();
-            }
-          });
-    } catch (ExecutionException e) {
-      // This gets thrown if we saw an error when loading the value. Nothing sane to do here, and
-      // we (previously, before using a cache), simply allowed a RuntimeException to bubble up.
-      // Maintain that behaviour.
-      throw new RuntimeException(e);
+    return getPlan(dto).allInfo;
+  }
+
+  private MarshallingPlan getPlan(Object dto) {
+    // Errors seen while creating the plan are RuntimeExceptions: nothing sane can be done about
+    // them, so let them bubble up.
+    return plans.getUnchecked(dto.getClass());
+  }
+
+  /**
+   * The parameters of a class of constructor arg, each of which knows how to coerce and set its
+   * own field.
+   */
+  private static class MarshallingPlan {
+    private final ImmutableSet<ParamInfo<?>> allInfo;
+    private final ImmutableList<ParamInfo<?>> optionalInfo;
+    @Nullable private final ParamInfo<?> depsInfo;
+
+    private MarshallingPlan(TypeCoercerFactory typeCoercerFactory, Class<?> argClass) {
+      ImmutableSet.Builder<ParamInfo<?>> allInfoBuilder = ImmutableSet.builder();
+      for (Field field : argClass.getFields()) {
+        if (Modifier.isFinal(field.getModifiers())) {
+          continue;
+        }
+        allInfoBuilder.add(new ParamInfo<>(typeCoercerFactory, field));
+      }
+      this.allInfo = allInfoBuilder.build();
+
+      ImmutableList.Builder<ParamInfo<?>> optionalInfo = ImmutableList.builder();
+      ParamInfo<?> depsInfo = null;
+      for (ParamInfo<?> info : allInfo) {
+        if (info.isOptional()) {
+          optionalInfo.add(info);
+        }
+        if (info.getName().equals("deps")) {
+          depsInfo = info;
+        }
+      }
+
+      this.optionalInfo = optionalInfo.build();
+      this.depsInfo = depsInfo;
     }
   }
 }
@@ -384,6 +384,15 @@ public class KnownBuildRuleTypes {
 
     ProGuardConfig proGuardConfig = new ProGuardConfig(config);
 
+    // Whether pre-dexed libraries go back into the secondary dex they were in during the last local
+    // build, which makes the secondary dexes depend on the history of the local build directory.
+    boolean dexMergeIncremental = config.getBooleanValue("tools", "dex-merge-incremental", false);
+
+    // Whether the dummy R.java files keep the resource IDs they were given by the last local build,
+    // which makes them depend on the history of the local build directory.
+    boolean dummyRDotJavaStableIds =
+        config.getBooleanValue("tools", "dummy-r-dot-java-stable-ids", false);
+
     PythonBuckConfig pyConfig = new PythonBuckConfig(config);
 
     // Look up the path to the main module we use for python tests.
@@ -438,13 +447,14 @@ public class KnownBuildRuleTypes {
         new AndroidBinaryDescription(
             androidBinaryOptions,
             proGuardConfig,
+            dexMergeIncremental,
             ndkCxxPlatforms));
     builder.register(new AndroidBuildConfigDescription(androidBinaryOptions));
     builder.register(new AndroidInstrumentationApkDescription(
             proGuardConfig,
             androidBinaryOptions,
             ndkCxxPlatforms));
-    builder.register(new AndroidLibraryDescription(androidBinaryOptions));
+    builder.register(new AndroidLibraryDescription(androidBinaryOptions, dummyRDotJavaStableIds));
     builder.register(new AndroidManifestDescription());
     builder.register(new AndroidPrebuiltAarDescription(androidBinaryOptions));
     builder.register(new AndroidResourceDescription());
@@ -508,7 +518,8 @@ public class KnownBuildRuleTypes {
     builder.register(new RemoteFileDescription(downloader));
     builder.register(new RobolectricTestDescription(
             androidBinaryOptions,
-            testRuleTimeoutMs));
+            testRuleTimeoutMs,
+            dummyRDotJavaStableIds));
     builder.register(new ShBinaryDescription());
     builder.register(new ShTestDescription());
     builder.register(
@@ -41,8 +41,13 @@ class ParamInfo<T> implements Comparable<ParamInfo<T>> {
   private final boolean isDep;
   private final Field field;
 
+  /** What to set the field to when it is not given a value, or null if it must be given one. */
+  @Nullable private final Object defaultValue;
+
   public ParamInfo(TypeCoercerFactory typeCoercerFactory, Field field) {
     this.field = field;
+    // The fields are public, so this only saves checking access every time that one is set.
+    this.field.setAccessible(true);
     this.name = field.getName();
     Hint hint = field.getAnnotation(Hint.class);
     this.pythonName = determinePythonName(this.name, hint);
@@ -50,6 +55,16 @@ class ParamInfo<T> implements Comparable<ParamInfo<T>> {
 
     isOptional = Optional.class.isAssignableFrom(field.getType());
     this.typeCoercer = typeCoercerFactory.typeCoercerForType(Types.getFirstNonOptionalType(field));
+
+    if (isOptional) {
+      this.defaultValue = typeCoercer.getOptionalValue();
+    } else if (Number.class.isAssignableFrom(typeCoercer.getOutputClass())) {
+      this.defaultValue = 0;
+    } else if (Boolean.class.isAssignableFrom(typeCoercer.getOutputClass())) {
+      this.defaultValue = false;
+    } else {
+      this.defaultValue = null;
+    }
   }
 
   public String getName() {
@@ -134,15 +149,10 @@ class ParamInfo<T> implements Comparable<ParamInfo<T>> {
     Object result;
 
     if (value == null) {
-      if (isOptional) {
-        result = typeCoercer.getOptionalValue();
-      } else if (Number.class.isAssignableFrom(typeCoercer.getOutputClass())) {
-        result = 0;
-      } else if (Boolean.class.isAssignableFrom(typeCoercer.getOutputClass())) {
-        result = false;
-      } else {
+      if (defaultValue == null) {
         throw new ParamInfoException(name, "field cannot be null");
       }
+      result = defaultValue;
     } else {
       try {
         result = typeCoercer.coerce(
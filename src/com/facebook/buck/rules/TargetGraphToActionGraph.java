@@ -21,125 +21,444 @@ import com.facebook.buck.graph.AbstractBottomUpTraversal;
 import com.facebook.buck.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
-import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Creates the {@link ActionGraph} for a {@link TargetGraph}.
+ * <p>
+ * The build rules created for each {@link TargetNode} are remembered in an
+ * {@link ActionGraphCache}, along with any rules that graph enhancement added while creating them.
+ * When this is applied to a new target graph, a node keeps its rules rather than having them
+ * created again if:
+ * <ul>
+ *   <li>its {@link TargetNode} is the very same instance as last time (the parser hands out the
+ *   same instance until its build file changes);
+ *   <li>the cache has not seen any of its inputs change since;
+ *   <li>all the nodes it depends on kept their rules, as creating a rule may look at anything
+ *   below it in the target graph.
+ * </ul>
+ * <p>
+ * When given more than one thread, nodes whose deps have all been transformed are transformed
+ * concurrently. Should two of them race to add a rule for the same target during graph
+ * enhancement, the rules are created again one node at a time. Either way, the resulting graph is
+ * assembled in the same bottom-up order.
+ */
 public class TargetGraphToActionGraph implements TargetGraphTransformer<ActionGraph> {
 
   private static final Logger LOG = Logger.get(TargetGraphToActionGraph.class);
 
   private final BuckEventBus eventBus;
   private final TargetNodeToBuildRuleTransformer buildRuleGenerator;
-  @Nullable
-  private volatile ActionGraph actionGraph;
-  private volatile int hashOfTargetGraph;
+  private final int numThreads;
+
+  private final ActionGraphCache actionGraphCache;
 
   public TargetGraphToActionGraph(
       BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer buildRuleGenerator) {
+    this(eventBus, buildRuleGenerator, /* numThreads */ 1);
+  }
+
+  /**
+   * @param numThreads how many nodes may be transformed at once. With a single thread, nodes are
+   *     transformed one at a time in bottom-up order.
+   */
+  public TargetGraphToActionGraph(
+      BuckEventBus eventBus,
+      TargetNodeToBuildRuleTransformer buildRuleGenerator,
+      int numThreads) {
+    this(eventBus, buildRuleGenerator, numThreads, new ActionGraphCache());
+  }
+
+  /**
+   * @param actionGraphCache where the rules of each node are remembered, which the daemon shares
+   *     between commands.
+   */
+  public TargetGraphToActionGraph(
+      BuckEventBus eventBus,
+      TargetNodeToBuildRuleTransformer buildRuleGenerator,
+      int numThreads,
+      ActionGraphCache actionGraphCache) {
+    Preconditions.checkArgument(numThreads > 0);
     this.eventBus = eventBus;
     this.buildRuleGenerator = buildRuleGenerator;
+    this.numThreads = numThreads;
+    this.actionGraphCache = actionGraphCache;
   }
 
   @Override
   public synchronized ActionGraph apply(TargetGraph targetGraph) {
-    if (actionGraph != null) {
-      if (targetGraph.hashCode() == hashOfTargetGraph) {
-        return actionGraph;
+    return createActionGraph(targetGraph);
+  }
+
+  @GuardedBy("this")
+  private ActionGraph createActionGraph(final TargetGraph targetGraph) {
+    eventBus.post(ActionGraphEvent.started());
+
+    final ImmutableList.Builder<TargetNode<?>> bottomUpOrder = ImmutableList.builder();
+    new AbstractBottomUpTraversal<TargetNode<?>, Void>(targetGraph) {
+      @Override
+      public void visit(TargetNode<?> node) {
+        bottomUpOrder.add(node);
       }
-      LOG.info("Flushing cached action graph. May be a performance hit.");
+
+      @Override
+      public Void getResult() {
+        return null;
+      }
+    }.traverse();
+    ImmutableList<TargetNode<?>> nodes = bottomUpOrder.build();
+
+    ImmutableMap<BuildTarget, CachedNode> previousNodes =
+        actionGraphCache.getCachedNodes(buildRuleGenerator);
+    ImmutableMap<BuildTarget, CachedNode> currentNodes = null;
+    if (numThreads > 1) {
+      try {
+        currentNodes = transformInParallel(targetGraph, nodes, previousNodes);
+      } catch (DuplicateRuleException e) {
+        // Two nodes raced to create the same rule during graph enhancement. Creating the rules
+        // one node at a time gives every node a consistent view of the rules created before it.
+        LOG.debug(e, "Rules conflicted while being created in parallel, creating them serially.");
+      }
+    }
+    if (currentNodes == null) {
+      currentNodes = transformSerially(targetGraph, nodes, previousNodes);
     }
 
-    actionGraph = createActionGraph(targetGraph);
-    hashOfTargetGraph = targetGraph.hashCode();
+    // The graph itself is always assembled in the same order, so that it does not depend on the
+    // order in which the rules happened to be created.
+    MutableDirectedGraph<BuildRule> actionGraph = new MutableDirectedGraph<>();
+    int rulesReused = 0;
+    for (TargetNode<?> node : nodes) {
+      CachedNode cachedNode = Preconditions.checkNotNull(currentNodes.get(node.getBuildTarget()));
+      if (cachedNode.isReused) {
+        rulesReused++;
+      }
+      BuildRule rule = cachedNode.rule;
+      actionGraph.addNode(rule);
+
+      for (BuildRule buildRule : rule.getDeps()) {
+        if (buildRule.getBuildTarget().isFlavored()) {
+          addGraphEnhancedDeps(actionGraph, rule);
+        }
+      }
+
+      for (BuildRule dep : rule.getDeps()) {
+        actionGraph.addEdge(rule, dep);
+      }
+    }
+    int rulesCreated = nodes.size() - rulesReused;
 
-    return actionGraph;
+    actionGraphCache.setCachedNodes(buildRuleGenerator, currentNodes);
+    LOG.debug(
+        "Reused the rules of %d target nodes and created the rules of %d.",
+        rulesReused,
+        rulesCreated);
+    eventBus.post(ActionGraphEvent.finished(rulesReused, rulesCreated));
+    return new ActionGraph(actionGraph);
   }
 
-  private ActionGraph createActionGraph(final TargetGraph targetGraph) {
-    eventBus.post(ActionGraphEvent.started());
+  private ImmutableMap<BuildTarget, CachedNode> transformSerially(
+      TargetGraph targetGraph,
+      ImmutableList<TargetNode<?>> nodes,
+      ImmutableMap<BuildTarget, CachedNode> previousNodes) {
+    RecordingBuildRuleResolver ruleResolver = new RecordingBuildRuleResolver();
+    Map<BuildTarget, CachedNode> currentNodes = Maps.newLinkedHashMap();
+    for (TargetNode<?> node : nodes) {
+      List<CachedNode> deps = Lists.newArrayList();
+      for (TargetNode<?> dep : targetGraph.getOutgoingNodesFor(node)) {
+        deps.add(Preconditions.checkNotNull(currentNodes.get(dep.getBuildTarget())));
+      }
+      currentNodes.put(
+          node.getBuildTarget(),
+          transformNode(targetGraph, previousNodes, ruleResolver, node, deps));
+    }
+    return ImmutableMap.copyOf(currentNodes);
+  }
 
-    final BuildRuleResolver ruleResolver = new BuildRuleResolver();
-    final MutableDirectedGraph<BuildRule> actionGraph = new MutableDirectedGraph<>();
+  /**
+   * Transforms each node on a {@link ForkJoinPool} as soon as all the nodes it depends on have
+   * been transformed, so that independent parts of the graph are transformed concurrently.
+   *
+   * @throws DuplicateRuleException if two nodes tried to add a rule for the same target.
+   */
+  private ImmutableMap<BuildTarget, CachedNode> transformInParallel(
+      final TargetGraph targetGraph,
+      ImmutableList<TargetNode<?>> nodes,
+      final ImmutableMap<BuildTarget, CachedNode> previousNodes) {
+    final RecordingBuildRuleResolver ruleResolver = new RecordingBuildRuleResolver();
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(pool);
+      Map<TargetNode<?>, ListenableFuture<CachedNode>> futures = Maps.newLinkedHashMap();
+      // Nodes are in bottom-up order, so the futures of their deps have always been created.
+      for (final TargetNode<?> node : nodes) {
+        List<ListenableFuture<CachedNode>> depFutures = Lists.newArrayList();
+        for (TargetNode<?> dep : targetGraph.getOutgoingNodesFor(node)) {
+          depFutures.add(Preconditions.checkNotNull(futures.get(dep)));
+        }
+        futures.put(
+            node,
+            Futures.transform(
+                Futures.allAsList(depFutures),
+                new Function<List<CachedNode>, CachedNode>() {
+                  @Override
+                  public CachedNode apply(List<CachedNode> deps) {
+                    return transformNode(targetGraph, previousNodes, ruleResolver, node, deps);
+                  }
+                },
+                executor));
+      }
 
-    AbstractBottomUpTraversal<TargetNode<?>, ActionGraph> bottomUpTraversal =
-        new AbstractBottomUpTraversal<TargetNode<?>, ActionGraph>(targetGraph) {
+      List<CachedNode> results;
+      try {
+        results = Uninterruptibles.getUninterruptibly(Futures.allAsList(futures.values()));
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
 
-          @Override
-          public void visit(TargetNode<?> node) {
-            BuildRule rule;
-            try {
-              rule = buildRuleGenerator.transform(targetGraph, ruleResolver, node);
-            } catch (NoSuchBuildTargetException e) {
-              throw new HumanReadableException(e);
-            }
+      ImmutableMap.Builder<BuildTarget, CachedNode> currentNodes = ImmutableMap.builder();
+      for (CachedNode cachedNode : results) {
+        currentNodes.put(cachedNode.targetNode.getBuildTarget(), cachedNode);
+      }
+      return currentNodes.build();
+    } finally {
+      // Don't let nodes that are still being transformed race with a serial retry.
+      MoreExecutors.shutdownAndAwaitTermination(pool, Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+  }
 
-            // Check whether a rule with this build target already exists. This is possible
-            // if we create a new build rule during graph enhancement, and the user asks to
-            // build the same build rule. The returned rule may have a different name from the
-            // target node.
-            Optional<BuildRule> existingRule =
-                ruleResolver.getRuleOptional(rule.getBuildTarget());
-            Preconditions.checkState(
-                !existingRule.isPresent() || existingRule.get().equals(rule));
-            if (!existingRule.isPresent()) {
-              ruleResolver.addToIndex(rule);
-            }
-            actionGraph.addNode(rule);
+  private CachedNode transformNode(
+      TargetGraph targetGraph,
+      ImmutableMap<BuildTarget, CachedNode> previousNodes,
+      RecordingBuildRuleResolver ruleResolver,
+      TargetNode<?> node,
+      Iterable<CachedNode> deps) {
+    CachedNode cachedNode = previousNodes.get(node.getBuildTarget());
+    ruleResolver.takeAddedRules();
+    if (cachedNode != null && cachedNode.isReusable(node, deps, ruleResolver)) {
+      for (BuildRule createdRule : cachedNode.createdRules) {
+        if (!ruleResolver.getRuleOptional(createdRule.getBuildTarget()).isPresent()) {
+          ruleResolver.addToIndex(createdRule);
+        }
+      }
+      ruleResolver.takeAddedRules();
+      return cachedNode.reused();
+    }
 
-            for (BuildRule buildRule : rule.getDeps()) {
-              if (buildRule.getBuildTarget().isFlavored()) {
-                addGraphEnhancedDeps(rule);
-              }
-            }
+    BuildRule rule;
+    try {
+      rule = buildRuleGenerator.transform(targetGraph, ruleResolver, node);
+    } catch (NoSuchBuildTargetException e) {
+      throw new HumanReadableException(e);
+    }
 
-            for (BuildRule dep : rule.getDeps()) {
-              actionGraph.addEdge(rule, dep);
-            }
+    // Check whether a rule with this build target already exists. This is possible
+    // if we create a new build rule during graph enhancement, and the user asks to
+    // build the same build rule. The returned rule may have a different name from the
+    // target node.
+    Optional<BuildRule> existingRule = ruleResolver.getRuleOptional(rule.getBuildTarget());
+    if (existingRule.isPresent() && !existingRule.get().equals(rule)) {
+      throw new DuplicateRuleException(rule.getBuildTarget());
+    }
+    if (!existingRule.isPresent()) {
+      ruleResolver.addToIndex(rule);
+    }
+    return new CachedNode(node, rule, ruleResolver.takeAddedRules(), /* isReused */ false);
+  }
 
+  private static void addGraphEnhancedDeps(
+      final MutableDirectedGraph<BuildRule> actionGraph,
+      BuildRule rule) {
+    new AbstractBreadthFirstTraversal<BuildRule>(rule) {
+      @Override
+      public ImmutableSet<BuildRule> visit(BuildRule rule) {
+        ImmutableSet.Builder<BuildRule> depsToVisit = null;
+        boolean isRuleFlavored = rule.getBuildTarget().isFlavored();
+
+        for (BuildRule dep : rule.getDeps()) {
+          boolean isDepFlavored = dep.getBuildTarget().isFlavored();
+          if (isRuleFlavored || isDepFlavored) {
+            actionGraph.addEdge(rule, dep);
           }
 
-          @Override
-          public ActionGraph getResult() {
-            return new ActionGraph(actionGraph);
+          if (isDepFlavored) {
+            if (depsToVisit == null) {
+              depsToVisit = ImmutableSet.builder();
+            }
+            depsToVisit.add(dep);
           }
+        }
 
-          private void addGraphEnhancedDeps(BuildRule rule) {
-            new AbstractBreadthFirstTraversal<BuildRule>(rule) {
-              @Override
-              public ImmutableSet<BuildRule> visit(BuildRule rule) {
-                ImmutableSet.Builder<BuildRule> depsToVisit = null;
-                boolean isRuleFlavored = rule.getBuildTarget().isFlavored();
-
-                for (BuildRule dep : rule.getDeps()) {
-                  boolean isDepFlavored = dep.getBuildTarget().isFlavored();
-                  if (isRuleFlavored || isDepFlavored) {
-                    actionGraph.addEdge(rule, dep);
-                  }
+        return depsToVisit == null ?
+            ImmutableSet.<BuildRule>of() :
+            depsToVisit.build();
+      }
+    }.start();
+  }
 
-                  if (isDepFlavored) {
-                    if (depsToVisit == null) {
-                      depsToVisit = ImmutableSet.builder();
-                    }
-                    depsToVisit.add(dep);
-                  }
-                }
+  /**
+   * The rules created for a {@link TargetNode} the last time an action graph was created.
+   */
+  static class CachedNode {
+    private final TargetNode<?> targetNode;
+    private final BuildRule rule;
+    /** The rules added to the resolver while {@link #rule} was created, possibly including it. */
+    private final ImmutableList<BuildRule> createdRules;
+    /** Whether these rules were carried over from the previous action graph. */
+    private final boolean isReused;
+
+    private CachedNode(
+        TargetNode<?> targetNode,
+        BuildRule rule,
+        ImmutableList<BuildRule> createdRules,
+        boolean isReused) {
+      this.targetNode = targetNode;
+      this.rule = rule;
+      this.createdRules = createdRules;
+      this.isReused = isReused;
+    }
+
+    TargetNode<?> getTargetNode() {
+      return targetNode;
+    }
 
-                return depsToVisit == null ?
-                    ImmutableSet.<BuildRule>of() :
-                    depsToVisit.build();
-              }
-            }.start();
+    /**
+     * @return these rules, ready to be handed to a new build. What a rule read from disk after the
+     *     last build is forgotten, as the build engine initializes it again, and only once, for
+     *     every build.
+     */
+    private CachedNode reused() {
+      for (BuildRule ownRule : Iterables.concat(createdRules, ImmutableList.of(rule))) {
+        if (ownRule instanceof InitializableFromDisk) {
+          ((InitializableFromDisk<?>) ownRule).getBuildOutputInitializer().invalidate();
+        }
+      }
+      return new CachedNode(targetNode, rule, createdRules, /* isReused */ true);
+    }
+
+    /**
+     * @return whether these rules are still valid for {@code node}, given the results for the
+     *     nodes it depends on and the rules already in {@code ruleResolver}. They are not if the
+     *     node has been parsed again, if any of its deps was transformed again, or if any rule they
+     *     depend on, or any rule they would add, has been replaced by a different instance. As
+     *     the rules they depend on are the current ones, so are the rules that the resolver they
+     *     were created with hands out for them.
+     */
+    private boolean isReusable(
+        TargetNode<?> node,
+        Iterable<CachedNode> deps,
+        BuildRuleResolver ruleResolver) {
+      if (targetNode != node) {
+        return false;
+      }
+      for (CachedNode dep : deps) {
+        if (!dep.isReused) {
+          return false;
+        }
+      }
+
+      Set<BuildRule> ownRules = Sets.newIdentityHashSet();
+      ownRules.addAll(createdRules);
+      if (!ownRules.contains(rule) && !isCurrent(rule, ruleResolver)) {
+        return false;
+      }
+      for (BuildRule createdRule : createdRules) {
+        Optional<BuildRule> existingRule =
+            ruleResolver.getRuleOptional(createdRule.getBuildTarget());
+        if (existingRule.isPresent() && existingRule.get() != createdRule) {
+          return false;
+        }
+      }
+
+      for (BuildRule ownRule : Iterables.concat(createdRules, ImmutableList.of(rule))) {
+        for (BuildRule dep : ownRule.getDeps()) {
+          if (!ownRules.contains(dep) && !isCurrent(dep, ruleResolver)) {
+            return false;
           }
-        };
-    bottomUpTraversal.traverse();
-    ActionGraph result = bottomUpTraversal.getResult();
-    eventBus.post(ActionGraphEvent.finished());
-    return result;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isCurrent(BuildRule rule, BuildRuleResolver ruleResolver) {
+      Optional<BuildRule> currentRule = ruleResolver.getRuleOptional(rule.getBuildTarget());
+      return currentRule.isPresent() && currentRule.get() == rule;
+    }
+  }
+
+  /**
+   * A {@link BuildRuleResolver} that remembers which rules were added to it by each thread, so
+   * that the rules created by graph enhancement can be attributed to the node being transformed.
+   */
+  private static class RecordingBuildRuleResolver extends BuildRuleResolver {
+    private final ThreadLocal<List<BuildRule>> addedRules = new ThreadLocal<List<BuildRule>>() {
+      @Override
+      protected List<BuildRule> initialValue() {
+        return Lists.newArrayList();
+      }
+    };
+
+    @Override
+    public <T extends BuildRule> T addToIndex(T buildRule) {
+      try {
+        super.addToIndex(buildRule);
+      } catch (IllegalStateException e) {
+        // The resolver only refuses rules whose target already has one.
+        throw new DuplicateRuleException(buildRule.getBuildTarget());
+      }
+      addedRules.get().add(buildRule);
+      return buildRule;
+    }
+
+    /**
+     * @return the rules added by this thread since its last call, which are then forgotten.
+     */
+    public ImmutableList<BuildRule> takeAddedRules() {
+      List<BuildRule> rules = addedRules.get();
+      ImmutableList<BuildRule> result = ImmutableList.copyOf(rules);
+      rules.clear();
+      return result;
+    }
+  }
+
+  /**
+   * Thrown when a rule is added for a target that already has a different one. When nodes are
+   * transformed in parallel, this may be because two of them raced to create the same rule during
+   * graph enhancement, so they are transformed again one at a time.
+   */
+  private static class DuplicateRuleException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    DuplicateRuleException(BuildTarget buildTarget) {
+      super("A build rule for this target has already been created: " + buildTarget);
+    }
   }
 }
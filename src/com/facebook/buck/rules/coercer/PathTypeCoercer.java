@@ -18,11 +18,20 @@ package com.facebook.buck.rules.coercer;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.parser.BuildTargetParser;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import java.nio.file.Path;
 
 public class PathTypeCoercer extends LeafTypeCoercer<Path> {
 
+  /**
+   * Files such as shared resources or headers are referenced by many rules, so share one instance
+   * of each path between them. The references are weak so that paths which are no longer used can
+   * still be collected.
+   */
+  private static final Interner<Path> PATH_INTERNER = Interners.newWeakInterner();
+
   @Override
   public Class<Path> getOutputClass() {
     return Path.class;
@@ -51,7 +60,7 @@ public class PathTypeCoercer extends LeafTypeCoercer<Path> {
             e);
       }
 
-      return normalizedPath;
+      return PATH_INTERNER.intern(normalizedPath);
     } else {
       throw CoerceFailedException.simple(object, getOutputClass());
     }
@@ -162,6 +162,15 @@ public abstract class ShellStep implements Step {
         options.build(),
         getStdin(context),
         getTimeout());
+    return interpretResult(context, result);
+  }
+
+  /**
+   * Records and prints the output of the command as configured, whether it was run in a process of
+   * its own or otherwise.
+   * @return the exit code of the step.
+   */
+  int interpretResult(ExecutionContext context, ProcessExecutor.Result result) {
     stdout = result.getStdout();
     stderr = result.getStderr();
 
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A pool of long-lived tool processes that each answer a stream of requests, as described by
+ * {@link WorkerProcessProtocol}, so that steps do not have to pay for the startup of the tool every
+ * time they run it.
+ * <p>
+ * Workers are keyed by everything that is fixed when a process is started: its command, its
+ * working directory and its environment. Each worker handles one request at a time, and at most
+ * {@code maxWorkersPerKey} workers are started for each key, so a request waits for a worker to
+ * become free once that many are busy. A worker that dies, sends back something unexpected or
+ * does not answer within the request timeout is thrown away, and a fresh one is started for the
+ * next request.
+ * <p>
+ * The daemon keeps a single pool for as long as it runs, so that workers outlive the commands that
+ * started them.
+ */
+public class WorkerProcessPool implements Closeable {
+
+  private static final Logger LOG = Logger.get(WorkerProcessPool.class);
+
+  public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  /** Kills the workers that take too long to answer, which unblocks the threads waiting on them. */
+  private static final ScheduledExecutorService TIMEOUT_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("worker-timeout-%d")
+              .setDaemon(true)
+              .build());
+
+  private final int maxWorkersPerKey;
+  private final long requestTimeoutMillis;
+  private final Path logDirectory;
+  private final AtomicInteger workersStarted = new AtomicInteger();
+
+  @GuardedBy("this")
+  private final ListMultimap<Key, Worker> idleWorkers = LinkedListMultimap.create();
+
+  /** The number of workers for each key that are either idle, busy or being started. */
+  @GuardedBy("this")
+  private final Multiset<Key> liveWorkers = HashMultiset.create();
+
+  @GuardedBy("this")
+  private final Set<Worker> busyWorkers = Sets.newHashSet();
+
+  @GuardedBy("this")
+  private boolean isClosed = false;
+
+  public WorkerProcessPool(int maxWorkersPerKey, Path logDirectory) {
+    this(maxWorkersPerKey, DEFAULT_REQUEST_TIMEOUT_MILLIS, logDirectory);
+  }
+
+  /**
+   * @param maxWorkersPerKey how many workers with the same {@link Key} may run at once.
+   * @param requestTimeoutMillis how long to wait for a worker to answer a request before killing
+   *     it.
+   * @param logDirectory where the stderr of workers is written.
+   */
+  public WorkerProcessPool(int maxWorkersPerKey, long requestTimeoutMillis, Path logDirectory) {
+    Preconditions.checkArgument(maxWorkersPerKey > 0);
+    Preconditions.checkArgument(requestTimeoutMillis > 0);
+    this.maxWorkersPerKey = maxWorkersPerKey;
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    this.logDirectory = logDirectory;
+  }
+
+  /**
+   * Sends {@code args} to a worker started with {@code startupCommand}, starting one if none is
+   * idle.
+   *
+   * @throws IOException if the worker could not be started, died while handling the request or did
+   *     not answer in time. In that case the tool should be run in a process of its own.
+   */
+  public ProcessExecutor.Result run(
+      ImmutableList<String> startupCommand,
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      ImmutableList<String> args) throws IOException, InterruptedException {
+    Key key = new Key(startupCommand, workingDirectory, environment);
+    final Worker worker = acquire(key);
+    ScheduledFuture<?> timeout = TIMEOUT_SCHEDULER.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            // The reads below fail once the process is gone.
+            worker.process.destroy();
+          }
+        },
+        requestTimeoutMillis,
+        TimeUnit.MILLISECONDS);
+    boolean isHealthy = false;
+    try {
+      WorkerProcessProtocol.writeStrings(worker.out, args);
+      worker.out.flush();
+
+      int exitCode = worker.in.readInt();
+      String stdout = WorkerProcessProtocol.readString(worker.in);
+      String stderr = WorkerProcessProtocol.readString(worker.in);
+      // A worker that was killed just as it answered is not reused.
+      isHealthy = timeout.cancel(/* mayInterruptIfRunning */ false);
+      return new ProcessExecutor.Result(exitCode, stdout, stderr);
+    } catch (IOException e) {
+      if (timeout.isDone() && !timeout.isCancelled()) {
+        throw new IOException(
+            String.format(
+                "Worker for %s did not answer within %d ms.",
+                startupCommand,
+                requestTimeoutMillis),
+            e);
+      }
+      throw e;
+    } finally {
+      timeout.cancel(/* mayInterruptIfRunning */ false);
+      release(key, worker, isHealthy);
+    }
+  }
+
+  @VisibleForTesting
+  int getNumberOfWorkersStarted() {
+    return workersStarted.get();
+  }
+
+  private Worker acquire(Key key) throws IOException, InterruptedException {
+    synchronized (this) {
+      while (true) {
+        Preconditions.checkState(!isClosed, "Pool has been closed.");
+        List<Worker> workers = idleWorkers.get(key);
+        if (!workers.isEmpty()) {
+          Worker worker = workers.remove(0);
+          busyWorkers.add(worker);
+          return worker;
+        }
+        if (liveWorkers.count(key) < maxWorkersPerKey) {
+          liveWorkers.add(key);
+          break;
+        }
+        wait();
+      }
+    }
+
+    Worker worker = null;
+    try {
+      worker = startWorker(key);
+    } finally {
+      synchronized (this) {
+        if (worker == null) {
+          liveWorkers.remove(key);
+          notifyAll();
+        } else {
+          busyWorkers.add(worker);
+        }
+      }
+    }
+    return worker;
+  }
+
+  private void release(Key key, Worker worker, boolean isHealthy) {
+    synchronized (this) {
+      busyWorkers.remove(worker);
+      notifyAll();
+      if (isHealthy && !isClosed) {
+        idleWorkers.put(key, worker);
+        return;
+      }
+      liveWorkers.remove(key);
+    }
+    LOG.debug("Discarding worker for %s.", key.startupCommand);
+    worker.close();
+  }
+
+  private Worker startWorker(Key key) throws IOException {
+    int id = workersStarted.incrementAndGet();
+    Files.createDirectories(logDirectory);
+    ProcessBuilder processBuilder = new ProcessBuilder(key.startupCommand)
+        .directory(key.workingDirectory.toFile())
+        .redirectError(
+            ProcessBuilder.Redirect.appendTo(
+                logDirectory.resolve("worker-" + id + ".log").toFile()));
+    processBuilder.environment().clear();
+    processBuilder.environment().putAll(key.environment);
+
+    LOG.debug("Starting worker %d: %s", id, key.startupCommand);
+    Worker worker = new Worker(processBuilder.start());
+    try {
+      WorkerProcessProtocol.readHandshake(worker.in);
+    } catch (IOException e) {
+      worker.close();
+      throw e;
+    }
+    return worker;
+  }
+
+  /**
+   * Stops every worker. Requests that are still being handled fail, as their workers are killed.
+   */
+  @Override
+  public void close() {
+    List<Worker> workers;
+    synchronized (this) {
+      isClosed = true;
+      workers = ImmutableList.<Worker>builder()
+          .addAll(idleWorkers.values())
+          .addAll(busyWorkers)
+          .build();
+      idleWorkers.clear();
+      notifyAll();
+    }
+    for (Worker worker : workers) {
+      worker.close();
+    }
+  }
+
+  /**
+   * Everything about a worker that cannot be changed once its process has been started.
+   */
+  private static class Key {
+    private final ImmutableList<String> startupCommand;
+    private final Path workingDirectory;
+    private final ImmutableMap<String, String> environment;
+
+    public Key(
+        ImmutableList<String> startupCommand,
+        Path workingDirectory,
+        ImmutableMap<String, String> environment) {
+      this.startupCommand = startupCommand;
+      this.workingDirectory = workingDirectory;
+      this.environment = environment;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) obj;
+      return startupCommand.equals(that.startupCommand) &&
+          workingDirectory.equals(that.workingDirectory) &&
+          environment.equals(that.environment);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(startupCommand, workingDirectory, environment);
+    }
+  }
+
+  private static class Worker {
+    private final Process process;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public Worker(Process process) {
+      this.process = process;
+      this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    }
+
+    public void close() {
+      try {
+        // A well-behaved worker exits once its stdin is closed.
+        out.close();
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to close the stdin of a worker.");
+      }
+      process.destroy();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format spoken between Buck and a long-lived worker process over the stdin and stdout of
+ * the worker. Every message is made of big-endian ints and length-prefixed UTF-8 strings and
+ * string lists.
+ * <p>
+ * Once it is ready to accept requests, a worker writes {@link #HANDSHAKE} followed by
+ * {@link #VERSION}. It then reads requests until its stdin is closed, answering each one in turn.
+ * <p>
+ * A request is:
+ * <ul>
+ *   <li>(string list) the arguments of a single invocation of the tool
+ * </ul>
+ * A response is:
+ * <ul>
+ *   <li>(int) the exit code that the tool would have exited with had it been run on its own
+ *   <li>(string) what it would have written to stdout
+ *   <li>(string) what it would have written to stderr
+ * </ul>
+ * A worker must not write anything else to its stdout. Whatever it writes to its stderr is logged.
+ * <p>
+ * This only depends on classes present in the JRE, so that tools written in Java can use it.
+ */
+public final class WorkerProcessProtocol {
+
+  public static final int HANDSHAKE = 0x4255434b;
+  public static final int VERSION = 1;
+
+  private WorkerProcessProtocol() {
+    // Utility class.
+  }
+
+  /**
+   * Writes the handshake with which a worker announces that it is ready.
+   */
+  public static void writeHandshake(DataOutputStream out) throws IOException {
+    out.writeInt(HANDSHAKE);
+    out.writeInt(VERSION);
+    out.flush();
+  }
+
+  /**
+   * Reads the handshake of a worker, failing if it does not speak this version of the protocol.
+   */
+  public static void readHandshake(DataInputStream in) throws IOException {
+    int handshake = in.readInt();
+    if (handshake != HANDSHAKE) {
+      throw new IOException(String.format("Unexpected handshake from worker: 0x%x", handshake));
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException(
+          String.format("Worker speaks version %d of the protocol, not %d.", version, VERSION));
+    }
+  }
+
+  public static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Negative string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  public static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  public static List<String> readStrings(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Negative list size: " + size);
+    }
+    List<String> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+}
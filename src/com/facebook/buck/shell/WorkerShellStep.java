@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor.Option;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ShellStep} for a tool that can also be run as a long-lived worker speaking
+ * {@link WorkerProcessProtocol}. When the {@link ExecutionContext} has a {@link WorkerProcessPool},
+ * the arguments of the step are sent to a worker instead of starting a process for the step.
+ * Otherwise, or if no worker could handle them, the command returned by
+ * {@link #getShellCommandInternal(ExecutionContext)} is run as usual.
+ */
+public abstract class WorkerShellStep extends ShellStep {
+
+  private static final Logger LOG = Logger.get(WorkerShellStep.class);
+
+  protected WorkerShellStep() {
+    super();
+  }
+
+  protected WorkerShellStep(@Nullable File workingDirectory) {
+    super(workingDirectory);
+  }
+
+  /**
+   * @return the command that starts a worker. All steps with the same startup command, working
+   *     directory and environment share workers.
+   */
+  protected abstract ImmutableList<String> getWorkerStartupCommand(ExecutionContext context);
+
+  /**
+   * @return the arguments to send to a worker, which should have the same effect as running the
+   *     command returned by {@link #getShellCommandInternal(ExecutionContext)}.
+   */
+  protected abstract ImmutableList<String> getWorkerArgs(ExecutionContext context);
+
+  @Override
+  int launchAndInteractWithProcess(ExecutionContext context, ProcessExecutorParams params)
+      throws InterruptedException, IOException {
+    Optional<WorkerProcessPool> pool = context.getWorkerProcessPool();
+    // Workers answer one request at a time, so they cannot be fed stdin or be timed out.
+    if (pool.isPresent() && !getStdin(context).isPresent() && !getTimeout().isPresent()) {
+      try {
+        return executeInWorker(context, pool.get(), params);
+      } catch (IOException e) {
+        LOG.warn(e, "Could not run %s in a worker; starting a process instead.", getShortName());
+      }
+    }
+    return super.launchAndInteractWithProcess(context, params);
+  }
+
+  private int executeInWorker(
+      ExecutionContext context,
+      WorkerProcessPool pool,
+      ProcessExecutorParams params) throws InterruptedException, IOException {
+    ProcessExecutor.Result result = pool.run(
+        getWorkerStartupCommand(context),
+        params.getDirectory().or(context.getProjectDirectoryRoot().toFile()).toPath(),
+        ImmutableMap.copyOf(params.getEnvironment().or(ImmutableMap.<String, String>of())),
+        getWorkerArgs(context));
+
+    // Treat the output the way that ProcessExecutor treats that of a process: print it when asked
+    // to, and otherwise keep it and only print it if the tool failed.
+    ImmutableSet.Builder<Option> optionsBuilder = ImmutableSet.builder();
+    addOptions(context, optionsBuilder);
+    ImmutableSet<Option> options = optionsBuilder.build();
+    boolean isSilent = options.contains(Option.IS_SILENT);
+    return interpretResult(
+        context,
+        new ProcessExecutor.Result(
+            result.getExitCode(),
+            /* timedOut */ false,
+            handleOutput(
+                result.getStdout().get(),
+                context.getStdOut(),
+                options.contains(Option.PRINT_STD_OUT),
+                result.getExitCode() != 0 && !isSilent),
+            handleOutput(
+                result.getStderr().get(),
+                context.getStdErr(),
+                options.contains(Option.PRINT_STD_ERR),
+                result.getExitCode() != 0 && !isSilent)));
+  }
+
+  private static Optional<String> handleOutput(
+      String output,
+      PrintStream stream,
+      boolean shouldPrint,
+      boolean shouldPrintIfCaptured) {
+    if (shouldPrint || shouldPrintIfCaptured) {
+      stream.print(output);
+    }
+    return shouldPrint ? Optional.<String>absent() : Optional.of(output);
+  }
+}
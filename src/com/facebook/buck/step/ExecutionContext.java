@@ -23,8 +23,10 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.java.JUnitRunnerPool;
 import com.facebook.buck.java.JavaPackageFinder;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
@@ -100,6 +102,20 @@ public abstract class ExecutionContext implements Closeable {
   @Value.Parameter
   public abstract ClassLoaderCache getClassLoaderCache();
 
+  /**
+   * @return the pool of long-lived JVMs in which Java tests should be run, if tests are not to be
+   *     run in a new JVM each.
+   */
+  @Value.Parameter
+  public abstract Optional<JUnitRunnerPool> getJUnitRunnerPool();
+
+  /**
+   * @return the pool of long-lived tool processes to which steps that support it should send their
+   *     work, if they are not to start a new process each.
+   */
+  @Value.Parameter
+  public abstract Optional<WorkerProcessPool> getWorkerProcessPool();
+
 
   @Value.Derived
   public Verbosity getVerbosity() {
@@ -215,6 +231,8 @@ public abstract class ExecutionContext implements Closeable {
     @Nullable private JavaPackageFinder javaPackageFinder = null;
     @Nullable private ObjectMapper objectMapper = null;
     private ClassLoaderCache classLoaderCache = new ClassLoaderCache();
+    private Optional<JUnitRunnerPool> jUnitRunnerPool = Optional.absent();
+    private Optional<WorkerProcessPool> workerProcessPool = Optional.absent();
 
     private Builder() {}
 
@@ -233,7 +251,9 @@ public abstract class ExecutionContext implements Closeable {
           Preconditions.checkNotNull(environment),
           Preconditions.checkNotNull(javaPackageFinder),
           Preconditions.checkNotNull(objectMapper),
-          Preconditions.checkNotNull(classLoaderCache));
+          Preconditions.checkNotNull(classLoaderCache),
+          jUnitRunnerPool,
+          workerProcessPool);
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -249,6 +269,8 @@ public abstract class ExecutionContext implements Closeable {
       setEnvironment(executionContext.getEnvironment());
       setJavaPackageFinder(executionContext.getJavaPackageFinder());
       setObjectMapper(executionContext.getObjectMapper());
+      setJUnitRunnerPool(executionContext.getJUnitRunnerPool());
+      setWorkerProcessPool(executionContext.getWorkerProcessPool());
       return this;
     }
 
@@ -329,5 +351,15 @@ public abstract class ExecutionContext implements Closeable {
       this.classLoaderCache = classLoaderCache;
       return this;
     }
+
+    public Builder setJUnitRunnerPool(Optional<JUnitRunnerPool> jUnitRunnerPool) {
+      this.jUnitRunnerPool = jUnitRunnerPool;
+      return this;
+    }
+
+    public Builder setWorkerProcessPool(Optional<WorkerProcessPool> workerProcessPool) {
+      this.workerProcessPool = workerProcessPool;
+      return this;
+    }
   }
 }
@@ -20,11 +20,19 @@ import com.facebook.buck.log.Logger;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Executes a {@link Process} and blocks until it is finished.
@@ -33,6 +41,19 @@ public class ProcessExecutor {
 
   private static final Logger LOG = Logger.get(ProcessExecutor.class);
 
+  /**
+   * Consumes the stdout and stderr of, and waits with a timeout for, the processes of every
+   * executor. A build runs thousands of short-lived processes, so the threads that do this are
+   * shared and reused rather than started for each process. The pipes of a {@link Process} cannot
+   * be registered with a {@link java.nio.channels.Selector}, so each stream still needs a thread
+   * to block on it while it is open.
+   */
+  private static final ExecutorService PROCESS_THREADS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat(ProcessExecutor.class.getSimpleName() + "-%d")
+          .setDaemon(true)
+          .build());
+
   /**
    * Options for {@link ProcessExecutor#execute(Process, Set, Optional, Optional)}.
    */
@@ -153,20 +174,32 @@ public class ProcessExecutor {
    * Waits up to {@code millis} milliseconds for the given process to finish.
    */
   private void waitForTimeout(final Process process, long millis) throws InterruptedException {
-    Thread waiter =
-        new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  process.waitFor();
-                } catch (InterruptedException e) {}
-              }
-            });
-    waiter.start();
-    waiter.join(millis);
-    waiter.interrupt();
-    waiter.join();
+    Future<Integer> waiter = PROCESS_THREADS.submit(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws InterruptedException {
+            return process.waitFor();
+          }
+        });
+    try {
+      waiter.get(millis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // The caller checks whether the process has finished.
+    } finally {
+      waiter.cancel(/* mayInterruptIfRunning */ true);
+    }
+  }
+
+  /**
+   * Waits for a consumer of the output of a process to reach the end of its stream.
+   */
+  private static void waitForConsumer(Future<?> consumer, String streamName)
+      throws InterruptedException {
+    try {
+      consumer.get();
+    } catch (ExecutionException e) {
+      LOG.warn(e.getCause(), "Failed to consume the %s of a process.", streamName);
+    }
   }
 
   /**
@@ -211,10 +244,8 @@ public class ProcessExecutor {
         Optional.<InputStreamConsumer.Handler>absent());
 
     // Consume the streams so they do not deadlock.
-    Thread stdOutConsumer = Threads.namedThread("ProcessExecutor (stdOut)", stdOut);
-    stdOutConsumer.start();
-    Thread stdErrConsumer = Threads.namedThread("ProcessExecutor (stdErr)", stdErr);
-    stdErrConsumer.start();
+    Future<?> stdOutConsumer = PROCESS_THREADS.submit(stdOut);
+    Future<?> stdErrConsumer = PROCESS_THREADS.submit(stdErr);
 
     boolean timedOut = false;
 
@@ -222,7 +253,7 @@ public class ProcessExecutor {
     try {
 
       // If a stdin string was specific, then write that first.  This shouldn't cause
-      // deadlocks, as the stdout/stderr consumers are running in separate threads.
+      // deadlocks, as the stdout/stderr consumers are running in other threads.
       if (stdin.isPresent()) {
         try (OutputStreamWriter stdinWriter = new OutputStreamWriter(process.getOutputStream())) {
           stdinWriter.write(stdin.get());
@@ -242,8 +273,8 @@ public class ProcessExecutor {
         process.waitFor();
       }
 
-      stdOutConsumer.join();
-      stdErrConsumer.join();
+      waitForConsumer(stdOutConsumer, "stdout");
+      waitForConsumer(stdErrConsumer, "stderr");
 
     } catch (IOException e) {
       // Buck was killed while waiting for the consumers to finish or while writing stdin
@@ -25,7 +25,6 @@ import com.google.common.hash.Hashing;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
@@ -37,7 +36,7 @@ import java.util.zip.ZipEntry;
 class EntryAccounting {
   private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
   private static final int UTF8_NAMES_FLAG = 1 << 11;
-  private static final int ARBITRARY_SIZE = 1024;
+  private static final int ARBITRARY_SIZE = 8192;
   private static final long DOS_EPOCH_START = (1 << 21) | (1 << 16);
 
   private final ZipEntry entry;
@@ -239,7 +238,7 @@ class EntryAccounting {
   private int deflate(OutputStream out) throws IOException {
     int written = deflater.deflate(buffer, 0, buffer.length);
     if (written > 0) {
-      out.write(Arrays.copyOf(buffer, written));
+      out.write(buffer, 0, written);
     }
     return written;
   }
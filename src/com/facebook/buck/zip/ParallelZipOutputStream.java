@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.timing.Clock;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CustomZipOutputStream} that compresses entries on a pool of threads, writing them out in
+ * the order in which they were added. The bytes of the zip are the same as those written by
+ * {@link AppendingZipOutputStream}.
+ * <p>
+ * The data of each entry is buffered in memory until the entry is closed, at which point it is
+ * compressed, along with its local file header and data descriptor, into a segment of the zip.
+ * Segments are written out as soon as those of all the entries before them have been. Once the
+ * uncompressed data of the entries waiting to be written adds up to more than
+ * {@link #MAX_PENDING_BYTES}, adding an entry waits for the oldest one to be written.
+ */
+class ParallelZipOutputStream extends CustomZipOutputStream {
+
+  private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+  /** Shared by all streams, as each compression is short and never waits on another. */
+  private static final ListeningExecutorService DEFLATE_THREADS =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder()
+                  .setNameFormat(ParallelZipOutputStream.class.getSimpleName() + "-%d")
+                  .setDaemon(true)
+                  .build()));
+
+  private final boolean throwExceptionsOnDuplicate;
+  private final Clock clock;
+  private final Set<String> seenNames = Sets.newHashSet();
+  private final List<EntryAccounting> entries = Lists.newArrayList();
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private long pendingBytes = 0;
+  private long currentOffset = 0;
+  @Nullable private EntryAccounting currentEntry = null;
+  @Nullable private ByteArrayOutputStream currentData = null;
+
+  public ParallelZipOutputStream(
+      Clock clock,
+      OutputStream stream,
+      boolean throwExceptionsOnDuplicate) {
+    super(stream);
+    this.clock = clock;
+    this.throwExceptionsOnDuplicate = throwExceptionsOnDuplicate;
+  }
+
+  @Override
+  protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+
+    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    currentData = new ByteArrayOutputStream();
+  }
+
+  @Override
+  protected void actuallyWrite(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkNotNull(currentData).write(b, off, len);
+  }
+
+  @Override
+  protected void actuallyCloseEntry() throws IOException {
+    if (currentEntry == null) {
+      return; // no-op
+    }
+
+    final EntryAccounting entry = currentEntry;
+    final byte[] data = Preconditions.checkNotNull(currentData).toByteArray();
+    currentEntry = null;
+    currentData = null;
+
+    Callable<byte[]> writeSegment = new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream(data.length / 2 + 128);
+        entry.writeLocalFileHeader(segment);
+        entry.write(segment, data, 0, data.length);
+        entry.close(segment);
+        return segment.toByteArray();
+      }
+    };
+
+    // Directories and stored entries have nothing to compress.
+    ListenableFuture<byte[]> segment;
+    if (data.length == 0 || entry.getCompressionMethod() == ZipEntry.STORED) {
+      try {
+        segment = Futures.immediateFuture(writeSegment.call());
+      } catch (Exception e) {
+        Throwables.propagateIfInstanceOf(e, IOException.class);
+        throw Throwables.propagate(e);
+      }
+    } else {
+      segment = DEFLATE_THREADS.submit(writeSegment);
+    }
+    entries.add(entry);
+    pendingEntries.add(new PendingEntry(entry, segment, data.length));
+    pendingBytes += data.length;
+
+    while (!pendingEntries.isEmpty() &&
+        (pendingEntries.peek().segment.isDone() || pendingBytes > MAX_PENDING_BYTES)) {
+      writeOldestPendingEntry();
+    }
+  }
+
+  private void writeOldestPendingEntry() throws IOException {
+    PendingEntry pending = pendingEntries.remove();
+    byte[] segment;
+    try {
+      segment = pending.segment.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing " + pending.entry.getName());
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+    pending.entry.setOffset(currentOffset);
+    delegate.write(segment);
+    currentOffset += segment.length;
+    pendingBytes -= pending.uncompressedSize;
+  }
+
+  @Override
+  protected void actuallyClose() throws IOException {
+    try {
+      closeEntry();
+      while (!pendingEntries.isEmpty()) {
+        writeOldestPendingEntry();
+      }
+
+      new CentralDirectory().writeCentralDirectory(delegate, currentOffset, entries);
+    } finally {
+      for (PendingEntry pending : pendingEntries) {
+        pending.segment.cancel(/* mayInterruptIfRunning */ false);
+      }
+      delegate.close();
+    }
+  }
+
+  private static class PendingEntry {
+    private final EntryAccounting entry;
+    private final ListenableFuture<byte[]> segment;
+    private final long uncompressedSize;
+
+    public PendingEntry(
+        EntryAccounting entry,
+        ListenableFuture<byte[]> segment,
+        long uncompressedSize) {
+      this.entry = entry;
+      this.segment = segment;
+      this.uncompressedSize = uncompressedSize;
+    }
+  }
+}
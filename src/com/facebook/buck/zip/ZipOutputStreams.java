@@ -19,6 +19,7 @@ package com.facebook.buck.zip;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Preconditions;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -97,6 +98,46 @@ public class ZipOutputStreams {
     }
   }
 
+  /**
+   * Create a new {@link CustomZipOutputStream} that compresses entries in parallel, and writes
+   * the same bytes to {@code zipFile} as {@link #newOutputStream(File, HandleDuplicates)} would.
+   * The data of each entry is held in memory until the entry has been written, so this suits zips
+   * of many entries, such as jars, best.
+   *
+   * @param zipFile The file to write to.
+   * @param mode How to handle duplicate entries, which must not be
+   *     {@link HandleDuplicates#OVERWRITE_EXISTING}.
+   */
+  public static CustomZipOutputStream newParallelOutputStream(File zipFile, HandleDuplicates mode)
+      throws FileNotFoundException {
+    return newParallelOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)), mode);
+  }
+
+  /**
+   * Create a new {@link CustomZipOutputStream} that compresses entries in parallel, and writes
+   * the same bytes to {@code out} as {@link #newOutputStream(OutputStream, HandleDuplicates)}
+   * would.
+   *
+   * @param out The output stream to write to.
+   * @param mode How to handle duplicate entries, which must not be
+   *     {@link HandleDuplicates#OVERWRITE_EXISTING}.
+   */
+  public static CustomZipOutputStream newParallelOutputStream(
+      OutputStream out,
+      HandleDuplicates mode) {
+    Preconditions.checkArgument(
+        mode != HandleDuplicates.OVERWRITE_EXISTING,
+        "Entries cannot be overwritten once they have been compressed.");
+    // With a single core, buffering the entries only slows things down.
+    if (Runtime.getRuntime().availableProcessors() == 1) {
+      return newOutputStream(out, mode);
+    }
+    return new ParallelZipOutputStream(
+        new DefaultClock(),
+        out,
+        mode == HandleDuplicates.THROW_EXCEPTION);
+  }
+
   public static enum HandleDuplicates {
     /** Duplicate entries are simply appended to the zip. */
     APPEND_TO_ZIP,
@@ -16,7 +16,7 @@
 
 package com.facebook.buck.zip;
 
-import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.OVERWRITE_EXISTING;
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION;
 
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.MorePaths;
@@ -25,6 +25,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.hash.Hashing;
 
 import java.io.BufferedOutputStream;
@@ -35,6 +36,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 
@@ -94,12 +96,11 @@ public class ZipStep implements Step {
       return 1;
     }
 
-    try (
-      BufferedOutputStream baseOut =
-          new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile));
-      final CustomZipOutputStream out =
-          ZipOutputStreams.newOutputStream(baseOut, OVERWRITE_EXISTING)) {
-
+    // Later entries with the same name replace earlier ones, in the position of the first. Names of
+    // directories end with a slash, so only files have contents.
+    final Map<String, CustomZipEntry> entries = Maps.newLinkedHashMap();
+    final Map<String, Path> contents = Maps.newHashMap();
+    try {
       final FileVisitor<Path> pathFileVisitor = new SimpleFileVisitor<Path>() {
         private boolean isSkipFile(Path file) {
           if (!paths.isEmpty() && !paths.contains(file)) {
@@ -142,9 +143,9 @@ public class ZipStep implements Step {
             throws IOException {
           if (!isSkipFile(file)) {
             Path path = filesystem.resolve(file);
-            out.putNextEntry(getZipEntry(getEntryName(file), path, attrs));
-            Files.copy(path, out);
-            out.closeEntry();
+            CustomZipEntry entry = getZipEntry(getEntryName(file), path, attrs);
+            entries.put(entry.getName(), entry);
+            contents.put(entry.getName(), path);
           }
           return FileVisitResult.CONTINUE;
         }
@@ -152,8 +153,8 @@ public class ZipStep implements Step {
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
             throws IOException {
           if (!dir.equals(baseDir) && !isSkipFile(dir)) {
-            out.putNextEntry(getZipEntry(getEntryName(dir), filesystem.resolve(dir), attrs));
-            out.closeEntry();
+            CustomZipEntry entry = getZipEntry(getEntryName(dir), filesystem.resolve(dir), attrs);
+            entries.put(entry.getName(), entry);
           }
           return FileVisitResult.CONTINUE;
         }
@@ -164,6 +165,24 @@ public class ZipStep implements Step {
       return 1;
     }
 
+    try (
+      BufferedOutputStream baseOut =
+          new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile));
+      CustomZipOutputStream out =
+          ZipOutputStreams.newParallelOutputStream(baseOut, THROW_EXCEPTION)) {
+      for (CustomZipEntry entry : entries.values()) {
+        out.putNextEntry(entry);
+        Path path = contents.get(entry.getName());
+        if (path != null) {
+          Files.copy(path, out);
+        }
+        out.closeEntry();
+      }
+    } catch (IOException e) {
+      context.logError(e, "Error creating zip file %s", pathToZipFile);
+      return 1;
+    }
+
     return 0;
   }
 
@@ -39,6 +39,7 @@ public class AndroidBinaryBuilder extends AbstractNodeBuilder<AndroidBinaryDescr
         new AndroidBinaryDescription(
             ANDROID_JAVAC_OPTIONS,
             new ProGuardConfig(new FakeBuckConfig()),
+            /* dexMergeIncremental */ false,
             ImmutableMap.<AndroidBinary.TargetCpuType, NdkCxxPlatform>of()),
         target);
   }
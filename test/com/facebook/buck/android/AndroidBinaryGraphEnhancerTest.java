@@ -119,6 +119,7 @@ public class AndroidBinaryGraphEnhancerTest {
         /* shouldPreDex */ true,
         BuildTargets.getScratchPath(apkTarget, "%s/classes.dex"),
         DexSplitMode.NO_SPLIT,
+        /* dexMergeIncremental */ false,
         buildRulesToExcludeFromDex,
         /* resourcesToExclude */ ImmutableSet.<BuildTarget>of(),
         /* skipCrunchPngs */ false,
@@ -234,6 +235,7 @@ public class AndroidBinaryGraphEnhancerTest {
         /* shouldPreDex */ false,
         BuildTargets.getScratchPath(apkTarget, "%s/classes.dex"),
         DexSplitMode.NO_SPLIT,
+        /* dexMergeIncremental */ false,
         /* buildRulesToExcludeFromDex */ ImmutableSet.<BuildTarget>of(),
         /* resourcesToExclude */ ImmutableSet.<BuildTarget>of(),
         /* skipCrunchPngs */ false,
@@ -138,6 +138,7 @@ public class AndroidBinaryTest {
         ImmutableSet.of(
             GEN_PATH.resolve("java/src/com/facebook/base/lib__libraryTwo__output/libraryTwo.jar")),
         GEN_PATH.resolve("java/src/com/facebook/base/__apk#aapt_package__proguard__/.proguard"),
+        /* incrementalCacheDirectory */ Optional.<Path>absent(),
         buildableContext,
         expectedSteps);
 
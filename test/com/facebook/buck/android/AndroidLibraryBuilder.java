@@ -30,7 +30,9 @@ import java.nio.file.Path;
 public class AndroidLibraryBuilder extends AbstractNodeBuilder<AndroidLibraryDescription.Arg> {
 
   private AndroidLibraryBuilder(BuildTarget target) {
-    super(new AndroidLibraryDescription(ANDROID_JAVAC_OPTIONS), target);
+    super(
+        new AndroidLibraryDescription(ANDROID_JAVAC_OPTIONS, /* dummyRDotJavaStableIds */ false),
+        target);
   }
 
   public static AndroidLibraryBuilder createBuilder(BuildTarget target) {
@@ -51,7 +51,8 @@ public class AndroidLibraryGraphEnhancerTest {
         buildTarget,
         new FakeBuildRuleParamsBuilder(buildTarget).build(),
         DEFAULT_JAVAC_OPTIONS,
-        ResourceDependencyMode.FIRST_ORDER);
+        ResourceDependencyMode.FIRST_ORDER,
+        /* stableIds */ false);
     Optional<DummyRDotJava> result = graphEnhancer.createBuildableForAndroidResources(
         new BuildRuleResolver(),
         /* createdBuildableIfEmptyDeps */ false);
@@ -86,7 +87,8 @@ public class AndroidLibraryGraphEnhancerTest {
         buildTarget,
         buildRuleParams,
         DEFAULT_JAVAC_OPTIONS,
-        ResourceDependencyMode.FIRST_ORDER);
+        ResourceDependencyMode.FIRST_ORDER,
+        /* stableIds */ false);
     Optional<DummyRDotJava> dummyRDotJava = graphEnhancer.createBuildableForAndroidResources(
         ruleResolver,
         /* createBuildableIfEmptyDeps */ false);
@@ -138,7 +140,8 @@ public class AndroidLibraryGraphEnhancerTest {
             .setSourceLevel("7")
             .setTargetLevel("7")
                     .build(),
-                ResourceDependencyMode.FIRST_ORDER);
+                ResourceDependencyMode.FIRST_ORDER,
+                /* stableIds */ false);
     Optional<DummyRDotJava> dummyRDotJava = graphEnhancer.createBuildableForAndroidResources(
         ruleResolver,
         /* createBuildableIfEmptyDeps */ false);
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static com.facebook.buck.java.JavaCompilationConstants.DEFAULT_JAVAC_OPTIONS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.java.JavacOptions;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class CompileChangedRDotJavaStepTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testOnlyChangedPackagesAreCompiledAgain() throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.getRoot().toPath());
+    Path first = Paths.get("src/com/example/first/R.java");
+    Path second = Paths.get("src/com/example/second/R.java");
+    writeRDotJava(filesystem, first, "id", "a");
+    writeRDotJava(filesystem, second, "id", "b");
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    CompileChangedRDotJavaStep step = new CompileChangedRDotJavaStep(
+        Paths.get("src"),
+        ImmutableSet.of(first, second),
+        Paths.get("classes"),
+        Paths.get("state/compiled.txt"),
+        DEFAULT_JAVAC_OPTIONS,
+        BuildTargetFactory.newInstance("//java/com/example:lib"));
+
+    assertEquals(0, step.execute(context));
+    Path firstClass = Paths.get("classes/com/example/first/R$id.class");
+    Path secondClass = Paths.get("classes/com/example/second/R$id.class");
+    assertTrue(filesystem.exists(firstClass));
+    assertTrue(filesystem.exists(secondClass));
+    long firstModified = filesystem.getLastModifiedTime(firstClass) - 10000;
+    filesystem.getFileForRelativePath(firstClass).setLastModified(firstModified);
+
+    // The type of the resource changes, so the class of the old type has to go away.
+    writeRDotJava(filesystem, second, "string", "c");
+    assertEquals(0, step.execute(context));
+    assertEquals(firstModified, filesystem.getLastModifiedTime(firstClass));
+    assertFalse(filesystem.exists(secondClass));
+    assertTrue(filesystem.exists(Paths.get("classes/com/example/second/R$string.class")));
+
+    // Classes that do not match the last run, such as ones fetched from a cache, are not trusted.
+    filesystem.writeContentsToPath("garbage", secondClass);
+    assertEquals(0, step.execute(context));
+    assertNotEquals(firstModified, filesystem.getLastModifiedTime(firstClass));
+    assertFalse(filesystem.exists(secondClass));
+  }
+
+  @Test
+  public void testEverythingIsCompiledAgainWhenJavacOptionsChange()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.getRoot().toPath());
+    Path rDotJava = Paths.get("src/com/example/R.java");
+    writeRDotJava(filesystem, rDotJava, "id", "a");
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    CompileChangedRDotJavaStep step = new CompileChangedRDotJavaStep(
+        Paths.get("src"),
+        ImmutableSet.of(rDotJava),
+        Paths.get("classes"),
+        Paths.get("state/compiled.txt"),
+        DEFAULT_JAVAC_OPTIONS,
+        BuildTargetFactory.newInstance("//java/com/example:lib"));
+
+    assertEquals(0, step.execute(context));
+    Path rClass = Paths.get("classes/com/example/R$id.class");
+    long modified = filesystem.getLastModifiedTime(rClass) - 10000;
+    filesystem.getFileForRelativePath(rClass).setLastModified(modified);
+
+    CompileChangedRDotJavaStep stepWithOtherOptions = new CompileChangedRDotJavaStep(
+        Paths.get("src"),
+        ImmutableSet.of(rDotJava),
+        Paths.get("classes"),
+        Paths.get("state/compiled.txt"),
+        JavacOptions.builder(DEFAULT_JAVAC_OPTIONS).addExtraArguments("-nowarn").build(),
+        BuildTargetFactory.newInstance("//java/com/example:lib"));
+    assertEquals(0, stepWithOtherOptions.execute(context));
+    assertNotEquals(modified, filesystem.getLastModifiedTime(rClass));
+  }
+
+  private static void writeRDotJava(
+      ProjectFilesystem filesystem,
+      Path rDotJava,
+      String type,
+      String name) throws IOException {
+    String rDotJavaPackage = rDotJava.getParent().toString().substring("src/".length())
+        .replace('/', '.');
+    filesystem.createParentDirs(rDotJava);
+    filesystem.writeContentsToPath(
+        String.format(
+            "package %s;\n\npublic class R {\n  public static class %s {\n" +
+                "    public static int %s=0x7f010001;\n  }\n}\n",
+            rDotJavaPackage,
+            type,
+            name),
+        rDotJava);
+  }
+}
@@ -19,11 +19,15 @@ package com.facebook.buck.android;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
+import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.XmlDomParser;
+import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -34,7 +38,9 @@ import com.google.common.io.Files;
 
 import org.easymock.EasyMockSupport;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
@@ -46,12 +52,16 @@ import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileAttribute;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 
 public class CompileStringsStepTest extends EasyMockSupport {
 
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
   private static final String XML_HEADER = "<?xml version='1.0' encoding='utf-8'?>";
 
   private Path testdataDir;
@@ -271,7 +281,7 @@ public class CompileStringsStepTest extends EasyMockSupport {
   }
 
   @Test
-  public void testSuccessfulStepExecution() throws IOException {
+  public void testSuccessfulStepExecution() throws IOException, InterruptedException {
     Path destinationDir = Paths.get("");
     Path rDotJavaSrcDir = Paths.get("");
 
@@ -301,6 +311,80 @@ public class CompileStringsStepTest extends EasyMockSupport {
     verifyAll();
   }
 
+  @Test
+  public void testOnlyLocalesWhoseStringsChangedAreCompiledAgain()
+      throws IOException, InterruptedException {
+    MoreFiles.copyRecursively(testdataDir, tmpFolder.getRoot().toPath());
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    ImmutableSet<Path> filteredStringFiles = ImmutableSet.of(
+        Paths.get("first/res/values-es/strings.xml"),
+        Paths.get("second/res/values-es/strings.xml"),
+        Paths.get("third/res/values-pt/strings.xml"),
+        Paths.get("third/res/values-pt-rBR/strings.xml"));
+    Path destinationDir = Paths.get("strings");
+    Path cacheDir = Paths.get("cache");
+    filesystem.mkdirs(destinationDir);
+
+    CompileStringsStep step = new CompileStringsStep(
+        filteredStringFiles,
+        Paths.get(""),
+        destinationDir,
+        Optional.of(cacheDir));
+    assertEquals(0, step.execute(context));
+    for (String fileName : ImmutableList.of("es.fbstr", "pt.fbstr", "pt_BR.fbstr")) {
+      assertArrayEquals(
+          createBinaryStream(testdataDir.resolve(fileName).toFile()),
+          Files.toByteArray(filesystem.getFileForRelativePath(destinationDir.resolve(fileName))));
+    }
+    File ptBr = filesystem.getFileForRelativePath(destinationDir.resolve("pt_BR.fbstr"));
+    byte[] firstPtBr = Files.toByteArray(ptBr);
+
+    // Anything that comes out of the cache from now on can be told apart.
+    for (File cacheEntry : filesystem.listFiles(cacheDir)) {
+      filesystem.writeContentsToPath("cached", cacheDir.resolve(cacheEntry.getName()));
+    }
+    filesystem.writeContentsToPath(
+        filesystem.readFileIfItExists(Paths.get("third/res/values-pt/strings.xml")).get()
+            .replace("Value33", "Changed33"),
+        Paths.get("third/res/values-pt/strings.xml"));
+
+    step = new CompileStringsStep(
+        filteredStringFiles,
+        Paths.get(""),
+        destinationDir,
+        Optional.of(cacheDir));
+    assertEquals(0, step.execute(context));
+    assertEquals(
+        Optional.of("cached"),
+        filesystem.readFileIfItExists(destinationDir.resolve("es.fbstr")));
+    // pt_BR is merged with pt, so it is compiled again too.
+    byte[] secondPtBr = Files.toByteArray(ptBr);
+    assertFalse(Arrays.equals(firstPtBr, secondPtBr));
+    assertFalse(Arrays.equals("cached".getBytes(), secondPtBr));
+    assertEquals(3, filesystem.listFiles(cacheDir).length);
+  }
+
+  @Test
+  public void testNoStringFilesWithAnEmptyCache() throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.getRoot().toPath());
+    filesystem.writeContentsToPath("", Paths.get("R.txt"));
+    filesystem.mkdirs(Paths.get("strings"));
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+
+    CompileStringsStep step = new CompileStringsStep(
+        ImmutableSet.<Path>of(),
+        Paths.get(""),
+        Paths.get("strings"),
+        Optional.of(Paths.get("cache")));
+    assertEquals(0, step.execute(context));
+    assertEquals(0, filesystem.listFiles(Paths.get("strings")).length);
+  }
+
   private byte[] createBinaryStream(File expectedFile) throws IOException {
     try (
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
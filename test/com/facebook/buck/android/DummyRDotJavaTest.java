@@ -46,10 +46,8 @@ import org.easymock.EasyMock;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.Set;
 
 public class DummyRDotJavaTest {
 
@@ -83,12 +81,13 @@ public class DummyRDotJavaTest {
         ImmutableSet.of(
             (HasAndroidResourceDeps) resourceRule1,
             (HasAndroidResourceDeps) resourceRule2),
-        ANDROID_JAVAC_OPTIONS);
+        ANDROID_JAVAC_OPTIONS,
+        /* stableIds */ false);
 
     FakeBuildableContext buildableContext = new FakeBuildableContext();
     List<Step> steps = dummyRDotJava.getBuildSteps(EasyMock.createMock(BuildContext.class),
         buildableContext);
-    assertEquals("DummyRDotJava returns an incorrect number of Steps.", 6, steps.size());
+    assertEquals("DummyRDotJava returns an incorrect number of Steps.", 5, steps.size());
 
     String rDotJavaSrcFolder = "buck-out/bin/java/base/__rule_rdotjava_src__";
     String rDotJavaBinFolder = "buck-out/bin/java/base/__rule_rdotjava_bin__";
@@ -100,9 +99,9 @@ public class DummyRDotJavaTest {
             ImmutableList.of(
                 (AndroidResource) resourceRule1,
                 (AndroidResource) resourceRule2)),
-        makeCleanDirDescription(rDotJavaBinFolder),
         makeCleanDirDescription(rDotJavaAbiFolder),
-        javacInMemoryDescription(rDotJavaBinFolder),
+        "javac_changed_r_dot_java of [" + rDotJavaSrcFolder + "/com/facebook/R.java] into " +
+            rDotJavaBinFolder,
         "calculate_abi buck-out/bin/java/base/__rule_rdotjava_bin__");
 
     MoreAsserts.assertSteps(
@@ -128,7 +127,8 @@ public class DummyRDotJavaTest {
             .build(),
         new SourcePathResolver(new BuildRuleResolver()),
         ImmutableSet.<HasAndroidResourceDeps>of(),
-        ANDROID_JAVAC_OPTIONS);
+        ANDROID_JAVAC_OPTIONS,
+        /* stableIds */ false);
     assertEquals(Paths.get("buck-out/bin/java/com/example/__library_rdotjava_bin__"),
         dummyRDotJava.getRDotJavaBinFolder());
   }
@@ -139,7 +139,8 @@ public class DummyRDotJavaTest {
         new FakeBuildRuleParamsBuilder(BuildTargetFactory.newInstance("//java/base:rule")).build(),
         new SourcePathResolver(new BuildRuleResolver()),
         ImmutableSet.<HasAndroidResourceDeps>of(),
-        ANDROID_JAVAC_OPTIONS);
+        ANDROID_JAVAC_OPTIONS,
+        /* stableIds */ false);
 
     FakeOnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo();
     String keyHash = Strings.repeat("a", 40);
@@ -154,17 +155,6 @@ public class DummyRDotJavaTest {
     return String.format("rm -r -f %s && mkdir -p %s", dirname, dirname);
   }
 
-  private static String javacInMemoryDescription(String rDotJavaClassesFolder) {
-    Set<Path> javaSourceFiles = ImmutableSet.of(
-        Paths.get("buck-out/bin/java/base/__rule_rdotjava_src__/com/facebook/R.java"));
-    return RDotJava.createJavacStepForDummyRDotJavaFiles(
-        javaSourceFiles,
-        Paths.get(rDotJavaClassesFolder),
-        ANDROID_JAVAC_OPTIONS,
-        /* buildTarget */ null)
-        .getDescription(TestExecutionContext.newInstance());
-  }
-
   private static String mergeAndroidResourcesDescription(List<AndroidResource> resourceRules) {
     List<String> sortedSymbolsFiles = FluentIterable.from(resourceRules)
         .transform(Functions.toStringFunction())
@@ -25,10 +25,12 @@ import com.facebook.buck.android.FilterResourcesStep.ImageScaler;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.DefaultFilteredDirectoryCopier;
 import com.facebook.buck.util.FilteredDirectoryCopier;
 import com.facebook.buck.util.Filters;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
@@ -37,7 +39,9 @@ import com.google.common.collect.ImmutableSet;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
@@ -46,9 +50,13 @@ import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FilterResourcesStepTest {
 
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
   private static final String first = "/first-path/res";
   private static final String second = "/second-path/res";
   private static final String third = "/third-path/res";
@@ -131,7 +139,8 @@ public class FilterResourcesStepTest {
         copier,
         ImmutableSet.of(targetDensity),
         finder,
-        scaler);
+        scaler,
+        /* scaledDrawablesCacheDir */ null);
 
     EasyMock
       .expect(finder.findDrawables(inResDirToOutResDirMap.keySet(), filesystem))
@@ -204,6 +213,87 @@ public class FilterResourcesStepTest {
     EasyMock.verify(copier, context, finder, filesystem, scaler);
   }
 
+  @Test
+  public void testScaledDrawablesAreReusedByLaterBuilds()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("res/drawable-xhdpi"));
+    filesystem.writeContentsToPath("first", Paths.get("res/drawable-xhdpi/a.png"));
+    filesystem.writeContentsToPath("second", Paths.get("res/drawable-xhdpi/b.png"));
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    final AtomicInteger scaled = new AtomicInteger();
+    ImageScaler scaler = new ImageScaler() {
+      @Override
+      public boolean isAvailable(ExecutionContext context) {
+        return true;
+      }
+
+      @Override
+      public void scale(double factor, Path source, Path destination, ExecutionContext context)
+          throws IOException {
+        scaled.incrementAndGet();
+        context.getProjectFilesystem().copyFile(source, destination);
+      }
+    };
+    FilterResourcesStep step = new FilterResourcesStep(
+        ImmutableBiMap.of(Paths.get("res"), Paths.get("filtered")),
+        /* filterDrawables */ true,
+        /* filterStrings */ false,
+        /* whitelistedStringDirs */ ImmutableSet.<Path>of(),
+        /* locales */ ImmutableSet.<String>of(),
+        DefaultFilteredDirectoryCopier.getInstance(),
+        ImmutableSet.of(Filters.Density.MDPI),
+        FilterResourcesStep.DefaultDrawableFinder.getInstance(),
+        scaler,
+        Paths.get("scaled-drawables"));
+
+    assertEquals(0, step.execute(context));
+    assertEquals(2, scaled.get());
+
+    filesystem.writeContentsToPath("changed", Paths.get("res/drawable-xhdpi/b.png"));
+    assertEquals(0, step.execute(context));
+    assertEquals(3, scaled.get());
+    assertEquals(
+        Optional.of("first"),
+        filesystem.readFileIfItExists(Paths.get("filtered/drawable-mdpi/a.png")));
+    assertEquals(
+        Optional.of("changed"),
+        filesystem.readFileIfItExists(Paths.get("filtered/drawable-mdpi/b.png")));
+    assertFalse(filesystem.exists(Paths.get("filtered/drawable-xhdpi")));
+    // The image scaled from the old version of b.png is no longer kept.
+    assertEquals(2, filesystem.listFiles(Paths.get("scaled-drawables")).length);
+  }
+
+  @Test
+  public void testNothingToScaleWithAnEmptyCache() throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("res/drawable-mdpi"));
+    filesystem.writeContentsToPath("image", Paths.get("res/drawable-mdpi/a.png"));
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .build();
+    ImageScaler scaler = EasyMock.createMock(ImageScaler.class);
+    EasyMock.expect(scaler.isAvailable(context)).andReturn(true);
+    EasyMock.replay(scaler);
+    FilterResourcesStep step = new FilterResourcesStep(
+        ImmutableBiMap.of(Paths.get("res"), Paths.get("filtered")),
+        /* filterDrawables */ true,
+        /* filterStrings */ false,
+        /* whitelistedStringDirs */ ImmutableSet.<Path>of(),
+        /* locales */ ImmutableSet.<String>of(),
+        DefaultFilteredDirectoryCopier.getInstance(),
+        ImmutableSet.of(Filters.Density.MDPI),
+        FilterResourcesStep.DefaultDrawableFinder.getInstance(),
+        scaler,
+        Paths.get("scaled-drawables"));
+
+    assertEquals(0, step.execute(context));
+    assertTrue(filesystem.exists(Paths.get("filtered/drawable-mdpi/a.png")));
+    EasyMock.verify(scaler);
+  }
+
   @Test
   public void testFilterStrings() throws IOException {
     FilteredDirectoryCopier copier = EasyMock.createMock(FilteredDirectoryCopier.class);
@@ -222,7 +312,8 @@ public class FilterResourcesStepTest {
         copier,
         /* targetDensities */ null,
         /* drawableFinder */ null,
-        /* imageScaler */ null);
+        /* imageScaler */ null,
+        /* scaledDrawablesCacheDir */ null);
 
     assertEquals(0, step.execute(TestExecutionContext.newInstance()));
     Predicate<Path> filePredicate = capturedPredicate.getValue();
@@ -254,7 +345,8 @@ public class FilterResourcesStepTest {
         copier,
         /* targetDensities */ null,
         /* drawableFinder */ null,
-        /* imageScaler */ null);
+        /* imageScaler */ null,
+        /* scaledDrawablesCacheDir */ null);
 
     assertEquals(0, step.execute(TestExecutionContext.newInstance()));
     Predicate<Path> filePredicate = capturedPredicate.getValue();
@@ -30,6 +30,8 @@ import com.facebook.buck.util.BuckConstant;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 
@@ -95,6 +97,50 @@ public class MergeAndroidResourcesStepTest {
     // All good, no need to further test whether we can write the Java file correctly...
   }
 
+  @Test
+  public void testReenumeratedIdsAreKeptWhenOtherPackagesChange() throws IOException {
+    RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder();
+    entriesBuilder.add(new RDotTxtFile("com.facebook.a", "a-R.txt",
+        ImmutableList.of("int id a1 0x7f010001")));
+    entriesBuilder.add(new RDotTxtFile("com.facebook.b", "b-R.txt",
+        ImmutableList.of("int id b1 0x7f010001")));
+    ExecutionContext executionContext = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(entriesBuilder.getProjectFilesystem())
+        .build();
+
+    Map<String, String> firstIds = Maps.newHashMap();
+    SortedSetMultimap<String, RDotTxtEntry> firstResources =
+        MergeAndroidResourcesStep.sortSymbols(
+            entriesBuilder.buildFilePathToPackageNameSet(),
+            Optional.<ImmutableMap<RDotTxtEntry, String>>absent(),
+            ImmutableMap.<String, String>of(),
+            firstIds,
+            /* warnMissingResource */ false,
+            executionContext);
+
+    // A resource is added to the first package, which used to shift the IDs of the second one.
+    entriesBuilder.getProjectFilesystem().writeLinesToPath(
+        ImmutableList.of("int id a0 0x7f010001", "int id a1 0x7f010002"),
+        Paths.get("a-R.txt"));
+    Map<String, String> secondIds = Maps.newHashMap();
+    SortedSetMultimap<String, RDotTxtEntry> secondResources =
+        MergeAndroidResourcesStep.sortSymbols(
+            entriesBuilder.buildFilePathToPackageNameSet(),
+            Optional.<ImmutableMap<RDotTxtEntry, String>>absent(),
+            ImmutableMap.copyOf(firstIds),
+            secondIds,
+            /* warnMissingResource */ false,
+            executionContext);
+
+    assertEquals(
+        firstResources.get("com.facebook.b").first().idValue,
+        secondResources.get("com.facebook.b").first().idValue);
+    assertEquals(
+        firstIds.get("com.facebook.a id a1"),
+        secondIds.get("com.facebook.a id a1"));
+    assertEquals(3, ImmutableSet.copyOf(secondIds.values()).size());
+  }
+
   @Test
   public void testGenerateRDotJavaForOneSymbolsFile() throws IOException {
     String symbolsFile = BuckConstant.GEN_DIR +
@@ -131,7 +177,8 @@ public class MergeAndroidResourcesStepTest {
         ImmutableList.of(resource),
         Optional.of(uberRDotTxt),
         /* warnMissingResource */ false,
-        Paths.get("output"));
+        Paths.get("output"),
+        /* idsFile */ Optional.<Path>absent());
 
     ExecutionContext executionContext = TestExecutionContext.newBuilder()
         .setProjectFilesystem(filesystem)
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.ImmutableSha1HashCode;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class PreDexedFilesSorterTest {
+
+  private static final long LINEAR_ALLOC_LIMIT = 100;
+
+  @Test
+  public void librariesArePackedIntoSecondaryDexes() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 40), dex("b", 40), dex("c", 40), dex("d", 40), dex("e", 40)),
+        ImmutableMap.<Path, Integer>of());
+
+    assertEquals(
+        ImmutableMap.builder()
+            .put(path("a"), 0)
+            .put(path("b"), 0)
+            .put(path("c"), 1)
+            .put(path("d"), 1)
+            .put(path("e"), 2)
+            .build(),
+        result.secondaryDexGroups);
+  }
+
+  @Test
+  public void aLibraryThatGrowsOnlyChangesTheSecondaryDexesAroundIt() {
+    ImmutableMap<Path, Integer> previousGroups = sort(
+        ImmutableList.of(dex("a", 40), dex("b", 40), dex("c", 40), dex("d", 40), dex("e", 40)),
+        ImmutableMap.<Path, Integer>of())
+        .secondaryDexGroups;
+
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 70), dex("b", 40), dex("c", 40), dex("d", 40), dex("e", 40)),
+        previousGroups);
+
+    // "b" no longer fits next to "a", so it moves to the last dex, which has room for it. The dex
+    // with "c" and "d" is untouched.
+    assertEquals(
+        ImmutableMap.builder()
+            .put(path("a"), 0)
+            .put(path("b"), 2)
+            .put(path("c"), 1)
+            .put(path("d"), 1)
+            .put(path("e"), 2)
+            .build(),
+        result.secondaryDexGroups);
+  }
+
+  @Test
+  public void anEmptySecondaryDexIsReplacedByTheLastOne() {
+    ImmutableMap<Path, Integer> previousGroups = sort(
+        ImmutableList.of(dex("a", 40), dex("b", 40), dex("c", 40), dex("d", 40), dex("e", 40)),
+        ImmutableMap.<Path, Integer>of())
+        .secondaryDexGroups;
+
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 40), dex("b", 40), dex("e", 40)),
+        previousGroups);
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 0, path("b"), 0, path("e"), 1),
+        result.secondaryDexGroups);
+    assertEquals(2, result.secondaryOutputToInputs.keySet().size());
+  }
+
+  @Test
+  public void previousIndicesBeyondTheNumberOfLibrariesAreIgnored() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 40), dex("b", 40)),
+        ImmutableMap.of(path("a"), Integer.MAX_VALUE, path("b"), -1));
+
+    assertEquals(ImmutableMap.of(path("a"), 0, path("b"), 0), result.secondaryDexGroups);
+  }
+
+  private static PreDexedFilesSorter.Result sort(
+      ImmutableList<DexWithClasses> dexFilesToMerge,
+      ImmutableMap<Path, Integer> previousSecondaryDexGroups) {
+    PreDexedFilesSorter sorter = new PreDexedFilesSorter(
+        Optional.<DexWithClasses>absent(),
+        dexFilesToMerge,
+        /* primaryDexPatterns */ ImmutableSet.of("/primary/"),
+        Paths.get("scratch"),
+        LINEAR_ALLOC_LIMIT,
+        DexStore.JAR,
+        Paths.get("secondary"),
+        previousSecondaryDexGroups);
+    return sorter.sortIntoPrimaryAndSecondaryDexes(
+        FakeBuildContext.NOOP_CONTEXT,
+        ImmutableList.<Step>builder());
+  }
+
+  private static Path path(String name) {
+    return Paths.get(name + ".dex.jar");
+  }
+
+  private static DexWithClasses dex(final String name, final int sizeEstimate) {
+    return new DexWithClasses() {
+      @Override
+      public Path getPathToDexFile() {
+        return path(name);
+      }
+
+      @Override
+      public ImmutableSet<String> getClassNames() {
+        return ImmutableSet.of("com/example/" + name + "/Foo");
+      }
+
+      @Override
+      public Sha1HashCode getClassesHash() {
+        return ImmutableSha1HashCode.of(Strings.repeat(name, 40));
+      }
+
+      @Override
+      public int getSizeEstimate() {
+        return sizeEstimate;
+      }
+    };
+  }
+}
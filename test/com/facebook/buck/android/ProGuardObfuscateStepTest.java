@@ -19,15 +19,20 @@ package com.facebook.buck.android;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.FakeBuildableContext;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.step.TestExecutionContext;
 import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
 
 import org.easymock.EasyMockSupport;
 import org.junit.Rule;
@@ -35,11 +40,19 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -106,6 +119,7 @@ public class ProGuardObfuscateStepTest extends EasyMockSupport {
         /* additionalLibraryJarsForProguard */ ImmutableSet.of(
             Paths.get("myfavorite.jar"), Paths.get("another.jar")),
         Paths.get("proguard-directory"),
+        /* incrementalCacheDirectory */ Optional.<Path>absent(),
         new FakeBuildableContext(),
         steps);
     ProGuardObfuscateStep.CommandLineHelperStep commandLineHelperStep =
@@ -117,6 +131,152 @@ public class ProGuardObfuscateStepTest extends EasyMockSupport {
     assertEquals(libraryJarsValueIndex, libraryJarsArgIndex + 1);
   }
 
+  @Test
+  public void testIncrementalModeReusesTheOutputWhenNothingChanged() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    writeFakeProGuardJar(tmpDir.getRoot().toPath().resolve("fake-proguard.jar"));
+    filesystem.writeContentsToPath("-dontobfuscate", Paths.get("proguard.txt"));
+    filesystem.writeContentsToPath("first", Paths.get("lib.jar"));
+    filesystem.mkdirs(Paths.get("proguard-directory"));
+
+    AndroidPlatformTarget target = createMock(AndroidPlatformTarget.class);
+    expect(target.getBootclasspathEntries()).andStubReturn(ImmutableList.<Path>of());
+    replayAll();
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .setAndroidPlatformTargetSupplier(Suppliers.ofInstance(target))
+        .build();
+
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    ProGuardObfuscateStep.create(
+        Optional.of(Paths.get("fake-proguard.jar")),
+        "64M",
+        Paths.get("proguard.txt"),
+        /* customProguardConfigs */ ImmutableSet.<Path>of(),
+        ProGuardObfuscateStep.SdkProguardType.NONE,
+        /* optimizationPasses */ Optional.<Integer>absent(),
+        ImmutableMap.of(Paths.get("lib.jar"), Paths.get("out/lib-obfuscated.jar")),
+        /* additionalLibraryJarsForProguard */ ImmutableSet.<Path>of(),
+        Paths.get("proguard-directory"),
+        Optional.of(Paths.get("proguard-cache")),
+        new FakeBuildableContext(),
+        steps);
+
+    runSteps(steps.build(), context);
+    assertEquals(1, filesystem.readLines(Paths.get("runs.txt")).size());
+
+    // The output directory is cleaned whenever the resources of the app change.
+    filesystem.deleteFileAtPath(Paths.get("out/lib-obfuscated.jar"));
+    runSteps(steps.build(), context);
+    assertEquals(1, filesystem.readLines(Paths.get("runs.txt")).size());
+    assertEquals(
+        Optional.of("first"),
+        filesystem.readFileIfItExists(Paths.get("out/lib-obfuscated.jar")));
+
+    filesystem.writeContentsToPath("second", Paths.get("lib.jar"));
+    runSteps(steps.build(), context);
+    assertEquals(2, filesystem.readLines(Paths.get("runs.txt")).size());
+    assertEquals(
+        Optional.of("second"),
+        filesystem.readFileIfItExists(Paths.get("out/lib-obfuscated.jar")));
+
+    verifyAll();
+  }
+
+  @Test
+  public void testOutputsThatProGuardDidNotWriteAreCreatedInTheProject() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    writeFakeProGuardJar(tmpDir.getRoot().toPath().resolve("fake-proguard.jar"));
+    filesystem.writeContentsToPath("-dontobfuscate", Paths.get("proguard.txt"));
+    filesystem.writeContentsToPath("", Paths.get("stripped.jar"));
+    filesystem.mkdirs(Paths.get("proguard-directory"));
+
+    AndroidPlatformTarget target = createMock(AndroidPlatformTarget.class);
+    expect(target.getBootclasspathEntries()).andStubReturn(ImmutableList.<Path>of());
+    replayAll();
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(filesystem)
+        .setAndroidPlatformTargetSupplier(Suppliers.ofInstance(target))
+        .build();
+
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    ProGuardObfuscateStep.create(
+        Optional.of(Paths.get("fake-proguard.jar")),
+        "64M",
+        Paths.get("proguard.txt"),
+        /* customProguardConfigs */ ImmutableSet.<Path>of(),
+        ProGuardObfuscateStep.SdkProguardType.NONE,
+        /* optimizationPasses */ Optional.<Integer>absent(),
+        ImmutableMap.of(Paths.get("stripped.jar"), Paths.get("out/stripped-obfuscated.jar")),
+        /* additionalLibraryJarsForProguard */ ImmutableSet.<Path>of(),
+        Paths.get("proguard-directory"),
+        /* incrementalCacheDirectory */ Optional.<Path>absent(),
+        new FakeBuildableContext(),
+        steps);
+
+    runSteps(steps.build(), context);
+    assertEquals(1, filesystem.readLines(Paths.get("runs.txt")).size());
+    try (ZipFile zipFile = new ZipFile(
+        filesystem.getFileForRelativePath(Paths.get("out/stripped-obfuscated.jar")))) {
+      assertNotNull(zipFile.getEntry("proguard_no_result"));
+    }
+
+    verifyAll();
+  }
+
+  private static void runSteps(List<Step> steps, ExecutionContext context)
+      throws IOException, InterruptedException {
+    for (Step step : steps) {
+      assertEquals(step.getDescription(context), 0, step.execute(context));
+    }
+  }
+
+  /**
+   * Writes a jar that runs {@link FakeProGuard} when it is run with {@code java -jar}.
+   */
+  private static void writeFakeProGuardJar(Path jar) throws IOException {
+    String className = FakeProGuard.class.getName();
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+    String classFile = className.replace('.', '/') + ".class";
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+      out.putNextEntry(new ZipEntry(classFile));
+      Resources.copy(Resources.getResource(classFile), out);
+    }
+  }
+
+  /**
+   * Stands in for ProGuard: copies each of the -injars to its -outjars, and records that it ran in
+   * {@code runs.txt}. Like ProGuard, it writes nothing for an input that is stripped away entirely,
+   * which is what an empty input stands for. It only uses the JDK, so that it can be run on its
+   * own.
+   */
+  public static class FakeProGuard {
+    public static void main(String[] args) throws IOException {
+      List<String> parameters = Files.readAllLines(
+          Paths.get(args[0].substring(1)),
+          StandardCharsets.UTF_8);
+      Path baseDirectory = Paths.get(parameters.get(parameters.indexOf("-basedirectory") + 1));
+      for (int i = 0; i < parameters.size(); i++) {
+        if (parameters.get(i).equals("-injars")) {
+          Path input = baseDirectory.resolve(parameters.get(i + 1));
+          if (Files.size(input) == 0) {
+            continue;
+          }
+          Path output = baseDirectory.resolve(parameters.get(i + 3));
+          Files.createDirectories(output.getParent());
+          Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      Files.write(
+          baseDirectory.resolve("runs.txt"),
+          "ran\n".getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND);
+    }
+  }
+
   private void checkSdkConfig(
       ExecutionContext context,
       ProGuardObfuscateStep.SdkProguardType sdkProguardConfig,
@@ -132,6 +292,7 @@ public class ProGuardObfuscateStepTest extends EasyMockSupport {
         /* inputAndOutputEntries */ ImmutableMap.<Path, Path>of(),
         /* additionalLibraryJarsForProguard */ ImmutableSet.<Path>of(),
         Paths.get("proguard-directory"),
+        /* incrementalCacheDirectory */ Optional.<Path>absent(),
         new FakeBuildableContext(),
         steps);
     ProGuardObfuscateStep.CommandLineHelperStep commandLineHelperStep =
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class SignedApkWriterTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private PrivateKey privateKey;
+  private X509Certificate certificate;
+
+  @Before
+  public void loadKeystore() throws Exception {
+    Path keystorePath = TestDataHelper.getTestDataDirectory(this)
+        .resolve("android_project/keystores/debug.keystore");
+    KeyStore keystore = KeyStore.getInstance("jks");
+    try (InputStream in = Files.newInputStream(keystorePath)) {
+      keystore.load(in, "android".toCharArray());
+    }
+    privateKey = (PrivateKey) keystore.getKey("my_alias", "android".toCharArray());
+    certificate = (X509Certificate) keystore.getCertificate("my_alias");
+  }
+
+  @Test
+  public void storedEntriesAreAlignedAndTheApkIsSigned() throws Exception {
+    Path resources = writeZip(
+        "resources.ap_",
+        ImmutableMap.of(
+            "AndroidManifest.xml", "<manifest/>",
+            "res/drawable/a.png", "odd",
+            "lib/armeabi/libfoo.so", "native",
+            "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n"),
+        ImmutableSet.of("res/drawable/a.png", "lib/armeabi/libfoo.so"));
+    Path dex = tmp.newFile("classes.dex").toPath();
+    Files.write(dex, "dex".getBytes(Charsets.UTF_8));
+
+    Path apk = tmp.getRoot().toPath().resolve("app.apk");
+    try (SignedApkWriter writer = newWriter(apk, Optional.<Path>absent())) {
+      writer.addZipEntries(resources, Predicates.<String>alwaysTrue());
+      writer.addFile(dex, "classes.dex");
+      writer.finish();
+    }
+
+    Map<String, byte[]> contents = readContents(apk);
+    assertEquals(
+        ImmutableSet.of(
+            "AndroidManifest.xml",
+            "res/drawable/a.png",
+            "lib/armeabi/libfoo.so",
+            "classes.dex",
+            "META-INF/MANIFEST.MF",
+            "META-INF/CERT.SF",
+            "META-INF/CERT.RSA"),
+        contents.keySet());
+    assertEquals("odd", new String(contents.get("res/drawable/a.png"), Charsets.UTF_8));
+    assertEquals("dex", new String(contents.get("classes.dex"), Charsets.UTF_8));
+
+    Map<String, Long> dataOffsets = readDataOffsets(apk);
+    assertEquals(0, dataOffsets.get("res/drawable/a.png") % 4);
+    assertEquals(0, dataOffsets.get("lib/armeabi/libfoo.so") % 4096);
+
+    assertSignatureIsValid(contents);
+    assertJarIsVerified(apk);
+  }
+
+  @Test
+  public void signatureAlgorithmsMatchTheKeys() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair keyPair = generator.generateKeyPair();
+    String algorithm = SignedApkWriter.getSignatureAlgorithm(keyPair.getPrivate().getAlgorithm());
+    assertEquals("SHA1withECDSA", algorithm);
+
+    Signature signature = Signature.getInstance(algorithm);
+    signature.initSign(keyPair.getPrivate());
+    signature.update("data".getBytes(Charsets.UTF_8));
+    byte[] signed = signature.sign();
+    signature.initVerify(keyPair.getPublic());
+    signature.update("data".getBytes(Charsets.UTF_8));
+    assertTrue(signature.verify(signed));
+
+    assertEquals(
+        "SHA1withRSA",
+        SignedApkWriter.getSignatureAlgorithm(privateKey.getAlgorithm()));
+  }
+
+  @Test
+  public void unchangedEntriesAreCopiedFromThePreviousApk() throws Exception {
+    Path unchanged = tmp.newFile("unchanged.txt").toPath();
+    Files.write(unchanged, "the same every time".getBytes(Charsets.UTF_8));
+    Path changed = tmp.newFile("changed.txt").toPath();
+    Files.write(changed, "first".getBytes(Charsets.UTF_8));
+
+    Path first = tmp.getRoot().toPath().resolve("first.apk");
+    try (SignedApkWriter writer = newWriter(first, Optional.<Path>absent())) {
+      writer.addFile(unchanged, "unchanged.txt");
+      writer.addFile(changed, "changed.txt");
+      writer.finish();
+    }
+
+    Files.write(changed, "second".getBytes(Charsets.UTF_8));
+    Path second = tmp.getRoot().toPath().resolve("second.apk");
+    try (SignedApkWriter writer = newWriter(second, Optional.of(first))) {
+      writer.addFile(unchanged, "unchanged.txt");
+      writer.addFile(changed, "changed.txt");
+      writer.finish();
+      assertEquals(1, writer.getNumberOfEntriesReused());
+    }
+
+    Map<String, byte[]> contents = readContents(second);
+    assertEquals("the same every time", new String(contents.get("unchanged.txt"), Charsets.UTF_8));
+    assertEquals("second", new String(contents.get("changed.txt"), Charsets.UTF_8));
+    assertSignatureIsValid(contents);
+    assertJarIsVerified(second);
+  }
+
+  @Test
+  public void entriesOfZipsThatHaveNotChangedAreNotInflatedAgain() throws Exception {
+    Path first = tmp.getRoot().toPath().resolve("first.apk");
+    try (SignedApkWriter writer = newWriter(first, Optional.<Path>absent())) {
+      writer.addZipEntries(
+          writeZip(
+              "first.ap_",
+              ImmutableMap.of("unchanged.xml", "<same/>", "changed.png", "old", "stored", "same"),
+              ImmutableSet.of("changed.png", "stored")),
+          Predicates.<String>alwaysTrue());
+      writer.finish();
+    }
+
+    Path second = tmp.getRoot().toPath().resolve("second.apk");
+    try (SignedApkWriter writer = newWriter(second, Optional.of(first))) {
+      writer.addZipEntries(
+          writeZip(
+              "second.ap_",
+              ImmutableMap.of("unchanged.xml", "<same/>", "changed.png", "new", "stored", "same"),
+              ImmutableSet.of("changed.png", "stored")),
+          Predicates.<String>alwaysTrue());
+      writer.finish();
+      assertEquals(2, writer.getNumberOfEntriesReused());
+    }
+
+    Map<String, byte[]> contents = readContents(second);
+    assertEquals("new", new String(contents.get("changed.png"), Charsets.UTF_8));
+    assertSignatureIsValid(contents);
+    assertJarIsVerified(second);
+  }
+
+  @Test
+  public void storedEntriesAreCompressedWhenAskedTo() throws Exception {
+    Path resources = writeZip(
+        "resources.ap_",
+        ImmutableMap.of("resources.arsc", "table", "res/drawable/a.png", "png"),
+        ImmutableSet.of("resources.arsc", "res/drawable/a.png"));
+
+    Path apk = tmp.getRoot().toPath().resolve("app.apk");
+    try (SignedApkWriter writer = new SignedApkWriter(
+        apk,
+        Optional.<Path>absent(),
+        privateKey,
+        certificate,
+        ImmutableSet.of("resources.arsc"))) {
+      writer.addZipEntries(resources, Predicates.<String>alwaysTrue());
+      writer.finish();
+    }
+
+    try (ZipFile zip = new ZipFile(apk.toFile())) {
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry("resources.arsc").getMethod());
+      assertEquals(ZipEntry.STORED, zip.getEntry("res/drawable/a.png").getMethod());
+    }
+    assertEquals("table", new String(readContents(apk).get("resources.arsc"), Charsets.UTF_8));
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void addingTheSameNameTwiceIsAnError() throws Exception {
+    Path file = tmp.newFile("file.txt").toPath();
+    try (SignedApkWriter writer =
+             newWriter(tmp.getRoot().toPath().resolve("app.apk"), Optional.<Path>absent())) {
+      writer.addFile(file, "file.txt");
+      writer.addFile(file, "file.txt");
+    }
+  }
+
+  private SignedApkWriter newWriter(Path output, Optional<Path> previousApk) throws Exception {
+    return new SignedApkWriter(
+        output,
+        previousApk,
+        privateKey,
+        certificate,
+        ImmutableSet.<String>of());
+  }
+
+  private Path writeZip(String name, Map<String, String> entries, ImmutableSet<String> stored)
+      throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve(name);
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        byte[] bytes = entry.getValue().getBytes(Charsets.UTF_8);
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        if (stored.contains(entry.getKey())) {
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setSize(bytes.length);
+          zipEntry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
+        }
+        out.putNextEntry(zipEntry);
+        out.write(bytes);
+        out.closeEntry();
+      }
+    }
+    return zip;
+  }
+
+  private static Map<String, byte[]> readContents(Path apk) throws IOException {
+    ImmutableMap.Builder<String, byte[]> contents = ImmutableMap.builder();
+    try (ZipFile zip = new ZipFile(apk.toFile())) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        try (InputStream in = zip.getInputStream(entry)) {
+          contents.put(entry.getName(), ByteStreams.toByteArray(in));
+        }
+      }
+    }
+    return contents.build();
+  }
+
+  /**
+   * Walks the central directory of {@code apk}, which has no comment, to find where the data of
+   * each entry starts.
+   */
+  private static Map<String, Long> readDataOffsets(Path apk) throws IOException {
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(apk)).order(ByteOrder.LITTLE_ENDIAN);
+    ImmutableMap.Builder<String, Long> offsets = ImmutableMap.builder();
+    int position = bytes.getInt(bytes.limit() - 6);
+    while (bytes.getInt(position) == (int) ZipEntry.CENSIG) {
+      int nameLength = bytes.getShort(position + 28);
+      int extraLength = bytes.getShort(position + 30);
+      int commentLength = bytes.getShort(position + 32);
+      int localHeader = bytes.getInt(position + 42);
+      byte[] name = Arrays.copyOfRange(bytes.array(), position + 46, position + 46 + nameLength);
+      offsets.put(
+          new String(name, Charsets.UTF_8),
+          (long) localHeader + 30 +
+              bytes.getShort(localHeader + 26) +
+              bytes.getShort(localHeader + 28));
+      position += 46 + nameLength + extraLength + commentLength;
+    }
+    return offsets.build();
+  }
+
+  private void assertSignatureIsValid(Map<String, byte[]> contents) throws Exception {
+    byte[] manifestBytes = contents.get("META-INF/MANIFEST.MF");
+    Manifest manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+    for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+      if (entry.getKey().startsWith("META-INF/")) {
+        assertNull(manifest.getAttributes(entry.getKey()));
+        continue;
+      }
+      Attributes attributes = manifest.getAttributes(entry.getKey());
+      assertNotNull(entry.getKey(), attributes);
+      assertEquals(sha1(entry.getValue()), attributes.getValue("SHA1-Digest"));
+    }
+
+    byte[] signatureFileBytes = contents.get("META-INF/CERT.SF");
+    Manifest signatureFile = new Manifest(new ByteArrayInputStream(signatureFileBytes));
+    assertEquals(
+        sha1(manifestBytes),
+        signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"));
+    assertEquals(manifest.getEntries().keySet(), signatureFile.getEntries().keySet());
+    String manifestText = new String(manifestBytes, Charsets.UTF_8);
+    for (String name : manifest.getEntries().keySet()) {
+      int start = manifestText.indexOf("Name: " + name + "\r\n");
+      int end = manifestText.indexOf("\r\n\r\n", start) + 4;
+      assertEquals(
+          sha1(manifestText.substring(start, end).getBytes(Charsets.UTF_8)),
+          signatureFile.getAttributes(name).getValue("SHA1-Digest"));
+    }
+
+    byte[] signatureBlock = contents.get("META-INF/CERT.RSA");
+    X509Certificate signer = (X509Certificate) Iterables.getOnlyElement(
+        CertificateFactory.getInstance("X.509")
+            .generateCertificates(new ByteArrayInputStream(signatureBlock)));
+    assertEquals(certificate, signer);
+
+    // The signature is the last thing in the block.
+    int signatureLength = ((RSAPublicKey) certificate.getPublicKey()).getModulus().bitLength() / 8;
+    Signature signature = Signature.getInstance("SHA1withRSA");
+    signature.initVerify(certificate);
+    signature.update(signatureFileBytes);
+    assertTrue(
+        signature.verify(
+            Arrays.copyOfRange(
+                signatureBlock,
+                signatureBlock.length - signatureLength,
+                signatureBlock.length)));
+  }
+
+  /**
+   * Checks the APK the way the JDK checks signed jars: every entry has to be read in full before
+   * its signers are known. This relies on the test JVM accepting SHA-1 signatures, see
+   * {@code config/java.security.test}.
+   */
+  private void assertJarIsVerified(Path apk) throws IOException {
+    try (JarFile jar = new JarFile(apk.toFile(), /* verify */ true)) {
+      for (JarEntry entry : Collections.list(jar.entries())) {
+        try (InputStream in = jar.getInputStream(entry)) {
+          ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+        if (entry.getName().startsWith("META-INF/")) {
+          continue;
+        }
+        CodeSigner[] signers = entry.getCodeSigners();
+        assertNotNull(entry.getName(), signers);
+        assertEquals(
+            certificate,
+            signers[0].getSignerCertPath().getCertificates().get(0));
+      }
+    }
+  }
+
+  private static String sha1(byte[] bytes) {
+    return BaseEncoding.base64().encode(Hashing.sha1().hashBytes(bytes).asBytes());
+  }
+}
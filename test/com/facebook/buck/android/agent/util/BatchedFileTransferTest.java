@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.agent.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+
+public class BatchedFileTransferTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testFilesAreSentOverOneConnection() throws Exception {
+    File first = tmp.newFile("first");
+    Files.write("first contents", first, Charsets.UTF_8);
+    File second = tmp.newFile("second");
+    Files.write(Strings.repeat("0123456789", 100 * 1000), second, Charsets.UTF_8);
+    File empty = tmp.newFile("empty");
+    final File device = tmp.newFolder("device");
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    try (final ServerSocket serverSocket = new ServerSocket(0, 1, loopback)) {
+      // Stands in for the agent on a device, which accepts a single connection for the batch.
+      Future<Integer> received = executor.submit(
+          new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+              try (Socket socket = serverSocket.accept()) {
+                return BatchedFileTransfer.receiveFiles(socket.getInputStream(), device);
+              }
+            }
+          });
+
+      try (Socket socket = new Socket(loopback, serverSocket.getLocalPort())) {
+        BatchedFileTransfer.Sender sender =
+            new BatchedFileTransfer.Sender(socket.getOutputStream());
+        sender.addFile("secondary-1.dex.jar", first);
+        sender.addFile("secondary-2.dex.jar", second);
+        sender.addFile("metadata.txt", empty);
+        sender.finish();
+      }
+
+      assertEquals(3, (int) received.get());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertArrayEquals(
+        Files.toByteArray(first),
+        Files.toByteArray(new File(device, "secondary-1.dex.jar")));
+    assertArrayEquals(
+        Files.toByteArray(second),
+        Files.toByteArray(new File(device, "secondary-2.dex.jar")));
+    assertEquals(0, new File(device, "metadata.txt").length());
+  }
+
+  @Test
+  public void testCorruptFileIsNotRenamedIntoPlace() throws IOException {
+    File device = tmp.newFolder("device");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      out.writeBoolean(true);
+      out.writeUTF("secondary-1.dex.jar");
+      out.writeLong(3);
+      out.write(new byte[] {1, 2, 3});
+      // Not the SHA-1 of the contents.
+      out.write(new byte[20]);
+      out.writeBoolean(false);
+    }
+
+    InputStream connection = new ByteArrayInputStream(bytes.toByteArray());
+    try {
+      BatchedFileTransfer.receiveFiles(connection, device);
+      fail("A digest mismatch should have been detected.");
+    } catch (IOException e) {
+      assertEquals("Digest mismatch for secondary-1.dex.jar.", e.getMessage());
+    }
+    assertFalse(new File(device, "secondary-1.dex.jar").exists());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNamesMayNotEscapeTheDirectory() throws IOException {
+    File source = tmp.newFile("source");
+    BatchedFileTransfer.Sender sender = new BatchedFileTransfer.Sender(new ByteArrayOutputStream());
+    sender.addFile("../escaped", source);
+  }
+}
@@ -462,6 +462,28 @@ public class BuckConfigTest {
     assertEquals(42, config.getMaxTraces());
   }
 
+  @Test
+  public void testGetNumActionGraphThreads() throws IOException {
+    assertEquals(1, new FakeBuckConfig().getNumActionGraphThreads());
+
+    BuckConfig config = createFromText(
+        "[build]",
+        "action_graph_threads = 4");
+    assertEquals(4, config.getNumActionGraphThreads());
+
+    config = createFromText(
+        "[build]",
+        "action_graph_threads = 0");
+    try {
+      config.getNumActionGraphThreads();
+      fail("Should have thrown HumanReadableException.");
+    } catch (HumanReadableException e) {
+      assertEquals(
+          "[build] action_graph_threads must be at least 1, but is 0.",
+          e.getHumanReadableErrorMessage());
+    }
+  }
+
   @Test
   public void testGetAndroidTargetSdkWithSpaces() throws IOException {
     BuckConfig config = createFromText(
@@ -24,6 +24,7 @@ import com.facebook.buck.java.FakeJavaPackageFinder;
 import com.facebook.buck.java.JavaPackageFinder;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.FakeRepositoryFactory;
@@ -34,8 +35,10 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestRepositoryBuilder;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.NullFileHashCache;
 import com.facebook.buck.util.ProcessManager;
@@ -83,6 +86,8 @@ public class CommandRunnerParamsForTesting {
                 return RuleKey.builder(buildRule, resolver, new NullFileHashCache());
               }
             }),
+        new ActionGraphCache(),
+        new WorkerProcessPool(1, BuckConstant.LOG_PATH),
         platform,
         environment,
         javaPackageFinder,
@@ -551,6 +551,21 @@ public class DaemonIntegrationTest {
     assertTrue(buildLogFile.isFile());
   }
 
+  /**
+   * The daemon hands the rules of unchanged targets to the next build. A java_library reads its
+   * ABI key from disk after each build, which must not trip over the one read the build before.
+   */
+  @Test
+  public void whenJavaLibraryBuiltTwiceThenReusedRulesSucceed()
+      throws IOException, InterruptedException {
+    final ProjectWorkspace workspace = TestDataHelper.createProjectWorkspaceForScenario(
+        this, "reused_rules", tmp);
+    workspace.setUp();
+
+    workspace.runBuckdCommand("build", "//:app").assertSuccess();
+    workspace.runBuckdCommand("build", "//:app").assertSuccess();
+  }
+
   @Test
   public void whenAndroidDirectoryResolverChangesParserInvalidated()
       throws IOException, InterruptedException {
@@ -18,22 +18,44 @@ package com.facebook.buck.cli;
 
 import static com.facebook.buck.cli.ExopackageInstaller.NATIVE_LIB_PATTERN;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.android.ddmlib.IDevice;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.event.TraceEvent;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.ExopackageInfo;
+import com.facebook.buck.rules.ImmutableExopackageInfo;
+import com.facebook.buck.rules.InstallableApk;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.TestConsole;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
 
+import org.easymock.EasyMock;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 
 @SuppressWarnings("PMD.AddEmptyString")
@@ -42,6 +64,9 @@ public class ExopackageInstallerTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
   @Test
   public void testScanSecondaryDexDir() throws Exception {
     String output =
@@ -218,6 +243,139 @@ public class ExopackageInstallerTest {
     assertEquals(null, matchAndGetHash("secondary-123abc.so"));
   }
 
+  @Test
+  public void testFilesAreStagedOnceForAllDevices() throws Exception {
+    final List<ExopackageInstaller.StagedFiles> stagedFilesPerDevice = Lists.newArrayList();
+    final AtomicInteger stagings = new AtomicInteger();
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    ExopackageInstaller installer =
+        new ExopackageInstaller(
+            createExecutionContext(eventBus),
+            createAdbHelper(eventBus, "1", "2", "3"),
+            createInstallableApk()) {
+          @Override
+          protected StagedFiles stageFiles() throws IOException {
+            stagings.incrementAndGet();
+            return super.stageFiles();
+          }
+
+          @Override
+          protected boolean installOnDevice(IDevice device, StagedFiles stagedFiles) {
+            stagedFilesPerDevice.add(stagedFiles);
+            return true;
+          }
+        };
+
+    assertTrue(installer.install());
+    assertEquals(1, stagings.get());
+    assertEquals(3, stagedFilesPerDevice.size());
+    assertSame(stagedFilesPerDevice.get(0), stagedFilesPerDevice.get(1));
+    assertSame(stagedFilesPerDevice.get(0), stagedFilesPerDevice.get(2));
+  }
+
+  @Test
+  public void testEachDeviceInstallIsTraced() throws Exception {
+    final List<TraceEvent> deviceEvents = Lists.newArrayList();
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void traceEvent(TraceEvent event) {
+            if (event.getEventName().equals("install_exo_device")) {
+              deviceEvents.add(event);
+            }
+          }
+        });
+    ExopackageInstaller installer =
+        new ExopackageInstaller(
+            createExecutionContext(eventBus),
+            createAdbHelper(eventBus, "1", "2"),
+            createInstallableApk()) {
+          @Override
+          protected boolean installOnDevice(IDevice device, StagedFiles stagedFiles) {
+            return !device.getSerialNumber().equals("2");
+          }
+        };
+
+    assertFalse(installer.install());
+    assertEquals(4, deviceEvents.size());
+    assertEquals(ChromeTraceEvent.Phase.BEGIN, deviceEvents.get(0).getPhase());
+    assertEquals(ImmutableMap.of("device", "1"), deviceEvents.get(0).getProperties());
+    assertEquals(ChromeTraceEvent.Phase.END, deviceEvents.get(1).getPhase());
+    assertEquals(ImmutableMap.of("success", "true"), deviceEvents.get(1).getProperties());
+    assertEquals(ChromeTraceEvent.Phase.BEGIN, deviceEvents.get(2).getPhase());
+    assertEquals(ImmutableMap.of("device", "2"), deviceEvents.get(2).getProperties());
+    assertEquals(ChromeTraceEvent.Phase.END, deviceEvents.get(3).getPhase());
+    assertEquals(ImmutableMap.of("success", "false"), deviceEvents.get(3).getProperties());
+  }
+
+  private ExecutionContext createExecutionContext(BuckEventBus eventBus) {
+    return TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmpFolder.getRoot().toPath()))
+        .setEventBus(eventBus)
+        .build();
+  }
+
+  /**
+   * @return an {@link AdbHelper} that runs each call on the devices with the given serial numbers,
+   *     one after the other.
+   */
+  private AdbHelper createAdbHelper(BuckEventBus eventBus, String... serials) {
+    ImmutableList.Builder<IDevice> devicesBuilder = ImmutableList.builder();
+    for (String serial : serials) {
+      devicesBuilder.add(TestDevice.createRealDevice(serial));
+    }
+    final ImmutableList<IDevice> devices = devicesBuilder.build();
+    return new AdbHelper(
+        new AdbOptions(),
+        new TargetDeviceOptions(),
+        createExecutionContext(eventBus),
+        new TestConsole(),
+        eventBus,
+        new FakeBuckConfig()) {
+      @Override
+      public boolean adbCall(AdbCallable adbCallable) {
+        boolean success = true;
+        for (IDevice device : devices) {
+          try {
+            success &= adbCallable.call(device);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return success;
+      }
+    };
+  }
+
+  private InstallableApk createInstallableApk() throws IOException {
+    Path root = tmpFolder.getRoot().toPath();
+    ProjectFilesystem filesystem = new ProjectFilesystem(root);
+    Path manifest = root.resolve("AndroidManifest.xml");
+    filesystem.writeContentsToPath(
+        "<manifest xmlns:android='http://schemas.android.com/apk/res/android' " +
+            "package='com.example'/>",
+        manifest);
+    Path metadata = root.resolve("native-libs/metadata.txt");
+    filesystem.createParentDirs(metadata);
+    filesystem.writeLinesToPath(
+        ImmutableList.of("armeabi/libexample.so " + Strings.repeat("a", 40)),
+        metadata);
+
+    InstallableApk apkRule = EasyMock.createMock(InstallableApk.class);
+    EasyMock.expect(apkRule.getBuildTarget())
+        .andStubReturn(BuildTargetFactory.newInstance("//apps/example:app"));
+    EasyMock.expect(apkRule.getManifestPath()).andStubReturn(manifest);
+    EasyMock.expect(apkRule.getExopackageInfo()).andStubReturn(
+        Optional.<ExopackageInfo>of(
+            ImmutableExopackageInfo.builder()
+                .setNativeLibsInfo(
+                    ImmutableExopackageInfo.NativeLibsInfo.of(metadata, metadata.getParent()))
+                .build()));
+    EasyMock.replay(apkRule);
+    return apkRule;
+  }
+
   private String matchAndGetHash(String filename) {
     Matcher m = NATIVE_LIB_PATTERN.matcher(filename);
     if (m.matches()) {
@@ -595,6 +595,7 @@ public class TestCommandTest {
             createMock(CachingBuildEngine.class),
             executionContext,
             createMock(TestRuleKeyFileHelper.class),
+            Optional.<TestResultsArtifactCacheHelper>absent(),
             true,
             false));
 
@@ -628,6 +629,7 @@ public class TestCommandTest {
             cachingBuildEngine,
             executionContext,
             createMock(TestRuleKeyFileHelper.class),
+            Optional.<TestResultsArtifactCacheHelper>absent(),
             /* results cache enabled */ true,
             /* running with test selectors */ false));
 
@@ -660,6 +662,7 @@ public class TestCommandTest {
             cachingBuildEngine,
             executionContext,
             createMock(TestRuleKeyFileHelper.class),
+            Optional.<TestResultsArtifactCacheHelper>absent(),
             /* results cache enabled */ true,
             /* running with test selectors */ false));
 
@@ -702,12 +705,56 @@ public class TestCommandTest {
             cachingBuildEngine,
             executionContext,
             testRuleKeyFileHelper,
+            Optional.<TestResultsArtifactCacheHelper>absent(),
             /* results cache enabled */ true,
             /* running with test selectors */ false));
 
     verify(executionContext, cachingBuildEngine, testRuleKeyFileHelper);
   }
 
+  @Test
+  public void testIsTestRunNotRequiredIfResultsAreInArtifactCache()
+      throws IOException, ExecutionException, InterruptedException {
+    ExecutionContext executionContext = createMock(ExecutionContext.class);
+    expect(executionContext.isDebugEnabled()).andReturn(false);
+
+    FakeTestRule testRule = new FakeTestRule(
+        JavaTestDescription.TYPE,
+        ImmutableSet.<Label>of(ImmutableLabel.of("windows")),
+        BuildTargetFactory.newInstance("//:lulz"),
+        new SourcePathResolver(new BuildRuleResolver()),
+        ImmutableSortedSet.<BuildRule>of()
+    ) {
+
+      @Override
+      public boolean hasTestResultFiles(ExecutionContext context) {
+        return true;
+      }
+    };
+
+    CachingBuildEngine cachingBuildEngine = createMock(CachingBuildEngine.class);
+    expect(cachingBuildEngine.getBuildRuleResult(BuildTargetFactory.newInstance("//:lulz")))
+        .andReturn(new BuildRuleSuccess(testRule, BuildRuleSuccess.Type.FETCHED_FROM_CACHE));
+
+    TestResultsArtifactCacheHelper testResultsArtifactCacheHelper =
+        createMock(TestResultsArtifactCacheHelper.class);
+    expect(testResultsArtifactCacheHelper.fetchTestResults(testRule)).andReturn(true);
+    replay(executionContext, cachingBuildEngine, testResultsArtifactCacheHelper);
+
+    assertFalse(
+        "Results fetched from the artifact cache for the test's rule key should be reused.",
+        TestCommand.isTestRunRequiredForTest(
+            testRule,
+            cachingBuildEngine,
+            executionContext,
+            createMock(TestRuleKeyFileHelper.class),
+            Optional.of(testResultsArtifactCacheHelper),
+            /* results cache enabled */ true,
+            /* running with test selectors */ false));
+
+    verify(executionContext, cachingBuildEngine, testResultsArtifactCacheHelper);
+  }
+
   @Test
   public void testIfAGlobalExcludeExcludesALabel() throws CmdLineException {
     BuckConfig config = new FakeBuckConfig(
@@ -773,4 +820,11 @@ public class TestCommandTest {
 
     assertEquals(1, options.getNumTestThreads());
   }
+
+  @Test
+  public void shouldNotPipelineTestsWhenRunningTestsWithDebugFlag() throws CmdLineException {
+    assertFalse(getOptions().isPipeliningTests());
+    assertTrue(getOptions("--pipeline").isPipeliningTests());
+    assertFalse(getOptions("--pipeline", "--debug").isPipeliningTests());
+  }
 }
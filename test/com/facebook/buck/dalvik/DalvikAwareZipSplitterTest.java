@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class DalvikAwareZipSplitterTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testRequiredWantedAndTailEntriesArePlaced() throws IOException {
+    byte[] classFile = Resources.toByteArray(
+        Resources.getResource(DalvikAwareZipSplitterTest.class, "DalvikStatsCacheTest.class"));
+    File inZip = tmpDir.newFile("in.zip");
+    try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(inZip))) {
+      for (String name : ImmutableList.of(
+          "tail/E.class",
+          "secondary/B.class",
+          "primary/A.class",
+          "secondary/C.class",
+          "wanted/D.class")) {
+        zipOut.putNextEntry(new ZipEntry(name));
+        zipOut.write(classFile);
+      }
+    }
+
+    // Each dex has room for two of the classes.
+    long classSize =
+        DalvikStatsTool.getEstimate(new ByteArrayInputStream(classFile)).estimatedLinearAllocSize;
+    List<File> secondaryZips = DalvikAwareZipSplitter.splitZip(
+        new ProjectFilesystem(tmpDir.getRoot().toPath()),
+        Collections.singleton(inZip.toPath()),
+        new File(tmpDir.getRoot(), "primary.zip"),
+        tmpDir.getRoot(),
+        "secondary-%d.zip",
+        2 * classSize + 1,
+        Predicates.equalTo("primary/A.class"),
+        ImmutableSet.of("wanted/D.class"),
+        /* secondaryHeadSet */ ImmutableSet.<String>of(),
+        ImmutableSet.of("tail/E.class"),
+        ZipSplitter.DexSplitStrategy.MAXIMIZE_PRIMARY_DEX_SIZE,
+        ZipSplitter.CanaryStrategy.DONT_INCLUDE_CANARIES,
+        tmpDir.newFolder("report"))
+        .execute();
+
+    assertEquals(
+        ImmutableList.of("primary/A.class", "wanted/D.class"),
+        getEntryNames(new File(tmpDir.getRoot(), "primary.zip")));
+    List<String> secondaryEntries = Lists.newArrayList();
+    for (File secondaryZip : secondaryZips) {
+      secondaryEntries.addAll(getEntryNames(secondaryZip));
+    }
+    assertEquals(
+        ImmutableList.of("secondary/B.class", "secondary/C.class", "tail/E.class"),
+        secondaryEntries);
+  }
+
+  private static List<String> getEntryNames(File zip) throws IOException {
+    List<String> names = Lists.newArrayList();
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        names.add(entry.getName());
+      }
+    }
+    return names;
+  }
+}
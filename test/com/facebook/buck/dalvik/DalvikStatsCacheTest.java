@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.java.classes.AbstractFileLike;
+import com.google.common.io.Resources;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class DalvikStatsCacheTest {
+
+  @Test
+  public void classesWithTheSameContentsAreOnlyAnalyzedOnce() throws IOException {
+    byte[] classFile = Resources.toByteArray(
+        Resources.getResource(DalvikStatsCacheTest.class, "DalvikStatsCacheTest.class"));
+
+    // Two caches stand in for two consecutive builds, which see the same class in different jars.
+    DalvikStatsTool.Stats first = new DalvikStatsCache().getStats(
+        new InMemoryFileLike(new File("first.jar"), "test/Foo.class", classFile));
+    DalvikStatsTool.Stats second = new DalvikStatsCache().getStats(
+        new InMemoryFileLike(new File("second.jar"), "test/Foo.class", classFile.clone()));
+
+    assertTrue(first.estimatedLinearAllocSize > 0);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void submittedStatsAreReturnedWithoutReadingTheEntryAgain() throws IOException {
+    byte[] classFile = Resources.toByteArray(
+        Resources.getResource(DalvikStatsCacheTest.class, "DalvikStatsCacheTest.class"));
+    DalvikStatsCache cache = new DalvikStatsCache();
+    for (int i = 0; i < 100; i++) {
+      cache.submitStats(
+          new InMemoryFileLike(new File("lib.jar"), "test/Foo" + i + ".class", classFile));
+    }
+    cache.submitStats(
+        new InMemoryFileLike(new File("lib.jar"), "foo.properties", new byte[] {'x'}));
+
+    // A second traversal of the classpath yields new entries, which could not be analyzed.
+    DalvikStatsTool.Stats expected = cache.getStats(
+        new InMemoryFileLike(new File("lib.jar"), "test/Foo0.class", new byte[0]));
+    assertTrue(expected.estimatedLinearAllocSize > 0);
+    for (int i = 1; i < 100; i++) {
+      assertSame(
+          expected,
+          cache.getStats(
+              new InMemoryFileLike(new File("lib.jar"), "test/Foo" + i + ".class", new byte[0])));
+    }
+    assertEquals(
+        DalvikStatsTool.Stats.ZERO,
+        cache.getStats(new InMemoryFileLike(new File("lib.jar"), "foo.properties", new byte[0])));
+  }
+
+  @Test
+  public void nonClassFilesHaveNoStats() {
+    DalvikStatsTool.Stats stats = new DalvikStatsCache().getStats(
+        new InMemoryFileLike(new File("first.jar"), "META-INF/MANIFEST.MF", new byte[] {'x'}));
+    assertEquals(DalvikStatsTool.Stats.ZERO, stats);
+  }
+
+  private static class InMemoryFileLike extends AbstractFileLike {
+    private final File container;
+    private final String relativePath;
+    private final byte[] contents;
+
+    public InMemoryFileLike(File container, String relativePath, byte[] contents) {
+      this.container = container;
+      this.relativePath = relativePath;
+      this.contents = contents;
+    }
+
+    @Override
+    public File getContainer() {
+      return container;
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() {
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
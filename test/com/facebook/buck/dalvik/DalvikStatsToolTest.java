@@ -17,6 +17,7 @@
 package com.facebook.buck.dalvik;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -145,6 +146,25 @@ public class DalvikStatsToolTest {
     assertEquals(172, statsInner.estimatedLinearAllocSize);
   }
 
+  @Test
+  public void testMethodReferencesAreSharedByClasses() throws IOException {
+    DalvikStatsTool.Stats first;
+    try (InputStream input = new FileInputStream(new File(outputDir, "test/TestClass.class"))) {
+      first = DalvikStatsTool.getEstimate(input);
+    }
+    DalvikStatsTool.Stats second;
+    try (InputStream input =
+             new FileInputStream(new File(outputDir, "test/TestClassWithInner.class"))) {
+      second = DalvikStatsTool.getEstimate(input);
+    }
+
+    DalvikStatsTool.MethodReference objectConstructor =
+        new DalvikStatsTool.MethodReference("java/lang/Object", "<init>", "()V");
+    assertSame(
+        findMethodReference(first.methodReferences, objectConstructor),
+        findMethodReference(second.methodReferences, objectConstructor));
+  }
+
   /**
    * Verifies that we count the MULTIANEWARRAY instruction (used in UsesMultiANewArray) as
    * a call to Array.newInstance(Class, int...dims).  We do this by also measuring a class
@@ -218,6 +238,17 @@ public class DalvikStatsToolTest {
     }
 
   }
+  private static DalvikStatsTool.MethodReference findMethodReference(
+      Set<DalvikStatsTool.MethodReference> methodReferences,
+      DalvikStatsTool.MethodReference wanted) {
+    for (DalvikStatsTool.MethodReference methodReference : methodReferences) {
+      if (methodReference.equals(wanted)) {
+        return methodReference;
+      }
+    }
+    throw new AssertionError(wanted + " not found in " + methodReferences);
+  }
+
   private static String createSource(String... args) {
     return Joiner.on("\n").join(args);
   }
@@ -146,7 +146,7 @@ public class SuperConsoleEventBusListenerTest {
         300L, TimeUnit.MILLISECONDS, /* threadId */ 0L));
     rawEventBus.post(
         configureTestEventAtTime(
-            ActionGraphEvent.finished(),
+            ActionGraphEvent.finished(0, 0),
             400L,
             TimeUnit.MILLISECONDS,
             /* threadId */ 0L));
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+public class DefaultDirectedAcyclicGraphTest {
+
+  @Test
+  public void testEdgesAreKeptInBothDirections() {
+    DefaultDirectedAcyclicGraph<String> graph = new DefaultDirectedAcyclicGraph<>(createGraph());
+
+    assertEquals(ImmutableSet.of("A", "B", "C", "D", "E"), graph.getNodes());
+    assertEquals(ImmutableSet.of("B", "C"), graph.getOutgoingNodesFor("A"));
+    assertEquals(ImmutableSet.of("A", "B"), graph.getIncomingNodesFor("C"));
+    assertEquals(ImmutableSet.of(), graph.getOutgoingNodesFor("D"));
+    assertEquals(ImmutableSet.of(), graph.getIncomingNodesFor("missing"));
+    assertEquals(ImmutableSet.of("A", "E"), graph.getNodesWithNoIncomingEdges());
+    assertEquals(ImmutableSet.of("D", "E"), graph.getNodesWithNoOutgoingEdges());
+  }
+
+  @Test
+  public void testAdjacentNodesAreUnmodifiableSets() {
+    DefaultDirectedAcyclicGraph<String> graph = new DefaultDirectedAcyclicGraph<>(createGraph());
+
+    Set<String> deps = graph.getOutgoingNodesFor("A");
+    assertEquals(2, deps.size());
+    assertTrue(deps.contains("C"));
+    assertFalse(deps.contains("D"));
+    assertFalse(deps.contains("missing"));
+    assertEquals(ImmutableSet.of("B", "C").hashCode(), deps.hashCode());
+    try {
+      deps.remove("B");
+      fail("The adjacent nodes should not be modifiable.");
+    } catch (UnsupportedOperationException e) {
+      assertEquals(ImmutableSet.of("B", "C"), deps);
+    }
+  }
+
+  @Test
+  public void testGraphsWithTheSameEdgesAreEqual() {
+    MutableDirectedGraph<String> reversed = new MutableDirectedGraph<>();
+    reversed.addNode("E");
+    reversed.addEdge("C", "D");
+    reversed.addEdge("B", "C");
+    reversed.addEdge("A", "C");
+    reversed.addEdge("A", "B");
+
+    DefaultDirectedAcyclicGraph<String> graph = new DefaultDirectedAcyclicGraph<>(createGraph());
+    assertEquals(graph, new DefaultDirectedAcyclicGraph<>(reversed));
+    assertEquals(graph.hashCode(), new DefaultDirectedAcyclicGraph<>(reversed).hashCode());
+
+    reversed.removeEdge("A", "B");
+    assertNotEquals(graph, new DefaultDirectedAcyclicGraph<>(reversed));
+  }
+
+  @Test
+  public void testTopologicalSortMatchesThatOfTheMutableGraph() {
+    MutableDirectedGraph<String> mutableGraph = createGraph();
+
+    assertEquals(
+        TopologicalSort.sort(mutableGraph, Predicates.<String>alwaysTrue()),
+        TopologicalSort.sort(
+            new DefaultDirectedAcyclicGraph<>(mutableGraph),
+            Predicates.<String>alwaysTrue()));
+    assertEquals(
+        TopologicalSort.sort(mutableGraph, Predicates.not(Predicates.equalTo("C"))),
+        TopologicalSort.sort(
+            new DefaultDirectedAcyclicGraph<>(mutableGraph),
+            Predicates.not(Predicates.equalTo("C"))));
+  }
+
+  /**
+   * A -> B -> C -> D, with an edge from A to C too, and E on its own.
+   */
+  private static MutableDirectedGraph<String> createGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("A", "C");
+    graph.addEdge("B", "C");
+    graph.addEdge("C", "D");
+    graph.addNode("E");
+    return graph;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.facebook.buck.testutil.Benchmarks;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap taken up by {@link DefaultDirectedAcyclicGraph} with that of the multimaps of
+ * edges that it used to keep, and how long it takes to traverse it and a
+ * {@link MutableDirectedGraph} of the same shape, both with the traversals that walk the indexes
+ * and with one that only goes through {@link TraversableGraph}, as most callers do.
+ * <p>
+ * The graph has 100,000 nodes with up to 10 edges each unless other sizes are given:
+ * <pre>
+ * java -cp ... com.facebook.buck.graph.DirectedAcyclicGraphBenchmark [nodes] [edges per node]
+ * </pre>
+ */
+public class DirectedAcyclicGraphBenchmark {
+
+  private DirectedAcyclicGraphBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int numNodes = Benchmarks.getIntArgument(args, 0, 100000);
+    int edgesPerNode = Benchmarks.getIntArgument(args, 1, 10);
+
+    final MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    for (int i = 0; i < numNodes; i++) {
+      graph.addNode(nodeName(i));
+      // Depend on nodes spread over the ones before this one.
+      for (int dep = 1; dep <= Math.min(i, edgesPerNode); dep++) {
+        graph.addEdge(nodeName(i), nodeName(i - 1 - (int) ((long) dep * dep * 31 % i)));
+      }
+    }
+    System.out.printf("%d nodes, %d edges.%n", graph.getNodeCount(), graph.getEdgeCount());
+
+    long baseline = Benchmarks.usedHeap();
+    final DefaultDirectedAcyclicGraph<String> dag = new DefaultDirectedAcyclicGraph<>(graph);
+    long dagHeap = Benchmarks.usedHeap() - baseline;
+
+    baseline = Benchmarks.usedHeap();
+    ImmutableSetMultimap<String, String> outgoingEdges =
+        graph.createImmutableCopyOfOutgoingEdges();
+    ImmutableSetMultimap<String, String> incomingEdges =
+        graph.createImmutableCopyOfIncomingEdges();
+    long multimapHeap = Benchmarks.usedHeap() - baseline;
+    System.out.printf(
+        "Indexed graph: %d KB of heap, multimaps of %d and %d edges: %d KB of heap.%n",
+        dagHeap / 1024,
+        outgoingEdges.size(),
+        incomingEdges.size(),
+        multimapHeap / 1024);
+
+    Benchmarks.runWithWarmUp(
+        /* iterations */ 10,
+        new Benchmarks.Iteration() {
+          @Override
+          public String run() {
+            long dagMillis = timeTraversals(dag);
+            long mutableMillis = timeTraversals(graph);
+            long dagGenericMillis = timeGenericTraversal(dag);
+            long mutableGenericMillis = timeGenericTraversal(graph);
+            return String.format(
+                "Bottom-up traversal and topological sort: %d ms indexed, %d ms with maps.%n" +
+                    "Traversal through the adjacent nodes: %d ms indexed, %d ms with maps.",
+                dagMillis,
+                mutableMillis,
+                dagGenericMillis,
+                mutableGenericMillis);
+          }
+        });
+  }
+
+  private static String nodeName(int index) {
+    return "//module" + (index / 100) + "/package" + index + ":lib";
+  }
+
+  private static long timeTraversals(TraversableGraph<String> graph) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    new AbstractBottomUpTraversal<String, Void>(graph) {
+      @Override
+      public void visit(String node) {}
+
+      @Override
+      public Void getResult() {
+        return null;
+      }
+    }.traverse();
+    TopologicalSort.sort(graph, Predicates.<String>alwaysTrue());
+    return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Visits every node from the roots down, looking at the nodes on both sides of each, like
+   * {@link com.facebook.buck.rules.TargetGraphToActionGraph} and the commands do.
+   */
+  private static long timeGenericTraversal(TraversableGraph<String> graph) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Set<String> visited = Sets.newHashSet();
+    Deque<String> toVisit = Queues.newArrayDeque(graph.getNodesWithNoIncomingEdges());
+    long incomingEdges = 0;
+    while (!toVisit.isEmpty()) {
+      String node = toVisit.pop();
+      if (!visited.add(node)) {
+        continue;
+      }
+      incomingEdges += Iterables.size(graph.getIncomingNodesFor(node));
+      for (String dep : graph.getOutgoingNodesFor(node)) {
+        if (!visited.contains(dep)) {
+          toVisit.push(dep);
+        }
+      }
+    }
+    Preconditions.checkState(incomingEdges >= 0);
+    return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+  }
+}
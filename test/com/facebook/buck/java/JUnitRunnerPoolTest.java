@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.java.runner.TestRunnerWorker;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class JUnitRunnerPoolTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private JUnitRunnerPool pool;
+  private Path classPathFile;
+
+  @Before
+  public void setUp() throws IOException, URISyntaxException {
+    pool = new JUnitRunnerPool(1, tmp.newFolder("logs").toPath(), tmp.newFolder("tmp").toPath());
+    classPathFile = tmp.getRoot().toPath().resolve("classpath-file");
+    Files.write(
+        classPathFile,
+        ImmutableList.of(getCodeSource(FakeRunner.class).toString()),
+        UTF_8);
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  @Test
+  public void testWorkerIsReusedWithFreshClassLoaderForEachRun() throws Exception {
+    Path first = tmp.getRoot().toPath().resolve("first");
+    Path second = tmp.getRoot().toPath().resolve("second");
+
+    assertEquals(JUnitRunnerPool.Result.COMPLETED, run(first, "value", Optional.<Long>absent()));
+    assertEquals(JUnitRunnerPool.Result.COMPLETED, run(second, "value", Optional.<Long>absent()));
+
+    assertEquals(1, pool.getNumberOfWorkersStarted());
+    // Static state must not leak from one run to the next.
+    assertEquals("1 value", new String(Files.readAllBytes(first), UTF_8));
+    assertEquals("1 value", new String(Files.readAllBytes(second), UTF_8));
+  }
+
+  @Test
+  public void testWorkerIsReplacedAfterTimeout() throws Exception {
+    Path output = tmp.getRoot().toPath().resolve("output");
+
+    assertEquals(
+        JUnitRunnerPool.Result.TIMED_OUT,
+        run(tmp.getRoot().toPath().resolve("ignored"), "sleep", Optional.of(100L)));
+    assertEquals(JUnitRunnerPool.Result.COMPLETED, run(output, "value", Optional.<Long>absent()));
+
+    assertEquals(2, pool.getNumberOfWorkersStarted());
+    assertEquals("1 value", new String(Files.readAllBytes(output), UTF_8));
+  }
+
+  @Test
+  public void testEachRunGetsAnEmptyTmpDirectory() throws Exception {
+    Path first = tmp.getRoot().toPath().resolve("first");
+    Path second = tmp.getRoot().toPath().resolve("second");
+
+    assertEquals(JUnitRunnerPool.Result.COMPLETED, run(first, "tmp", Optional.<Long>absent()));
+    assertEquals(JUnitRunnerPool.Result.COMPLETED, run(second, "tmp", Optional.<Long>absent()));
+
+    assertEquals(1, pool.getNumberOfWorkersStarted());
+    // TMP matches java.io.tmpdir, and the file created by the first run is gone.
+    assertEquals("1 true 0", new String(Files.readAllBytes(first), UTF_8));
+    assertEquals("1 true 0", new String(Files.readAllBytes(second), UTF_8));
+  }
+
+  private JUnitRunnerPool.Result run(Path output, String property, Optional<Long> timeout)
+      throws IOException, URISyntaxException {
+    return pool.run(
+        ImmutableList.<String>of(),
+        getCodeSource(TestRunnerWorker.class).toString(),
+        tmp.getRoot().toPath(),
+        ImmutableMap.copyOf(System.getenv()),
+        classPathFile,
+        FakeRunner.class.getName(),
+        ImmutableMap.of("fake.runner.property", property),
+        ImmutableList.of(output.toString()),
+        timeout);
+  }
+
+  private static Path getCodeSource(Class<?> clazz) throws URISyntaxException {
+    return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+
+  /**
+   * Stands in for {@code JUnitMain}, recording how many times it has been run in its class loader
+   * and the system property it was run with. Given {@code tmp}, it records what it finds in its
+   * temporary directory instead.
+   */
+  public static class FakeRunner {
+
+    private static int runs = 0;
+
+    public static void runTests(String[] args) throws IOException, InterruptedException {
+      runs++;
+      String property = System.getProperty("fake.runner.property");
+      if ("sleep".equals(property)) {
+        Thread.sleep(60 * 1000);
+      } else if ("tmp".equals(property)) {
+        File tmpDirectory = new File(System.getProperty("java.io.tmpdir"));
+        property = tmpDirectory.getPath().equals(System.getenv("TMP")) + " " +
+            tmpDirectory.list().length;
+        File.createTempFile("left", "behind");
+      }
+      Files.write(Paths.get(args[0]), (runs + " " + property).getBytes(UTF_8));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes values the way buck.py's {@code BinaryEncoder} does, so that tests can produce the input
+ * that {@link BuildFileToBinaryParser} expects without running buck.py.
+ */
+class BinaryBuildFileEncoder {
+
+  private final DataOutputStream output;
+  private final Map<String, Integer> strings = Maps.newHashMap();
+
+  BinaryBuildFileEncoder(ByteArrayOutputStream output) {
+    this.output = new DataOutputStream(output);
+  }
+
+  void send(Object value) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    encode(value, new DataOutputStream(payload));
+    output.writeInt(payload.size());
+    payload.writeTo(output);
+  }
+
+  private void encode(@Nullable Object value, DataOutputStream out) throws IOException {
+    if (value instanceof String) {
+      Integer index = strings.get(value);
+      if (index == null) {
+        strings.put((String) value, strings.size());
+        byte[] bytes = ((String) value).getBytes(UTF_8);
+        out.writeByte(BuildFileToBinaryParser.STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else {
+        out.writeByte(BuildFileToBinaryParser.STRING_REFERENCE);
+        out.writeInt(index);
+      }
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      out.writeByte(BuildFileToBinaryParser.LIST);
+      out.writeInt(list.size());
+      for (Object item : list) {
+        encode(item, out);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(BuildFileToBinaryParser.MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        encode(entry.getKey(), out);
+        encode(entry.getValue(), out);
+      }
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? BuildFileToBinaryParser.TRUE : BuildFileToBinaryParser.FALSE);
+    } else if (value == null) {
+      out.writeByte(BuildFileToBinaryParser.NULL);
+    } else if (value instanceof Long || value instanceof Integer) {
+      out.writeByte(BuildFileToBinaryParser.INTEGER);
+      out.writeLong(((Number) value).longValue());
+    } else if (value instanceof Double) {
+      out.writeByte(BuildFileToBinaryParser.DOUBLE);
+      out.writeDouble((Double) value);
+    } else {
+      throw new IllegalArgumentException("Cannot encode " + value);
+    }
+  }
+}
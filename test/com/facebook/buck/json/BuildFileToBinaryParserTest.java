@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class BuildFileToBinaryParserTest {
+
+  @Test
+  public void testValuesMatchTheJsonParser() throws IOException {
+    Map<String, Object> rule = Maps.newHashMap();
+    rule.put("name", "lib");
+    rule.put("deps", ImmutableList.of("//foo:bar", "//foo:baz"));
+    rule.put("exported", true);
+    rule.put("source", 6L);
+    rule.put("whole", 2.0);
+    rule.put("resources", null);
+    List<Map<String, Object>> rules = ImmutableList.of(
+        rule,
+        ImmutableMap.<String, Object>of("__includes", ImmutableList.of("/root/BUCK")));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new BinaryBuildFileEncoder(bytes).send(rules);
+
+    String json = "[{\"name\": \"lib\", \"deps\": [\"//foo:bar\", \"//foo:baz\"], " +
+        "\"exported\": true, \"source\": 6, \"whole\": 2.0, " +
+        "\"resources\": null}, {\"__includes\": [\"/root/BUCK\"]}]";
+    try (BuildFileToJsonParser jsonParser = new BuildFileToJsonParser(json);
+         BuildFileToBinaryParser binaryParser =
+             new BuildFileToBinaryParser(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(jsonParser.nextRules(), binaryParser.nextRules());
+    }
+  }
+
+  @Test
+  public void testFractionsAreReadAsDoubles() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new BinaryBuildFileEncoder(bytes).send(
+        ImmutableList.of(ImmutableMap.of("ratio", 0.5)));
+
+    try (BuildFileToBinaryParser parser =
+             new BuildFileToBinaryParser(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(0.5, parser.nextRules().get(0).get("ratio"));
+    }
+  }
+
+  @Test
+  public void testRepeatedStringsAreReadOnce() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryBuildFileEncoder encoder = new BinaryBuildFileEncoder(bytes);
+    encoder.send(
+        ImmutableMap.of(
+            "glob",
+            ImmutableMap.of("path", "/root/lib", "includes", ImmutableList.of("*.java"))));
+    encoder.send(
+        ImmutableList.of(
+            ImmutableMap.of("name", "a", "buck.base_path", "lib"),
+            ImmutableMap.of("name", "b", "buck.base_path", "lib")));
+
+    try (BuildFileToBinaryParser parser =
+             new BuildFileToBinaryParser(new ByteArrayInputStream(bytes.toByteArray()))) {
+      Optional<Map<String, Object>> globRequest = parser.nextGlobRequest();
+      assertEquals(
+          ImmutableMap.of(
+              "glob",
+              ImmutableMap.of("path", "/root/lib", "includes", ImmutableList.of("*.java"))),
+          globRequest.get());
+      assertEquals(Optional.absent(), parser.nextGlobRequest());
+
+      List<Map<String, Object>> rules = parser.nextRules();
+      assertEquals(2, rules.size());
+      List<String> basePaths = Lists.newArrayList();
+      for (Map<String, Object> rule : rules) {
+        basePaths.add((String) rule.get("buck.base_path"));
+      }
+      assertSame(basePaths.get(0), basePaths.get(1));
+    }
+  }
+}
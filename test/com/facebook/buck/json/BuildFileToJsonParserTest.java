@@ -19,6 +19,7 @@ package com.facebook.buck.json;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
@@ -117,4 +118,22 @@ public class BuildFileToJsonParserTest {
     expected.put("deps", ImmutableList.of("//foo:bar", "//foo:baz", "//foo:biz"));
     assertEquals(expected, RawParser.toRawTypes(ruleJson));
   }
+
+  @Test
+  public void testGlobRequestsPrecedeRules() throws IOException {
+    String json =
+        "{\"glob\": {\"path\": \"/root/lib\", \"includes\": [\"*.java\"]}}" +
+        "[{\"name\": \"lib\"}]";
+
+    try (BuildFileToJsonParser parser = new BuildFileToJsonParser(json)) {
+      assertEquals(
+          Optional.of(
+              ImmutableMap.of(
+                  "glob",
+                  ImmutableMap.of("path", "/root/lib", "includes", ImmutableList.of("*.java")))),
+          parser.nextGlobRequest());
+      assertEquals(Optional.absent(), parser.nextGlobRequest());
+      assertEquals(ImmutableList.of(ImmutableMap.of("name", "lib")), parser.nextRules());
+    }
+  }
 }
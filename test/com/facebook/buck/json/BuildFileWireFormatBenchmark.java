@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.testutil.Benchmarks;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how long it takes to parse the output of buck.py as JSON and in the binary format, for
+ * a large generated build file. Both encodings of the file are built in memory up front, so only
+ * the parsing is timed. By default the file has 5,000 rules and is parsed 20 times:
+ * <pre>
+ * java -classpath ... com.facebook.buck.json.BuildFileWireFormatBenchmark [rules] [iterations]
+ * </pre>
+ */
+public class BuildFileWireFormatBenchmark {
+
+  private BuildFileWireFormatBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int numRules = Benchmarks.getIntArgument(args, 0, 5000);
+    int iterations = Benchmarks.getIntArgument(args, 1, 20);
+
+    List<Map<String, Object>> rules = generateRules(numRules);
+    final byte[] json = new Gson().toJson(rules).getBytes(UTF_8);
+    final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    new BinaryBuildFileEncoder(binary).send(rules);
+
+    System.out.printf(
+        "%d rules: %d bytes of JSON, %d bytes of binary.%n",
+        numRules,
+        json.length,
+        binary.size());
+
+    Benchmarks.runWithWarmUp(
+        iterations,
+        new Benchmarks.Iteration() {
+          @Override
+          public String run() throws IOException {
+            long jsonMillis = time(json, /* isBinary */ false);
+            long binaryMillis = time(binary.toByteArray(), /* isBinary */ true);
+            return String.format("JSON: %d ms, binary: %d ms.", jsonMillis, binaryMillis);
+          }
+        });
+  }
+
+  private static long time(byte[] output, boolean isBinary) throws IOException {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ByteArrayInputStream input = new ByteArrayInputStream(output);
+    try (BuildFileOutputParser parser = isBinary ?
+        new BuildFileToBinaryParser(input) :
+        new BuildFileToJsonParser(new InputStreamReader(input, UTF_8))) {
+      parser.nextRules();
+    }
+    return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return rules like those of a build file that defines a library per generated source file.
+   */
+  private static List<Map<String, Object>> generateRules(int numRules) {
+    List<Map<String, Object>> rules = Lists.newArrayListWithCapacity(numRules + 1);
+    for (int i = 0; i < numRules; i++) {
+      Map<String, Object> rule = Maps.newHashMap();
+      rule.put("type", "java_library");
+      rule.put("name", "generated-" + i);
+      rule.put("buck.base_path", "java/com/example/generated");
+      rule.put("srcs", ImmutableList.of("Generated" + i + ".java", "Generated" + i + "Util.java"));
+      List<String> deps = Lists.newArrayList();
+      for (int dep = Math.max(0, i - 5); dep < i; dep++) {
+        deps.add(":generated-" + dep);
+      }
+      deps.add("//third-party/java/guava:guava");
+      rule.put("deps", deps);
+      rule.put("exported_deps", ImmutableList.of());
+      rule.put("visibility", ImmutableList.of("PUBLIC"));
+      rule.put("source", "7");
+      rule.put("target", "7");
+      rule.put("proguard_config", null);
+      rule.put("resources_root", null);
+      rules.add(rule);
+    }
+    rules.add(
+        ImmutableMap.<String, Object>of(
+            "__includes",
+            ImmutableList.of("/root/java/com/example/generated/BUCK")));
+    return rules;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class GlobCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path root;
+  private Path lib;
+
+  @Before
+  public void setUp() throws IOException {
+    root = tmp.getRoot().toPath();
+    lib = root.resolve("lib");
+    touch("lib/A.java");
+    touch("lib/B.txt");
+    touch("lib/.Hidden.java");
+    touch("lib/sub/C.java");
+    touch("lib/sub/deeper/D.java");
+    Files.createDirectories(lib.resolve("empty.java"));
+  }
+
+  @Test
+  public void testPatternsMatchLikePathlib() throws IOException {
+    GlobCache globCache = new GlobCache(root);
+
+    assertEquals(
+        ImmutableSortedSet.of(".Hidden.java", "A.java"),
+        globCache.glob(lib, ImmutableList.of("*.java")));
+    assertEquals(
+        ImmutableSortedSet.of(".Hidden.java", "A.java", "sub/C.java", "sub/deeper/D.java"),
+        globCache.glob(lib, ImmutableList.of("**/*.java")));
+    assertEquals(
+        ImmutableSortedSet.of("sub/C.java", "sub/deeper/D.java"),
+        globCache.glob(lib, ImmutableList.of("sub/**")));
+    assertEquals(
+        ImmutableSortedSet.of("A.java", "B.txt"),
+        globCache.glob(lib, ImmutableList.of("[AB].*", "missing/*.java")));
+    assertEquals(
+        ImmutableSortedSet.of("sub/C.java"),
+        globCache.glob(lib, ImmutableList.of("./sub/C.java")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDoubleStarMustBeAWholeComponent() throws IOException {
+    new GlobCache(root).glob(lib, ImmutableList.of("src/a**/*.java"));
+  }
+
+  @Test
+  public void testResultsAreKeptUntilTheirDirectoriesChange() throws IOException {
+    GlobCache globCache = new GlobCache(root);
+    ImmutableList<String> includes = ImmutableList.of("**/*.java");
+    globCache.glob(lib, includes);
+
+    // Without an event, the new file is not seen.
+    touch("lib/sub/E.java");
+    assertEquals(
+        ImmutableSortedSet.of(".Hidden.java", "A.java", "sub/C.java", "sub/deeper/D.java"),
+        globCache.glob(lib, includes));
+
+    globCache.invalidate(Paths.get("lib/sub/E.java"));
+    assertEquals(
+        ImmutableSortedSet.of(
+            ".Hidden.java",
+            "A.java",
+            "sub/C.java",
+            "sub/E.java",
+            "sub/deeper/D.java"),
+        globCache.glob(lib, includes));
+  }
+
+  @Test
+  public void testDeletedDirectoriesAreForgotten() throws IOException {
+    GlobCache globCache = new GlobCache(root);
+    ImmutableList<String> includes = ImmutableList.of("sub/deeper/*.java");
+    assertEquals(ImmutableSortedSet.of("sub/deeper/D.java"), globCache.glob(lib, includes));
+
+    Files.delete(lib.resolve("sub/deeper/D.java"));
+    Files.delete(lib.resolve("sub/deeper"));
+    globCache.invalidate(Paths.get("lib/sub/deeper"));
+    assertEquals(ImmutableSortedSet.<String>of(), globCache.glob(lib, includes));
+
+    touch("lib/sub/deeper/F.java");
+    globCache.invalidateAll();
+    assertEquals(ImmutableSortedSet.of("sub/deeper/F.java"), globCache.glob(lib, includes));
+  }
+
+  private void touch(String path) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[0]);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.ImmutableFlavor;
+import com.facebook.buck.model.ImmutableUnflavoredBuildTarget;
+import com.facebook.buck.testutil.Benchmarks;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares how much heap the build targets of a synthetic graph take up when they are parsed,
+ * which shares equal targets, and when a new instance is built for every reference to a target.
+ * Nothing is timed, so there is no warm-up. The graph has 100,000 targets with 10 deps each unless
+ * told otherwise:
+ * <pre>
+ * java -cp ... com.facebook.buck.parser.BuildTargetInterningBenchmark [targets] [deps per target]
+ * </pre>
+ */
+public class BuildTargetInterningBenchmark {
+
+  private BuildTargetInterningBenchmark() {}
+
+  public static void main(String[] args) {
+    int numTargets = Benchmarks.getIntArgument(args, 0, 100000);
+    int depsPerTarget = Benchmarks.getIntArgument(args, 1, 10);
+
+    long baseline = Benchmarks.usedHeap();
+    List<BuildTarget> built = referenceTargets(numTargets, depsPerTarget, /* parse */ false);
+    long builtHeap = Benchmarks.usedHeap() - baseline;
+    report("Built", built, builtHeap);
+    built = null;
+
+    baseline = Benchmarks.usedHeap();
+    List<BuildTarget> parsed = referenceTargets(numTargets, depsPerTarget, /* parse */ true);
+    long parsedHeap = Benchmarks.usedHeap() - baseline;
+    report("Parsed", parsed, parsedHeap);
+  }
+
+  /**
+   * @return a target, and then each of its deps, for every target of a graph in which each
+   *     target depends on the ones defined just before it, some of them flavored.
+   */
+  private static List<BuildTarget> referenceTargets(
+      int numTargets,
+      int depsPerTarget,
+      boolean parse) {
+    BuildTargetParser parser = new BuildTargetParser();
+    List<BuildTarget> references = Lists.newArrayList();
+    for (int i = 0; i < numTargets; i++) {
+      for (int dep = i; dep >= Math.max(0, i - depsPerTarget); dep--) {
+        String baseName = "//module" + (dep / 100) + "/package" + dep;
+        String shortName = "lib" + dep;
+        boolean isFlavored = dep % 10 == 0;
+        if (parse) {
+          references.add(
+              parser.parse(
+                  baseName + ":" + shortName + (isFlavored ? "#shared" : ""),
+                  BuildTargetPatternParser.fullyQualified(parser)));
+        } else {
+          ImmutableUnflavoredBuildTarget unflavored =
+              ImmutableUnflavoredBuildTarget.of(Optional.<String>absent(), baseName, shortName);
+          references.add(
+              isFlavored ?
+                  BuildTarget.builder(unflavored).addFlavors(ImmutableFlavor.of("shared")).build() :
+                  BuildTarget.builder(unflavored).build());
+        }
+      }
+    }
+    return references;
+  }
+
+  private static void report(String description, List<BuildTarget> references, long heap) {
+    Set<BuildTarget> instances =
+        Collections.newSetFromMap(new IdentityHashMap<BuildTarget, Boolean>());
+    instances.addAll(references);
+    System.out.printf(
+        "%s: %d references to %d targets, as %d instances, take up %d KB of heap.%n",
+        description,
+        references.size(),
+        Sets.newHashSet(references).size(),
+        instances.size(),
+        heap / 1024);
+  }
+}
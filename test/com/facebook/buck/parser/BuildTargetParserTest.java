@@ -18,6 +18,7 @@ package com.facebook.buck.parser;
 
 import static org.hamcrest.Matchers.hasItems;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -59,6 +60,20 @@ public class BuildTargetParserTest {
     assertEquals("//:fb4a", buildTarget.getFullyQualifiedName());
   }
 
+  @Test
+  public void testEqualTargetsAreParsedToTheSameInstance() {
+    BuildTarget flavored = new BuildTargetParser().parse("//java:lib#src", fullyQualifiedParser);
+    BuildTarget unflavored = new BuildTargetParser().parse(
+        ":lib",
+        BuildTargetPatternParser.forBaseName(new BuildTargetParser(), "//java"));
+
+    assertSame(
+        flavored,
+        new BuildTargetParser().parse("//java:lib#src", fullyQualifiedParser));
+    assertSame(flavored.getUnflavoredBuildTarget(), unflavored.getUnflavoredBuildTarget());
+    assertSame(unflavored, new BuildTargetParser().parse("//java:lib", fullyQualifiedParser));
+  }
+
   @Test
   public void testParseRuleWithFlavors() {
     BuildTargetParser parser = new BuildTargetParser();
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.java.JavaLibraryDescription;
+import com.facebook.buck.java.JavaTestDescription;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.model.InMemoryBuildFileTree;
+import com.facebook.buck.parser.BuildTargetParser;
+import com.facebook.buck.parser.NoSuchBuildTargetException;
+import com.facebook.buck.shell.GenruleDescription;
+import com.facebook.buck.testutil.Benchmarks;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long {@link ConstructorArgMarshaller} takes to populate the constructor args of
+ * representative rules, the way that the parser does for every rule of every build file. The rules
+ * cycle through a java_library, a java_test and a genrule, 100,000 of them per run and 10 runs
+ * unless given other counts:
+ * <pre>
+ * java -cp ... com.facebook.buck.rules.ConstructorArgMarshallerBenchmark [rules] [iterations]
+ * </pre>
+ */
+public class ConstructorArgMarshallerBenchmark {
+
+  private ConstructorArgMarshallerBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    final int numRules = Benchmarks.getIntArgument(args, 0, 100000);
+    int iterations = Benchmarks.getIntArgument(args, 1, 10);
+
+    final FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.touch(Paths.get("java/com/example/Example.java"));
+    filesystem.touch(Paths.get("java/com/example/ExampleTest.java"));
+    filesystem.touch(Paths.get("java/com/example/example.txt"));
+    BuildTarget target = BuildTargetFactory.newInstance("//java/com/example:example");
+    final BuildRuleFactoryParams params = new BuildRuleFactoryParams(
+        filesystem,
+        new BuildTargetParser(),
+        target,
+        new FakeRuleKeyBuilderFactory(),
+        new InMemoryBuildFileTree(ImmutableList.<BuildTarget>of()),
+        /* enforceBuckPackageBoundary */ false);
+    final GenruleDescription genruleDescription = new GenruleDescription();
+
+    final Map<String, Object> javaLibrary = ImmutableMap.<String, Object>of(
+        "srcs", ImmutableList.of("Example.java"),
+        "resources", ImmutableList.of("example.txt"),
+        "deps", ImmutableList.of(":dep", "//third-party/java/guava:guava"),
+        "exportedDeps", ImmutableList.of(":dep"),
+        "visibility", ImmutableList.of("PUBLIC"));
+    final Map<String, Object> javaTest = ImmutableMap.<String, Object>of(
+        "srcs", ImmutableList.of("ExampleTest.java"),
+        "deps", ImmutableList.of(":example", "//third-party/java/junit:junit"),
+        "sourceUnderTest", ImmutableList.of(":example"),
+        "labels", ImmutableList.of("small"),
+        "vmArgs", ImmutableList.of("-Xmx512m"));
+    final Map<String, Object> genrule = ImmutableMap.<String, Object>of(
+        "out", "example.txt",
+        "cmd", "cp $SRCS $OUT",
+        "srcs", ImmutableList.of("example.txt"));
+
+    final ConstructorArgMarshaller marshaller = new ConstructorArgMarshaller();
+    Benchmarks.runWithWarmUp(
+        iterations,
+        new Benchmarks.Iteration() {
+          @Override
+          public String run() throws ConstructorArgMarshalException, NoSuchBuildTargetException {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            List<Object> populated = Lists.newArrayListWithCapacity(numRules);
+            for (int rule = 0; rule < numRules; rule++) {
+              Object dto;
+              Map<String, Object> instance;
+              switch (rule % 3) {
+                case 0:
+                  dto = new JavaLibraryDescription.Arg();
+                  instance = javaLibrary;
+                  break;
+                case 1:
+                  dto = new JavaTestDescription.Arg();
+                  instance = javaTest;
+                  break;
+                default:
+                  dto = genruleDescription.createUnpopulatedConstructorArg();
+                  instance = genrule;
+                  break;
+              }
+              marshaller.populate(
+                  filesystem,
+                  params,
+                  dto,
+                  ImmutableSet.<BuildTarget>builder(),
+                  ImmutableSet.<BuildTargetPattern>builder(),
+                  instance);
+              populated.add(dto);
+            }
+            return String.format(
+                "Populated %d constructor args in %d ms.",
+                populated.size(),
+                stopwatch.elapsed(TimeUnit.MILLISECONDS));
+          }
+        });
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.testutil.WatchEvents.createPathEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.java.DefaultJavaLibrary;
+import com.facebook.buck.java.JavaLibrary;
+import com.facebook.buck.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.parser.NoSuchBuildTargetException;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.google.common.base.Strings;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.Collections;
+import java.util.List;
+
+public class TargetGraphToActionGraphTest {
+
+  private static final BuildTarget LIB = BuildTargetFactory.newInstance("//:lib");
+  private static final BuildTarget DEP = BuildTargetFactory.newInstance("//:dep");
+  private static final BuildTarget OTHER = BuildTargetFactory.newInstance("//:other");
+
+  @Test
+  public void testRulesOfUnchangedNodesAreReused() {
+    TargetNode<?> depNode = JavaLibraryBuilder.createBuilder(DEP).build();
+    TargetNode<?> libNode = JavaLibraryBuilder.createBuilder(LIB).addDep(DEP).build();
+    TargetNode<?> otherNode = JavaLibraryBuilder.createBuilder(OTHER).build();
+    RecordingTransformer transformer = new RecordingTransformer();
+    TargetGraphToActionGraph targetGraphToActionGraph =
+        new TargetGraphToActionGraph(BuckEventBusFactory.newInstance(), transformer);
+
+    ActionGraph first = targetGraphToActionGraph.apply(
+        TargetGraphFactory.newInstance(depNode, libNode, otherNode));
+    assertEquals(3, transformer.transformed.size());
+
+    transformer.transformed.clear();
+    ActionGraph second = targetGraphToActionGraph.apply(
+        TargetGraphFactory.newInstance(depNode, libNode, otherNode));
+    assertEquals(0, transformer.transformed.size());
+    assertSame(first.findBuildRuleByTarget(LIB), second.findBuildRuleByTarget(LIB));
+    assertSame(first.findBuildRuleByTarget(DEP), second.findBuildRuleByTarget(DEP));
+    assertSame(first.findBuildRuleByTarget(OTHER), second.findBuildRuleByTarget(OTHER));
+  }
+
+  @Test
+  public void testRulesDependingOnAChangedNodeAreRecreated() {
+    TargetNode<?> depNode = JavaLibraryBuilder.createBuilder(DEP).build();
+    TargetNode<?> libNode = JavaLibraryBuilder.createBuilder(LIB).addDep(DEP).build();
+    TargetNode<?> otherNode = JavaLibraryBuilder.createBuilder(OTHER).build();
+    RecordingTransformer transformer = new RecordingTransformer();
+    TargetGraphToActionGraph targetGraphToActionGraph =
+        new TargetGraphToActionGraph(BuckEventBusFactory.newInstance(), transformer);
+
+    ActionGraph first = targetGraphToActionGraph.apply(
+        TargetGraphFactory.newInstance(depNode, libNode, otherNode));
+
+    // Parsing the build file of //:dep again yields a new node for it.
+    TargetNode<?> newDepNode = JavaLibraryBuilder.createBuilder(DEP).build();
+    transformer.transformed.clear();
+    ActionGraph second = targetGraphToActionGraph.apply(
+        TargetGraphFactory.newInstance(newDepNode, libNode, otherNode));
+
+    assertEquals(
+        ImmutableSortedSet.of(DEP, LIB),
+        ImmutableSortedSet.copyOf(transformer.transformed));
+    BuildRule newLib = second.findBuildRuleByTarget(LIB);
+    assertNotSame(first.findBuildRuleByTarget(LIB), newLib);
+    assertSame(second.findBuildRuleByTarget(DEP), newLib.getDeps().first());
+    assertSame(first.findBuildRuleByTarget(OTHER), second.findBuildRuleByTarget(OTHER));
+  }
+
+  @Test
+  public void testRulesAreSharedBetweenCommandsUntilAnInputChanges() {
+    TargetNode<?> depNode = JavaLibraryBuilder.createBuilder(DEP)
+        .addSrc(Paths.get("Dep.java"))
+        .build();
+    TargetNode<?> libNode = JavaLibraryBuilder.createBuilder(LIB).addDep(DEP).build();
+    TargetNode<?> otherNode = JavaLibraryBuilder.createBuilder(OTHER).build();
+    TargetGraph targetGraph = TargetGraphFactory.newInstance(depNode, libNode, otherNode);
+    ActionGraphCache actionGraphCache = new ActionGraphCache();
+
+    // The daemon creates a new transformer for each command.
+    ActionGraph first = new TargetGraphToActionGraph(
+        BuckEventBusFactory.newInstance(),
+        new RecordingTransformer(),
+        /* numThreads */ 1,
+        actionGraphCache)
+        .apply(targetGraph);
+    RecordingTransformer transformer = new RecordingTransformer();
+    ActionGraph second = new TargetGraphToActionGraph(
+        BuckEventBusFactory.newInstance(),
+        transformer,
+        /* numThreads */ 1,
+        actionGraphCache)
+        .apply(targetGraph);
+    assertEquals(0, transformer.transformed.size());
+    assertSame(first.findBuildRuleByTarget(LIB), second.findBuildRuleByTarget(LIB));
+
+    // The rule key that the rule of //:dep memoized depends on the contents of Dep.java.
+    actionGraphCache.onFileSystemChange(
+        createPathEvent(Paths.get("Dep.java"), StandardWatchEventKinds.ENTRY_MODIFY));
+    ActionGraph third = new TargetGraphToActionGraph(
+        BuckEventBusFactory.newInstance(),
+        transformer,
+        /* numThreads */ 1,
+        actionGraphCache)
+        .apply(targetGraph);
+    assertEquals(
+        ImmutableSortedSet.of(DEP, LIB),
+        ImmutableSortedSet.copyOf(transformer.transformed));
+    assertNotSame(first.findBuildRuleByTarget(DEP), third.findBuildRuleByTarget(DEP));
+    assertSame(first.findBuildRuleByTarget(OTHER), third.findBuildRuleByTarget(OTHER));
+  }
+
+  @Test
+  public void testReusedRulesCanBeInitializedFromDiskAgain() {
+    TargetNode<?> libNode = JavaLibraryBuilder.createBuilder(LIB).build();
+    TargetGraph targetGraph = TargetGraphFactory.newInstance(libNode);
+    TargetGraphToActionGraph targetGraphToActionGraph =
+        new TargetGraphToActionGraph(BuckEventBusFactory.newInstance(), new RecordingTransformer());
+    Sha1HashCode firstAbiKey = ImmutableSha1HashCode.of(Strings.repeat("a", 40));
+    Sha1HashCode secondAbiKey = ImmutableSha1HashCode.of(Strings.repeat("b", 40));
+
+    DefaultJavaLibrary first =
+        (DefaultJavaLibrary) targetGraphToActionGraph.apply(targetGraph).findBuildRuleByTarget(LIB);
+    first.getBuildOutputInitializer().setBuildOutput(
+        new JavaLibrary.Data(firstAbiKey, ImmutableSortedMap.<String, HashCode>of()));
+    assertEquals(firstAbiKey, first.getAbiKey());
+
+    // The build engine initializes every rule it builds, including the ones built before.
+    DefaultJavaLibrary second =
+        (DefaultJavaLibrary) targetGraphToActionGraph.apply(targetGraph).findBuildRuleByTarget(LIB);
+    assertSame(first, second);
+    second.getBuildOutputInitializer().setBuildOutput(
+        new JavaLibrary.Data(secondAbiKey, ImmutableSortedMap.<String, HashCode>of()));
+    assertEquals(secondAbiKey, second.getAbiKey());
+  }
+
+  @Test
+  public void testParallelTransformationMatchesSerialTransformation() {
+    BuildTarget top = BuildTargetFactory.newInstance("//:top");
+    TargetNode<?> depNode = JavaLibraryBuilder.createBuilder(DEP).build();
+    TargetNode<?> libNode = JavaLibraryBuilder.createBuilder(LIB).addDep(DEP).build();
+    TargetNode<?> otherNode = JavaLibraryBuilder.createBuilder(OTHER).addDep(DEP).build();
+    TargetNode<?> topNode = JavaLibraryBuilder.createBuilder(top)
+        .addDep(LIB)
+        .addDep(OTHER)
+        .build();
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(depNode, libNode, otherNode, topNode);
+
+    ActionGraph serial = new TargetGraphToActionGraph(
+        BuckEventBusFactory.newInstance(),
+        new RecordingTransformer())
+        .apply(targetGraph);
+    RecordingTransformer transformer = new RecordingTransformer();
+    ActionGraph parallel = new TargetGraphToActionGraph(
+        BuckEventBusFactory.newInstance(),
+        transformer,
+        /* numThreads */ 4)
+        .apply(targetGraph);
+
+    assertEquals(
+        ImmutableSortedSet.of(DEP, LIB, OTHER, top),
+        ImmutableSortedSet.copyOf(transformer.transformed));
+    assertEquals(Lists.newArrayList(serial.getNodes()), Lists.newArrayList(parallel.getNodes()));
+    for (BuildRule rule : parallel.getNodes()) {
+      assertEquals(
+          ImmutableSet.copyOf(
+              serial.getOutgoingNodesFor(serial.findBuildRuleByTarget(rule.getBuildTarget()))),
+          ImmutableSet.copyOf(parallel.getOutgoingNodesFor(rule)));
+      for (BuildRule dep : rule.getDeps()) {
+        assertSame(parallel.findBuildRuleByTarget(dep.getBuildTarget()), dep);
+      }
+    }
+  }
+
+  private static class RecordingTransformer implements TargetNodeToBuildRuleTransformer {
+    private final List<BuildTarget> transformed =
+        Collections.synchronizedList(Lists.<BuildTarget>newArrayList());
+
+    @Override
+    public <T> BuildRule transform(
+        TargetGraph targetGraph,
+        BuildRuleResolver ruleResolver,
+        TargetNode<T> targetNode) throws NoSuchBuildTargetException {
+      transformed.add(targetNode.getBuildTarget());
+      Description<T> description = targetNode.getDescription();
+      BuildRuleParams params = new BuildRuleParams(
+          targetNode.getBuildTarget(),
+          Suppliers.ofInstance(ruleResolver.getAllRules(targetNode.getDeclaredDeps())),
+          Suppliers.ofInstance(ruleResolver.getAllRules(targetNode.getExtraDeps())),
+          targetNode.getRuleFactoryParams().getProjectFilesystem(),
+          targetNode.getRuleFactoryParams().getRuleKeyBuilderFactory(),
+          description.getBuildRuleType(),
+          targetGraph);
+      return description.createBuildRule(params, ruleResolver, targetNode.getConstructorArg());
+    }
+  }
+}
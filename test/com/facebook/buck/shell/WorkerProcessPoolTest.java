@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class WorkerProcessPoolTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private WorkerProcessPool pool;
+  private ImmutableList<String> startupCommand;
+
+  @Before
+  public void setUp() throws IOException, URISyntaxException {
+    pool = new WorkerProcessPool(
+        /* maxWorkersPerKey */ 2,
+        /* requestTimeoutMillis */ 2000,
+        tmp.newFolder("logs").toPath());
+    startupCommand = ImmutableList.of(
+        "java",
+        "-classpath",
+        Joiner.on(File.pathSeparator).join(
+            getCodeSource(FakeWorker.class),
+            getCodeSource(WorkerProcessProtocol.class)),
+        FakeWorker.class.getName());
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  @Test
+  public void testWorkerIsReusedForEachRequest() throws Exception {
+    ProcessExecutor.Result first = run("first");
+    ProcessExecutor.Result second = run("second", "request");
+
+    assertEquals(1, pool.getNumberOfWorkersStarted());
+    assertEquals(1, first.getExitCode());
+    assertEquals("1: first", first.getStdout().get());
+    assertEquals(2, second.getExitCode());
+    assertEquals("2: second request", second.getStdout().get());
+    assertEquals("to stderr", second.getStderr().get());
+  }
+
+  @Test
+  public void testWorkerIsReplacedAfterItDies() throws Exception {
+    run("first");
+    try {
+      run("crash");
+      fail("The worker should have died.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    ProcessExecutor.Result result = run("after");
+
+    assertEquals(2, pool.getNumberOfWorkersStarted());
+    assertEquals("1: after", result.getStdout().get());
+  }
+
+  @Test
+  public void testWorkerIsReplacedWhenItDoesNotAnswerInTime() throws Exception {
+    run("first");
+    try {
+      run("hang");
+      fail("The worker should have been killed.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("did not answer within 2000 ms"));
+    }
+    ProcessExecutor.Result result = run("after");
+
+    assertEquals(2, pool.getNumberOfWorkersStarted());
+    assertEquals("1: after", result.getStdout().get());
+  }
+
+  @Test
+  public void testNoMoreWorkersAreStartedThanAllowed() throws Exception {
+    ExecutorService service = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<ProcessExecutor.Result>> results = Lists.newArrayList();
+      for (int i = 0; i < 6; i++) {
+        results.add(
+            service.submit(
+                new Callable<ProcessExecutor.Result>() {
+                  @Override
+                  public ProcessExecutor.Result call() throws Exception {
+                    return run("sleep");
+                  }
+                }));
+      }
+      for (Future<ProcessExecutor.Result> result : results) {
+        assertTrue(result.get().getStdout().get().endsWith(": sleep"));
+      }
+    } finally {
+      service.shutdownNow();
+    }
+
+    assertEquals(2, pool.getNumberOfWorkersStarted());
+  }
+
+  private ProcessExecutor.Result run(String... args) throws IOException, InterruptedException {
+    return pool.run(
+        startupCommand,
+        tmp.getRoot().toPath(),
+        ImmutableMap.copyOf(System.getenv()),
+        ImmutableList.copyOf(args));
+  }
+
+  private static String getCodeSource(Class<?> clazz) throws URISyntaxException {
+    return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+  }
+
+  /**
+   * Answers each request with the number of requests it has handled and the arguments it was sent,
+   * sleeps for a while when asked to, and dies when asked to crash. It never answers when asked to
+   * hang.
+   */
+  public static class FakeWorker {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+      WorkerProcessProtocol.writeHandshake(out);
+
+      int requests = 0;
+      while (true) {
+        List<String> request;
+        try {
+          request = WorkerProcessProtocol.readStrings(in);
+        } catch (EOFException e) {
+          return;
+        }
+        requests++;
+        if (request.contains("crash")) {
+          System.exit(1);
+        }
+        if (request.contains("hang")) {
+          Thread.sleep(Long.MAX_VALUE);
+        }
+        if (request.contains("sleep")) {
+          // Keep the worker busy long enough for the other requests to pile up.
+          Thread.sleep(500);
+        }
+        // Only the JRE and the protocol are on the classpath of the worker.
+        StringBuilder stdout = new StringBuilder().append(requests).append(":");
+        for (String arg : request) {
+          stdout.append(' ').append(arg);
+        }
+        out.writeInt(request.size());
+        WorkerProcessProtocol.writeString(out, stdout.toString());
+        WorkerProcessProtocol.writeString(out, "to stderr");
+        out.flush();
+      }
+    }
+  }
+}
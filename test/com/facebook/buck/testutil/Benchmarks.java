@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testutil;
+
+/**
+ * Shared by the {@code *Benchmark} classes that sit next to the tests. Those have a {@code main}
+ * method and are built by the {@code benchmarks} target of their package, which the tests do not
+ * depend on, so they are only ever run by hand.
+ */
+public class Benchmarks {
+
+  /** How a benchmark measures one run of the code under test. */
+  public interface Iteration {
+    /**
+     * @return what was measured, ready to be printed. It may span several lines.
+     */
+    String run() throws Exception;
+  }
+
+  private Benchmarks() {}
+
+  /**
+   * @return the command-line argument at {@code index} as an int, or {@code defaultValue} if there
+   *     are fewer arguments.
+   */
+  public static int getIntArgument(String[] args, int index, int defaultValue) {
+    return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+  }
+
+  /**
+   * Runs {@code iteration} {@code iterations} times and prints what it measured. The first half of
+   * the runs only serve to let the JIT compile the code under test, so they are not printed.
+   */
+  public static void runWithWarmUp(int iterations, Iteration iteration) throws Exception {
+    for (int i = 0; i < iterations; i++) {
+      String result = iteration.run();
+      if (i >= iterations / 2) {
+        System.out.println(result);
+      }
+    }
+  }
+
+  /**
+   * @return how many bytes of the heap are in use once as much garbage as possible has been
+   *     collected. A single {@link System#gc()} is only a hint, so it is repeated a few times.
+   */
+  public static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -18,13 +18,22 @@ package com.facebook.buck.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ProcessExecutorTest {
   @Test
@@ -71,4 +80,52 @@ public class ProcessExecutorTest {
     assertFalse(stdOut.isDirty());
     assertFalse(stdErr.isDirty());
   }
+
+  @Test
+  public void testOutputOfConcurrentProcessesIsKeptApart() throws Exception {
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    final ProcessExecutor executor = new ProcessExecutor(console);
+    ExecutorService service = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ProcessExecutor.Result>> results = Lists.newArrayList();
+      for (int i = 0; i < 32; i++) {
+        final String output = "process" + i;
+        results.add(
+            service.submit(
+                new Callable<ProcessExecutor.Result>() {
+                  @Override
+                  public ProcessExecutor.Result call() throws Exception {
+                    return executor.launchAndExecute(
+                        ImmutableProcessExecutorParams.builder()
+                            .setCommand(
+                                ImmutableList.of(
+                                    "sh", "-c", "echo " + output + "; echo " + output + " >&2"))
+                            .build());
+                  }
+                }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        ProcessExecutor.Result result = results.get(i).get();
+        assertEquals(0, result.getExitCode());
+        assertEquals("process" + i + "\n", result.getStdout().get());
+        assertEquals("process" + i + "\n", result.getStderr().get());
+      }
+    } finally {
+      service.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testProcessIsDestroyedWhenItTimesOut() throws IOException, InterruptedException {
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console);
+    ProcessExecutor.Result result = executor.execute(
+        Runtime.getRuntime().exec("sleep 60"),
+        ImmutableSet.<ProcessExecutor.Option>of(),
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.of(100L));
+    assertTrue(result.isTimedOut());
+  }
 }
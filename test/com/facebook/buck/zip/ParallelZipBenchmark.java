@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP;
+
+import com.facebook.buck.testutil.Benchmarks;
+import com.facebook.buck.timing.DefaultClock;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how long it takes to write a jar of many class files with
+ * {@link AppendingZipOutputStream} and with {@link ParallelZipOutputStream}. The jar goes to a null
+ * stream, so the disk does not get in the way of the compression. Its entries are variations on
+ * the sample class file of the tests, 10,000 of them in each of 10 runs by default:
+ * <pre>
+ * java -cp ... com.facebook.buck.zip.ParallelZipBenchmark [entries] [iterations]
+ * </pre>
+ */
+public class ParallelZipBenchmark {
+
+  private ParallelZipBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    final int numEntries = Benchmarks.getIntArgument(args, 0, 10000);
+    int iterations = Benchmarks.getIntArgument(args, 1, 10);
+
+    final byte[] classFile = Resources.toByteArray(
+        Resources.getResource(ParallelZipBenchmark.class, "sample-bytes.properties"));
+    System.out.printf(
+        "%d logical cores, %d entries of about %d bytes.%n",
+        Runtime.getRuntime().availableProcessors(),
+        numEntries,
+        classFile.length);
+
+    Benchmarks.runWithWarmUp(
+        iterations,
+        new Benchmarks.Iteration() {
+          @Override
+          public String run() throws IOException {
+            long sequentialMillis = time(classFile, numEntries, /* isParallel */ false);
+            long parallelMillis = time(classFile, numEntries, /* isParallel */ true);
+            return String.format(
+                "Sequential: %d ms, parallel: %d ms.",
+                sequentialMillis,
+                parallelMillis);
+          }
+        });
+  }
+
+  private static long time(byte[] classFile, int numEntries, boolean isParallel)
+      throws IOException {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    // The parallel stream is created directly so that it is measured even on a single core.
+    try (CustomZipOutputStream out = isParallel ?
+        new ParallelZipOutputStream(
+            new DefaultClock(),
+            ByteStreams.nullOutputStream(),
+            /* throwExceptionsOnDuplicate */ false) :
+        ZipOutputStreams.newOutputStream(ByteStreams.nullOutputStream(), APPEND_TO_ZIP)) {
+      for (int i = 0; i < numEntries; i++) {
+        CustomZipEntry entry = new CustomZipEntry(
+            String.format("com/example/package%d/Class%d.class", i / 100, i));
+        entry.setTime(1234567890000L);
+        out.putNextEntry(entry);
+        // Vary the contents so that every entry has to be compressed on its own merits.
+        byte[] contents = Arrays.copyOf(classFile, classFile.length + i % 512);
+        contents[i % classFile.length] ^= (byte) i;
+        out.write(contents);
+        out.closeEntry();
+      }
+    }
+    return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+  }
+}
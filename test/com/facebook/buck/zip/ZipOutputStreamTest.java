@@ -33,6 +33,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.testutil.Zip;
+import com.facebook.buck.timing.DefaultClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
@@ -45,6 +46,7 @@ import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -488,4 +490,87 @@ public class ZipOutputStreamTest {
     }
   }
 
+  @Test
+  public void parallelStreamShouldWriteTheSameBytesAsAppendingStream() throws IOException {
+    File reference = File.createTempFile("reference", ".zip");
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] macbeth = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+    byte[] cheese = "cheese".getBytes(UTF_8);
+
+    try (
+        CustomZipOutputStream out = newParallelOutputStream(/* throwExceptionsOnDuplicate */ false);
+        CustomZipOutputStream ref = ZipOutputStreams.newOutputStream(reference, APPEND_TO_ZIP)
+    ) {
+      for (CustomZipOutputStream stream : ImmutableList.of(out, ref)) {
+        long time = 1234567890000L;
+        for (int i = 0; i < 20; i++) {
+          CustomZipEntry directory = new CustomZipEntry("dir" + i + "/");
+          directory.setTime(time);
+          stream.putNextEntry(directory);
+          stream.closeEntry();
+
+          CustomZipEntry deflated = new CustomZipEntry("dir" + i + "/macbeth.txt");
+          deflated.setTime(time);
+          deflated.setCompressionLevel(i % 2 == 0 ? BEST_COMPRESSION : Deflater.BEST_SPEED);
+          stream.putNextEntry(deflated);
+          // Write in several chunks, as callers copying from other streams do.
+          stream.write(macbeth, 0, i * 31 % macbeth.length);
+          stream.write(macbeth, i * 31 % macbeth.length, macbeth.length - i * 31 % macbeth.length);
+          stream.closeEntry();
+
+          CustomZipEntry stored = new CustomZipEntry("dir" + i + "/cheese.txt");
+          stored.setTime(time);
+          stored.setCompressionLevel(NO_COMPRESSION);
+          stored.setSize(cheese.length);
+          stored.setCompressedSize(cheese.length);
+          stored.setCrc(Hashing.crc32().hashBytes(cheese).padToLong());
+          stream.putNextEntry(stored);
+          stream.write(cheese);
+          stream.closeEntry();
+        }
+        // Leave the last entry open for close() to finish.
+        CustomZipEntry last = new CustomZipEntry("dir0/macbeth.txt");
+        last.setTime(time);
+        stream.putNextEntry(last);
+        stream.write(macbeth);
+      }
+    }
+
+    assertArrayEquals(Files.readAllBytes(reference.toPath()), Files.readAllBytes(output.toPath()));
+    try (ZipInputStream in = new ZipInputStream(new FileInputStream(output))) {
+      int count = 0;
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        if (entry.getName().endsWith("macbeth.txt")) {
+          assertArrayEquals(macbeth, ByteStreams.toByteArray(in));
+        }
+        count++;
+      }
+      assertEquals(61, count);
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void writingTheSameFileMoreThanOnceIsAnErrorWhenCompressingInParallel()
+      throws IOException {
+    try (
+        CustomZipOutputStream out = newParallelOutputStream(/* throwExceptionsOnDuplicate */ true)
+    ) {
+      ZipEntry entry = new ZipEntry("example.txt");
+      out.putNextEntry(entry);
+      out.putNextEntry(entry);
+    }
+  }
+
+  /**
+   * Bypasses {@link ZipOutputStreams}, which only compresses in parallel when there is more than
+   * one core, so that the parallel stream is tested on every machine.
+   */
+  private ParallelZipOutputStream newParallelOutputStream(boolean throwExceptionsOnDuplicate)
+      throws IOException {
+    return new ParallelZipOutputStream(
+        new DefaultClock(),
+        new BufferedOutputStream(new FileOutputStream(output)),
+        throwExceptionsOnDuplicate);
+  }
 }